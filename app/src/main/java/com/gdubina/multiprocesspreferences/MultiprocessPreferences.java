@@ -2,17 +2,42 @@ package com.gdubina.multiprocesspreferences;
 
 import android.annotation.SuppressLint;
 import android.content.*;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import zemris.fer.hr.iothingy.R;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * All credits goes to: <a href = "https://github.com/hamsterksu">hamsterksu</a>. Source code: <a
  * href="https://github.com/hamsterksu/MultiprocessPreferences">here</a>
+ * <p>
+ * Values which are read through {@link MultiprocessSharedPreferences} are cached in every process. Provider calls
+ * {@link ContentResolver#notifyChange(Uri, ContentObserver)} for every changed key and cache of every process is
+ * invalidated by its {@link ContentObserver}. Because notifications are asynchronous, other processes can read old
+ * value for a short time after it is changed. Many string values can be read with one query by {@link
+ * MultiprocessSharedPreferences#getStrings(Collection)} and values of different types by {@link
+ * MultiprocessSharedPreferences#getValues(Map)}.
+ * <p>
+ * Provider doesn't write every insert to disk. Inserts from all processes are merged in memory and written with one
+ * {@link SharedPreferences.Editor#apply()} {@link #WRITE_DELAY} milliseconds after first of them, so values which are
+ * changed many times per second (e.g. sensor values) don't rewrite preference file on every change. Queries read
+ * merged values which aren't written yet, so every process sees change as soon as insert returns. If process of
+ * provider is killed, changes from last {@link #WRITE_DELAY} milliseconds are lost.
  */
 public class MultiprocessPreferences extends ContentProvider {
 
@@ -21,6 +46,7 @@ public class MultiprocessPreferences extends ContentProvider {
 
     private static final String TYPE = "type";
     private static final String KEY = "key";
+    private static final String VALUE = "value";
 
     private static final String INT_TYPE = "integer";
     private static final String LONG_TYPE = "long";
@@ -29,21 +55,49 @@ public class MultiprocessPreferences extends ContentProvider {
     private static final String STRING_TYPE = "string";
 
     private static final int MATCH_DATA = 0x010000;
+    private static final int MATCH_BULK = 0x020000;
+    private static final int MATCH_MIXED = 0x030000;
+
+    /** Time in milliseconds between first insert which isn't written and writing of all such inserts. */
+    private static final long WRITE_DELAY = 500;
+    /** Value of removed key which isn't written yet. */
+    private static final Object REMOVED = new Object();
 
     private static UriMatcher matcher;
 
+    /** Type names by their index in cache entries. */
+    private static final String[] TYPES = {STRING_TYPE, BOOLEAN_TYPE, LONG_TYPE, INT_TYPE, FLOAT_TYPE};
+    /** Cached value of key which doesn't exist. */
+    private static final Object MISSING = new Object();
+    /** Cached values of this process, for every key there is array of values indexed by type. */
+    private static final Map<String, Object[]> cache = new ConcurrentHashMap<>();
+    /** Counter of invalidations, value which is read before invalidation mustn't be cached after it. */
+    private static final AtomicInteger cacheGeneration = new AtomicInteger();
+    /** Observer which invalidates cache of this process. */
+    private static ContentObserver cacheObserver;
+
     private static void init(Context context) {
 
         PREFFERENCE_AUTHORITY = context.getString(R.string.multiprocess_preferences_authority);
 
         matcher = new UriMatcher(UriMatcher.NO_MATCH);
         matcher.addURI(PREFFERENCE_AUTHORITY, "*/*", MATCH_DATA);
+        matcher.addURI(PREFFERENCE_AUTHORITY, "*", MATCH_BULK);
+        matcher.addURI(PREFFERENCE_AUTHORITY, null, MATCH_MIXED);
 
         BASE_URI = Uri.parse("content://" + PREFFERENCE_AUTHORITY);
     }
 
+    /** Values which are inserted but not written yet, removed keys have value {@link #REMOVED}. */
+    private final Map<String, Object> pendingWrites = new LinkedHashMap<>();
+    /** Flag which tells if write of pending values is scheduled, guarded by {@link #pendingWrites}. */
+    private boolean writeScheduled;
+    /** Executor for delayed writes. */
+    private ScheduledExecutorService writer;
+
     @Override
     public boolean onCreate() {
+        writer = Executors.newSingleThreadScheduledExecutor();
         if (matcher == null) {
             init(getContext());
         }
@@ -59,8 +113,11 @@ public class MultiprocessPreferences extends ContentProvider {
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         switch (matcher.match(uri)) {
             case MATCH_DATA:
-                PreferenceManager.getDefaultSharedPreferences(getContext().getApplicationContext())
-                        .edit().clear().commit();
+                synchronized (pendingWrites) {
+                    pendingWrites.clear();
+                    getPreferences().edit().clear().commit();
+                }
+                getContext().getContentResolver().notifyChange(BASE_URI, null);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported uri " + uri);
@@ -74,28 +131,31 @@ public class MultiprocessPreferences extends ContentProvider {
     public Uri insert(Uri uri, ContentValues values) {
         switch (matcher.match(uri)) {
             case MATCH_DATA:
-                SharedPreferences.Editor editor =
-                        PreferenceManager.getDefaultSharedPreferences(getContext().getApplicationContext()).edit();
                 for (Entry<String, Object> entry : values.valueSet()) {
                     final Object value = entry.getValue();
-                    final String key = entry.getKey();
-                    if (value == null) {
-                        editor.remove(key);
-                    } else if (value instanceof String) {
-                        editor.putString(key, (String) value);
-                    } else if (value instanceof Boolean) {
-                        editor.putBoolean(key, (Boolean) value);
-                    } else if (value instanceof Long) {
-                        editor.putLong(key, (Long) value);
-                    } else if (value instanceof Integer) {
-                        editor.putInt(key, (Integer) value);
-                    } else if (value instanceof Float) {
-                        editor.putFloat(key, (Float) value);
-                    } else {
+                    if (value != null && !(value instanceof String) && !(value instanceof Boolean)
+                            && !(value instanceof Long) && !(value instanceof Integer) && !(value instanceof Float)) {
                         throw new IllegalArgumentException("Unsupported type " + uri);
                     }
                 }
-                editor.apply();
+                synchronized (pendingWrites) {
+                    for (Entry<String, Object> entry : values.valueSet()) {
+                        final Object value = entry.getValue();
+                        pendingWrites.put(entry.getKey(), value == null ? REMOVED : value);
+                    }
+                    if (!writeScheduled) {
+                        writeScheduled = true;
+                        writer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                writePending();
+                            }
+                        }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+                    }
+                }
+                for (String key : values.keySet()) {
+                    getContext().getContentResolver().notifyChange(getKeyUri(key), null);
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported uri " + uri);
@@ -107,32 +167,42 @@ public class MultiprocessPreferences extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         MatrixCursor cursor = null;
+        SharedPreferences sharedPreferences = getPreferences();
+        Object value;
         switch (matcher.match(uri)) {
             case MATCH_DATA:
                 final String key = uri.getPathSegments().get(0);
                 final String type = uri.getPathSegments().get(1);
                 cursor = new MatrixCursor(new String[]{key});
-                SharedPreferences sharedPreferences =
-                        PreferenceManager.getDefaultSharedPreferences(getContext().getApplicationContext());
-                if (!sharedPreferences.contains(key)) {
-                    return cursor;
+                value = readValue(sharedPreferences, key, type);
+                if (value != MISSING) {
+                    cursor.newRow().add(value);
                 }
-                MatrixCursor.RowBuilder rowBuilder = cursor.newRow();
-                Object object = null;
-                if (STRING_TYPE.equals(type)) {
-                    object = sharedPreferences.getString(key, null);
-                } else if (BOOLEAN_TYPE.equals(type)) {
-                    object = sharedPreferences.getBoolean(key, false) ? 1 : 0;
-                } else if (LONG_TYPE.equals(type)) {
-                    object = sharedPreferences.getLong(key, 0l);
-                } else if (INT_TYPE.equals(type)) {
-                    object = sharedPreferences.getInt(key, 0);
-                } else if (FLOAT_TYPE.equals(type)) {
-                    object = sharedPreferences.getFloat(key, 0f);
-                } else {
-                    throw new IllegalArgumentException("Unsupported type " + uri);
+                break;
+            case MATCH_BULK:
+                //one row for every key from selection arguments which exists
+                final String bulkType = uri.getPathSegments().get(0);
+                cursor = new MatrixCursor(new String[]{KEY, VALUE});
+                if (selectionArgs != null) {
+                    for (String bulkKey : selectionArgs) {
+                        value = readValue(sharedPreferences, bulkKey, bulkType);
+                        if (value != MISSING) {
+                            cursor.newRow().add(bulkKey).add(value);
+                        }
+                    }
+                }
+                break;
+            case MATCH_MIXED:
+                //selection arguments are pairs of key and type, one row for every key which exists
+                cursor = new MatrixCursor(new String[]{KEY, TYPE, VALUE});
+                if (selectionArgs != null) {
+                    for (int i = 0; i + 1 < selectionArgs.length; i += 2) {
+                        value = readValue(sharedPreferences, selectionArgs[i], selectionArgs[i + 1]);
+                        if (value != MISSING) {
+                            cursor.newRow().add(selectionArgs[i]).add(selectionArgs[i + 1]).add(value);
+                        }
+                    }
                 }
-                rowBuilder.add(object);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported uri " + uri);
@@ -140,69 +210,190 @@ public class MultiprocessPreferences extends ContentProvider {
         return cursor;
     }
 
+    private SharedPreferences getPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(getContext().getApplicationContext());
+    }
+
+    /**
+     * Method for writing all pending values with one editor.
+     */
+    private void writePending() {
+        synchronized (pendingWrites) {
+            writeScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            SharedPreferences.Editor editor = getPreferences().edit();
+            for (Entry<String, Object> entry : pendingWrites.entrySet()) {
+                final Object value = entry.getValue();
+                final String key = entry.getKey();
+                if (value == REMOVED) {
+                    editor.remove(key);
+                } else if (value instanceof String) {
+                    editor.putString(key, (String) value);
+                } else if (value instanceof Boolean) {
+                    editor.putBoolean(key, (Boolean) value);
+                } else if (value instanceof Long) {
+                    editor.putLong(key, (Long) value);
+                } else if (value instanceof Integer) {
+                    editor.putInt(key, (Integer) value);
+                } else {
+                    editor.putFloat(key, (Float) value);
+                }
+            }
+            //values are in preferences memory after apply, so they can be removed from pending values
+            editor.apply();
+            pendingWrites.clear();
+        }
+    }
+
+    /**
+     * Method for reading value which isn't written yet or value from preferences.
+     *
+     * @return value in cursor form or {@link #MISSING} if key doesn't exist
+     */
+    private Object readValue(SharedPreferences sharedPreferences, String key, String type) {
+        synchronized (pendingWrites) {
+            Object pending = pendingWrites.get(key);
+            if (pending == REMOVED) {
+                return MISSING;
+            } else if (pending != null) {
+                return pending instanceof Boolean ? ((Boolean) pending ? 1 : 0) : pending;
+            }
+        }
+        if (!sharedPreferences.contains(key)) {
+            return MISSING;
+        }
+        if (STRING_TYPE.equals(type)) {
+            return sharedPreferences.getString(key, null);
+        } else if (BOOLEAN_TYPE.equals(type)) {
+            return sharedPreferences.getBoolean(key, false) ? 1 : 0;
+        } else if (LONG_TYPE.equals(type)) {
+            return sharedPreferences.getLong(key, 0l);
+        } else if (INT_TYPE.equals(type)) {
+            return sharedPreferences.getInt(key, 0);
+        } else if (FLOAT_TYPE.equals(type)) {
+            return sharedPreferences.getFloat(key, 0f);
+        } else {
+            throw new IllegalArgumentException("Unsupported type " + type);
+        }
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         throw new UnsupportedOperationException();
     }
 
-    private static String getStringValue(Cursor cursor, String def) {
+    /**
+     * Method for reading value from cursor with one row.
+     *
+     * @param cursor
+     *         cursor, can be null
+     * @param type
+     *         type of value
+     * @return value or {@link #MISSING} if there is no value
+     */
+    private static Object getCursorValue(Cursor cursor, String type) {
         if (cursor == null) {
-            return def;
+            return MISSING;
         }
-        String value = def;
-        if (cursor.moveToFirst()) {
-            value = cursor.getString(0);
+        try {
+            return cursor.moveToFirst() ? getCursorValue(cursor, 0, type) : MISSING;
+        } finally {
+            cursor.close();
         }
-        cursor.close();
-        return value;
     }
 
-    private static boolean getBooleanValue(Cursor cursor, boolean def) {
-        if (cursor == null) {
-            return def;
-        }
-        boolean value = def;
-        if (cursor.moveToFirst()) {
-            value = cursor.getInt(0) > 0;
+    private static Object getCursorValue(Cursor cursor, int column, String type) {
+        if (STRING_TYPE.equals(type)) {
+            return cursor.getString(column);
+        } else if (BOOLEAN_TYPE.equals(type)) {
+            return cursor.getInt(column) > 0;
+        } else if (LONG_TYPE.equals(type)) {
+            return cursor.getLong(column);
+        } else if (INT_TYPE.equals(type)) {
+            return cursor.getInt(column);
+        } else {
+            return cursor.getFloat(column);
         }
-        cursor.close();
-        return value;
     }
 
-    private static int getIntValue(Cursor cursor, int def) {
-        if (cursor == null) {
-            return def;
-        }
-        int value = def;
-        if (cursor.moveToFirst()) {
-            value = cursor.getInt(0);
-        }
-        cursor.close();
-        return value;
+    private static String typeOf(Class<?> valueClass) {
+        if (valueClass == String.class) {
+            return STRING_TYPE;
+        } else if (valueClass == Boolean.class) {
+            return BOOLEAN_TYPE;
+        } else if (valueClass == Long.class) {
+            return LONG_TYPE;
+        } else if (valueClass == Integer.class) {
+            return INT_TYPE;
+        } else if (valueClass == Float.class) {
+            return FLOAT_TYPE;
+        }
+        throw new IllegalArgumentException("Unsupported type " + valueClass);
     }
 
-    private static long getLongValue(Cursor cursor, long def) {
-        if (cursor == null) {
-            return def;
+    private static int typeIndex(String type) {
+        for (int i = 0; i < TYPES.length; ++i) {
+            if (TYPES[i].equals(type)) {
+                return i;
+            }
         }
-        long value = def;
-        if (cursor.moveToFirst()) {
-            value = cursor.getLong(0);
+        throw new IllegalArgumentException("Unsupported type " + type);
+    }
+
+    private static Object getCached(String key, String type) {
+        Object[] values = cache.get(key);
+        return values == null ? null : values[typeIndex(type)];
+    }
+
+    /**
+     * Method for caching value which is read from provider. Value isn't cached if some key was invalidated after it
+     * was read, because it can be older than invalidation.
+     */
+    private static void putCached(String key, String type, Object value, int generation) {
+        if (cacheGeneration.get() != generation) {
+            return;
+        }
+        Object[] values = cache.get(key);
+        Object[] updated = values == null ? new Object[TYPES.length] : values.clone();
+        updated[typeIndex(type)] = value;
+        cache.put(key, updated);
+    }
+
+    private static void invalidate(String key) {
+        cacheGeneration.incrementAndGet();
+        if (key == null) {
+            cache.clear();
+        } else {
+            cache.remove(key);
         }
-        cursor.close();
-        return value;
     }
 
-    private static float getFloatValue(Cursor cursor, float def) {
-        if (cursor == null) {
-            return def;
+    /**
+     * Method for registering observer which invalidates cache of this process when values are changed.
+     */
+    private static synchronized void registerCacheObserver(Context context) {
+        if (cacheObserver != null) {
+            return;
         }
-        float value = def;
-        if (cursor.moveToFirst()) {
-            value = cursor.getFloat(0);
+        if (BASE_URI == null) {
+            init(context);
         }
-        cursor.close();
-        return value;
+        cacheObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                //older platforms don't tell which uri is changed
+                invalidate(null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                List<String> segments = uri == null ? null : uri.getPathSegments();
+                invalidate(segments == null || segments.isEmpty() ? null : segments.get(0));
+            }
+        };
+        context.getApplicationContext().getContentResolver().registerContentObserver(BASE_URI, true, cacheObserver);
     }
 
     public static Editor edit(Context context) {
@@ -225,6 +416,10 @@ public class MultiprocessPreferences extends ContentProvider {
 
         public void apply() {
             context.getContentResolver().insert(getContentUri(context, KEY, TYPE), values);
+            //this process sees its own changes without waiting for notification
+            for (String key : values.keySet()) {
+                invalidate(key);
+            }
         }
 
         public void commit() {
@@ -265,6 +460,7 @@ public class MultiprocessPreferences extends ContentProvider {
          */
         public void clear() {
             context.getContentResolver().delete(getContentUri(context, KEY, TYPE), null, null);
+            invalidate(null);
         }
     }
 
@@ -281,37 +477,164 @@ public class MultiprocessPreferences extends ContentProvider {
         }
 
         public String getString(String key, String def) {
-            Cursor cursor =
-                    context.getContentResolver().query(getContentUri(context, key, STRING_TYPE), null, null, null,
-                            null);
-            return getStringValue(cursor, def);
+            Object value = get(key, STRING_TYPE);
+            return value == MISSING ? def : (String) value;
+        }
+
+        /**
+         * Method for getting many string values with one query. Values which are already cached are not queried.
+         *
+         * @param keys
+         *         keys
+         * @return map with values of keys which exist
+         */
+        public Map<String, String> getStrings(Collection<String> keys) {
+            Map<String, String> result = new HashMap<>();
+            List<String> missing = new ArrayList<>();
+            for (String key : keys) {
+                Object value = getCached(key, STRING_TYPE);
+                if (value == null) {
+                    missing.add(key);
+                } else if (value != MISSING) {
+                    result.put(key, (String) value);
+                }
+            }
+            if (missing.isEmpty()) {
+                return result;
+            }
+            registerCacheObserver(context);
+            int generation = cacheGeneration.get();
+            Cursor cursor = context.getContentResolver().query(getBulkUri(context, STRING_TYPE), null, null,
+                    missing.toArray(new String[missing.size()]), null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        String key = cursor.getString(0);
+                        String value = cursor.getString(1);
+                        result.put(key, value);
+                        putCached(key, STRING_TYPE, value, generation);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                for (String key : missing) {
+                    if (!result.containsKey(key)) {
+                        putCached(key, STRING_TYPE, MISSING, generation);
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Method for getting values of different types with one query. Types are given as {@link String}, {@link
+         * Boolean}, {@link Long}, {@link Integer} or {@link Float} class. Values which are already cached are not
+         * queried.
+         *
+         * @param keys
+         *         map of keys and types of their values
+         * @return map with values of keys which exist
+         */
+        public Map<String, Object> getValues(Map<String, Class<?>> keys) {
+            Map<String, Object> result = new HashMap<>();
+            List<String> missing = new ArrayList<>();
+            for (Entry<String, Class<?>> entry : keys.entrySet()) {
+                String type = typeOf(entry.getValue());
+                Object value = getCached(entry.getKey(), type);
+                if (value == null) {
+                    missing.add(entry.getKey());
+                    missing.add(type);
+                } else if (value != MISSING) {
+                    result.put(entry.getKey(), value);
+                }
+            }
+            if (missing.isEmpty()) {
+                return result;
+            }
+            registerCacheObserver(context);
+            int generation = cacheGeneration.get();
+            Cursor cursor = context.getContentResolver().query(getMixedUri(context), null, null,
+                    missing.toArray(new String[missing.size()]), null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        String key = cursor.getString(0);
+                        String type = cursor.getString(1);
+                        Object value = getCursorValue(cursor, 2, type);
+                        result.put(key, value);
+                        putCached(key, type, value, generation);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                for (int i = 0; i < missing.size(); i += 2) {
+                    if (!result.containsKey(missing.get(i))) {
+                        putCached(missing.get(i), missing.get(i + 1), MISSING, generation);
+                    }
+                }
+            }
+            return result;
         }
 
         public long getLong(String key, long def) {
-            Cursor cursor =
-                    context.getContentResolver().query(getContentUri(context, key, LONG_TYPE), null, null, null, null);
-            return getLongValue(cursor, def);
+            Object value = get(key, LONG_TYPE);
+            return value == MISSING ? def : (Long) value;
         }
 
         public float getFloat(String key, float def) {
-            Cursor cursor =
-                    context.getContentResolver().query(getContentUri(context, key, FLOAT_TYPE), null, null, null, null);
-            return getFloatValue(cursor, def);
+            Object value = get(key, FLOAT_TYPE);
+            return value == MISSING ? def : (Float) value;
         }
 
         public boolean getBoolean(String key, boolean def) {
-            Cursor cursor =
-                    context.getContentResolver().query(getContentUri(context, key, BOOLEAN_TYPE), null, null, null,
-                            null);
-            return getBooleanValue(cursor, def);
+            Object value = get(key, BOOLEAN_TYPE);
+            return value == MISSING ? def : (Boolean) value;
         }
 
         public int getInt(String key, int def) {
-            Cursor cursor =
-                    context.getContentResolver().query(getContentUri(context, key, INT_TYPE), null, null, null, null);
-            return getIntValue(cursor, def);
+            Object value = get(key, INT_TYPE);
+            return value == MISSING ? def : (Integer) value;
+        }
+
+        /**
+         * Method for getting value from cache or from provider if it isn't cached.
+         *
+         * @return value or {@link #MISSING}
+         */
+        private Object get(String key, String type) {
+            Object value = getCached(key, type);
+            if (value != null) {
+                return value;
+            }
+            registerCacheObserver(context);
+            int generation = cacheGeneration.get();
+            Cursor cursor = context.getContentResolver().query(getContentUri(context, key, type), null, null, null,
+                    null);
+            value = getCursorValue(cursor, type);
+            if (cursor != null) {
+                putCached(key, type, value, generation);
+            }
+            return value;
+        }
+
+    }
+
+    private static Uri getKeyUri(String key) {
+        return BASE_URI.buildUpon().appendPath(key).build();
+    }
+
+    private static Uri getMixedUri(Context context) {
+        if (BASE_URI == null) {
+            init(context);
         }
+        return BASE_URI;
+    }
 
+    private static Uri getBulkUri(Context context, String type) {
+        if (BASE_URI == null) {
+            init(context);
+        }
+        return BASE_URI.buildUpon().appendPath(type).build();
     }
 
     private static Uri getContentUri(Context context, String key, String type) {
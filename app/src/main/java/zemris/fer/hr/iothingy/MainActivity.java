@@ -11,14 +11,16 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.*;
-import com.gdubina.multiprocesspreferences.MultiprocessPreferences;
 import com.guna.libmultispinner.MultiSelectionSpinner;
 import zemris.fer.hr.iothingy.communication.CommunicationTask;
 import zemris.fer.hr.iothingy.communication.MessageReplyService;
+import zemris.fer.hr.iothingy.communication.TelemetryScheduler;
+import zemris.fer.hr.iothingy.communication.TelemetryService;
 import zemris.fer.hr.iothingy.gps.GPSLocator;
 import zemris.fer.hr.iothingy.sensors.DeviceSensors;
 import zemris.fer.hr.iothingy.utils.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,7 +29,8 @@ import java.util.regex.Pattern;
 /**
  * Activity for displaying main screen. It provides user options to send new message or to see received messages. When
  * application is loaded, it needs to populate {@link com.guna.libmultispinner.MultiSelectionSpinner} with available
- * sensors on device. Also it provides to start service for automatic reply to received messages.
+ * sensors on device. Also it provides to start service for automatic reply to received messages and service which
+ * periodically sends selected sensors to destination. Telemetry service keeps running when activity is paused.
  */
 public class MainActivity extends AppCompatActivity implements MultiSelectionSpinner.OnMultipleItemsSelectedListener,
         View.OnClickListener {
@@ -38,8 +41,8 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
     private TextView tvSensorData;
     /** EditText for device ID and destination information. */
     private EditText etDeviceId, etDestination;
-    /** List of sensors and its data. */
-    private Map<String, String> sensorDataMap = new HashMap<>();
+    /** List of sensors and its data, sensor without stored data has null reading. */
+    private Map<String, SensorReading> sensorDataMap = new HashMap<>();
     /** Multi selection spinner for sensors. */
     private MultiSelectionSpinner spDeviceSensors;
     /** GPS, sensor, auto-reply service intent. */
@@ -51,6 +54,8 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        StoringUtils.applySharedSecret(getApplicationContext());
+        StoringUtils.applyMessageIdFile(getApplicationContext());
         initializeElements();
         initializeServices();
         if (savedInstanceState == null) {
@@ -98,7 +103,7 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
             public void onTabChanged(String tabId) {
                 if (!Constants.EMPTY_TAB_TAG.equals(tabId)) {
                     String text = MainActivity.this.getString(R.string.name_sensor) + ": " + tabId + "\n" +
-                            sensorDataMap.get(tabId);
+                            formatReading(sensorDataMap.get(tabId));
                     tvSensorData.setText(text);
                 }
             }
@@ -122,12 +127,15 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
         sensorDataMap.clear();
         tvSensorData.setText(R.string.text_sensor_data_default);
         if (strings != null && strings.size() > 0) {
-            for (int i = 0; i < strings.size(); ++i) {
-                String name = strings.get(i).toUpperCase();
+            List<String> names = new ArrayList<>();
+            for (String string : strings) {
+                names.add(string.toUpperCase());
+            }
+            Map<String, SensorReading> readings = StoringUtils.getLatestReadings(getApplicationContext(), names);
+            for (int i = 0; i < names.size(); ++i) {
+                String name = names.get(i);
                 //populate map with data
-                String value = MultiprocessPreferences.getDefaultSharedPreferences(
-                        getApplicationContext()).getString(name, Constants.DEFAULT_SENSOR_DATA);
-                sensorDataMap.put(name, value);
+                sensorDataMap.put(name, readings.get(name));
                 //add new tabHost
                 TabHost.TabSpec spec = tabHost.newTabSpec(name);
                 spec.setContent(new EmptyTabFactory(MainActivity.this));
@@ -169,13 +177,18 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
         String encryption = ((Spinner) findViewById(R.id.spEncryption)).getSelectedItem().toString();
         String sendMode = ((Spinner) findViewById(R.id.spSendMode)).getSelectedItem().toString();
         String destinationFormat = etDestination.getText().toString();
-        String jsonData = MyUtils.createJSONData(sensorDataMap);
+        String deltaDestination = deviceId + "@" + destinationFormat;
+        String jsonData = StoringUtils.isDeltaReporting(this)
+                ? DeltaReporter.getInstance().createJSONData(deltaDestination, sensorDataMap)
+                : SensorJson.createJSONData(sensorDataMap);
         //try to send message
         try {
             Message msg = new Message(null, deviceId, jsonData, null, sendMode, encryption, destinationFormat);
             new CommunicationTask(getApplicationContext(), msg, true);
             StoringUtils.addDestinationAddress(getApplicationContext(), destinationFormat);
         } catch (Exception e) {
+            //message isn't sent, so next one must contain all sensors
+            DeltaReporter.getInstance().reset(deltaDestination);
             MyDialogs.makeRedTextToast(this, getResources().getString(R.string.error));
         }
     }
@@ -194,8 +207,11 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
     @Override
     public void onPause() {
         super.onPause();
-        stopService(gpsService);
-        stopService(sensorService);
+        //telemetry needs sensor values while application is in background
+        if (TelemetryService.getScheduler() == null) {
+            stopService(gpsService);
+            stopService(sensorService);
+        }
         stopService(autoReplyService);
     }
 
@@ -240,6 +256,7 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
             menu.findItem(R.id.menuAutoReply).setIcon(ContextCompat.getDrawable(getApplicationContext(),
                     R.drawable.icon_auto_reply_on));
         }
+        menu.findItem(R.id.menuTelemetry).setChecked(TelemetryService.getScheduler() != null);
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -248,6 +265,8 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
         int id = item.getItemId();
         if (id == R.id.menuAutoReply) {
             activateAutoReply(item);
+        } else if (id == R.id.menuTelemetry) {
+            toggleTelemetry(item);
         } else if (id == R.id.menuShowMessages) {
             if(flagAutoReply) {
                Toast.makeText(MainActivity.this, R.string.errorAutoReplyOnShowMsg, Toast.LENGTH_LONG).show();
@@ -289,6 +308,37 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
         }
     }
 
+    /**
+     * Method for handling telemetry menu item press. Telemetry is started with selected sensors, destination,
+     * encryption and send mode, so they need to be valid.
+     *
+     * @param item
+     *         menu item of telemetry
+     */
+    private void toggleTelemetry(MenuItem item) {
+        Intent telemetryService = new Intent(this, TelemetryService.class);
+        TelemetryScheduler scheduler = TelemetryService.getScheduler();
+        if (scheduler != null) {
+            String report = scheduler.report();
+            stopService(telemetryService);
+            item.setChecked(false);
+            Toast.makeText(getApplicationContext(), getString(R.string.text_telemetry_off, report), Toast.LENGTH_LONG)
+                    .show();
+        } else if (checkAllParameters()) {
+            String destination = etDestination.getText().toString();
+            startService(TelemetryService.createIntent(this, etDeviceId.getText().toString(),
+                    new ArrayList<>(sensorDataMap.keySet()), destination,
+                    ((Spinner) findViewById(R.id.spEncryption)).getSelectedItem().toString(),
+                    ((Spinner) findViewById(R.id.spSendMode)).getSelectedItem().toString()));
+            StoringUtils.addDestinationAddress(getApplicationContext(), destination);
+            item.setChecked(true);
+            long period = TelemetryScheduler.alignPeriod(StoringUtils.getTelemetryPeriod(this),
+                    DeviceSensors.SAMPLING_PERIOD);
+            Toast.makeText(getApplicationContext(), getString(R.string.text_telemetry_on, period), Toast.LENGTH_SHORT)
+                    .show();
+        }
+    }
+
     /**
      * Method for checking if user selected proper values and entered valid destination address.
      *
@@ -342,17 +392,75 @@ public class MainActivity extends AppCompatActivity implements MultiSelectionSpi
      * Method for updating {#link tabHost} with valid data.
      */
     private void updateTabHostWithData() {
+        List<String> names = new ArrayList<>();
+        for (String name : spDeviceSensors.getSelectedStrings()) {
+            names.add(name.toUpperCase());
+        }
+        Map<String, SensorReading> readings = StoringUtils.getLatestReadings(getApplicationContext(), names);
         for (String name : spDeviceSensors.getSelectedStrings()) {
-            String value = MultiprocessPreferences.getDefaultSharedPreferences(
-                    getApplicationContext()).getString(name.toUpperCase(), Constants.DEFAULT_SENSOR_DATA);
-            sensorDataMap.put(name, value);
+            sensorDataMap.put(name, readings.get(name.toUpperCase()));
         }
         if (spDeviceSensors.getSelectedStrings().size() > 0) {
             String tabName = tabHost.getCurrentTabTag();
             String text = MainActivity.this.getString(R.string.name_sensor) + ": " + tabName + "\n" +
-                    sensorDataMap.get(tabName);
+                    formatReading(sensorDataMap.get(tabName));
             tvSensorData.setText(text);
         }
     }
 
+    /**
+     * Method for making user readable text from sensor reading. Every value is in its own line in following format:
+     * valueName: value unit. Text always has at least 3 lines.
+     *
+     * @param reading
+     *         sensor reading, can be null
+     * @return text for displaying
+     */
+    private String formatReading(SensorReading reading) {
+        if (reading == null) {
+            return Constants.DEFAULT_SENSOR_DATA;
+        }
+        StringBuilder text = new StringBuilder();
+        int size = reading.size();
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(getValueDisplayName(reading.getValueName(i))).append(": ").append(reading.getValue(i))
+                    .append(' ').append(reading.getUnit().getSymbol());
+        }
+        for (int i = size; i < 3; ++i) {
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Method for getting name of value which is displayed to user.
+     *
+     * @param valueName
+     *         name of value from {@link SensorReading}
+     * @return display name of value
+     */
+    private String getValueDisplayName(String valueName) {
+        switch (valueName) {
+            case "ILLUMINATION":
+                return getString(R.string.illumination);
+            case "PROXIMITY":
+                return getString(R.string.proximity);
+            case "TEMPERATURE":
+                return getString(R.string.temperature);
+            case "PRESSURE":
+                return getString(R.string.pressure);
+            case "LATITUDE":
+                return getString(R.string.latitude);
+            case "LONGITUDE":
+                return getString(R.string.longitude);
+            case "ALTITUDE":
+                return getString(R.string.altitude);
+            default:
+                return valueName.toLowerCase();
+        }
+    }
+
 }
\ No newline at end of file
@@ -1,32 +1,67 @@
 package zemris.fer.hr.iothingy.communication;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.Toast;
 import zemris.fer.hr.iothingy.R;
 import zemris.fer.hr.iothingy.utils.*;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Class for handling communication with some destination device. It handles all types of connections (Internet, Wi-Fi,
- * Bluetooth). Currently only communication through Internet is implemented.
+ * Bluetooth). Currently only communication through Internet is implemented. Messages are sent in background by
+ * {@link MessageSender}, so destination which doesn't answer delays only messages for itself. Subscriptions of servers
+ * are streamed by {@link SubscriptionService}.
  */
 public class CommunicationTask {
 
-    /**
-     * Context of some activity which uses this class.
-     */
-    private Context mContext;
-    /**
-     * Flag to control if toast which says if message is sent or not shows or not.
-     */
-    private boolean show;
+    /** Time in milliseconds after which sent message doesn't wait for reply anymore. */
+    private static final long REPLY_TIMEOUT = 60 * 1000;
+    /** Number of answered messages which are remembered for detection of duplicate replies. */
+    private static final int ANSWERED_CAPACITY = 1024;
+    /** Sent messages which wait for reply, data of every message is its destination. */
+    private static final ReplyCorrelator<String> correlator = new ReplyCorrelator<>(ANSWERED_CAPACITY);
+    /** Name of file with messages which wait for connection. */
+    private static final String OUTBOX_FILE = "outbox.log";
+    /** Maximal number of bytes of messages which wait for connection. */
+    private static final long OUTBOX_MAX_BYTES = 256 * 1024;
+    /** Delay in milliseconds before first retry of queued messages. */
+    private static final long OUTBOX_INITIAL_BACKOFF = 5 * 1000;
+    /** Maximal delay in milliseconds between retries of queued messages. */
+    private static final long OUTBOX_MAX_BACKOFF = 10 * 60 * 1000;
+    /** Messages which wait for connection, null until first use. */
+    private static MessageOutbox outbox;
+    /** Maximal number of destinations to which messages are sent at once. */
+    private static final int SENDER_THREADS = 4;
+    /** Maximal number of sends which wait for their destination or run. */
+    private static final int SENDER_MAX_PENDING = 64;
+    /** Sender of messages, null until first use. */
+    private static MessageSender sender;
+    /** Executor which opens outbox and gives messages to sender or outbox, null until first use. */
+    private static ExecutorService dispatcher;
+    /** Connect timeout of client which sends to many destinations at once, in milliseconds. */
+    private static final int NIO_CONNECT_TIMEOUT = 5000;
+    /** Read timeout of client which sends to many destinations at once, in milliseconds. */
+    private static final int NIO_READ_TIMEOUT = 10000;
+    /** Time after which idle connection of client which sends to many destinations is closed, in milliseconds. */
+    private static final long NIO_KEEP_ALIVE = 60000;
+    /** Client which sends to many destinations at once, null until first use. */
+    private static NioClient nioClient;
 
     /**
      * Constructor with multiple parameters.
@@ -39,92 +74,503 @@ public class CommunicationTask {
      *         flag to control if toast which says if message is sent or not shows or not.
      */
     public CommunicationTask(Context context, Message msg, boolean showSendResult) {
-        mContext = context;
-        show = showSendResult;
-        switch (msg.getSendMode().toUpperCase()) {
-            case "INTERNET":
-                if (MyUtils.isNetworkAvailable(context)) {
-                    (new SendToServerTask()).execute(msg.getDestIP(), "" + msg.getDestPort(), msg.getComSendMessage());
-                } else {
-                    Toast.makeText(context, context.getResources().getText(R.string.error_no_internet_conn),
-                            Toast.LENGTH_LONG).show();
-                }
-                break;
-            default:
-                Toast.makeText(context, context.getResources().getText(R.string.error), Toast.LENGTH_SHORT).show();
+        this(context, Collections.singletonList(msg), showSendResult);
+    }
+
+    /**
+     * Constructor for sending multiple messages. Messages for the same destination are sent through one connection
+     * without waiting for replies of previous messages. If there is no connection or some messages for the same
+     * destination are still queued, messages are queued in {@link MessageOutbox} and sent later in the same order.
+     * Outbox is used only in background, so constructor can be called from UI thread.
+     *
+     * @param context
+     *         context of some activity
+     * @param msgs
+     *         messages for sending
+     * @param showSendResult
+     *         flag to control if toast which says if message is sent or not shows or not.
+     */
+    public CommunicationTask(Context context, List<Message> msgs, boolean showSendResult) {
+        Map<String, List<String>> destinations = new LinkedHashMap<>();
+        for (Message msg : msgs) {
+            switch (msg.getSendMode().toUpperCase()) {
+                case "INTERNET":
+                    String line;
+                    try {
+                        line = msg.getComSendMessage();
+                    } catch (IllegalStateException e) {
+                        //HMAC and FULL need shared secret
+                        undelivered(msg.getDestIP(), msg.getDestPort());
+                        Toast.makeText(context, context.getResources().getText(R.string.error), Toast.LENGTH_SHORT)
+                                .show();
+                        break;
+                    }
+                    String key = msg.getDestIP() + ":" + msg.getDestPort();
+                    List<String> params = destinations.get(key);
+                    if (params == null) {
+                        params = new ArrayList<>();
+                        params.add(msg.getDestIP());
+                        params.add("" + msg.getDestPort());
+                        destinations.put(key, params);
+                    }
+                    params.add(line);
+                    track(msg);
+                    break;
+                default:
+                    undelivered(msg.getDestIP(), msg.getDestPort());
+                    Toast.makeText(context, context.getResources().getText(R.string.error), Toast.LENGTH_SHORT).show();
+            }
+        }
+        if (!destinations.isEmpty()) {
+            dispatch(context, destinations.values(), showSendResult);
         }
     }
 
     /**
-     * Task for sending message to some cloud using Internet. It needs 3 parameters send to {#link doInBackground}
-     * method in following order: DESTINATION_IP, DESTINATION_PORT, MESSAGE.
+     * Method for giving messages to sender, or to outbox if there is no connection or some messages for the same
+     * destination are still queued. It is done in background because outbox reads its file when it is opened.
+     *
+     * @param context
+     *         context of some activity
+     * @param destinations
+     *         destination IP, destination port and messages for every destination
+     * @param show
+     *         flag to control if toast which says if message is sent or not shows or not
      */
-    public class SendToServerTask extends AsyncTask<String, String, String> {
+    private static void dispatch(final Context context, final Collection<List<String>> destinations,
+                                 final boolean show) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                boolean online = MyUtils.isNetworkAvailable(context);
+                for (List<String> params : destinations) {
+                    String destIP = params.get(0);
+                    int destPort = Integer.parseInt(params.get(1));
+                    List<String> messages = params.subList(2, params.size());
+                    try {
+                        if (online && !getOutbox(context).hasPending(destIP, destPort)) {
+                            getSender(context).send(destIP, destPort, messages,
+                                    new ResultCallback(context, messages, show));
+                            continue;
+                        }
+                    } catch (IllegalStateException e) {
+                        //outbox can't be opened
+                        undelivered(destIP, destPort);
+                        showResultLater(context, Constants.STRING_ERROR, show);
+                        continue;
+                    }
+                    //messages are sent after queued messages for the same destination
+                    String result = queue(context, destIP, destPort, messages);
+                    if (online && Constants.STRING_QUEUED.equals(result)) {
+                        getOutbox(context).retryNow();
+                    }
+                    showResultLater(context, result, show);
+                }
+            }
+        };
+        try {
+            getDispatcher().execute(task);
+        } catch (RejectedExecutionException e) {
+            showResultLater(context, Constants.STRING_ERROR, show);
+        }
+    }
 
-        @Override
-        protected String doInBackground(String... params) {
-            BufferedWriter out = null;
-            BufferedReader in = null;
-            Socket socket = new Socket();
-            try {
-                //get parameters
-                String destIP = params[0];
-                int destPort = Integer.parseInt(params[1]);
-                String message = params[2];
-                //connect through TCP socket with timeout of 5s
-                socket.connect(new InetSocketAddress(destIP, destPort), 5000);
-                //find input and output
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
-                //write message
-                out.write(message + "\r\n");
-                out.flush();
-                //get return message
-                String rtnMsg = in.readLine();
-                if (rtnMsg == null) {
-                    throw new Exception("Null received msg");
+    /**
+     * Method for sending messages from calling thread, so it mustn't be called from UI thread. Messages for the same
+     * destination are sent through one connection and all destinations are sent to at once by {@link NioClient}, so
+     * sending to many destinations takes about as long as sending to the slowest one. Only messages which are sent
+     * through Internet are supported. Destinations which aren't reached get all sensors in next delta message.
+     *
+     * @param context
+     *         some context
+     * @param msgs
+     *         messages for sending
+     * @return {@link Constants#STRING_OK} if all messages are sent, otherwise {@link Constants#STRING_ERROR}, also if
+     * some message needs shared secret which isn't set
+     */
+    public static String sendMessages(Context context, List<Message> msgs) {
+        Map<String, List<String>> destinations = new LinkedHashMap<>();
+        for (Message msg : msgs) {
+            String line = null;
+            if ("INTERNET".equals(msg.getSendMode().toUpperCase())) {
+                try {
+                    line = msg.getComSendMessage();
+                } catch (IllegalStateException e) {
+                    //HMAC and FULL need shared secret
                 }
-                //if return message is different then idle, it will be stored so it can be replied to
-                while (!"idle".equals(rtnMsg.toLowerCase())) {
-                    String[] encrypt = mContext.getResources().getStringArray(R.array.encryption_array);
-                    ReceivedServerMessage msg = ReceivedServerMessage.parseReceivedMessage(rtnMsg, "INTERNET",
-                            encrypt[rtnMsg.charAt(0) - '0'], destIP, "" + destPort);
-                    //store received message
-                    StoringUtils.addReceivedMessage(mContext, msg);
-                    //get another message
-                    rtnMsg = in.readLine();
-                    if (rtnMsg == null) {
-                        throw new Exception("Null received msg");
-                    }
+            }
+            if (line == null) {
+                //nothing is sent
+                for (Message unsent : msgs) {
+                    undelivered(unsent.getDestIP(), unsent.getDestPort());
                 }
-            } catch (Exception e) {
                 return Constants.STRING_ERROR;
-            } finally {
-                try {
-                    if (out != null) {
-                        out.close();
-                    }
-                    if (in != null) {
-                        in.close();
-                    }
-                    socket.close();
-                } catch (Exception e) {
-                    //ignore
+            }
+            String key = msg.getDestIP() + ":" + msg.getDestPort();
+            List<String> lines = destinations.get(key);
+            if (lines == null) {
+                lines = new ArrayList<>();
+                destinations.put(key, lines);
+            }
+            lines.add(line);
+            track(msg);
+        }
+        NioClient client = getNioClient();
+        String result = Constants.STRING_OK;
+        if (client == null) {
+            //messages are sent to one destination after another
+            for (Map.Entry<String, List<String>> entry : destinations.entrySet()) {
+                String[] address = entry.getKey().split(":");
+                if (!Constants.STRING_OK.equals(send(context, address[0], Integer.parseInt(address[1]),
+                        entry.getValue()))) {
+                    undelivered(address[0], Integer.parseInt(address[1]));
+                    result = Constants.STRING_ERROR;
                 }
             }
-            return Constants.STRING_OK;
+            return result;
         }
+        Map<String, Future<List<String>>> replies = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : destinations.entrySet()) {
+            String[] address = entry.getKey().split(":");
+            replies.put(entry.getKey(), client.send(address[0], Integer.parseInt(address[1]), entry.getValue(), null));
+        }
+        for (Map.Entry<String, Future<List<String>>> entry : replies.entrySet()) {
+            String[] address = entry.getKey().split(":");
+            try {
+                storeReplies(context, address[0], Integer.parseInt(address[1]), entry.getValue().get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ConnectionPool.PartialSendException) {
+                    //replies of lines which are answered before failure are stored too
+                    storeReplies(context, address[0], Integer.parseInt(address[1]),
+                            ((ConnectionPool.PartialSendException) e.getCause()).getReplies());
+                }
+                undelivered(address[0], Integer.parseInt(address[1]));
+                result = Constants.STRING_ERROR;
+            } catch (Exception e) {
+                undelivered(address[0], Integer.parseInt(address[1]));
+                result = Constants.STRING_ERROR;
+            }
+        }
+        return result;
+    }
 
-        @Override
-        protected void onPostExecute(String s) {
-            super.onPostExecute(s);
-            if (show) {
-                if (Constants.STRING_OK.equals(s)) {
-                    MyDialogs.makeGreenTextToast(mContext, mContext.getResources().getString(R.string.success));
-                } else {
-                    MyDialogs.makeRedTextToast(mContext, mContext.getResources().getString(R.string.error));
+    /**
+     * Method for getting client which sends to many destinations at once. Client is created on first use.
+     *
+     * @return client or null if it can't be created
+     */
+    private static synchronized NioClient getNioClient() {
+        if (nioClient == null) {
+            try {
+                nioClient = new NioClient(NIO_CONNECT_TIMEOUT, NIO_READ_TIMEOUT, NIO_KEEP_ALIVE);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return nioClient;
+    }
+
+    /**
+     * Method for registering sent message in table of messages which wait for reply.
+     *
+     * @param msg
+     *         sent message
+     */
+    private static void track(Message msg) {
+        int id = MessageIdGenerator.parse(msg.getMessageID());
+        if (id >= 0) {
+            correlator.register(id, msg.getDestIP() + ":" + msg.getDestPort(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Method for getting outbox with messages which wait for connection. Outbox is created on first use and queued
+     * messages are delivered through {@link ConnectionPool} in background.
+     *
+     * @param context
+     *         some context
+     * @return outbox
+     */
+    private static synchronized MessageOutbox getOutbox(Context context) {
+        if (outbox == null) {
+            final Context appContext = context.getApplicationContext();
+            try {
+                outbox = new MessageOutbox(new File(appContext.getFilesDir(), OUTBOX_FILE), OUTBOX_MAX_BYTES,
+                        new MessageOutbox.Transport() {
+                            @Override
+                            public void deliver(String destIP, int destPort, List<String> lines) throws IOException {
+                                if (!MyUtils.isNetworkAvailable(appContext)) {
+                                    throw new IOException("Messages aren't sent to " + destIP + ":" + destPort);
+                                }
+                                //partial failure reaches outbox, so answered messages aren't sent again
+                                exchange(appContext, destIP, destPort, lines);
+                            }
+                        }, OUTBOX_INITIAL_BACKOFF, OUTBOX_MAX_BACKOFF);
+                outbox.start();
+            } catch (IOException e) {
+                throw new IllegalStateException("Outbox can't be opened", e);
+            }
+        }
+        return outbox;
+    }
+
+    /**
+     * Method for getting executor which gives messages to sender or outbox. Executor is created on first use and it
+     * has one thread, so messages are given to sender in the same order in which they are created.
+     *
+     * @return executor
+     */
+    private static synchronized ExecutorService getDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = Executors.newSingleThreadExecutor();
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Method for getting sender of messages. Sender is created on first use and it sends through {@link
+     * ConnectionPool}.
+     *
+     * @param context
+     *         some context
+     * @return sender
+     */
+    private static synchronized MessageSender getSender(Context context) {
+        if (sender == null) {
+            final Context appContext = context.getApplicationContext();
+            sender = new MessageSender(new MessageSender.Transport() {
+                @Override
+                public List<String> exchange(String destIP, int destPort, List<String> lines) throws Exception {
+                    return CommunicationTask.exchange(appContext, destIP, destPort, lines);
                 }
+            }, SENDER_THREADS, SENDER_MAX_PENDING);
+        }
+        return sender;
+    }
+
+    /**
+     * Method for queueing messages which can't be sent now. They are sent when connection to destination is
+     * available again.
+     *
+     * @param context
+     *         some context
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param messages
+     *         messages in format returned by {@link Message#getComSendMessage()}
+     * @return {@link Constants#STRING_QUEUED} if messages are queued, otherwise {@link Constants#STRING_ERROR}
+     */
+    private static String queue(Context context, String destIP, int destPort, List<String> messages) {
+        try {
+            getOutbox(context).enqueue(destIP, destPort, messages);
+            return Constants.STRING_QUEUED;
+        } catch (IOException | RuntimeException e) {
+            undelivered(destIP, destPort);
+            return Constants.STRING_ERROR;
+        }
+    }
+
+    /**
+     * Method for handling messages which aren't delivered to destination. Values which {@link DeltaReporter}
+     * remembered as sent to that address are forgotten, so next message contains all sensors again.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     */
+    private static void undelivered(String destIP, int destPort) {
+        DeltaReporter.getInstance().resetAddress(destIP, destPort);
+    }
+
+    /**
+     * Method for showing toast with result of sending.
+     *
+     * @param context
+     *         some context
+     * @param result
+     *         result of sending
+     */
+    private static void showResult(Context context, String result) {
+        if (Constants.STRING_OK.equals(result)) {
+            MyDialogs.makeGreenTextToast(context, context.getResources().getString(R.string.success));
+        } else if (Constants.STRING_QUEUED.equals(result)) {
+            Toast.makeText(context, context.getResources().getText(R.string.message_queued), Toast.LENGTH_LONG).show();
+        } else {
+            MyDialogs.makeRedTextToast(context, context.getResources().getString(R.string.error));
+        }
+    }
+
+    /**
+     * Method for showing toast with result of sending on UI thread.
+     *
+     * @param context
+     *         some context
+     * @param result
+     *         result of sending
+     * @param show
+     *         flag to control if toast shows or not
+     */
+    private static void showResultLater(final Context context, final String result, boolean show) {
+        if (!show) {
+            return;
+        }
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                showResult(context, result);
+            }
+        });
+    }
+
+    /**
+     * Method for sending lines to server and storing messages which server returned, see {@link #exchange(Context,
+     * String, int, List)}.
+     *
+     * @param context
+     *         some context
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param messages
+     *         messages in format returned by {@link Message#getComSendMessage()}
+     * @return {@link Constants#STRING_OK} if messages are sent, otherwise {@link Constants#STRING_ERROR}
+     */
+    private static String send(Context context, String destIP, int destPort, List<String> messages) {
+        try {
+            exchange(context, destIP, destPort, messages);
+        } catch (Exception e) {
+            return Constants.STRING_ERROR;
+        }
+        return Constants.STRING_OK;
+    }
+
+    /**
+     * Method for sending lines to server through {@link ConnectionPool} and storing messages which server returned,
+     * see {@link #storeReplies(Context, String, int, List)}.
+     *
+     * @param context
+     *         some context
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param messages
+     *         messages in format returned by {@link Message#getComSendMessage()}
+     * @return lines which server returned
+     * @throws IOException
+     *         if messages can't be sent, {@link ConnectionPool.PartialSendException} if some of them are sent, then
+     *         replies of sent messages are stored
+     */
+    private static List<String> exchange(Context context, String destIP, int destPort, List<String> messages)
+            throws IOException {
+        //write messages and get return messages
+        List<String> rtnMsgs;
+        try {
+            rtnMsgs = ConnectionPool.getInstance().send(destIP, destPort, messages);
+        } catch (ConnectionPool.PartialSendException e) {
+            storeReplies(context, destIP, destPort, e.getReplies());
+            throw e;
+        }
+        storeReplies(context, destIP, destPort, rtnMsgs);
+        return rtnMsgs;
+    }
+
+    /**
+     * Method for parsing and storing messages which server returned. Replies are matched with sent messages by {@link
+     * ReplyCorrelator} and reply which is received again is stored only once. Line which can't be parsed is dropped,
+     * because sent messages are already accepted by server and sending them again wouldn't change reply. Auto-reply
+     * service is notified about stored messages.
+     *
+     * @param context
+     *         some context
+     * @param destIP
+     *         IP of server
+     * @param destPort
+     *         port of server
+     * @param rtnMsgs
+     *         lines which server returned
+     */
+    static void storeReplies(Context context, String destIP, int destPort, List<String> rtnMsgs) {
+        //every return message will be stored so it can be replied to
+        List<String> ids = new ArrayList<>(rtnMsgs.size());
+        correlator.expire(System.currentTimeMillis(), REPLY_TIMEOUT);
+        for (String rtnMsg : rtnMsgs) {
+            ReceivedServerMessage msg;
+            try {
+                msg = ReceivedServerMessage.parseReceivedMessage(rtnMsg, "INTERNET",
+                        MessageCrypto.nameOf(rtnMsg.charAt(0)), destIP, "" + destPort);
+            } catch (RuntimeException e) {
+                //malformed line
+                continue;
+            }
+            int requestId = MessageIdGenerator.parse(msg.getPreviousMessageID());
+            int replyId = MessageIdGenerator.parse(msg.getMessageID());
+            if (correlator.complete(requestId, replyId) == null && correlator.isDuplicate(requestId, replyId)) {
+                //the same reply is already stored
+                continue;
+            }
+            //store received message
+            StoringUtils.addReceivedMessage(context, msg);
+            ids.add(msg.getStoreKey());
+        }
+        if (!ids.isEmpty()) {
+            MessageReplyService.notifyReceivedMessages(context, ids);
+        }
+    }
+
+    /**
+     * Receiver of result of messages which are sent by {@link MessageSender}. Messages which aren't accepted by server
+     * are queued in {@link MessageOutbox} and toast with result is shown on UI thread.
+     */
+    private static class ResultCallback implements MessageSender.Callback {
+        /** Context of some activity which uses this class. */
+        private final Context context;
+        /** Sent messages. */
+        private final List<String> messages;
+        /** Flag to control if toast which says if message is sent or not shows or not. */
+        private final boolean show;
+
+        /**
+         * Constructor.
+         *
+         * @param context
+         *         context of some activity
+         * @param messages
+         *         sent messages, they are copied
+         * @param show
+         *         flag to control if toast which says if message is sent or not shows or not
+         */
+        private ResultCallback(Context context, List<String> messages, boolean show) {
+            this.context = context;
+            this.messages = new ArrayList<>(messages);
+            this.show = show;
+        }
+
+        @Override
+        public void onSent(String destIP, int destPort, List<String> replies) {
+            showResultLater(context, Constants.STRING_OK, show);
+        }
+
+        @Override
+        public void onFailed(String destIP, int destPort, Exception e) {
+            if (e instanceof CancellationException) {
+                return;
+            }
+            if (!(e instanceof IOException) && !(e instanceof RejectedExecutionException)) {
+                //failure after server accepted messages, sending them again would duplicate them
+                showResultLater(context, Constants.STRING_ERROR, show);
+                return;
+            }
+            List<String> unsent = messages;
+            if (e instanceof ConnectionPool.PartialSendException) {
+                unsent = messages.subList(((ConnectionPool.PartialSendException) e).getAnswered(), messages.size());
             }
+            //messages are sent again when server is reachable
+            showResultLater(context, queue(context, destIP, destPort, unsent), show);
         }
     }
 }
@@ -0,0 +1,403 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of persistent TCP connections, one set of idle connections per {@code destIP:destPort}. Protocol which is used
+ * is line based: for every line that is sent, server returns zero or more message lines which are terminated with line
+ * {@code idle}. Because of that multiple lines can be written at once (pipelined) and then their replies can be read in
+ * the same order. If server closes connection after some reply, lines which weren't answered are sent again through
+ * new connection, so this class also works with servers which handle only one line per connection.
+ */
+public class ConnectionPool {
+
+    /** Connect timeout in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 5000;
+    /** Read timeout in milliseconds. */
+    private static final int READ_TIMEOUT = 10000;
+    /** Default maximal number of idle connections per destination. */
+    private static final int DEFAULT_MAX_IDLE = 2;
+    /** Default time after which idle connection is closed, in milliseconds. */
+    private static final long DEFAULT_KEEP_ALIVE = 60000;
+    /** Maximal number of lines which are written before their replies are read. */
+    private static final int PIPELINE_DEPTH = 32;
+    /** Line which tells that server has nothing more to say for one sent line. */
+    private static final String IDLE = "idle";
+    /** Line terminator. */
+    private static final String LINE_END = "\r\n";
+
+    /** Pool shared by whole process. */
+    private static ConnectionPool instance;
+
+    /** Idle connections for every destination. */
+    private final Map<String, Deque<Connection>> idle = new HashMap<>();
+    /** Maximal number of idle connections per destination. */
+    private final int maxIdle;
+    /** Time after which idle connection is closed. */
+    private final long keepAlive;
+    /** Number of opened connections, used only for statistics. */
+    private int openedConnections;
+
+    /**
+     * Constructor.
+     *
+     * @param maxIdle
+     *         maximal number of idle connections per destination
+     * @param keepAlive
+     *         time in milliseconds after which idle connection is closed
+     */
+    public ConnectionPool(int maxIdle, long keepAlive) {
+        this.maxIdle = maxIdle;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Method for getting pool which is shared by whole process.
+     *
+     * @return connection pool
+     */
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new ConnectionPool(DEFAULT_MAX_IDLE, DEFAULT_KEEP_ALIVE);
+        }
+        return instance;
+    }
+
+    /**
+     * Method for sending lines to some destination. Lines are written in batches before their replies are read.
+     * Returned list contains all lines that server returned (lines {@code idle} are not included), in order in which
+     * they are received.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param lines
+     *         lines for sending, without line terminator
+     * @return list of received lines
+     * @throws IOException
+     *         if some line can't be sent or its reply can't be read, {@link PartialSendException} if some lines are
+     *         answered before that
+     */
+    public List<String> send(String destIP, int destPort, List<String> lines) throws IOException {
+        List<String> replies = new ArrayList<>();
+        int sent = 0;
+        while (sent < lines.size()) {
+            Connection connection;
+            try {
+                connection = acquire(destIP, destPort);
+            } catch (IOException e) {
+                throw failure(e, sent, replies);
+            }
+            int answered;
+            try {
+                answered = connection.exchange(lines, sent, replies);
+            } catch (SocketTimeoutException e) {
+                connection.close();
+                throw failure(e, sent, replies);
+            } catch (IOException e) {
+                connection.close();
+                if (connection.reused) {
+                    //server probably closed idle connection, try again with new one
+                    continue;
+                }
+                throw failure(e, sent, replies);
+            }
+            sent += answered;
+            if (connection.isOpen()) {
+                release(connection);
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * Method for creating exception for failed send.
+     *
+     * @param cause
+     *         failure of connection
+     * @param answered
+     *         number of lines which are answered before failure
+     * @param replies
+     *         lines which server returned for answered lines
+     * @return cause if no line is answered, otherwise {@link PartialSendException}
+     */
+    static IOException failure(IOException cause, int answered, List<String> replies) {
+        return answered == 0 ? cause : new PartialSendException(answered, replies, cause);
+    }
+
+    /**
+     * Method for getting connection to destination. If there is idle connection which isn't expired it will be used,
+     * otherwise new connection is opened.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @return connection
+     * @throws IOException
+     *         if connection can't be opened
+     */
+    private Connection acquire(String destIP, int destPort) throws IOException {
+        String key = destIP + ":" + destPort;
+        long now = System.currentTimeMillis();
+        synchronized (idle) {
+            Deque<Connection> connections = idle.get(key);
+            while (connections != null && !connections.isEmpty()) {
+                Connection connection = connections.pollFirst();
+                if (now - connection.lastUsed < keepAlive && connection.isOpen()) {
+                    connection.reused = true;
+                    return connection;
+                }
+                connection.close();
+            }
+            openedConnections++;
+        }
+        return new Connection(key, destIP, destPort);
+    }
+
+    /**
+     * Method for returning connection to pool. If there are already enough idle connections for its destination,
+     * connection is closed.
+     *
+     * @param connection
+     *         connection which is not used anymore
+     */
+    private void release(Connection connection) {
+        connection.lastUsed = System.currentTimeMillis();
+        synchronized (idle) {
+            Deque<Connection> connections = idle.get(connection.key);
+            if (connections == null) {
+                connections = new ArrayDeque<>();
+                idle.put(connection.key, connections);
+            }
+            if (connections.size() < maxIdle) {
+                connections.addFirst(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Method for closing all idle connections.
+     */
+    public void closeIdle() {
+        synchronized (idle) {
+            for (Iterator<Deque<Connection>> it = idle.values().iterator(); it.hasNext(); ) {
+                for (Connection connection : it.next()) {
+                    connection.close();
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Getter for number of connections opened by this pool.
+     *
+     * @return number of opened connections
+     */
+    public int getOpenedConnections() {
+        synchronized (idle) {
+            return openedConnections;
+        }
+    }
+
+    /**
+     * Connection to one destination.
+     */
+    private static class Connection {
+        /** Destination key in format destIP:destPort. */
+        private final String key;
+        /** Socket. */
+        private final Socket socket;
+        /** Input. */
+        private final BufferedReader in;
+        /** Output. */
+        private final BufferedWriter out;
+        /** Time when connection was last returned to pool. */
+        private long lastUsed;
+        /** Flag which tells if connection was taken from pool. */
+        private boolean reused;
+        /** Flag which tells if server closed connection. */
+        private boolean closed;
+
+        /**
+         * Constructor which opens new connection.
+         *
+         * @param key
+         *         destination key
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @throws IOException
+         *         if connection can't be opened
+         */
+        private Connection(String key, String destIP, int destPort) throws IOException {
+            this.key = key;
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(destIP, destPort), CONNECT_TIMEOUT);
+                socket.setSoTimeout(READ_TIMEOUT);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Method for writing lines starting from given index and reading their replies. At most {@link
+         * #PIPELINE_DEPTH} lines are written at once so that server can't block while writing replies. If server closes
+         * connection after it answered at least one line, method returns number of answered lines and connection is
+         * closed.
+         *
+         * @param lines
+         *         lines for sending
+         * @param from
+         *         index of first line which needs to be sent
+         * @param replies
+         *         list in which received lines are added
+         * @return number of answered lines
+         * @throws IOException
+         *         if no line is answered
+         */
+        private int exchange(List<String> lines, int from, List<String> replies) throws IOException {
+            int to = Math.min(lines.size(), from + PIPELINE_DEPTH);
+            for (int i = from; i < to; ++i) {
+                out.write(lines.get(i));
+                out.write(LINE_END);
+            }
+            out.flush();
+            int answered = 0;
+            List<String> current = new ArrayList<>();
+            for (int i = from; i < to; ++i) {
+                current.clear();
+                String line = readLine(answered);
+                while (line != null && !IDLE.equalsIgnoreCase(line)) {
+                    current.add(line);
+                    line = readLine(answered);
+                }
+                if (line == null) {
+                    if (answered == 0) {
+                        throw new IOException("Connection closed by server");
+                    }
+                    close();
+                    return answered;
+                }
+                replies.addAll(current);
+                answered++;
+            }
+            return answered;
+        }
+
+        /**
+         * Method for reading one line. If some lines are already answered, reset connection is treated as end of
+         * stream because server which closes connection early usually resets it.
+         *
+         * @param answered
+         *         number of already answered lines
+         * @return read line or null if end of stream is reached
+         * @throws IOException
+         *         if line can't be read
+         */
+        private String readLine(int answered) throws IOException {
+            try {
+                return in.readLine();
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                if (answered == 0) {
+                    throw e;
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Method for checking if connection can still be used.
+         *
+         * @return true if connection is open
+         */
+        private boolean isOpen() {
+            return !closed && socket.isConnected() && !socket.isClosed() && !socket.isInputShutdown();
+        }
+
+        /**
+         * Method for closing connection.
+         */
+        private void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Exception which tells that send failed after server answered some lines. Answered lines are accepted by server,
+     * so only lines after them need to be sent again.
+     */
+    public static class PartialSendException extends IOException {
+        /** Version of serialized form. */
+        private static final long serialVersionUID = 1L;
+        /** Number of answered lines. */
+        private final int answered;
+        /** Lines which server returned for answered lines. */
+        private final List<String> replies;
+
+        /**
+         * Constructor.
+         *
+         * @param answered
+         *         number of answered lines
+         * @param replies
+         *         lines which server returned for answered lines
+         * @param cause
+         *         failure of connection
+         */
+        PartialSendException(int answered, List<String> replies, IOException cause) {
+            super(answered + " lines answered before failure", cause);
+            this.answered = answered;
+            this.replies = replies;
+        }
+
+        /**
+         * Method for getting number of answered lines.
+         *
+         * @return number of first lines which are answered
+         */
+        public int getAnswered() {
+            return answered;
+        }
+
+        /**
+         * Method for getting lines which server returned for answered lines.
+         *
+         * @return received lines
+         */
+        public List<String> getReplies() {
+            return replies;
+        }
+    }
+}
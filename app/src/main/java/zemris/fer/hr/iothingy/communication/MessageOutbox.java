@@ -0,0 +1,444 @@
+package zemris.fer.hr.iothingy.communication;
+
+import zemris.fer.hr.iothingy.utils.MessageLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of messages which couldn't be sent yet. Messages are stored in {@link MessageLog}, so they survive
+ * restart of application, and they are delivered in background when destination is reachable again. All waiting
+ * messages for one destination are delivered with one call of {@link Transport}, i.e. over one connection, in order in
+ * which they are queued. If delivery fails, destination is tried again after delay which is doubled after every
+ * failure, from initial to maximal backoff, and messages which were answered before failure aren't delivered again.
+ * Total size of queued messages is limited and when new messages don't fit, the oldest ones are dropped.
+ * <p>
+ * Outbox must be used only from one process, it keeps copy of queue in memory.
+ */
+public class MessageOutbox {
+
+    /**
+     * Destination of queued messages.
+     */
+    public interface Transport {
+        /**
+         * Method for delivering lines to destination, in given order.
+         *
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @param lines
+         *         lines for sending
+         * @throws IOException
+         *         if lines aren't delivered, {@link ConnectionPool.PartialSendException} if first lines are
+         *         delivered before failure
+         */
+        void deliver(String destIP, int destPort, List<String> lines) throws IOException;
+    }
+
+    /** Maximal number of lines delivered in one call of transport. */
+    private static final int MAX_BATCH = 256;
+
+    /** Log with queued messages. */
+    private final MessageLog log;
+    /** Maximal number of bytes of queued messages. */
+    private final long maxBytes;
+    /** Transport for delivery. */
+    private final Transport transport;
+    /** Delay before first retry in milliseconds. */
+    private final long initialBackoff;
+    /** Maximal delay between retries in milliseconds. */
+    private final long maxBackoff;
+    /** Queued messages in order in which they are queued, by their sequence numbers. */
+    private final Map<Long, Entry> queue = new LinkedHashMap<>();
+    /** Retry state of destinations which failed. */
+    private final Map<String, Backoff> backoffs = new HashMap<>();
+    /** Sequence number of next queued message. */
+    private long nextSequence;
+    /** Executor for deliveries. */
+    private ScheduledExecutorService executor;
+    /** Scheduled delivery, null if none is scheduled. */
+    private ScheduledFuture<?> scheduled;
+    /** Time of scheduled delivery. */
+    private long scheduledAt;
+    /** Number of delivered messages. */
+    private long delivered;
+    /** Number of messages dropped because of size limit. */
+    private long evicted;
+
+    /**
+     * Constructor. Messages which were queued before are loaded from file.
+     *
+     * @param file
+     *         file for queued messages
+     * @param maxBytes
+     *         maximal number of bytes of queued messages
+     * @param transport
+     *         transport for delivery
+     * @param initialBackoff
+     *         delay before first retry in milliseconds
+     * @param maxBackoff
+     *         maximal delay between retries in milliseconds
+     * @throws IOException
+     *         if file can't be read
+     */
+    public MessageOutbox(File file, long maxBytes, Transport transport, long initialBackoff, long maxBackoff)
+            throws IOException {
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException("Illegal backoff");
+        }
+        this.log = new MessageLog(file);
+        this.maxBytes = maxBytes;
+        this.transport = transport;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        for (String record : log.records()) {
+            Entry entry = Entry.parse(record);
+            if (entry != null) {
+                queue.put(entry.sequence, entry);
+                nextSequence = Math.max(nextSequence, entry.sequence + 1);
+            }
+        }
+    }
+
+    /**
+     * Method for starting background delivery. Messages which are already queued are delivered immediately.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor();
+        schedule(0);
+    }
+
+    /**
+     * Method for stopping background delivery. Queued messages stay in file.
+     */
+    public void stop() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = executor;
+            executor = null;
+            scheduled = null;
+        }
+        if (stopped != null) {
+            stopped.shutdownNow();
+            try {
+                stopped.awaitTermination(maxBackoff, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.close();
+    }
+
+    /**
+     * Method for queueing messages for destination. Messages are stored before this method returns. If there is not
+     * enough space, the oldest queued messages are dropped.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param lines
+     *         lines for sending, without line terminator
+     * @return number of dropped messages
+     * @throws IOException
+     *         if messages can't be stored
+     */
+    public synchronized int enqueue(String destIP, int destPort, List<String> lines) throws IOException {
+        int dropped = 0;
+        String destination = destIP + ":" + destPort;
+        for (String line : lines) {
+            Entry entry = new Entry(nextSequence++, destination, line);
+            String id = String.valueOf(entry.sequence);
+            String record = entry.format();
+            //the same size as line in log
+            long size = id.length() + record.getBytes("UTF-8").length + 3;
+            Iterator<Entry> oldest = queue.values().iterator();
+            while (log.getLiveBytes() + size > maxBytes && oldest.hasNext()) {
+                log.remove(String.valueOf(oldest.next().sequence));
+                oldest.remove();
+                dropped++;
+            }
+            if (log.getLiveBytes() + size > maxBytes) {
+                //message is bigger than whole outbox
+                dropped++;
+                continue;
+            }
+            log.append(id, record);
+            queue.put(entry.sequence, entry);
+        }
+        evicted += dropped;
+        Backoff backoff = backoffs.get(destination);
+        schedule(backoff == null ? 0 : Math.max(0, backoff.nextAttempt - System.currentTimeMillis()));
+        return dropped;
+    }
+
+    /**
+     * Method for checking if there are queued messages for destination. New messages for such destination need to be
+     * queued too, so order of messages is kept.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @return true if there are queued messages
+     */
+    public synchronized boolean hasPending(String destIP, int destPort) {
+        String destination = destIP + ":" + destPort;
+        for (Entry entry : queue.values()) {
+            if (entry.destination.equals(destination)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method for retrying all destinations immediately, e.g. when network connection is available again.
+     */
+    public synchronized void retryNow() {
+        backoffs.clear();
+        schedule(0);
+    }
+
+    /**
+     * Method for delivering queued messages of all destinations which aren't waiting for retry.
+     *
+     * @return number of delivered messages
+     */
+    int drain() {
+        int count = 0;
+        while (true) {
+            String destination;
+            List<Entry> batch = new ArrayList<>();
+            synchronized (this) {
+                destination = nextDestination(System.currentTimeMillis());
+                if (destination == null) {
+                    break;
+                }
+                for (Entry entry : queue.values()) {
+                    if (entry.destination.equals(destination)) {
+                        batch.add(entry);
+                        if (batch.size() == MAX_BATCH) {
+                            break;
+                        }
+                    }
+                }
+            }
+            List<String> lines = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                lines.add(entry.line);
+            }
+            int separator = destination.lastIndexOf(':');
+            try {
+                transport.deliver(destination.substring(0, separator),
+                        Integer.parseInt(destination.substring(separator + 1)), lines);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    if (e instanceof ConnectionPool.PartialSendException) {
+                        //answered messages are accepted by server, only the rest is delivered again
+                        count += remove(batch.subList(0, Math.min(batch.size(),
+                                ((ConnectionPool.PartialSendException) e).getAnswered())));
+                    }
+                    Backoff backoff = backoffs.get(destination);
+                    if (backoff == null) {
+                        backoff = new Backoff();
+                        backoffs.put(destination, backoff);
+                    }
+                    backoff.delay = backoff.delay == 0 ? initialBackoff : Math.min(2 * backoff.delay, maxBackoff);
+                    backoff.nextAttempt = System.currentTimeMillis() + backoff.delay;
+                }
+                continue;
+            }
+            synchronized (this) {
+                backoffs.remove(destination);
+                count += remove(batch);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method for removing delivered messages from queue and file. Caller must hold lock of outbox.
+     *
+     * @param entries
+     *         delivered messages
+     * @return number of removed messages
+     */
+    private int remove(List<Entry> entries) {
+        int removed = 0;
+        for (Entry entry : entries) {
+            if (queue.remove(entry.sequence) != null) {
+                try {
+                    log.remove(String.valueOf(entry.sequence));
+                } catch (IOException e) {
+                    //message can be delivered again after restart
+                }
+                removed++;
+            }
+        }
+        delivered += removed;
+        return removed;
+    }
+
+    /**
+     * Method for finding destination of the oldest queued message which isn't waiting for retry. If there is no such
+     * destination, next delivery is scheduled when first destination can be retried.
+     *
+     * @param now
+     *         current time
+     * @return destination or null if no destination can be tried now
+     */
+    private String nextDestination(long now) {
+        long firstRetry = Long.MAX_VALUE;
+        for (Entry entry : queue.values()) {
+            Backoff backoff = backoffs.get(entry.destination);
+            if (backoff == null || backoff.nextAttempt <= now) {
+                return entry.destination;
+            }
+            firstRetry = Math.min(firstRetry, backoff.nextAttempt);
+        }
+        if (firstRetry != Long.MAX_VALUE) {
+            schedule(firstRetry - now);
+        }
+        return null;
+    }
+
+    /**
+     * Method for scheduling delivery. If delivery is already scheduled earlier, nothing is changed.
+     *
+     * @param delay
+     *         delay in milliseconds
+     */
+    private synchronized void schedule(long delay) {
+        if (executor == null) {
+            return;
+        }
+        long at = System.currentTimeMillis() + delay;
+        if (scheduled != null && !scheduled.isDone()) {
+            if (scheduledAt <= at) {
+                return;
+            }
+            scheduled.cancel(false);
+        }
+        scheduledAt = at;
+        scheduled = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MessageOutbox.this) {
+                    scheduled = null;
+                }
+                drain();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Getter for number of queued messages.
+     *
+     * @return number of messages
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * Getter for number of delivered messages.
+     *
+     * @return number of messages
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Getter for number of messages which were dropped because of size limit.
+     *
+     * @return number of messages
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Retry state of one destination.
+     */
+    private static class Backoff {
+        /** Current delay between retries. */
+        private long delay;
+        /** Time of next attempt. */
+        private long nextAttempt;
+    }
+
+    /**
+     * One queued message. In log it is stored as {@code sequence TAB destination TAB line}.
+     */
+    private static class Entry {
+        /** Sequence number. */
+        private final long sequence;
+        /** Destination in format IP:PORT. */
+        private final String destination;
+        /** Line for sending. */
+        private final String line;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence
+         *         sequence number
+         * @param destination
+         *         destination in format IP:PORT
+         * @param line
+         *         line for sending
+         */
+        private Entry(long sequence, String destination, String line) {
+            this.sequence = sequence;
+            this.destination = destination;
+            this.line = line;
+        }
+
+        /**
+         * Method for making record for log.
+         *
+         * @return record
+         */
+        private String format() {
+            return sequence + "\t" + destination + "\t" + line;
+        }
+
+        /**
+         * Method for parsing record from log.
+         *
+         * @param record
+         *         record
+         * @return entry or null if record isn't valid
+         */
+        private static Entry parse(String record) {
+            int first = record.indexOf('\t');
+            int second = record.indexOf('\t', first + 1);
+            if (first < 0 || second < 0) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(record.substring(0, first)), record.substring(first + 1, second),
+                        record.substring(second + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
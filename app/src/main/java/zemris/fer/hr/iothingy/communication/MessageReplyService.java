@@ -1,52 +1,125 @@
 package zemris.fer.hr.iothingy.communication;
 
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
+import zemris.fer.hr.iothingy.sensors.DeviceSensorValueSource;
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+import zemris.fer.hr.iothingy.utils.Constants;
+import zemris.fer.hr.iothingy.utils.Message;
 import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
 import zemris.fer.hr.iothingy.utils.StoringUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service for automatic reply for messages that are received. When application communicates with some server, it can
- * get some return message which usually tells which sensor's data are needed. Those messages are stored in {@link
- * android.content.SharedPreferences}. This service read those messages and then automatically replies to them. If this
- * service is running and there are no such messages, it will go to sleep for 5 seconds. Also there is some pause them
- * between two replies which is about 1 second.
+ * get some return message which usually tells which sensor's data are needed. Those messages are stored by {@link
+ * StoringUtils} and {@link CommunicationTask} broadcasts their IDs, so this service queues them as soon as they are
+ * stored. Queued messages are replied by worker threads of {@link ReplyDispatcher} in batches, replies for the same
+ * destination are sent through one connection. Number of workers, queue capacity and batch size can be configured
+ * through {@link StoringUtils}. If queue is full, messages stay stored and are queued again when queue is empty. If
+ * reply can't be sent, stored messages are queued again after 5 seconds. SUBSCRIBE and UNSUBSCRIBE commands are given
+ * to {@link SubscriptionService} and removed from storage.
  */
 public class MessageReplyService extends Service {
 
+    /** Action of broadcast which tells that new messages are stored. */
+    public static final String ACTION_RECEIVED_MESSAGES = "zemris.fer.hr.iothingy.action.RECEIVED_MESSAGES";
+    /** Extra which contains IDs of stored messages. */
+    public static final String EXTRA_MESSAGE_IDS = "MESSAGE_IDS";
+    /** Delay after which stored messages are queued again if reply failed, in milliseconds. */
+    private static final long RETRY_DELAY = 5000;
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-        while (true) {
-            //get list of messages
-            List<ReceivedServerMessage> messages = StoringUtils.getReceivedMessages(getApplicationContext());
-            if (messages.size() == 0) {
-                try {
-                    Thread.sleep(5000);
-                    continue;
-                } catch (InterruptedException e) {
-                    continue;
+    /** Dispatcher of message IDs to worker threads. */
+    private ReplyDispatcher<String> dispatcher;
+    /** IDs of messages which are queued or handled in this moment. */
+    private final Set<String> queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Flag which tells if some message wasn't queued because queue was full. */
+    private volatile boolean rescanNeeded;
+    /** Flag which tells if rescan after failed reply is already scheduled. */
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    /** Executor for queueing stored messages. */
+    private ScheduledExecutorService scheduler;
+    /** Receiver for IDs of new messages. */
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String[] ids = intent.getStringArrayExtra(EXTRA_MESSAGE_IDS);
+            if (ids != null) {
+                for (String id : ids) {
+                    enqueue(id);
                 }
             }
-            new CommunicationTask(getApplicationContext(), messages.get(0).responseMessage(getApplicationContext()),
-                    false);
-            StoringUtils.removeReceivedMessage(getApplicationContext(), messages.get(0));
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                //do nothing
+        }
+    };
+    /** Task which queues all stored messages. */
+    private final Runnable rescan = new Runnable() {
+        @Override
+        public void run() {
+            rescanNeeded = false;
+            retryScheduled.set(false);
+            for (ReceivedServerMessage message : StoringUtils.getReceivedMessages(getApplicationContext())) {
+                enqueue(message.getStoreKey());
             }
         }
+    };
+
+    /**
+     * Method for notifying service about new stored messages. If service is not running, nothing happens.
+     *
+     * @param context
+     *         some context
+     * @param ids
+     *         IDs of stored messages
+     */
+    public static void notifyReceivedMessages(Context context, List<String> ids) {
+        Intent intent = new Intent(ACTION_RECEIVED_MESSAGES);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra(EXTRA_MESSAGE_IDS, ids.toArray(new String[ids.size()]));
+        context.sendBroadcast(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Context context = getApplicationContext();
+        StoringUtils.applySharedSecret(context);
+        StoringUtils.applyMessageIdFile(context);
+        dispatcher = new ReplyDispatcher<>(new ReplyDispatcher.BatchHandler<String>() {
+            @Override
+            public void handle(List<String> batch) {
+                reply(batch);
+            }
+        }, StoringUtils.getReplyWorkers(context), StoringUtils.getReplyQueueCapacity(context),
+                StoringUtils.getReplyBatchSize(context));
+        dispatcher.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        registerReceiver(receiver, new IntentFilter(ACTION_RECEIVED_MESSAGES));
+        //messages which are stored while service wasn't running
+        scheduler.execute(rescan);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        unregisterReceiver(receiver);
+        scheduler.shutdownNow();
+        dispatcher.shutdown();
     }
 
     @Override
@@ -59,4 +132,90 @@ public class MessageReplyService extends Service {
     public IBinder onBind(Intent intent) {
         return null;
     }
+
+    /**
+     * Method for queueing message. Message which is already queued is ignored. If queue is full, message is queued
+     * with next rescan.
+     *
+     * @param id
+     *         ID of stored message
+     */
+    private void enqueue(String id) {
+        if (queued.add(id) && !dispatcher.offer(id)) {
+            queued.remove(id);
+            rescanNeeded = true;
+        }
+    }
+
+    /**
+     * Method for replying to batch of messages. Messages are released from queue even if replying throws, and
+     * messages which aren't replied to are queued again with later rescan.
+     *
+     * @param ids
+     *         keys of stored messages
+     */
+    private void reply(List<String> ids) {
+        boolean sent = false;
+        try {
+            sent = sendReplies(ids);
+        } finally {
+            queued.removeAll(ids);
+            if (!scheduler.isShutdown()) {
+                if (!sent) {
+                    if (retryScheduled.compareAndSet(false, true)) {
+                        scheduler.schedule(rescan, RETRY_DELAY, TimeUnit.MILLISECONDS);
+                    }
+                } else if (rescanNeeded && dispatcher.pending() == 0) {
+                    scheduler.execute(rescan);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for sending replies to batch of messages. Replies for the same destination are sent together and messages
+     * are removed from storage only if their replies are sent. Subscriptions are started or stopped at once. Other
+     * messages which aren't GET commands stay stored so user can see them.
+     *
+     * @param ids
+     *         keys of stored messages
+     * @return true if all replies are sent
+     */
+    private boolean sendReplies(List<String> ids) {
+        Context context = getApplicationContext();
+        SensorValueSource source = new DeviceSensorValueSource(context);
+        Map<String, List<ReceivedServerMessage>> handled = new LinkedHashMap<>();
+        Map<String, List<Message>> responses = new LinkedHashMap<>();
+        for (String id : ids) {
+            ReceivedServerMessage message = StoringUtils.getReceivedMessage(context, id);
+            if (message == null) {
+                continue;
+            }
+            if (SubscriptionService.dispatch(context, message)) {
+                StoringUtils.removeReceivedMessage(context, message);
+                continue;
+            }
+            if (!message.isGetCommand()) {
+                continue;
+            }
+            String destination = message.getDestIP() + ":" + message.getDestPort();
+            if (!handled.containsKey(destination)) {
+                handled.put(destination, new ArrayList<ReceivedServerMessage>());
+                responses.put(destination, new ArrayList<Message>());
+            }
+            handled.get(destination).add(message);
+            responses.get(destination).add(message.responseMessage(source));
+        }
+        boolean sent = true;
+        for (Map.Entry<String, List<Message>> entry : responses.entrySet()) {
+            if (Constants.STRING_OK.equals(CommunicationTask.sendMessages(context, entry.getValue()))) {
+                for (ReceivedServerMessage message : handled.get(entry.getKey())) {
+                    StoringUtils.removeReceivedMessage(context, message);
+                }
+            } else {
+                sent = false;
+            }
+        }
+        return sent;
+    }
 }
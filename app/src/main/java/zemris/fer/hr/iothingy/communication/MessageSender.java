@@ -0,0 +1,465 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sender of messages which doesn't depend on Android. Every destination ({@code destIP:destPort}) has its own lane:
+ * sends to the same destination run one after another in order in which they are submitted, and sends to different
+ * destinations run in parallel on bounded executor. Lane runs one send and then gives thread to other lanes, so
+ * destination which doesn't answer (e.g. connect timeout) blocks only its own lane and at most one thread.
+ * <p>
+ * Number of sends which are queued or running is bounded; send which exceeds the bound fails immediately with {@link
+ * RejectedExecutionException}, so caller can keep messages somewhere else. Every send returns {@link Future} which can
+ * be cancelled: send which didn't start yet is removed from its lane, running send is interrupted. Result is also
+ * given to {@link Callback} on thread which finished send (or cancelled it).
+ */
+public class MessageSender {
+
+    /**
+     * Transport which exchanges lines with destination.
+     */
+    public interface Transport {
+        /**
+         * Method for sending lines to destination and receiving its replies.
+         *
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @param lines
+         *         lines for sending
+         * @return received lines
+         * @throws Exception
+         *         if lines can't be sent
+         */
+        List<String> exchange(String destIP, int destPort, List<String> lines) throws Exception;
+    }
+
+    /**
+     * Receiver of result of send.
+     */
+    public interface Callback {
+        /**
+         * Method which is called when lines are sent.
+         *
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @param replies
+         *         received lines
+         */
+        void onSent(String destIP, int destPort, List<String> replies);
+
+        /**
+         * Method which is called when lines aren't sent, including send which is rejected or cancelled.
+         *
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @param e
+         *         cause, {@link CancellationException} for cancelled send and {@link RejectedExecutionException} for
+         *         send which isn't accepted
+         */
+        void onFailed(String destIP, int destPort, Exception e);
+    }
+
+    /** Time after which idle thread of own executor ends, in milliseconds. */
+    private static final long THREAD_KEEP_ALIVE = 30 * 1000;
+
+    /** Transport for sending. */
+    private final Transport transport;
+    /** Executor which runs lanes. */
+    private final Executor executor;
+    /** Executor which is created by this sender and shut down with it, null for executor given by caller. */
+    private final ExecutorService ownExecutor;
+    /** Maximal number of sends which are queued or running. */
+    private final int maxPending;
+    /** Lanes which have queued or running sends, by destination. */
+    private final Map<String, Lane> lanes = new HashMap<>();
+    /** Number of sends which are queued or running. */
+    private int pending;
+    /** Flag which tells if sender is shut down. */
+    private boolean shutdown;
+
+    /**
+     * Constructor which creates own executor.
+     *
+     * @param transport
+     *         transport for sending
+     * @param threads
+     *         maximal number of destinations to which lines are sent at once
+     * @param maxPending
+     *         maximal number of sends which are queued or running
+     */
+    public MessageSender(Transport transport, int threads, int maxPending) {
+        this(transport, createExecutor(threads), maxPending);
+    }
+
+    /**
+     * Constructor with executor given by caller, e.g. executor which runs every task on new thread.
+     *
+     * @param transport
+     *         transport for sending
+     * @param executor
+     *         executor which runs lanes, it gets at most one task per destination at once
+     * @param maxPending
+     *         maximal number of sends which are queued or running
+     */
+    public MessageSender(Transport transport, Executor executor, int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Maximal number of pending sends must be positive");
+        }
+        this.transport = transport;
+        this.executor = executor;
+        this.ownExecutor = executor instanceof OwnExecutor ? (ExecutorService) executor : null;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Method for creating bounded executor whose threads end when they are idle.
+     *
+     * @param threads
+     *         maximal number of threads
+     * @return executor
+     */
+    private static Executor createExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        OwnExecutor executor = new OwnExecutor(threads);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Method for sending lines to destination. Lines are sent after all lines which were submitted before for the same
+     * destination.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param lines
+     *         lines for sending, they are copied
+     * @param callback
+     *         receiver of result, can be null
+     * @return future with received lines, it fails with {@link RejectedExecutionException} if send isn't accepted
+     */
+    public Future<List<String>> send(String destIP, int destPort, List<String> lines, Callback callback) {
+        Job job = new Job(destIP, destPort, new ArrayList<>(lines), callback);
+        Lane start = null;
+        String rejection = null;
+        synchronized (this) {
+            if (shutdown) {
+                rejection = "Sender is shut down";
+            } else if (pending >= maxPending) {
+                rejection = "Too many pending sends: " + pending;
+            } else {
+                String key = destIP + ":" + destPort;
+                Lane lane = lanes.get(key);
+                if (lane == null) {
+                    lane = new Lane(key);
+                    lanes.put(key, lane);
+                }
+                job.lane = lane;
+                lane.jobs.add(job);
+                pending++;
+                if (!lane.scheduled) {
+                    lane.scheduled = true;
+                    start = lane;
+                }
+            }
+        }
+        if (rejection != null) {
+            //callback isn't called while lock is held
+            job.reject(new RejectedExecutionException(rejection));
+        } else if (start != null) {
+            schedule(start);
+        }
+        return job;
+    }
+
+    /**
+     * Method for cancelling all sends to destination which didn't start yet.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @return number of cancelled sends
+     */
+    public int cancelPending(String destIP, int destPort) {
+        List<Job> jobs;
+        synchronized (this) {
+            Lane lane = lanes.get(destIP + ":" + destPort);
+            if (lane == null) {
+                return 0;
+            }
+            jobs = new ArrayList<>(lane.jobs);
+        }
+        int cancelled = 0;
+        for (Job job : jobs) {
+            if (job.cancel(false)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Method for shutting down sender. New sends are rejected, sends which are already submitted are finished. If
+     * executor is created by this sender, it is shut down when they are finished.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        finished();
+    }
+
+    /**
+     * Method which is called when send is finished. It wakes up threads which wait for termination and shuts down own
+     * executor if sender is shut down and nothing is pending. Lock of sender must be held.
+     */
+    private void finished() {
+        notifyAll();
+        if (shutdown && pending == 0 && ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Method for waiting until all submitted sends are finished, after {@link #shutdown()}.
+     *
+     * @param timeout
+     *         maximal time of waiting in milliseconds
+     * @return true if all sends are finished
+     * @throws InterruptedException
+     *         if thread is interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            long left;
+            while (pending > 0 && (left = deadline - System.currentTimeMillis()) > 0) {
+                wait(left);
+            }
+            return pending == 0;
+        }
+    }
+
+    /**
+     * Getter for number of sends which are queued or running.
+     *
+     * @return number of sends
+     */
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    /**
+     * Getter for number of destinations which have queued or running sends.
+     *
+     * @return number of destinations
+     */
+    public synchronized int getActiveDestinations() {
+        return lanes.size();
+    }
+
+    /**
+     * Method for giving lane to executor. If executor doesn't accept it, all sends of lane fail.
+     *
+     * @param lane
+     *         lane with queued sends
+     */
+    private void schedule(Lane lane) {
+        try {
+            executor.execute(lane);
+        } catch (RejectedExecutionException e) {
+            List<Job> jobs;
+            synchronized (this) {
+                jobs = new ArrayList<>(lane.jobs);
+                pending -= lane.jobs.size();
+                lane.jobs.clear();
+                lane.scheduled = false;
+                lanes.remove(lane.key);
+                finished();
+            }
+            for (Job job : jobs) {
+                job.reject(e);
+            }
+        }
+    }
+
+    /**
+     * Queue of sends to one destination.
+     */
+    private class Lane implements Runnable {
+        /** Destination in format destIP:destPort. */
+        private final String key;
+        /** Sends which didn't start yet. */
+        private final Queue<Job> jobs = new ArrayDeque<>();
+        /** Flag which tells if lane is given to executor. */
+        private boolean scheduled;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *         destination in format destIP:destPort
+         */
+        private Lane(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Job job;
+            synchronized (MessageSender.this) {
+                job = jobs.poll();
+            }
+            if (job != null) {
+                job.run();
+                //interrupt of cancelled send mustn't affect next send on this thread
+                Thread.interrupted();
+            }
+            boolean more;
+            synchronized (MessageSender.this) {
+                if (job != null) {
+                    pending--;
+                    finished();
+                }
+                more = !jobs.isEmpty();
+                if (!more) {
+                    scheduled = false;
+                    lanes.remove(key);
+                }
+            }
+            if (more) {
+                //other lanes get thread before next send of this lane
+                schedule(this);
+            }
+        }
+    }
+
+    /**
+     * One send, its future and its callback.
+     */
+    private class Job extends FutureTask<List<String>> {
+        /** Destination IP. */
+        private final String destIP;
+        /** Destination port. */
+        private final int destPort;
+        /** Receiver of result. */
+        private final Callback callback;
+        /** Lane of send, null for rejected send. */
+        private Lane lane;
+
+        /**
+         * Constructor.
+         *
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @param lines
+         *         lines for sending
+         * @param callback
+         *         receiver of result, can be null
+         */
+        private Job(final String destIP, final int destPort, final List<String> lines, Callback callback) {
+            super(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return transport.exchange(destIP, destPort, Collections.unmodifiableList(lines));
+                }
+            });
+            this.destIP = destIP;
+            this.destPort = destPort;
+            this.callback = callback;
+        }
+
+        /**
+         * Method for failing send which isn't accepted.
+         *
+         * @param e
+         *         cause
+         */
+        private void reject(RejectedExecutionException e) {
+            setException(e);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                synchronized (MessageSender.this) {
+                    if (lane != null && lane.jobs.remove(this)) {
+                        pending--;
+                        finished();
+                    }
+                }
+            }
+            if (callback == null) {
+                return;
+            }
+            try {
+                callback.onSent(destIP, destPort, get());
+            } catch (CancellationException e) {
+                callback.onFailed(destIP, destPort, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                callback.onFailed(destIP, destPort, cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException e) {
+                //can't happen, send is already done
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                //failure of callback mustn't stop lane
+            }
+        }
+    }
+
+    /**
+     * Executor which is created by sender.
+     */
+    private static class OwnExecutor extends ThreadPoolExecutor {
+        /** Number of created threads, used for their names. */
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        /**
+         * Constructor.
+         *
+         * @param threads
+         *         maximal number of threads
+         */
+        private OwnExecutor(int threads) {
+            super(threads, threads, THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "message-sender-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+}
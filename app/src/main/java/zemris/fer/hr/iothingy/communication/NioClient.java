@@ -0,0 +1,649 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Client which talks to many destinations at once from one thread. It speaks the same line based protocol as {@link
+ * ConnectionPool} (for every sent line, server returns zero or more lines terminated with line {@code idle}), but all
+ * connections are non-blocking and multiplexed by one {@link Selector}: connects, writes and reads of all destinations
+ * progress together, so sending to many servers doesn't need thread per server. Bytes are moved through two direct
+ * buffers which are reused by all connections.
+ * <p>
+ * Every destination has one persistent connection. Sends to the same destination are pipelined on it and answered in
+ * order. If server closes connection after some replies, lines which weren't answered are sent again through new
+ * connection, like in {@link ConnectionPool}. Idle connections are closed after keep-alive time. Callbacks are called
+ * on selector thread, so they must be short. Host names are resolved on selector thread, so destinations should be IP
+ * addresses.
+ */
+public class NioClient implements Closeable {
+
+    /** Line which tells that server has nothing more to say for one sent line. */
+    private static final String IDLE = "idle";
+    /** Size of direct buffers in bytes. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Maximal time of one select in milliseconds, timeouts are checked after every select. */
+    private static final long SELECT_TIMEOUT = 100;
+    /** Charset of lines. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Connect timeout in milliseconds. */
+    private final int connectTimeout;
+    /** Time without data after which sends fail, in milliseconds. */
+    private final int readTimeout;
+    /** Time after which idle connection is closed, in milliseconds. */
+    private final long keepAlive;
+    /** Selector of all connections. */
+    private final Selector selector;
+    /** Sends which are submitted but not yet given to their connections. */
+    private final Queue<Request> submitted = new ConcurrentLinkedQueue<>();
+    /** Connections by destination, used only on selector thread. */
+    private final Map<String, Connection> connections = new HashMap<>();
+    /** Buffer for reading, shared by all connections. */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** Buffer for writing, shared by all connections. */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** Selector thread. */
+    private final Thread thread;
+    /** Flag which tells if client is closed. */
+    private volatile boolean closed;
+    /** Number of opened connections, used only for statistics. */
+    private volatile int openedConnections;
+
+    /**
+     * Constructor which starts selector thread.
+     *
+     * @param connectTimeout
+     *         connect timeout in milliseconds
+     * @param readTimeout
+     *         time without data after which sends fail, in milliseconds
+     * @param keepAlive
+     *         time after which idle connection is closed, in milliseconds
+     * @throws IOException
+     *         if selector can't be opened
+     */
+    public NioClient(int connectTimeout, int readTimeout, long keepAlive) throws IOException {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.keepAlive = keepAlive;
+        selector = Selector.open();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "nio-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method for sending lines to destination without blocking.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param lines
+     *         lines for sending, without line terminator, they are copied
+     * @param callback
+     *         receiver of result which is called on selector thread, can be null
+     * @return future with all lines which server returned (lines {@code idle} are not included), it fails with {@link
+     * ConnectionPool.PartialSendException} if some lines are answered before failure; cancelling it only stops
+     * waiting, lines which are already written are still answered
+     */
+    public Future<List<String>> send(String destIP, int destPort, List<String> lines,
+                                     MessageSender.Callback callback) {
+        Request request = new Request(destIP, destPort, new ArrayList<>(lines), callback);
+        if (closed) {
+            request.fail(new IOException("Client is closed"));
+        } else if (lines.isEmpty()) {
+            request.complete();
+        } else {
+            submitted.add(request);
+            selector.wakeup();
+            if (closed && submitted.remove(request)) {
+                //selector thread ended before it took request
+                request.fail(new IOException("Client is closed"));
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Method for sending lines to destination and waiting for replies, so client can be used where {@link
+     * ConnectionPool#send(String, int, List)} is used.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @param lines
+     *         lines for sending, without line terminator
+     * @return list of received lines
+     * @throws IOException
+     *         if some line can't be sent or its reply can't be read, {@link ConnectionPool.PartialSendException} if
+     *         some lines are answered before that
+     */
+    public List<String> exchange(String destIP, int destPort, List<String> lines) throws IOException {
+        try {
+            return send(destIP, destPort, lines, null).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + destIP + ":" + destPort);
+        }
+    }
+
+    /**
+     * Getter for number of opened connections.
+     *
+     * @return number of connections
+     */
+    public int getOpenedConnections() {
+        return openedConnections;
+    }
+
+    /**
+     * Method for closing client. All connections are closed and sends which aren't answered fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(SELECT_TIMEOUT * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loop of selector thread.
+     */
+    private void loop() {
+        IOException failure = new IOException("Client is closed");
+        try {
+            while (!closed) {
+                selector.select(SELECT_TIMEOUT);
+                long now = System.currentTimeMillis();
+                Request request;
+                while ((request = submitted.poll()) != null) {
+                    submit(request, now);
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            connection.finishConnect(now);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read(now);
+                        }
+                    } catch (IOException e) {
+                        connection.broken(e, now);
+                    }
+                }
+                checkTimeouts(now);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            closed = true;
+            for (Connection connection : new ArrayList<>(connections.values())) {
+                connection.failAll(failure);
+            }
+            Request request;
+            while ((request = submitted.poll()) != null) {
+                request.fail(failure);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Method for giving send to connection of its destination. Connection is opened if it isn't open.
+     *
+     * @param request
+     *         send
+     * @param now
+     *         current time
+     */
+    private void submit(Request request, long now) {
+        String key = request.destIP + ":" + request.destPort;
+        Connection connection = connections.get(key);
+        if (connection == null) {
+            connection = new Connection(key, request.destIP, request.destPort);
+            connections.put(key, connection);
+        }
+        try {
+            connection.enqueue(request, now);
+        } catch (IOException e) {
+            connection.broken(e, now);
+        }
+    }
+
+    /**
+     * Method for failing sends which wait for too long and closing connections which are idle for too long.
+     *
+     * @param now
+     *         current time
+     */
+    private void checkTimeouts(long now) {
+        for (Connection connection : new ArrayList<>(connections.values())) {
+            if (connection.requests.isEmpty()) {
+                if (now - connection.lastUsed >= keepAlive) {
+                    connection.closeChannel();
+                    connections.remove(connection.key);
+                }
+            } else if (now >= connection.deadline) {
+                connection.failAll(connection.connected
+                        ? new SocketTimeoutException("Read timed out from " + connection.key)
+                        : new SocketTimeoutException("Connect timed out to " + connection.key));
+            }
+        }
+    }
+
+    /**
+     * Connection to one destination. It is used only on selector thread.
+     */
+    private class Connection {
+        /** Destination in format destIP:destPort. */
+        private final String key;
+        /** Destination IP. */
+        private final String destIP;
+        /** Destination port. */
+        private final int destPort;
+        /** Sends in order in which they are answered. */
+        private final Deque<Request> requests = new ArrayDeque<>();
+        /** Encoded lines which aren't written yet. */
+        private byte[] out = new byte[1024];
+        /** Index of first byte which isn't written. */
+        private int outStart;
+        /** Index after last encoded byte. */
+        private int outEnd;
+        /** Bytes of line which isn't received completely. */
+        private byte[] line = new byte[256];
+        /** Number of bytes of line which isn't received completely. */
+        private int lineLength;
+        /** Channel, null if connection isn't open. */
+        private SocketChannel channel;
+        /** Key of channel in selector. */
+        private SelectionKey selectionKey;
+        /** Flag which tells if channel is connected. */
+        private boolean connected;
+        /** Number of lines answered through current channel. */
+        private int answered;
+        /** Time until which connect has to finish or next data has to arrive. */
+        private long deadline;
+        /** Time when last send was answered. */
+        private long lastUsed;
+
+        /**
+         * Constructor.
+         *
+         * @param key
+         *         destination in format destIP:destPort
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         */
+        private Connection(String key, String destIP, int destPort) {
+            this.key = key;
+            this.destIP = destIP;
+            this.destPort = destPort;
+        }
+
+        /**
+         * Method for adding send to connection. Its lines are written after lines of previous sends.
+         *
+         * @param request
+         *         send
+         * @param now
+         *         current time
+         * @throws IOException
+         *         if channel can't be opened
+         */
+        private void enqueue(Request request, long now) throws IOException {
+            if (requests.isEmpty()) {
+                deadline = now + (connected ? readTimeout : connectTimeout);
+            }
+            requests.add(request);
+            encode(request);
+            if (channel == null) {
+                open(now);
+            } else if (connected) {
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Method for opening channel and starting non-blocking connect.
+         *
+         * @param now
+         *         current time
+         * @throws IOException
+         *         if channel can't be opened
+         */
+        private void open(long now) throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            openedConnections++;
+            answered = 0;
+            lineLength = 0;
+            connected = channel.connect(new InetSocketAddress(destIP, destPort));
+            deadline = now + (connected ? readTimeout : connectTimeout);
+            selectionKey = channel.register(selector, connected
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+        }
+
+        /**
+         * Method for finishing connect.
+         *
+         * @param now
+         *         current time
+         * @throws IOException
+         *         if connect failed
+         */
+        private void finishConnect(long now) throws IOException {
+            if (channel.finishConnect()) {
+                connected = true;
+                deadline = now + readTimeout;
+                selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Method for adding lines of send which aren't answered yet to bytes for writing.
+         *
+         * @param request
+         *         send
+         */
+        private void encode(Request request) {
+            for (int i = request.answered; i < request.lines.size(); ++i) {
+                byte[] bytes = request.lines.get(i).getBytes(UTF_8);
+                if (outEnd + bytes.length + 2 > out.length) {
+                    if (outStart > 0) {
+                        System.arraycopy(out, outStart, out, 0, outEnd - outStart);
+                        outEnd -= outStart;
+                        outStart = 0;
+                    }
+                    if (outEnd + bytes.length + 2 > out.length) {
+                        out = Arrays.copyOf(out, Math.max(2 * out.length, outEnd + bytes.length + 2));
+                    }
+                }
+                System.arraycopy(bytes, 0, out, outEnd, bytes.length);
+                outEnd += bytes.length;
+                out[outEnd++] = '\r';
+                out[outEnd++] = '\n';
+            }
+        }
+
+        /**
+         * Method for writing as many bytes as channel accepts.
+         *
+         * @throws IOException
+         *         if bytes can't be written
+         */
+        private void write() throws IOException {
+            while (outStart < outEnd) {
+                int length = Math.min(writeBuffer.capacity(), outEnd - outStart);
+                writeBuffer.clear();
+                writeBuffer.put(out, outStart, length);
+                writeBuffer.flip();
+                int written = channel.write(writeBuffer);
+                outStart += written;
+                if (written < length) {
+                    //socket buffer is full, the rest is written when channel is writable again
+                    return;
+                }
+            }
+            outStart = 0;
+            outEnd = 0;
+            selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Method for reading available bytes and handling complete lines.
+         *
+         * @param now
+         *         current time
+         * @throws IOException
+         *         if bytes can't be read or server closed connection
+         */
+        private void read(long now) throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                throw new EOFException("Connection closed by " + key);
+            }
+            deadline = now + readTimeout;
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    lineLength = 0;
+                    onLine(new String(line, 0, length, UTF_8), now);
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, 2 * line.length);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        /**
+         * Method for handling received line.
+         *
+         * @param received
+         *         line without terminator
+         * @param now
+         *         current time
+         */
+        private void onLine(String received, long now) {
+            Request request = requests.peekFirst();
+            if (request == null) {
+                //line which nobody waits for
+                return;
+            }
+            if (!IDLE.equals(received)) {
+                request.replies.add(received);
+                return;
+            }
+            answered++;
+            request.answered++;
+            if (request.answered == request.lines.size()) {
+                requests.pollFirst();
+                request.complete();
+                if (requests.isEmpty()) {
+                    lastUsed = now;
+                }
+            }
+        }
+
+        /**
+         * Method for handling failure of channel. If channel answered some lines before it failed, server probably
+         * closed it, so lines which aren't answered are sent again through new channel. Otherwise all sends fail.
+         *
+         * @param e
+         *         failure
+         * @param now
+         *         current time
+         */
+        private void broken(IOException e, long now) {
+            boolean retry = answered > 0 && !requests.isEmpty();
+            closeChannel();
+            if (!retry) {
+                failAll(e);
+                return;
+            }
+            outStart = 0;
+            outEnd = 0;
+            for (Request request : requests) {
+                encode(request);
+            }
+            deadline = now + connectTimeout;
+            try {
+                open(now);
+            } catch (IOException openFailure) {
+                closeChannel();
+                failAll(openFailure);
+            }
+        }
+
+        /**
+         * Method for failing all sends and closing connection.
+         *
+         * @param e
+         *         failure
+         */
+        private void failAll(IOException e) {
+            closeChannel();
+            connections.remove(key);
+            Request request;
+            while ((request = requests.pollFirst()) != null) {
+                request.fail(e);
+            }
+        }
+
+        /**
+         * Method for closing channel.
+         */
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    //ignore
+                }
+            }
+            channel = null;
+            selectionKey = null;
+            connected = false;
+        }
+    }
+
+    /**
+     * One send and its future.
+     */
+    private static class Request extends FutureTask<List<String>> {
+        /** Destination IP. */
+        private final String destIP;
+        /** Destination port. */
+        private final int destPort;
+        /** Lines for sending. */
+        private final List<String> lines;
+        /** Receiver of result, can be null. */
+        private final MessageSender.Callback callback;
+        /** Received lines. */
+        private final List<String> replies = new ArrayList<>();
+        /** Number of answered lines. */
+        private int answered;
+
+        /**
+         * Constructor.
+         *
+         * @param destIP
+         *         destination IP
+         * @param destPort
+         *         destination port
+         * @param lines
+         *         lines for sending
+         * @param callback
+         *         receiver of result, can be null
+         */
+        private Request(String destIP, int destPort, List<String> lines, MessageSender.Callback callback) {
+            super(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    throw new UnsupportedOperationException("Request is completed by selector");
+                }
+            });
+            this.destIP = destIP;
+            this.destPort = destPort;
+            this.lines = lines;
+            this.callback = callback;
+        }
+
+        /**
+         * Method for completing send with received lines.
+         */
+        private void complete() {
+            set(replies);
+        }
+
+        /**
+         * Method for failing send. If some lines are already answered, send fails with {@link
+         * ConnectionPool.PartialSendException}, so their replies aren't lost.
+         *
+         * @param e
+         *         failure
+         */
+        private void fail(IOException e) {
+            setException(ConnectionPool.failure(e, answered, replies));
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null) {
+                return;
+            }
+            try {
+                List<String> result;
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    callback.onFailed(destIP, destPort, (Exception) e.getCause());
+                    return;
+                } catch (CancellationException e) {
+                    callback.onFailed(destIP, destPort, e);
+                    return;
+                }
+                callback.onSent(destIP, destPort, result);
+            } catch (InterruptedException | RuntimeException e) {
+                //failure of callback mustn't stop selector
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Dispatcher which hands queued items to worker threads in batches. Queue has limited capacity, so producers get back
+ * pressure: {@link #offer(Object)} returns false when queue is full and {@link #put(Object)} waits until there is
+ * space. Every worker waits for first item and then takes all items which are already queued (at most batch size), so
+ * items are handled as soon as they arrive and there is no fixed pause between batches.
+ *
+ * @param <T>
+ *         type of items
+ */
+public class ReplyDispatcher<T> {
+
+    /**
+     * Handler for batch of items. It is called from worker threads.
+     *
+     * @param <T>
+     *         type of items
+     */
+    public interface BatchHandler<T> {
+        /**
+         * Method for handling batch of items.
+         *
+         * @param batch
+         *         items in order in which they are queued
+         */
+        void handle(List<T> batch);
+    }
+
+    /** Queue of items. */
+    private final BlockingQueue<T> queue;
+    /** Handler for batches. */
+    private final BatchHandler<T> handler;
+    /** Worker threads. */
+    private final Thread[] workers;
+    /** Maximal number of items in one batch. */
+    private final int maxBatch;
+    /** Flag which tells if dispatcher is stopped. */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     *
+     * @param handler
+     *         handler for batches
+     * @param workers
+     *         number of worker threads
+     * @param capacity
+     *         capacity of queue
+     * @param maxBatch
+     *         maximal number of items in one batch
+     */
+    public ReplyDispatcher(BatchHandler<T> handler, int workers, int capacity, int maxBatch) {
+        if (workers < 1 || capacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Workers, capacity and batch size must be positive");
+        }
+        this.handler = handler;
+        this.maxBatch = maxBatch;
+        queue = new ArrayBlockingQueue<>(capacity);
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; ++i) {
+            this.workers[i] = new Thread(new Worker(), "reply-worker-" + i);
+        }
+    }
+
+    /**
+     * Method for starting worker threads.
+     */
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Method for queueing item without waiting.
+     *
+     * @param item
+     *         item for queueing
+     * @return true if item is queued, false if queue is full or dispatcher is stopped
+     */
+    public boolean offer(T item) {
+        return !stopped && queue.offer(item);
+    }
+
+    /**
+     * Method for queueing item which waits until there is space in queue.
+     *
+     * @param item
+     *         item for queueing
+     * @throws InterruptedException
+     *         if thread is interrupted while waiting
+     */
+    public void put(T item) throws InterruptedException {
+        if (stopped) {
+            throw new IllegalStateException("Dispatcher is stopped");
+        }
+        queue.put(item);
+    }
+
+    /**
+     * Getter for number of queued items.
+     *
+     * @return number of items
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * Method for stopping worker threads. Batches which are handled in the moment of stopping are finished, queued
+     * items are discarded.
+     */
+    public void shutdown() {
+        stopped = true;
+        queue.clear();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Worker which takes batches from queue.
+     */
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            List<T> batch = new ArrayList<>(maxBatch);
+            while (!stopped) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                try {
+                    handler.handle(batch);
+                } catch (RuntimeException e) {
+                    //one bad batch mustn't stop worker
+                }
+                batch.clear();
+            }
+        }
+    }
+}
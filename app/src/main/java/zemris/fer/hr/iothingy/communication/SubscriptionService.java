@@ -0,0 +1,157 @@
+package zemris.fer.hr.iothingy.communication;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.support.annotation.Nullable;
+import zemris.fer.hr.iothingy.sensors.DeviceSensorValueSource;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+import zemris.fer.hr.iothingy.utils.StoringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Service which handles SUBSCRIBE and UNSUBSCRIBE commands and streams subscriptions by one {@link SubscriptionSession}
+ * per server. Commands are given to it by {@link #dispatch(Context, ReceivedServerMessage)}, both by {@link
+ * MessageReplyService} and when user replies to message, so all sessions live in one process, the process of {@link
+ * MessageReplyService}. Subscription is added to session of its server, which is started if there is no session yet,
+ * and session streams updates until subscription is cancelled. Lines which server returns for updates and which aren't
+ * commands for session are stored like other replies. Service stops when its last session stops.
+ */
+public class SubscriptionService extends Service {
+
+    /** Extra with command in format returned by {@link ReceivedServerMessage#storeMsgFormat()}. */
+    public static final String EXTRA_MESSAGE = "MESSAGE";
+    /** Connect timeout of sessions, in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 5000;
+    /** Read timeout of sessions, in milliseconds. */
+    private static final int READ_TIMEOUT = 10000;
+
+    /** Sessions by destinations in format destIP:destPort. */
+    private final Map<String, SubscriptionSession> sessions = new HashMap<>();
+    /** Executor which handles commands in order in which they are given. */
+    private ExecutorService executor;
+    /** ID of last start of service, service is stopped with it so newer commands keep it running. */
+    private volatile int lastStartId;
+
+    /**
+     * Method for giving SUBSCRIBE or UNSUBSCRIBE command to service. Caller can remove command from storage, because
+     * command is given to service whole.
+     *
+     * @param context
+     *         some context
+     * @param message
+     *         received message
+     * @return true if message is SUBSCRIBE or UNSUBSCRIBE command, false if it is some other message
+     */
+    public static boolean dispatch(Context context, ReceivedServerMessage message) {
+        if (!message.isSubscribeCommand() && !message.isUnsubscribeCommand()) {
+            return false;
+        }
+        Intent intent = new Intent(context, SubscriptionService.class);
+        intent.putExtra(EXTRA_MESSAGE, message.storeMsgFormat());
+        context.startService(intent);
+        return true;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Context context = getApplicationContext();
+        //updates need shared secret and message IDs like other messages
+        StoringUtils.applySharedSecret(context);
+        StoringUtils.applyMessageIdFile(context);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        super.onStartCommand(intent, flags, startId);
+        lastStartId = startId;
+        final String storeMsg = intent == null ? null : intent.getStringExtra(EXTRA_MESSAGE);
+        final int id = startId;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (storeMsg != null) {
+                    handle(ReceivedServerMessage.parseStoreMsg(storeMsg));
+                }
+                synchronized (sessions) {
+                    if (sessions.isEmpty()) {
+                        stopSelf(id);
+                    }
+                }
+            }
+        });
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdownNow();
+        List<SubscriptionSession> open;
+        synchronized (sessions) {
+            open = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        for (SubscriptionSession session : open) {
+            session.close();
+        }
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Method for handling SUBSCRIBE or UNSUBSCRIBE command.
+     *
+     * @param message
+     *         command
+     */
+    private void handle(ReceivedServerMessage message) {
+        final Context appContext = getApplicationContext();
+        final String key = message.getDestIP() + ":" + message.getDestPort();
+        synchronized (sessions) {
+            SubscriptionSession session = sessions.get(key);
+            if (message.isUnsubscribeCommand()) {
+                if (session != null) {
+                    session.unsubscribe(message);
+                }
+                return;
+            }
+            if (session == null || !session.subscribe(message)) {
+                session = new SubscriptionSession(message.getDestIP(), message.getDestPort(),
+                        new DeviceSensorValueSource(appContext), new SubscriptionSession.Listener() {
+                    @Override
+                    public void onReplies(String destIP, int destPort, List<String> lines) {
+                        CommunicationTask.storeReplies(appContext, destIP, destPort, lines);
+                    }
+
+                    @Override
+                    public void onClosed(SubscriptionSession session) {
+                        synchronized (sessions) {
+                            if (sessions.get(key) == session) {
+                                sessions.remove(key);
+                            }
+                            if (sessions.isEmpty()) {
+                                stopSelf(lastStartId);
+                            }
+                        }
+                    }
+                }, CONNECT_TIMEOUT, READ_TIMEOUT);
+                session.subscribe(message);
+                sessions.put(key, session);
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package zemris.fer.hr.iothingy.communication;
+
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+import zemris.fer.hr.iothingy.utils.DeltaReporter;
+import zemris.fer.hr.iothingy.utils.Message;
+import zemris.fer.hr.iothingy.utils.MessageCrypto;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent session with one server which streams updates of its subscriptions. Server subscribes with SUBSCRIBE
+ * command (see {@link ReceivedServerMessage#isSubscribeCommand()}) and session then sends update with asked sensor
+ * values every period of that subscription, see {@link ReceivedServerMessage#updateMessage(SensorValueSource)}. All
+ * updates go through one connection which stays open, so server doesn't have to ask again and device doesn't have to
+ * reconnect. Protocol is the same as for other messages: for every update server returns zero or more lines and then
+ * line {@code idle}. Returned SUBSCRIBE and UNSUBSCRIBE commands change subscriptions, GET commands are answered on
+ * the same connection and other lines are given to {@link Listener}.
+ * <p>
+ * Updates are sent from thread of session. If update can't be sent, connection is opened again for next update, and
+ * after {@link #MAX_FAILURES} failed updates in a row session stops. Session stops also when its last subscription is
+ * cancelled, and stopped session can't be used again.
+ */
+public class SubscriptionSession {
+
+    /**
+     * Receiver of events of session. It is called from thread of session.
+     */
+    public interface Listener {
+
+        /**
+         * Method which is called with lines which server returned and which session doesn't handle itself.
+         *
+         * @param destIP
+         *         IP of server
+         * @param destPort
+         *         port of server
+         * @param lines
+         *         returned lines
+         */
+        void onReplies(String destIP, int destPort, List<String> lines);
+
+        /**
+         * Method which is called when session stops.
+         *
+         * @param session
+         *         stopped session
+         */
+        void onClosed(SubscriptionSession session);
+    }
+
+    /** Number of failed updates in a row after which session stops. */
+    public static final int MAX_FAILURES = 5;
+    /** Line which ends replies to one line. */
+    private static final String IDLE = "idle";
+    /** Line terminator. */
+    private static final String LINE_END = "\r\n";
+
+    /** Server IP. */
+    private final String destIP;
+    /** Server port. */
+    private final int destPort;
+    /** Source of sensor values. */
+    private final SensorValueSource source;
+    /** Receiver of events. */
+    private final Listener listener;
+    /** Connect timeout in milliseconds. */
+    private final int connectTimeout;
+    /** Read timeout in milliseconds. */
+    private final int readTimeout;
+    /** Subscriptions by message IDs of their SUBSCRIBE commands. */
+    private final Map<String, Subscription> subscriptions = new LinkedHashMap<>();
+    /** Thread of session. */
+    private final Thread thread;
+    /** Flag which tells if session is stopped. */
+    private boolean closed;
+    /** Socket, null if there is no connection. */
+    private volatile Socket socket;
+    /** Input of connection. */
+    private BufferedReader in;
+    /** Output of connection. */
+    private BufferedWriter out;
+    /** Number of opened connections. */
+    private volatile int openedConnections;
+    /** Number of sent updates. */
+    private volatile long sentUpdates;
+
+    /**
+     * Constructor. Session starts with first subscription.
+     *
+     * @param destIP
+     *         server IP
+     * @param destPort
+     *         server port
+     * @param source
+     *         source of sensor values
+     * @param listener
+     *         receiver of events
+     * @param connectTimeout
+     *         connect timeout in milliseconds
+     * @param readTimeout
+     *         read timeout in milliseconds
+     */
+    public SubscriptionSession(String destIP, int destPort, SensorValueSource source, Listener listener,
+                               int connectTimeout, int readTimeout) {
+        this.destIP = destIP;
+        this.destPort = destPort;
+        this.source = source;
+        this.listener = listener;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "subscription-" + destIP + ":" + destPort);
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Method for adding subscription. First update is sent at once. Subscription which is already added is ignored.
+     *
+     * @param message
+     *         SUBSCRIBE command
+     * @return true if subscription is added or it already exists, false if session is stopped
+     * @throws IllegalArgumentException
+     *         if message isn't SUBSCRIBE command
+     */
+    public synchronized boolean subscribe(ReceivedServerMessage message) {
+        if (!message.isSubscribeCommand()) {
+            throw new IllegalArgumentException("Message " + message.getMessageID() + " isn't SUBSCRIBE command");
+        }
+        if (closed) {
+            return false;
+        }
+        if (!subscriptions.containsKey(message.getMessageID())) {
+            subscriptions.put(message.getMessageID(), new Subscription(message, System.currentTimeMillis()));
+            if (thread.getState() == Thread.State.NEW) {
+                thread.start();
+            }
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Method for cancelling subscriptions. If previous message ID of UNSUBSCRIBE command is ID of some SUBSCRIBE
+     * command or of last update of some subscription, only that subscription is cancelled. Otherwise all subscriptions
+     * of thing which sent UNSUBSCRIBE command are cancelled.
+     *
+     * @param message
+     *         UNSUBSCRIBE command
+     * @return number of cancelled subscriptions
+     */
+    public synchronized int unsubscribe(ReceivedServerMessage message) {
+        String previous = message.getPreviousMessageID();
+        if (subscriptions.remove(previous) != null) {
+            notifyAll();
+            return 1;
+        }
+        List<Subscription> cancelled = new ArrayList<>();
+        for (Subscription subscription : subscriptions.values()) {
+            if (previous.equals(subscription.lastUpdateID)) {
+                cancelled.clear();
+                cancelled.add(subscription);
+                break;
+            }
+            if (subscription.message.getSrcID().equals(message.getSrcID())) {
+                cancelled.add(subscription);
+            }
+        }
+        for (Subscription subscription : cancelled) {
+            subscriptions.remove(subscription.message.getMessageID());
+        }
+        notifyAll();
+        return cancelled.size();
+    }
+
+    /**
+     * Method for stopping session. All subscriptions are cancelled and connection is closed.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            subscriptions.clear();
+            notifyAll();
+        }
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Method for waiting until session stops.
+     *
+     * @param timeout
+     *         maximal time of waiting in milliseconds
+     * @throws InterruptedException
+     *         if thread is interrupted
+     */
+    public void join(long timeout) throws InterruptedException {
+        if (thread.getState() != Thread.State.NEW) {
+            thread.join(timeout);
+        }
+    }
+
+    /**
+     * Getter for server IP.
+     *
+     * @return server IP
+     */
+    public String getDestIP() {
+        return destIP;
+    }
+
+    /**
+     * Getter for server port.
+     *
+     * @return server port
+     */
+    public int getDestPort() {
+        return destPort;
+    }
+
+    /**
+     * Getter for number of active subscriptions.
+     *
+     * @return number of subscriptions
+     */
+    public synchronized int getSubscriptions() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Method for checking if session is stopped.
+     *
+     * @return true if session is stopped
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Getter for number of connections which session opened.
+     *
+     * @return number of connections
+     */
+    public int getOpenedConnections() {
+        return openedConnections;
+    }
+
+    /**
+     * Getter for number of sent updates.
+     *
+     * @return number of updates
+     */
+    public long getSentUpdates() {
+        return sentUpdates;
+    }
+
+    /**
+     * Loop of thread of session.
+     */
+    private void loop() {
+        int failures = 0;
+        try {
+            for (List<Subscription> due = awaitDue(); due != null; due = awaitDue()) {
+                List<String> lines = new ArrayList<>(due.size());
+                try {
+                    for (Subscription subscription : due) {
+                        Message update = subscription.message.updateMessage(source);
+                        subscription.lastUpdateID = update.getMessageID();
+                        lines.add(update.getComSendMessage());
+                    }
+                    exchange(lines);
+                    sentUpdates += lines.size();
+                    failures = 0;
+                } catch (IOException | RuntimeException e) {
+                    disconnect();
+                    //updates which aren't delivered mustn't be treated as sent by delta reporting
+                    DeltaReporter.getInstance().resetAddress(destIP, destPort);
+                    if (++failures >= MAX_FAILURES) {
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //session is stopped
+        } finally {
+            synchronized (this) {
+                closed = true;
+                subscriptions.clear();
+            }
+            disconnect();
+            listener.onClosed(this);
+        }
+    }
+
+    /**
+     * Method for waiting until some subscriptions need update. Ticks which are missed because previous update was late
+     * are skipped, so updates don't pile up.
+     *
+     * @return subscriptions which need update, or null if session is stopped or has no subscriptions
+     * @throws InterruptedException
+     *         if thread is interrupted
+     */
+    private synchronized List<Subscription> awaitDue() throws InterruptedException {
+        while (!closed && !subscriptions.isEmpty()) {
+            long now = System.currentTimeMillis();
+            long next = Long.MAX_VALUE;
+            List<Subscription> due = new ArrayList<>();
+            for (Subscription subscription : subscriptions.values()) {
+                if (subscription.next <= now) {
+                    long period = subscription.message.getPeriod();
+                    subscription.next += ((now - subscription.next) / period + 1) * period;
+                    due.add(subscription);
+                }
+                next = Math.min(next, subscription.next);
+            }
+            if (!due.isEmpty()) {
+                return due;
+            }
+            wait(next - now);
+        }
+        return null;
+    }
+
+    /**
+     * Method for writing lines and reading their replies. Commands in replies are handled and answers to GET commands
+     * are written on the same connection until server has nothing more to say.
+     *
+     * @param lines
+     *         lines for sending
+     * @throws IOException
+     *         if lines can't be sent or server closes connection
+     */
+    private void exchange(List<String> lines) throws IOException {
+        if (socket == null) {
+            connect();
+        }
+        List<String> pending = new ArrayList<>(lines);
+        List<String> other = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            for (String line : pending) {
+                out.write(line);
+                out.write(LINE_END);
+            }
+            out.flush();
+            int count = pending.size();
+            pending.clear();
+            for (int i = 0; i < count; ++i) {
+                for (String line = readLine(); !IDLE.equalsIgnoreCase(line); line = readLine()) {
+                    handle(line, pending, other);
+                }
+            }
+        }
+        if (!other.isEmpty()) {
+            listener.onReplies(destIP, destPort, other);
+        }
+    }
+
+    /**
+     * Method for handling line which server returned.
+     *
+     * @param line
+     *         returned line
+     * @param pending
+     *         list into which lines which need to be written are added
+     * @param other
+     *         list into which lines which aren't handled by session are added
+     */
+    private void handle(String line, List<String> pending, List<String> other) {
+        ReceivedServerMessage message;
+        try {
+            message = ReceivedServerMessage.parseReceivedMessage(line, "INTERNET",
+                    MessageCrypto.nameOf(line.charAt(0)), destIP, "" + destPort);
+        } catch (RuntimeException e) {
+            //malformed line can't be handled by anyone
+            return;
+        }
+        if (message.isSubscribeCommand()) {
+            subscribe(message);
+        } else if (message.isUnsubscribeCommand()) {
+            unsubscribe(message);
+        } else if (message.isGetCommand()) {
+            pending.add(message.responseMessage(source).getComSendMessage());
+        } else {
+            other.add(line);
+        }
+    }
+
+    /**
+     * Method for reading one line.
+     *
+     * @return read line
+     * @throws IOException
+     *         if line can't be read or server closed connection
+     */
+    private String readLine() throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException("Connection closed by server");
+        }
+        return line;
+    }
+
+    /**
+     * Method for opening connection to server.
+     *
+     * @throws IOException
+     *         if connection can't be opened
+     */
+    private void connect() throws IOException {
+        Socket opened = new Socket();
+        try {
+            opened.connect(new InetSocketAddress(destIP, destPort), connectTimeout);
+            opened.setSoTimeout(readTimeout);
+            opened.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(opened.getInputStream(), "UTF-8"));
+            out = new BufferedWriter(new OutputStreamWriter(opened.getOutputStream(), "UTF-8"));
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        socket = opened;
+        openedConnections++;
+        if (isClosed()) {
+            //session is stopped while connection was opened
+            disconnect();
+            throw new IOException("Session is closed");
+        }
+    }
+
+    /**
+     * Method for closing connection.
+     */
+    private void disconnect() {
+        Socket current = socket;
+        socket = null;
+        in = null;
+        out = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Subscription of server.
+     */
+    private static class Subscription {
+        /** SUBSCRIBE command. */
+        private final ReceivedServerMessage message;
+        /** Time when next update is due, in milliseconds. */
+        private long next;
+        /** Message ID of last update, it is written by thread of session. */
+        private volatile String lastUpdateID;
+
+        /**
+         * Constructor.
+         *
+         * @param message
+         *         SUBSCRIBE command
+         * @param next
+         *         time when first update is due
+         */
+        private Subscription(ReceivedServerMessage message, long next) {
+            this.message = message;
+            this.next = next;
+        }
+    }
+}
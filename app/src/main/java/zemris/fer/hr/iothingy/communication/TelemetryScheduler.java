@@ -0,0 +1,272 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler which publishes telemetry on fixed cadence. Tick {@code n} is planned at {@code n * period} from start plus
+ * random jitter from 0 to given jitter, so jitter spreads devices which started at the same time but it doesn't
+ * accumulate. Publishing runs on its own thread and only one publish can run at once: if previous publish isn't
+ * finished when tick comes (e.g. server is slow), tick is skipped instead of queueing work. Ticks which are missed
+ * because scheduler thread was late are skipped too. Achieved rate can be compared with target rate.
+ */
+public class TelemetryScheduler {
+
+    /**
+     * Publisher of one telemetry message.
+     */
+    public interface Publisher {
+        /**
+         * Method for publishing telemetry of one tick.
+         *
+         * @param tick
+         *         index of tick, from 0
+         * @return true if telemetry is published
+         * @throws Exception
+         *         if telemetry can't be published
+         */
+        boolean publish(long tick) throws Exception;
+    }
+
+    /** Publisher of telemetry. */
+    private final Publisher publisher;
+    /** Period between ticks in milliseconds. */
+    private final long period;
+    /** Maximal jitter of tick in milliseconds. */
+    private final long jitter;
+    /** Generator of jitter. */
+    private final Random random;
+    /** Flag which tells if publish is running. */
+    private final AtomicBoolean busy = new AtomicBoolean();
+    /** Number of ticks. */
+    private final AtomicLong ticks = new AtomicLong();
+    /** Number of published messages. */
+    private final AtomicLong published = new AtomicLong();
+    /** Number of ticks which are skipped because previous publish wasn't finished or scheduler was late. */
+    private final AtomicLong skipped = new AtomicLong();
+    /** Number of failed publishes. */
+    private final AtomicLong failed = new AtomicLong();
+    /** Executor for ticks. */
+    private ScheduledExecutorService ticker;
+    /** Executor for publishing. */
+    private ExecutorService sender;
+    /** Start time in nanoseconds. */
+    private long startNanos;
+    /** Stop time in nanoseconds, 0 while scheduler is running. */
+    private volatile long stopNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param publisher
+     *         publisher of telemetry
+     * @param period
+     *         period between ticks in milliseconds
+     * @param jitter
+     *         maximal jitter of tick in milliseconds, less than period
+     * @param random
+     *         generator of jitter
+     */
+    public TelemetryScheduler(Publisher publisher, long period, long jitter, Random random) {
+        if (period <= 0 || jitter < 0 || jitter >= period) {
+            throw new IllegalArgumentException("Illegal period " + period + " or jitter " + jitter);
+        }
+        this.publisher = publisher;
+        this.period = period;
+        this.jitter = jitter;
+        this.random = random;
+    }
+
+    /**
+     * Method for aligning period with sampling period of sensors. Period is rounded to the nearest multiple of sampling
+     * period and it is at least one sampling period, so every tick can read new sensor values.
+     *
+     * @param period
+     *         wanted period in milliseconds
+     * @param samplingPeriod
+     *         sampling period of sensors in milliseconds
+     * @return aligned period
+     */
+    public static long alignPeriod(long period, long samplingPeriod) {
+        if (samplingPeriod <= 0) {
+            return period;
+        }
+        long samples = (period + samplingPeriod / 2) / samplingPeriod;
+        return Math.max(1, samples) * samplingPeriod;
+    }
+
+    /**
+     * Method for starting scheduler. First tick comes after jitter.
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor();
+        sender = Executors.newSingleThreadExecutor();
+        startNanos = System.nanoTime();
+        stopNanos = 0;
+        schedule(0);
+    }
+
+    /**
+     * Method for stopping scheduler. Publish which is running is interrupted.
+     */
+    public synchronized void stop() {
+        if (ticker == null) {
+            return;
+        }
+        stopNanos = System.nanoTime();
+        ticker.shutdownNow();
+        sender.shutdownNow();
+        ticker = null;
+        sender = null;
+    }
+
+    /**
+     * Method for scheduling tick.
+     *
+     * @param tick
+     *         index of tick
+     */
+    private synchronized void schedule(final long tick) {
+        if (ticker == null) {
+            return;
+        }
+        long offset = tick * period + (jitter == 0 ? 0 : (long) (random.nextDouble() * jitter));
+        long delay = TimeUnit.MILLISECONDS.toNanos(offset) - (System.nanoTime() - startNanos);
+        try {
+            ticker.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    tick(tick);
+                }
+            }, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            //scheduler is stopped
+        }
+    }
+
+    /**
+     * Method for handling tick. Publish is started if previous one is finished and next tick is scheduled.
+     *
+     * @param tick
+     *         index of tick
+     */
+    private void tick(final long tick) {
+        ticks.incrementAndGet();
+        if (busy.compareAndSet(false, true)) {
+            try {
+                sender.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (publisher.publish(tick)) {
+                                published.incrementAndGet();
+                            } else {
+                                failed.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        } finally {
+                            busy.set(false);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                //scheduler is stopped
+                busy.set(false);
+                return;
+            }
+        } else {
+            skipped.incrementAndGet();
+        }
+        //ticks which are already late are skipped
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        long next = Math.max(tick + 1, elapsed / period);
+        skipped.addAndGet(next - tick - 1);
+        schedule(next);
+    }
+
+    /**
+     * Getter for target rate.
+     *
+     * @return messages per second
+     */
+    public double getTargetRate() {
+        return 1000.0 / period;
+    }
+
+    /**
+     * Getter for achieved rate since start.
+     *
+     * @return published messages per second
+     */
+    public double getAchievedRate() {
+        long end = stopNanos == 0 ? System.nanoTime() : stopNanos;
+        long elapsed = end - startNanos;
+        return elapsed <= 0 ? 0 : published.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * Getter for period between ticks.
+     *
+     * @return period in milliseconds
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Getter for number of ticks.
+     *
+     * @return number of ticks
+     */
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    /**
+     * Getter for number of published messages.
+     *
+     * @return number of messages
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * Getter for number of skipped ticks.
+     *
+     * @return number of ticks
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Getter for number of failed publishes.
+     *
+     * @return number of publishes
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Method for creating report of achieved and target rate.
+     *
+     * @return report, e.g. {@code 0.19/0.20 msg/s, 1 skipped, 0 failed}
+     */
+    public String report() {
+        return String.format(Locale.US, "%.2f/%.2f msg/s, %d skipped, %d failed", getAchievedRate(), getTargetRate(),
+                getSkipped(), getFailed());
+    }
+}
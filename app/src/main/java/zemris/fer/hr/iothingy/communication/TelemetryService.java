@@ -0,0 +1,188 @@
+package zemris.fer.hr.iothingy.communication;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.support.annotation.Nullable;
+import zemris.fer.hr.iothingy.gps.GPSLocator;
+import zemris.fer.hr.iothingy.sensors.DeviceSensors;
+import zemris.fer.hr.iothingy.utils.Constants;
+import zemris.fer.hr.iothingy.utils.DeltaReporter;
+import zemris.fer.hr.iothingy.utils.Message;
+import zemris.fer.hr.iothingy.utils.SensorJson;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+import zemris.fer.hr.iothingy.utils.StoringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Service which periodically sends latest values of selected sensors to one destination, so device can run unattended.
+ * Messages are created and sent by {@link TelemetryScheduler} every {@link StoringUtils#getTelemetryPeriod(Context)}
+ * milliseconds with up to {@link StoringUtils#getTelemetryJitter(Context)} milliseconds of jitter. Period is aligned
+ * with {@link DeviceSensors#SAMPLING_PERIOD}, so every message can contain new values. If previous message isn't sent
+ * when next one is due, next one is skipped, and message which isn't sent isn't sent again because next one has newer
+ * values. Service starts {@link DeviceSensors} and {@link GPSLocator}, so values are read also when activity isn't
+ * visible. Service runs in process of application, so {@link #getScheduler()} can be used for achieved rate.
+ */
+public class TelemetryService extends Service {
+
+    /** Extra with device ID. */
+    public static final String EXTRA_DEVICE_ID = "DEVICE_ID";
+    /** Extra with names of sensors. */
+    public static final String EXTRA_SENSORS = "SENSORS";
+    /** Extra with destination in format IP:PORT THING_ID, if it is missing, first recently used one is used. */
+    public static final String EXTRA_DESTINATION = "DESTINATION";
+    /** Extra with encryption name. */
+    public static final String EXTRA_ENCRYPTION = "ENCRYPTION";
+    /** Extra with send mode. */
+    public static final String EXTRA_SEND_MODE = "SEND_MODE";
+
+    /** Scheduler of running service, null if service isn't running. */
+    private static volatile TelemetryScheduler scheduler;
+
+    /**
+     * Method for creating intent which starts service.
+     *
+     * @param context
+     *         some context
+     * @param deviceId
+     *         device ID
+     * @param sensors
+     *         names of sensors
+     * @param destination
+     *         destination in format IP:PORT THING_ID or null for first of {@link
+     *         StoringUtils#getDestinationAddresses(Context)}
+     * @param encryption
+     *         encryption name
+     * @param sendMode
+     *         send mode
+     * @return intent for {@link Context#startService(Intent)}
+     */
+    public static Intent createIntent(Context context, String deviceId, List<String> sensors, String destination,
+                                      String encryption, String sendMode) {
+        Intent intent = new Intent(context, TelemetryService.class);
+        intent.putExtra(EXTRA_DEVICE_ID, deviceId);
+        intent.putExtra(EXTRA_SENSORS, sensors.toArray(new String[sensors.size()]));
+        intent.putExtra(EXTRA_DESTINATION, destination);
+        intent.putExtra(EXTRA_ENCRYPTION, encryption);
+        intent.putExtra(EXTRA_SEND_MODE, sendMode);
+        return intent;
+    }
+
+    /**
+     * Getter for scheduler of running service.
+     *
+     * @return scheduler or null if service isn't running
+     */
+    public static TelemetryScheduler getScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        super.onStartCommand(intent, flags, startId);
+        if (intent == null) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        final Context context = getApplicationContext();
+        StoringUtils.applySharedSecret(context);
+        StoringUtils.applyMessageIdFile(context);
+        final String deviceId = intent.getStringExtra(EXTRA_DEVICE_ID);
+        String[] names = intent.getStringArrayExtra(EXTRA_SENSORS);
+        String destination = intent.getStringExtra(EXTRA_DESTINATION);
+        if (destination == null) {
+            String[] addresses = StoringUtils.getDestinationAddresses(context);
+            destination = addresses == null || addresses.length == 0 ? null : addresses[0];
+        }
+        if (deviceId == null || names == null || names.length == 0 || destination == null) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        final List<String> sensors = new ArrayList<>();
+        for (String name : names) {
+            sensors.add(name.toUpperCase());
+        }
+        final String finalDestination = destination;
+        final String encryption = intent.getStringExtra(EXTRA_ENCRYPTION);
+        final String sendMode = intent.getStringExtra(EXTRA_SEND_MODE);
+        long period = TelemetryScheduler.alignPeriod(StoringUtils.getTelemetryPeriod(context),
+                DeviceSensors.SAMPLING_PERIOD);
+        long jitter = Math.min(StoringUtils.getTelemetryJitter(context), period - 1);
+        startService(new Intent(context, DeviceSensors.class));
+        startService(new Intent(context, GPSLocator.class));
+        stopScheduler();
+        TelemetryScheduler newScheduler = new TelemetryScheduler(new TelemetryScheduler.Publisher() {
+            @Override
+            public boolean publish(long tick) throws Exception {
+                return Constants.STRING_OK.equals(CommunicationTask.sendMessages(context,
+                        Collections.singletonList(createMessage(context, deviceId, sensors, finalDestination,
+                                encryption, sendMode))));
+            }
+        }, period, jitter, new Random());
+        newScheduler.start();
+        scheduler = newScheduler;
+        return START_REDELIVER_INTENT;
+    }
+
+    /**
+     * Method for creating message with latest values of sensors. Sensors without values are left out.
+     *
+     * @param context
+     *         some context
+     * @param deviceId
+     *         device ID
+     * @param sensors
+     *         upper case names of sensors
+     * @param destination
+     *         destination in format IP:PORT THING_ID
+     * @param encryption
+     *         encryption name
+     * @param sendMode
+     *         send mode
+     * @return message
+     */
+    private static Message createMessage(Context context, String deviceId, List<String> sensors, String destination,
+                                         String encryption, String sendMode) {
+        Map<String, SensorReading> readings = StoringUtils.getLatestReadings(context, sensors);
+        String deltaDestination = deviceId + "@" + destination;
+        String jsonData = StoringUtils.isDeltaReporting(context)
+                ? DeltaReporter.getInstance().createJSONData(deltaDestination, readings)
+                : SensorJson.createJSONData(readings);
+        try {
+            return new Message(null, deviceId, jsonData, null, sendMode, encryption, destination);
+        } catch (RuntimeException e) {
+            //message isn't sent, so next one must contain all sensors
+            DeltaReporter.getInstance().reset(deltaDestination);
+            throw e;
+        }
+    }
+
+    /**
+     * Method for stopping scheduler of service.
+     */
+    private static void stopScheduler() {
+        TelemetryScheduler old = scheduler;
+        if (old != null) {
+            old.stop();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopScheduler();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
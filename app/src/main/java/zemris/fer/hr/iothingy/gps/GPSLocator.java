@@ -15,12 +15,14 @@ import android.widget.Toast;
 import com.gdubina.multiprocesspreferences.MultiprocessPreferences;
 import zemris.fer.hr.iothingy.R;
 import zemris.fer.hr.iothingy.utils.Constants;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+import zemris.fer.hr.iothingy.utils.StoringUtils;
 
 /**
  * Class for finding GPS location data. It uses GPS service or Network service, depending on which one is available and
  * more accurate. It handles permissions which application needs to have to access those data in a way that it shows
  * user what the problem is, but it doesn't prompt for permissions. If both, GPS and Network, are not enabled, user will
- * have to enable them if he wants to get this data. Data is stored in
+ * have to enable them if he wants to get this data. Data is stored as {@link SensorReading} in compact form in
  * {@link com.gdubina.multiprocesspreferences.MultiprocessPreferences.MultiprocessSharedPreferences}.
  */
 public class GPSLocator extends Service {
@@ -90,16 +92,28 @@ public class GPSLocator extends Service {
         }
         isGPSEnabled = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
         isNetworkEnabled = locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+        storeLocation(System.currentTimeMillis(), 0, 0, 0);
+    }
 
-        StringBuilder locationString = new StringBuilder();
-        locationString.append(getString(R.string.latitude)).append(": ")
-                .append(0.0).append(" \u00B0\n")
-                .append(getString(R.string.longitude)).append(": ")
-                .append(0.0).append(" \u00B0\n")
-                .append(getString(R.string.altitude)).append(": ")
-                .append(0.0).append(" \u00B0");
+    /**
+     * Method for storing location into {@code MultiprocessSharedPreferences} and into shared sensor snapshots.
+     *
+     * @param time
+     *         time of location in milliseconds since epoch
+     * @param latitude
+     *         latitude
+     * @param longitude
+     *         longitude
+     * @param altitude
+     *         altitude
+     */
+    private void storeLocation(long time, double latitude, double longitude, double altitude) {
+        SensorReading reading = new SensorReading(SensorReading.TYPE_GPS, SensorReading.unitFor(SensorReading.TYPE_GPS),
+                time, new float[]{(float) latitude, (float) longitude, (float) altitude});
+        StoringUtils.storeSensorSnapshot(getApplicationContext(), Constants.GPS_SENSOR_NAME, SensorReading.TYPE_GPS,
+                time, new float[]{(float) latitude, (float) longitude, (float) altitude});
         MultiprocessPreferences.getDefaultSharedPreferences(getApplicationContext())
-                .edit().putString(Constants.GPS_SENSOR_NAME, locationString.toString()).apply();
+                .edit().putString(Constants.GPS_SENSOR_NAME, reading.encode()).apply();
     }
 
     @Override
@@ -139,17 +153,8 @@ public class GPSLocator extends Service {
         @Override
         public void onLocationChanged(Location location) {
             lastLocation.set(location);
-            //make value
-            StringBuilder locationString = new StringBuilder();
-            locationString.append(getString(R.string.latitude)).append(": ")
-                    .append(location.getLatitude()).append(" \u00B0\n")
-                    .append(getString(R.string.longitude)).append(": ")
-                    .append(location.getLongitude()).append(" \u00B0\n")
-                    .append(getString(R.string.altitude)).append(": ")
-                    .append(location.getAltitude()).append(" \u00B0");
-            //store value
-            MultiprocessPreferences.getDefaultSharedPreferences(getApplicationContext())
-                    .edit().putString(Constants.GPS_SENSOR_NAME, locationString.toString()).apply();
+            storeLocation(location.getTime(), location.getLatitude(), location.getLongitude(),
+                    location.getAltitude());
         }
 
         @Override
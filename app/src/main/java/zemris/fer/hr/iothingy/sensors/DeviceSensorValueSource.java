@@ -0,0 +1,39 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import android.content.Context;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+import zemris.fer.hr.iothingy.utils.StoringUtils;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Source of sensor values of this device. Latest readings are read from shared snapshots by {@link
+ * StoringUtils#getLatestReadings(Context, Collection)}, aggregated readings are read from {@link
+ * SensorHistoryProvider} in process which reads sensors.
+ */
+public class DeviceSensorValueSource implements SensorValueSource {
+
+    /** Application context. */
+    private final Context context;
+
+    /**
+     * Constructor.
+     *
+     * @param context
+     *         some context
+     */
+    public DeviceSensorValueSource(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public Map<String, SensorReading> getLatestReadings(Collection<String> keys) {
+        return StoringUtils.getLatestReadings(context, keys);
+    }
+
+    @Override
+    public SensorReading getAggregatedReading(String key, String aggregate) {
+        return SensorHistoryProvider.getAggregatedReading(context, key, aggregate);
+    }
+}
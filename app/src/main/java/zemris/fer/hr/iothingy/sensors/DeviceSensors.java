@@ -7,26 +7,114 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import com.gdubina.multiprocesspreferences.MultiprocessPreferences;
-import zemris.fer.hr.iothingy.R;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+import zemris.fer.hr.iothingy.utils.StoringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service for handling sensors and their data. It uses {@link SensorManager} to register itself for sensor data
  * changes. Class registers for all sensors that are found on current device. List of those sensors can be found <a
  * href="https://developer.android.com/guide/topics/sensors/sensors_overview.html">here</a> When service is going to be
- * destroyed, it unregister itself from {@link SensorManager}. Data is stored in {@link
- * com.gdubina.multiprocesspreferences.MultiprocessPreferences.MultiprocessSharedPreferences}.
+ * destroyed, it unregister itself from {@link SensorManager}. Data is stored as {@link SensorReading} in compact form
+ * in {@link com.gdubina.multiprocesspreferences.MultiprocessPreferences.MultiprocessSharedPreferences}. Sensor events
+ * are not stored one by one, {@link SensorWriteCoalescer} keeps latest values of every sensor and stores all changed
+ * sensors in one batch every {@link StoringUtils#getSensorFlushInterval(Context)} milliseconds. Latest values are also
+ * written in place into {@link zemris.fer.hr.iothingy.utils.SensorSnapshotRegion} on every event, so other processes
+ * can read them without going through provider. Every sensor also has {@link SensorHistory} with its recent values,
+ * aggregates over that history are served by {@link SensorHistoryProvider}. History is created with first event of
+ * sensor, so it keeps all values which sensor has, and it keeps at most one sample every {@link #MIN_SAMPLING_PERIOD}
+ * milliseconds, so the longest window fits in it however fast sensor delivers events.
+ * <p>
+ * Sensors are registered on demand: processes which read sensor values send demand with {@link SensorDemand} and only
+ * demanded sensors are registered, with sampling period derived from how often they are read (see {@link
+ * SensorDemandTracker}). Sensors which nobody reads for some time are unregistered. If {@link
+ * StoringUtils#isSensorDemandDriven(Context)} is false, all sensors are registered with {@link
+ * SensorManager#SENSOR_DELAY_NORMAL} like before. Rates of events of all sensors can be read with {@link
+ * SensorHistoryProvider#getSensorMetrics(Context)} in both modes.
+ * <p>
+ * Sensor which isn't registered has no reading: when service starts and when sensor is unregistered, its latest
+ * values are replaced with {@link #NO_READING}, which readers leave out (see {@link
+ * StoringUtils#getLatestReadings(Context, java.util.Collection)}), so value which was read long ago is never sent
+ * as current one.
+ * <p>
+ * If {@link StoringUtils#getSensorReportLatency(Context)} is positive, sensors which have hardware FIFO (Android 4.4
+ * and newer) are registered with that maximal report latency, so they deliver events in bursts. Events of burst are
+ * collected in {@link SensorBatchBuffer} and appended to history at once when burst ends, and only latest values of
+ * burst are published to snapshot and preferences.
  */
 public class DeviceSensors extends Service implements SensorEventListener {
 
+    /** Time between two sensor events in milliseconds, requested with {@link SensorManager#SENSOR_DELAY_NORMAL}. */
+    public static final int SAMPLING_PERIOD = 200;
+    /** Minimal sampling period in milliseconds, also minimal time between two samples in history. */
+    private static final long MIN_SAMPLING_PERIOD = 25;
+    /** Maximal sampling period in milliseconds. */
+    private static final long MAX_SAMPLING_PERIOD = 800;
+    /** Time after which demand which isn't renewed expires, in milliseconds. */
+    private static final long DEMAND_TIMEOUT = 60 * 1000;
+    /** Time between two checks of expired demands, in milliseconds. */
+    private static final long EXPIRE_INTERVAL = 10 * 1000;
+    /** Tracker of demand and events of sensors. */
+    private static final SensorDemandTracker tracker = new SensorDemandTracker(MIN_SAMPLING_PERIOD,
+            MAX_SAMPLING_PERIOD, SAMPLING_PERIOD, DEMAND_TIMEOUT);
+    /** Sampling periods of registered sensors by their keys, in milliseconds. */
+    private static final Map<String, Long> registered = new ConcurrentHashMap<>();
+    /** Maximal number of events in one burst. */
+    private static final int BATCH_CAPACITY = 256;
+    /** Allowed difference between time of event and time of delivery above report latency, in milliseconds. */
+    private static final long CLOCK_TOLERANCE = 1000;
+    /** Values of sensor which has no current reading. */
+    private static final float[] NO_READING = {Float.NaN};
+
     /** Sensor manager which is used to access sensors and their data. */
     private SensorManager sensorManager;
+    /** Writer which batches sensor values. */
+    private SensorWriteCoalescer writer;
+    /** Registered sensors by their keys. */
+    private static final Map<String, Sensor> sensors = new ConcurrentHashMap<>();
+    /** Histories of registered sensors by their keys. */
+    private static final ConcurrentMap<String, SensorHistory> histories = new ConcurrentHashMap<>();
+    /** Windows with running aggregates: 10 seconds and 1 minute. */
+    private static final long[] HISTORY_WINDOWS = {10 * 1000L, 60 * 1000L};
+    /** Flag which tells if sensors are registered on demand. */
+    private boolean demandDriven;
+    /** Executor for expiring demands. */
+    private ScheduledExecutorService expirer;
+    /** Maximal latency of batched events in milliseconds, 0 if events aren't batched. */
+    private int reportLatency;
+    /** Buffers for bursts of events by sensor keys, empty if events aren't batched. */
+    private final ConcurrentMap<String, SensorBatchBuffer> batches = new ConcurrentHashMap<>();
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         super.onStartCommand(intent, flags, startId);
+        if (intent != null && SensorDemand.ACTION_DEMAND.equals(intent.getAction())) {
+            String[] keys = intent.getStringArrayExtra(SensorDemand.EXTRA_SENSORS);
+            long[] periods = intent.getLongArrayExtra(SensorDemand.EXTRA_PERIODS);
+            String consumer = intent.getStringExtra(SensorDemand.EXTRA_CONSUMER);
+            if (keys != null && periods != null && keys.length == periods.length && consumer != null) {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < keys.length; ++i) {
+                    if (sensors.containsKey(keys[i]) && tracker.demand(keys[i], consumer, periods[i], now)) {
+                        updateRegistration(keys[i]);
+                    }
+                }
+            }
+        }
         return START_REDELIVER_INTENT;
     }
 
@@ -35,113 +123,285 @@ public class DeviceSensors extends Service implements SensorEventListener {
         super.onCreate();
         //get sensor service
         sensorManager = (SensorManager) getApplicationContext().getSystemService(Context.SENSOR_SERVICE);
-        //default values for sensors
-        float[] values = new float[]{0, 0, 0};
-        //get list of devices sensors and register for their data changes
+        long now = System.currentTimeMillis();
+        MultiprocessPreferences.Editor editor =
+                MultiprocessPreferences.getDefaultSharedPreferences(getApplicationContext()).edit();
         for (Sensor sensor : sensorManager.getSensorList(Sensor.TYPE_ALL)) {
-            //register listener
-            sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
-            //make default values for sensors
-            String value = getValueForSensor(sensor, values);
-            //save default values for sensors
-            MultiprocessPreferences.getDefaultSharedPreferences(getApplicationContext())
-                    .edit().putString(sensor.getName().toUpperCase(), value).apply();
+            String key = sensor.getName().toUpperCase();
+            sensors.put(key, sensor);
+            //values from previous run of service aren't current, sensor has no reading until its first event
+            editor.putString(key, SensorReading.of(sensor.getType(), now, NO_READING).encode());
+            StoringUtils.storeSensorSnapshot(getApplicationContext(), key, sensor.getType(), now, NO_READING);
+        }
+        //save all sensors at once
+        editor.apply();
+        writer = new SensorWriteCoalescer(new SensorWriteCoalescer.Sink() {
+            @Override
+            public void write(List<String> keys, long[] timestamps, List<float[]> values) {
+                storeValues(keys, timestamps, values);
+            }
+        }, StoringUtils.getSensorFlushInterval(getApplicationContext()));
+        writer.start();
+        reportLatency = StoringUtils.getSensorReportLatency(getApplicationContext());
+        demandDriven = StoringUtils.isSensorDemandDriven(getApplicationContext());
+        if (demandDriven) {
+            //sensors which were demanded before restart of service
+            for (String key : tracker.getDemanded()) {
+                updateRegistration(key);
+            }
+            expirer = Executors.newSingleThreadScheduledExecutor();
+            expirer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (String key : tracker.expire(System.currentTimeMillis())) {
+                        updateRegistration(key);
+                    }
+                }
+            }, EXPIRE_INTERVAL, EXPIRE_INTERVAL, TimeUnit.MILLISECONDS);
+        } else {
+            //register for data changes of all sensors
+            for (Map.Entry<String, Sensor> entry : sensors.entrySet()) {
+                register(entry.getKey(), entry.getValue(), SAMPLING_PERIOD);
+            }
+        }
+    }
+
+    /**
+     * Method for registering sensor with its current sampling period, or unregistering it if it isn't demanded.
+     *
+     * @param key
+     *         key of sensor
+     */
+    private synchronized void updateRegistration(String key) {
+        Sensor sensor = sensors.get(key);
+        if (sensor == null || sensorManager == null) {
+            return;
+        }
+        long period = tracker.getSamplingPeriod(key);
+        Long current = registered.get(key);
+        if (current != null && current == period) {
+            return;
+        }
+        if (current != null) {
+            sensorManager.unregisterListener(this, sensor);
+            registered.remove(key);
+            drainBatch(key);
         }
+        if (period > 0) {
+            register(key, sensor, period);
+        } else {
+            publish(key, sensor.getType(), NO_READING);
+        }
+    }
+
+    /**
+     * Method for registering sensor. If events are batched and sensor has hardware FIFO, it is registered with maximal
+     * report latency.
+     *
+     * @param key
+     *         key of sensor
+     * @param sensor
+     *         sensor
+     * @param period
+     *         sampling period in milliseconds
+     */
+    private void register(String key, Sensor sensor, long period) {
+        int periodUs = (int) TimeUnit.MILLISECONDS.toMicros(period);
+        if (reportLatency > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && sensor.getFifoMaxEventCount() > 0) {
+            sensorManager.registerListener(this, sensor, periodUs,
+                    (int) TimeUnit.MILLISECONDS.toMicros(reportLatency));
+        } else {
+            sensorManager.registerListener(this, sensor, periodUs);
+        }
+        registered.put(key, period);
     }
 
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (expirer != null) {
+            expirer.shutdownNow();
+        }
         //unregister listener from sensor manager
-        sensorManager.unregisterListener(this);
+        List<String> unregistered;
+        synchronized (this) {
+            sensorManager.unregisterListener(this);
+            sensorManager = null;
+            unregistered = new ArrayList<>(registered.keySet());
+            registered.clear();
+        }
+        for (String key : batches.keySet()) {
+            drainBatch(key);
+        }
+        batches.clear();
+        for (String key : unregistered) {
+            Sensor sensor = sensors.get(key);
+            if (sensor != null) {
+                publish(key, sensor.getType(), NO_READING);
+            }
+        }
+        //store values which are not stored yet
+        writer.stop();
+        histories.clear();
+        sensors.clear();
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        //get sensor and its new value
-        String value = getValueForSensor(event.sensor, event.values);
-        //update collection for new sensor data
-        MultiprocessPreferences.getDefaultSharedPreferences(getApplicationContext())
-                .edit().putString(event.sensor.getName().toUpperCase(), value).apply();
+        String key = event.sensor.getName().toUpperCase();
+        SensorHistory history = historyOf(key, event.values.length);
+        if (reportLatency > 0) {
+            SensorBatchBuffer batch = batches.get(key);
+            if (batch == null) {
+                batch = new SensorBatchBuffer(BATCH_CAPACITY, history.getDimensions());
+                SensorBatchBuffer existing = batches.putIfAbsent(key, batch);
+                batch = existing == null ? batch : existing;
+            }
+            long now = SystemClock.elapsedRealtime();
+            //event timestamp is in nanoseconds since boot on most devices, other time bases are replaced with now
+            long timestamp = event.timestamp / 1000000;
+            if (Math.abs(now - timestamp) > reportLatency + CLOCK_TOLERANCE) {
+                timestamp = now;
+            }
+            Long period = registered.get(key);
+            if (batch.add(timestamp, event.values)
+                    || SensorBatchBuffer.isFresh(timestamp, now, period == null ? SAMPLING_PERIOD : period)) {
+                drainBatch(key);
+            }
+            return;
+        }
+        tracker.onEvent(key, System.currentTimeMillis());
+        history.add(SystemClock.elapsedRealtime(), event.values);
+        publish(key, event.sensor.getType(), event.values);
     }
 
     /**
-     * Method for getting value for given sensor. In this case sensor values are in float array. That array has 3
-     * elements, even if sensor has only one data, other elements are 0.0. Depending on sensor type and its value, this
-     * method will return string in following format: ---  valueName:   value   unit\n---. List of sensors, their data
-     * and units can be found
-     * <a href="https://developer.android.com/guide/topics/sensors/sensors_overview.html">here</a>.
+     * Method for getting history of sensor, which is created with first event of sensor.
      *
-     * @param sensor
-     *         sensor which data will be used to make valid format of values
-     * @param values
-     *         float values of sensor
-     * @return properly formatted value string
+     * @param key
+     *         key of sensor
+     * @param dimensions
+     *         number of values of sensor
+     * @return history
      */
-    private String getValueForSensor(Sensor sensor, float[] values) {
-        String value;
-        switch (sensor.getType()) {
-            case Sensor.TYPE_MAGNETIC_FIELD:
-            case Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
-                value = makeValueString(new String[]{"x", "y", "z"}, "\u00B5T", values);
-                break;
-            case Sensor.TYPE_GYROSCOPE:
-            case Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
-                value = makeValueString(new String[]{"x", "y", "z"}, "rad/s", values);
-                break;
-            case Sensor.TYPE_GRAVITY:
-            case Sensor.TYPE_LINEAR_ACCELERATION:
-            case Sensor.TYPE_ACCELEROMETER:
-                value = makeValueString(new String[]{"x", "y", "z"}, "m/s\u00B2", values);
-                break;
-            case Sensor.TYPE_LIGHT:
-                value = makeValueString(new String[]{getString(R.string.illumination)}, "lx", values);
-                break;
-            case Sensor.TYPE_PROXIMITY:
-                value = makeValueString(new String[]{getString(R.string.proximity)}, "cm", values);
-                break;
-            case Sensor.TYPE_AMBIENT_TEMPERATURE:
-                value = makeValueString(new String[]{getString(R.string.temperature)}, "\u2103", values);
-                break;
-            case Sensor.TYPE_PRESSURE:
-                value = makeValueString(new String[]{getString(R.string.pressure)}, "hPa", values);
-                break;
-            default:
-                value = makeValueString(new String[]{getString(R.string.error)}, "", values);
-        }
-        return value;
+    private static SensorHistory historyOf(String key, int dimensions) {
+        SensorHistory history = histories.get(key);
+        if (history == null) {
+            history = SensorHistory.forWindows(Math.max(1, dimensions), MIN_SAMPLING_PERIOD, HISTORY_WINDOWS);
+            SensorHistory existing = histories.putIfAbsent(key, history);
+            history = existing == null ? history : existing;
+        }
+        return history;
     }
 
+    /**
+     * Method for moving burst of events of sensor into its history and publishing latest values of burst.
+     *
+     * @param key
+     *         key of sensor
+     */
+    private void drainBatch(String key) {
+        SensorBatchBuffer batch = batches.get(key);
+        SensorHistory history = histories.get(key);
+        Sensor sensor = sensors.get(key);
+        if (batch == null || history == null || sensor == null) {
+            return;
+        }
+        int count = batch.size();
+        float[] latest = batch.drainTo(history);
+        if (latest != null) {
+            tracker.onEvents(key, System.currentTimeMillis(), count);
+            publish(key, sensor.getType(), latest);
+        }
+    }
 
     /**
-     * Method for creating sensor data value. Number of elements in {#link valueNames} shows how much valid number of
-     * values are in {#link values}.
+     * Method for publishing latest values of sensor. Shared snapshot is updated in place, preferences are updated with
+     * next flush.
      *
-     * @param valueNames
-     *         array of data names (e.g. x,y,z)
-     * @param unit
-     *         unit for values
+     * @param key
+     *         key of sensor
+     * @param type
+     *         type of sensor
      * @param values
-     *         array of sensor values
-     * @return properly formatted string, format is: valueName:   value   unit\n
+     *         latest values
      */
-    private String makeValueString(String[] valueNames, String unit, float[] values) {
-        StringBuilder valueString = new StringBuilder();
-        int nameSize = valueNames.length;
-        for (int i = 0; i < nameSize; ++i) {
-            valueString.append(valueNames[i]).append(": ").append(values[i]).append(' ').append(unit);
-            if (i != (values.length - 1)) {
-                valueString.append('\n');
-            }
+    private void publish(String key, int type, float[] values) {
+        long now = System.currentTimeMillis();
+        StoringUtils.storeSensorSnapshot(getApplicationContext(), key, type, now, values);
+        writer.update(key, now, values);
+    }
+
+    /**
+     * Method for getting aggregate of recent values of some sensor, e.g. average of last 10 seconds. Aggregates are
+     * computed from {@link SensorHistory}, so this method works only in process of this service and only while service
+     * is running.
+     *
+     * @param key
+     *         key of sensor (upper case name)
+     * @param aggregate
+     *         name of aggregate, see {@link SensorHistory}
+     * @return aggregated reading or null if there are no values for sensor
+     */
+    static SensorReading getAggregatedReading(String key, String aggregate) {
+        Sensor sensor = sensors.get(key);
+        SensorHistory history = histories.get(key);
+        if (sensor == null || history == null) {
+            return null;
         }
-        while (nameSize < 2) {
-            nameSize++;
-            valueString.append('\n');
+        float[] values = new float[history.getDimensions()];
+        if (!history.aggregate(aggregate, SystemClock.elapsedRealtime(), values)) {
+            return null;
         }
-        return valueString.toString();
+        return SensorReading.of(sensor.getType(), System.currentTimeMillis(), values);
     }
 
+    /**
+     * Method for getting metrics of sensors. Metrics are available only in process of this service.
+     *
+     * @return sampling periods in milliseconds (-1 for sensors which aren't registered) and rates of events per second
+     * by sensor keys, sensors which are registered or which had some events
+     */
+    static Map<String, double[]> getMetrics() {
+        long now = System.currentTimeMillis();
+        Map<String, double[]> metrics = new TreeMap<>();
+        for (Map.Entry<String, Double> entry : tracker.getEventRates(now).entrySet()) {
+            Long period = registered.get(entry.getKey());
+            metrics.put(entry.getKey(), new double[]{period == null ? -1 : period, entry.getValue()});
+        }
+        for (Map.Entry<String, Long> entry : registered.entrySet()) {
+            if (!metrics.containsKey(entry.getKey())) {
+                metrics.put(entry.getKey(), new double[]{entry.getValue(), 0});
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Method for storing batch of sensor values. Values are stored as {@link SensorReading} in compact form and all of
+     * them are stored with one insert into {@link MultiprocessPreferences}.
+     *
+     * @param keys
+     *         keys of sensors
+     * @param timestamps
+     *         times of values
+     * @param values
+     *         latest values of sensors
+     */
+    private void storeValues(List<String> keys, long[] timestamps, List<float[]> values) {
+        MultiprocessPreferences.Editor editor =
+                MultiprocessPreferences.getDefaultSharedPreferences(getApplicationContext()).edit();
+        for (int i = 0, size = keys.size(); i < size; ++i) {
+            Sensor sensor = sensors.get(keys.get(i));
+            if (sensor != null) {
+                editor.putString(keys.get(i),
+                        SensorReading.of(sensor.getType(), timestamps[i], values.get(i)).encode());
+            }
+        }
+        editor.apply();
+    }
 
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
@@ -0,0 +1,143 @@
+package zemris.fer.hr.iothingy.sensors;
+
+/**
+ * Buffer for burst of events of one sensor. Sensor which is registered with maximal report latency keeps events in
+ * its hardware FIFO and delivers them all at once, so there is no need to update history and publish values for each
+ * of them. Events are copied into primitive arrays while burst is delivered and whole burst is appended to {@link
+ * SensorHistory} with one {@link SensorHistory#addAll(long[], float[], int, int)} call when it ends, after which only
+ * latest values are published.
+ * <p>
+ * Burst ends with event which is fresh (event which is delivered less than one sampling period after it happened is
+ * the last one in FIFO, and sensors which don't batch deliver only fresh events) or when buffer is full. Timestamps
+ * which would go back in time are replaced with previous timestamp, so history always gets non-decreasing timestamps.
+ * This class is thread safe.
+ */
+public class SensorBatchBuffer {
+
+    /** Number of values of every event which are kept for history. */
+    private final int dimensions;
+    /** Timestamps of buffered events. */
+    private final long[] timestamps;
+    /** Values of buffered events, event with index i has values from i * dimensions. */
+    private final float[] values;
+    /** Number of buffered events. */
+    private int size;
+    /** Timestamp of last added event. */
+    private long lastTimestamp = Long.MIN_VALUE;
+    /** All values of last added event. */
+    private float[] latest;
+    /** Number of added events. */
+    private long events;
+    /** Number of drains which had at least one event. */
+    private long drains;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *         maximal number of buffered events
+     * @param dimensions
+     *         number of values of every event which are kept for history
+     */
+    public SensorBatchBuffer(int capacity, int dimensions) {
+        if (capacity < 1 || dimensions < 1) {
+            throw new IllegalArgumentException("Capacity and dimensions must be positive");
+        }
+        this.dimensions = dimensions;
+        timestamps = new long[capacity];
+        values = new float[capacity * dimensions];
+    }
+
+    /**
+     * Method for adding event. Values are copied, so caller can reuse given array.
+     *
+     * @param timestamp
+     *         time of event in milliseconds
+     * @param sample
+     *         values of event
+     * @return true if buffer is full and it has to be drained before next event is added
+     * @throws IllegalStateException
+     *         if buffer is already full
+     */
+    public synchronized boolean add(long timestamp, float[] sample) {
+        if (size == timestamps.length) {
+            throw new IllegalStateException("Buffer is full");
+        }
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        timestamps[size] = lastTimestamp;
+        int offset = size * dimensions;
+        for (int d = 0; d < dimensions; ++d) {
+            values[offset + d] = d < sample.length ? sample[d] : 0;
+        }
+        if (latest == null || latest.length != sample.length) {
+            latest = new float[sample.length];
+        }
+        System.arraycopy(sample, 0, latest, 0, sample.length);
+        size++;
+        events++;
+        return size == timestamps.length;
+    }
+
+    /**
+     * Method for checking if event ends burst.
+     *
+     * @param timestamp
+     *         time of event in milliseconds
+     * @param now
+     *         current time in milliseconds, in the same time base as timestamp
+     * @param samplingPeriod
+     *         sampling period of sensor in milliseconds
+     * @return true if event is delivered less than one sampling period after it happened
+     */
+    public static boolean isFresh(long timestamp, long now, long samplingPeriod) {
+        return now - timestamp < samplingPeriod;
+    }
+
+    /**
+     * Method for moving all buffered events into history in one pass.
+     *
+     * @param history
+     *         history of sensor, it must have the same number of dimensions as this buffer
+     * @return copy of all values of latest event, which is published instead of every event, or null if buffer is
+     * empty
+     */
+    public synchronized float[] drainTo(SensorHistory history) {
+        if (history.getDimensions() != dimensions) {
+            throw new IllegalArgumentException("History has " + history.getDimensions() + " dimensions");
+        }
+        if (size == 0) {
+            return null;
+        }
+        history.addAll(timestamps, values, dimensions, size);
+        size = 0;
+        drains++;
+        return latest.clone();
+    }
+
+    /**
+     * Getter for number of buffered events.
+     *
+     * @return number of events
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Getter for number of added events.
+     *
+     * @return number of events
+     */
+    public synchronized long getEvents() {
+        return events;
+    }
+
+    /**
+     * Getter for number of drains which moved at least one event, i.e. number of published updates.
+     *
+     * @return number of drains
+     */
+    public synchronized long getDrains() {
+        return drains;
+    }
+}
@@ -0,0 +1,173 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reporter of demand for sensor values from process which reads them. Every read of sensor values (see {@link
+ * zemris.fer.hr.iothingy.utils.StoringUtils#getLatestReadings(Context, Collection)}) is counted and process measures
+ * how often it reads every sensor. Demand is sent to {@link DeviceSensors} when sensor is read for the first time, when
+ * read period changes at least twice and otherwise at most once every {@link #RENEW_INTERVAL} milliseconds, so reads
+ * don't cause one intent each.
+ */
+public class SensorDemand {
+
+    /** Action of intent with demand. */
+    public static final String ACTION_DEMAND = "zemris.fer.hr.iothingy.action.SENSOR_DEMAND";
+    /** Extra with sensor keys. */
+    public static final String EXTRA_SENSORS = "SENSORS";
+    /** Extra with read periods of sensors in milliseconds, 0 if read period isn't known. */
+    public static final String EXTRA_PERIODS = "PERIODS";
+    /** Extra with consumer name. */
+    public static final String EXTRA_CONSUMER = "CONSUMER";
+    /** Time after which demand is sent again, in milliseconds. It is shorter than idle timeout of demand. */
+    static final long RENEW_INTERVAL = 20 * 1000;
+    /** Reads of the same sensor which are closer than this are counted as one read, in milliseconds. */
+    static final long MIN_READ_GAP = 20;
+
+    /** Meter of this process. */
+    private static final Meter meter = new Meter(RENEW_INTERVAL);
+
+    /**
+     * Method for counting reads of sensors and sending demand to {@link DeviceSensors} if needed. Service is started
+     * if it isn't running.
+     *
+     * @param context
+     *         some context
+     * @param keys
+     *         keys of sensors which are read
+     * @return keys of sensors whose demand is sent, empty if demand isn't sent
+     */
+    public static List<String> consumed(Context context, Collection<String> keys) {
+        List<Long> periods = new ArrayList<>();
+        List<String> report = meter.consume(keys, System.currentTimeMillis(), periods);
+        if (report.isEmpty()) {
+            return report;
+        }
+        long[] periodArray = new long[periods.size()];
+        for (int i = 0; i < periodArray.length; ++i) {
+            periodArray[i] = periods.get(i);
+        }
+        Intent intent = new Intent(context, DeviceSensors.class);
+        intent.setAction(ACTION_DEMAND);
+        intent.putExtra(EXTRA_SENSORS, report.toArray(new String[report.size()]));
+        intent.putExtra(EXTRA_PERIODS, periodArray);
+        intent.putExtra(EXTRA_CONSUMER, context.getPackageName() + ":" + Process.myPid());
+        try {
+            context.startService(intent);
+        } catch (RuntimeException e) {
+            //service can't be started now, demand is sent again with next read
+            meter.forget(report);
+            return new ArrayList<>();
+        }
+        return report;
+    }
+
+    /**
+     * Meter of read periods of sensors in one process.
+     */
+    static class Meter {
+        /** Time after which demand is sent again. */
+        private final long renewInterval;
+        /** Reads by sensor keys. */
+        private final Map<String, Usage> usages = new HashMap<>();
+
+        /**
+         * Constructor.
+         *
+         * @param renewInterval
+         *         time after which demand is sent again, in milliseconds
+         */
+        Meter(long renewInterval) {
+            this.renewInterval = renewInterval;
+        }
+
+        /**
+         * Method for counting reads of sensors.
+         *
+         * @param keys
+         *         keys of sensors which are read
+         * @param now
+         *         current time in milliseconds
+         * @param periods
+         *         list into which read periods of returned sensors are added, 0 if read period isn't known
+         * @return keys of sensors whose demand needs to be sent
+         */
+        synchronized List<String> consume(Collection<String> keys, long now, List<Long> periods) {
+            List<String> report = new ArrayList<>();
+            for (String key : keys) {
+                Usage usage = usages.get(key);
+                if (usage == null) {
+                    usage = new Usage();
+                    usages.put(key, usage);
+                } else if (now - usage.lastRead >= MIN_READ_GAP) {
+                    long gap = now - usage.lastRead;
+                    usage.readPeriod = usage.readPeriod == 0 ? gap : (3 * usage.readPeriod + gap) / 4;
+                } else {
+                    continue;
+                }
+                usage.lastRead = now;
+                if (usage.reportedAt < 0 || now - usage.reportedAt >= renewInterval
+                        || changedTwice(usage.readPeriod, usage.reportedPeriod)) {
+                    usage.reportedAt = now;
+                    usage.reportedPeriod = usage.readPeriod;
+                    report.add(key);
+                    periods.add(usage.readPeriod);
+                }
+            }
+            return report;
+        }
+
+        /**
+         * Method for forgetting that demand of sensors is sent, so it is sent with next read.
+         *
+         * @param keys
+         *         keys of sensors
+         */
+        synchronized void forget(Collection<String> keys) {
+            for (String key : keys) {
+                Usage usage = usages.get(key);
+                if (usage != null) {
+                    usage.reportedAt = -1;
+                }
+            }
+        }
+
+        /**
+         * Method for checking if read period changed at least twice since it was sent.
+         *
+         * @param current
+         *         current read period
+         * @param reported
+         *         sent read period
+         * @return true if demand needs to be sent
+         */
+        private static boolean changedTwice(long current, long reported) {
+            if (current == 0 || reported == 0) {
+                return current != reported;
+            }
+            return current >= 2 * reported || reported >= 2 * current;
+        }
+    }
+
+    /**
+     * Reads of one sensor.
+     */
+    private static class Usage {
+        /** Time of last read. */
+        private long lastRead;
+        /** Average time between reads, 0 if it isn't known. */
+        private long readPeriod;
+        /** Time when demand was sent, -1 if it isn't sent. */
+        private long reportedAt = -1;
+        /** Read period which was sent. */
+        private long reportedPeriod;
+    }
+}
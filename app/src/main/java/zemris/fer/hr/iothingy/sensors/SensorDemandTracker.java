@@ -0,0 +1,296 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracker of demand for sensor values, used by {@link DeviceSensors} to decide which sensors are registered and how
+ * often they are sampled. Consumers (processes which read sensor values) report for every sensor how often they read
+ * it. Sensor is sampled twice as often as its most frequent consumer reads it, so value which is read is never older
+ * than half of read period, and sampling period is rounded to power of two multiple of minimal period, so small
+ * changes of read period don't cause registering sensor again. Demand of consumer expires if it isn't renewed for
+ * idle timeout or three read periods, whichever is longer but not longer than five idle timeouts, and sensor without
+ * demand is unregistered. Tracker also counts events of every sensor, so rate of events can be compared with and
+ * without demand-driven registration. Tracker is thread safe.
+ */
+public class SensorDemandTracker {
+
+    /** Length of window over which rate of events is measured, in milliseconds. */
+    static final long RATE_WINDOW = 5000;
+
+    /** Minimal sampling period in milliseconds. */
+    private final long minPeriod;
+    /** Maximal sampling period in milliseconds. */
+    private final long maxPeriod;
+    /** Sampling period for consumers which don't know their read period yet, in milliseconds. */
+    private final long defaultPeriod;
+    /** Time without renewal after which demand expires, in milliseconds. */
+    private final long idleTimeout;
+    /** Demands by sensor keys and consumers. */
+    private final Map<String, Map<String, Demand>> demands = new HashMap<>();
+    /** Event counters by sensor keys. */
+    private final Map<String, EventCounter> counters = new LinkedHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param minPeriod
+     *         minimal sampling period in milliseconds
+     * @param maxPeriod
+     *         maximal sampling period in milliseconds
+     * @param defaultPeriod
+     *         sampling period for consumers which don't know their read period yet, in milliseconds
+     * @param idleTimeout
+     *         time without renewal after which demand expires, in milliseconds
+     */
+    public SensorDemandTracker(long minPeriod, long maxPeriod, long defaultPeriod, long idleTimeout) {
+        if (minPeriod <= 0 || maxPeriod < minPeriod || defaultPeriod < minPeriod || idleTimeout <= 0) {
+            throw new IllegalArgumentException("Illegal periods");
+        }
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+        this.defaultPeriod = defaultPeriod;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Method for reporting demand of consumer for sensor.
+     *
+     * @param key
+     *         sensor key
+     * @param consumer
+     *         consumer, e.g. process name
+     * @param readPeriod
+     *         how often consumer reads sensor in milliseconds, 0 if it isn't known yet
+     * @param now
+     *         current time in milliseconds
+     * @return true if sampling period of sensor is changed, including sensor which wasn't demanded before
+     */
+    public synchronized boolean demand(String key, String consumer, long readPeriod, long now) {
+        long before = getSamplingPeriod(key);
+        Map<String, Demand> consumers = demands.get(key);
+        if (consumers == null) {
+            consumers = new HashMap<>();
+            demands.put(key, consumers);
+        }
+        Demand demand = consumers.get(consumer);
+        if (demand == null) {
+            demand = new Demand();
+            consumers.put(consumer, demand);
+        }
+        demand.readPeriod = readPeriod;
+        demand.renewed = now;
+        return before != getSamplingPeriod(key);
+    }
+
+    /**
+     * Method for getting sampling period of sensor.
+     *
+     * @param key
+     *         sensor key
+     * @return sampling period in milliseconds or -1 if sensor isn't demanded
+     */
+    public synchronized long getSamplingPeriod(String key) {
+        Map<String, Demand> consumers = demands.get(key);
+        if (consumers == null || consumers.isEmpty()) {
+            return -1;
+        }
+        long readPeriod = Long.MAX_VALUE;
+        for (Demand demand : consumers.values()) {
+            //consumer which doesn't know its read period yet gets default rate
+            readPeriod = Math.min(readPeriod, demand.readPeriod > 0 ? demand.readPeriod : 2 * defaultPeriod);
+        }
+        return samplingPeriodFor(readPeriod);
+    }
+
+    /**
+     * Method for getting sampling period for read period.
+     *
+     * @param readPeriod
+     *         how often values are read in milliseconds
+     * @return power of two multiple of minimal period, not longer than maximal period
+     */
+    long samplingPeriodFor(long readPeriod) {
+        long period = minPeriod;
+        while (2 * period <= readPeriod / 2 && 2 * period <= maxPeriod) {
+            period *= 2;
+        }
+        return period;
+    }
+
+    /**
+     * Method for removing demands which aren't renewed for too long.
+     *
+     * @param now
+     *         current time in milliseconds
+     * @return keys of sensors whose sampling period changed, sensors without demand return -1 from {@link
+     * #getSamplingPeriod(String)} and need to be unregistered
+     */
+    public synchronized List<String> expire(long now) {
+        List<String> changed = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Map<String, Demand>>> it = demands.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Map<String, Demand>> entry = it.next();
+            long before = getSamplingPeriod(entry.getKey());
+            for (Iterator<Demand> demandIt = entry.getValue().values().iterator(); demandIt.hasNext(); ) {
+                Demand demand = demandIt.next();
+                if (now - demand.renewed > Math.max(idleTimeout, Math.min(3 * demand.readPeriod, 5 * idleTimeout))) {
+                    demandIt.remove();
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                it.remove();
+                changed.add(entry.getKey());
+            } else if (getSamplingPeriod(entry.getKey()) != before) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Getter for keys of demanded sensors.
+     *
+     * @return sorted keys
+     */
+    public synchronized Set<String> getDemanded() {
+        return new TreeSet<>(demands.keySet());
+    }
+
+    /**
+     * Method for counting event of sensor.
+     *
+     * @param key
+     *         sensor key
+     * @param now
+     *         current time in milliseconds
+     */
+    public void onEvent(String key, long now) {
+        onEvents(key, now, 1);
+    }
+
+    /**
+     * Method for counting burst of events of sensor which are delivered at once.
+     *
+     * @param key
+     *         sensor key
+     * @param now
+     *         current time in milliseconds
+     * @param count
+     *         number of events
+     */
+    public synchronized void onEvents(String key, long now, int count) {
+        EventCounter counter = counters.get(key);
+        if (counter == null) {
+            counter = new EventCounter(now);
+            counters.put(key, counter);
+        }
+        counter.add(now, count);
+    }
+
+    /**
+     * Method for getting rate of events of sensor in last complete window of {@link #RATE_WINDOW} milliseconds.
+     *
+     * @param key
+     *         sensor key
+     * @param now
+     *         current time in milliseconds
+     * @return events per second
+     */
+    public synchronized double getEventRate(String key, long now) {
+        EventCounter counter = counters.get(key);
+        return counter == null ? 0 : counter.rate(now);
+    }
+
+    /**
+     * Method for getting rates of events of all sensors which had some events.
+     *
+     * @param now
+     *         current time in milliseconds
+     * @return events per second by sensor keys
+     */
+    public synchronized Map<String, Double> getEventRates(long now) {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (Map.Entry<String, EventCounter> entry : counters.entrySet()) {
+            rates.put(entry.getKey(), entry.getValue().rate(now));
+        }
+        return rates;
+    }
+
+    /**
+     * Demand of one consumer.
+     */
+    private static class Demand {
+        /** How often consumer reads sensor in milliseconds, 0 if it isn't known. */
+        private long readPeriod;
+        /** Time of last renewal. */
+        private long renewed;
+    }
+
+    /**
+     * Counter of events in fixed windows.
+     */
+    private static class EventCounter {
+        /** Start of current window. */
+        private long windowStart;
+        /** Number of events in current window. */
+        private int count;
+        /** Number of events in previous window. */
+        private int previousCount;
+
+        /**
+         * Constructor.
+         *
+         * @param now
+         *         current time
+         */
+        private EventCounter(long now) {
+            windowStart = now;
+        }
+
+        /**
+         * Method for moving window to current time.
+         *
+         * @param now
+         *         current time
+         */
+        private void roll(long now) {
+            long windows = (now - windowStart) / RATE_WINDOW;
+            if (windows > 0) {
+                previousCount = windows == 1 ? count : 0;
+                count = 0;
+                windowStart += windows * RATE_WINDOW;
+            }
+        }
+
+        /**
+         * Method for counting events.
+         *
+         * @param now
+         *         current time
+         * @param events
+         *         number of events
+         */
+        private void add(long now, int events) {
+            roll(now);
+            count += events;
+        }
+
+        /**
+         * Method for getting rate in previous window.
+         *
+         * @param now
+         *         current time
+         * @return events per second
+         */
+        private double rate(long now) {
+            roll(now);
+            return previousCount * 1000.0 / RATE_WINDOW;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import zemris.fer.hr.iothingy.R;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Provider of aggregated sensor values. It runs in the same process as {@link DeviceSensors}, so other processes can
+ * get aggregates of sensor history (e.g. average of last 10 seconds) without storing every sample in shared
+ * preferences. Uri has format {@code content://AUTHORITY/SENSOR_KEY/AGGREGATE} and result has one column {@link
+ * #VALUE} with {@link SensorReading} in compact form. If there is no history for sensor, cursor is empty. Uri
+ * {@code content://AUTHORITY/metrics} returns one row for every sensor with columns {@link #KEY}, {@link
+ * #SAMPLING_PERIOD} and {@link #EVENT_RATE}, see {@link #getSensorMetrics(Context)}.
+ */
+public class SensorHistoryProvider extends ContentProvider {
+
+    /** Name of column with aggregated value. */
+    public static final String VALUE = "VALUE";
+    /** Name of column with sensor key. */
+    public static final String KEY = "KEY";
+    /** Name of column with sampling period in milliseconds, -1 if sensor isn't registered. */
+    public static final String SAMPLING_PERIOD = "SAMPLING_PERIOD";
+    /** Name of column with events per second. */
+    public static final String EVENT_RATE = "EVENT_RATE";
+    /** Last path segment of metrics uri. */
+    private static final String PATH_METRICS = "metrics";
+    /** Match for aggregate uri. */
+    private static final int MATCH_AGGREGATE = 1;
+    /** Match for metrics uri. */
+    private static final int MATCH_METRICS = 2;
+
+    /** Base uri of provider. */
+    private static Uri baseUri;
+    /** Matcher for uris. */
+    private UriMatcher matcher;
+
+    @Override
+    public boolean onCreate() {
+        matcher = new UriMatcher(UriMatcher.NO_MATCH);
+        matcher.addURI(getContext().getString(R.string.sensor_history_authority), "*/*", MATCH_AGGREGATE);
+        matcher.addURI(getContext().getString(R.string.sensor_history_authority), PATH_METRICS, MATCH_METRICS);
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        int match = matcher.match(uri);
+        if (match == MATCH_METRICS) {
+            MatrixCursor cursor = new MatrixCursor(new String[]{KEY, SAMPLING_PERIOD, EVENT_RATE});
+            for (Map.Entry<String, double[]> entry : DeviceSensors.getMetrics().entrySet()) {
+                cursor.newRow().add(entry.getKey()).add((long) entry.getValue()[0]).add(entry.getValue()[1]);
+            }
+            return cursor;
+        }
+        if (match != MATCH_AGGREGATE) {
+            throw new IllegalArgumentException("Unsupported uri " + uri);
+        }
+        String key = uri.getPathSegments().get(0);
+        String aggregate = uri.getPathSegments().get(1);
+        if (!SensorHistory.isValidAggregate(aggregate)) {
+            throw new IllegalArgumentException("Unsupported aggregate " + aggregate);
+        }
+        MatrixCursor cursor = new MatrixCursor(new String[]{VALUE});
+        SensorReading reading = DeviceSensors.getAggregatedReading(key, aggregate);
+        if (reading != null) {
+            cursor.newRow().add(reading.encode());
+        }
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd." + uri.getAuthority() + ".item";
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Method for getting aggregated reading of some sensor from other process.
+     *
+     * @param context
+     *         some context
+     * @param key
+     *         key of sensor
+     * @param aggregate
+     *         name of aggregate, see {@link SensorHistory}
+     * @return aggregated reading or null if there is no history for sensor
+     */
+    public static SensorReading getAggregatedReading(Context context, String key, String aggregate) {
+        SensorDemand.consumed(context, Collections.singletonList(key));
+        Uri uri = getBaseUri(context).buildUpon().appendPath(key).appendPath(aggregate).build();
+        Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? SensorReading.decodeOrNull(cursor.getString(0)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Method for getting metrics of sensors from other process: sampling periods of registered sensors and rates of
+     * events, so cost of sensors can be compared with and without demand-driven registration.
+     *
+     * @param context
+     *         some context
+     * @return map with sampling period in milliseconds (-1 if sensor isn't registered) at index 0 and events per
+     * second at index 1, by sensor keys
+     */
+    public static Map<String, double[]> getSensorMetrics(Context context) {
+        Map<String, double[]> metrics = new TreeMap<>();
+        Cursor cursor = context.getContentResolver().query(getBaseUri(context).buildUpon().appendPath(PATH_METRICS)
+                .build(), null, null, null, null);
+        if (cursor == null) {
+            return metrics;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                metrics.put(cursor.getString(0), new double[]{cursor.getLong(1), cursor.getDouble(2)});
+            }
+        } finally {
+            cursor.close();
+        }
+        return metrics;
+    }
+
+    /**
+     * Method for getting base uri of provider.
+     *
+     * @param context
+     *         some context
+     * @return base uri
+     */
+    private static Uri getBaseUri(Context context) {
+        if (baseUri == null) {
+            baseUri = Uri.parse("content://" + context.getString(R.string.sensor_history_authority));
+        }
+        return baseUri;
+    }
+}
@@ -0,0 +1,239 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writer which coalesces sensor values before they are stored. Sensors can produce many events per second and storing
+ * every one of them means one cross-process write per event. This class keeps only the latest raw values of every
+ * sensor in memory and periodically hands all sensors which changed since last flush to {@link Sink} in one batch. If
+ * sensor changes multiple times between two flushes, only its latest values are written and other events are counted
+ * as coalesced.
+ */
+public class SensorWriteCoalescer {
+
+    /**
+     * Destination for batches of sensor values.
+     */
+    public interface Sink {
+        /**
+         * Method for writing batch of sensor values. Arrays are owned by coalescer and they are valid only during this
+         * call.
+         *
+         * @param keys
+         *         keys of changed sensors
+         * @param timestamps
+         *         times of latest values, in the same order as keys, array can be longer than list of keys
+         * @param values
+         *         latest values of changed sensors, in the same order as keys
+         */
+        void write(List<String> keys, long[] timestamps, List<float[]> values);
+    }
+
+    /** Sink for batches. */
+    private final Sink sink;
+    /** Time between two flushes in milliseconds. */
+    private final long flushInterval;
+    /** Latest values of every sensor. */
+    private final Map<String, Slot> slots = new LinkedHashMap<>();
+    /** Keys of batch which is written, reused between flushes. */
+    private final List<String> batchKeys = new ArrayList<>();
+    /** Values of batch which is written, reused between flushes. */
+    private final List<float[]> batchValues = new ArrayList<>();
+    /** Timestamps of batch which is written, reused between flushes. */
+    private long[] batchTimestamps = new long[16];
+    /** Lock which allows only one flush at a time. */
+    private final Object flushLock = new Object();
+    /** Executor for periodic flushes. */
+    private ScheduledExecutorService scheduler;
+    /** Number of received events. */
+    private long eventsReceived;
+    /** Number of events which were overwritten by newer event before flush. */
+    private long eventsCoalesced;
+    /** Number of batches written to sink. */
+    private long flushes;
+
+    /**
+     * Constructor.
+     *
+     * @param sink
+     *         destination for batches
+     * @param flushInterval
+     *         time between two flushes in milliseconds
+     */
+    public SensorWriteCoalescer(Sink sink, long flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.sink = sink;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Method for starting periodic flushes.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    //failed write mustn't stop periodic flushes
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method for stopping periodic flushes. Values which aren't written yet are written before this method returns.
+     */
+    public void stop() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = scheduler;
+            scheduler = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Method for remembering new sensor values. Values are copied, so caller can reuse given array.
+     *
+     * @param key
+     *         key of sensor
+     * @param timestamp
+     *         time of values
+     * @param values
+     *         new values
+     */
+    public synchronized void update(String key, long timestamp, float[] values) {
+        eventsReceived++;
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(key, slot);
+        }
+        if (slot.dirty) {
+            eventsCoalesced++;
+        }
+        slot.latest = copy(values, slot.latest);
+        slot.timestamp = timestamp;
+        slot.dirty = true;
+    }
+
+    /**
+     * Method for writing all sensors which changed since last flush. Sink is called without holding lock used by
+     * {@link #update(String, long, float[])}, so sensor events aren't blocked while batch is written.
+     *
+     * @return number of written sensors
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            synchronized (this) {
+                for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                    Slot slot = entry.getValue();
+                    if (slot.dirty) {
+                        slot.flushed = copy(slot.latest, slot.flushed);
+                        slot.dirty = false;
+                        if (batchKeys.size() == batchTimestamps.length) {
+                            batchTimestamps = Arrays.copyOf(batchTimestamps, 2 * batchTimestamps.length);
+                        }
+                        batchTimestamps[batchKeys.size()] = slot.timestamp;
+                        batchKeys.add(entry.getKey());
+                        batchValues.add(slot.flushed);
+                    }
+                }
+                if (!batchKeys.isEmpty()) {
+                    flushes++;
+                }
+            }
+            int count = batchKeys.size();
+            try {
+                if (count > 0) {
+                    sink.write(batchKeys, batchTimestamps, batchValues);
+                }
+            } finally {
+                batchKeys.clear();
+                batchValues.clear();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Getter for number of received events.
+     *
+     * @return number of events
+     */
+    public synchronized long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    /**
+     * Getter for number of events which were overwritten by newer event of the same sensor before they were written.
+     *
+     * @return number of coalesced events
+     */
+    public synchronized long getEventsCoalesced() {
+        return eventsCoalesced;
+    }
+
+    /**
+     * Getter for number of batches written to sink.
+     *
+     * @return number of batches
+     */
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Method for copying values into destination array. New array is created only if destination has wrong length.
+     *
+     * @param values
+     *         values for copying
+     * @param destination
+     *         destination array, can be null
+     * @return array with copied values
+     */
+    private static float[] copy(float[] values, float[] destination) {
+        if (destination == null || destination.length != values.length) {
+            destination = new float[values.length];
+        }
+        System.arraycopy(values, 0, destination, 0, values.length);
+        return destination;
+    }
+
+    /**
+     * Values of one sensor.
+     */
+    private static class Slot {
+        /** Latest received values. */
+        private float[] latest;
+        /** Time of latest values. */
+        private long timestamp;
+        /** Values which are handed to sink, so they can be read while new values are received. */
+        private float[] flushed;
+        /** Flag which tells if sensor changed since last flush. */
+        private boolean dirty;
+    }
+}
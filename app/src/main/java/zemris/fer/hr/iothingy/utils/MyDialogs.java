@@ -10,6 +10,8 @@ import android.view.View;
 import android.widget.*;
 import zemris.fer.hr.iothingy.R;
 import zemris.fer.hr.iothingy.communication.CommunicationTask;
+import zemris.fer.hr.iothingy.communication.SubscriptionService;
+import zemris.fer.hr.iothingy.sensors.DeviceSensorValueSource;
 
 import java.util.List;
 
@@ -72,8 +74,11 @@ public class MyDialogs {
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                new CommunicationTask(context, msgs.get(position).responseMessage(context.getApplicationContext()),
-                        true);
+                ReceivedServerMessage message = msgs.get(position);
+                if (!SubscriptionService.dispatch(context, message)) {
+                    Message response = message.responseMessage(new DeviceSensorValueSource(context));
+                    new CommunicationTask(context, response, true);
+                }
                 StoringUtils.removeReceivedMessage(context.getApplicationContext(), msgs.get(0));
                 dialog.dismiss();
             }
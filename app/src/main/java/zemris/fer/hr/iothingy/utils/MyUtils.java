@@ -4,13 +4,9 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import com.guna.libmultispinner.MultiSelectionSpinner;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import zemris.fer.hr.iothingy.custom.DataForSpinnerTask;
 
 import java.util.List;
-import java.util.Map;
 
 /**
  * Utility class which contains some methods that are used by multiple activities/services.
@@ -65,54 +61,4 @@ public class MyUtils {
             spDeviceSensors.setItems(sensors);
         }
     }
-
-    /**
-     * Method for parsing sensor values into JSON format. Example of input: Proximity: 1.0 cm Example of output:
-     * "GPS":{"VALUES":[65.966,-18.533,15.044],"NAMES":["LATITUDE","LONGITUDE","ALTITUDE"]};
-     *
-     * @param value
-     *         value of some sensor, value is stored in {@code MultiprocessPreferences}.
-     * @return properly formatted JSONObject
-     * @throws JSONException
-     *         if there is problem while parsing
-     */
-    public static JSONObject parseSensorValueToJSON(String value) throws JSONException {
-        String[] lines = value.split("\n");
-        JSONArray valueArray = new JSONArray();
-        JSONArray nameArray = new JSONArray();
-        for (String line : lines) {
-            String[] lineSplit = line.split(": ");
-            String valueName = lineSplit[0].trim().toUpperCase();
-            String valueNumber = lineSplit[1].substring(0, lineSplit[1].indexOf(' ') - 1);
-            valueArray.put(Float.valueOf(valueNumber));
-            nameArray.put(valueName);
-        }
-        JSONObject sensorObject = new JSONObject();
-        sensorObject.put("VALUES", valueArray);
-        sensorObject.put("NAMES", nameArray);
-        return sensorObject;
-    }
-
-
-    /**
-     * Method for creating JSON data from sensors map and returning it as string.
-     *
-     * @param sensorDataMap
-     *         map contains sensors and their values
-     * @return string representation of JSON data
-     */
-    public static String createJSONData(Map<String, String> sensorDataMap) {
-        JSONObject jsonData = new JSONObject();
-        for (Map.Entry<String, String> entry : sensorDataMap.entrySet()) {
-            try {
-                String value = entry.getValue();
-                String key = entry.getKey().toUpperCase();
-                JSONObject sensorObject = MyUtils.parseSensorValueToJSON(value);
-                jsonData.put(key, sensorObject);
-            } catch (Exception e) {
-                return null;
-            }
-        }
-        return jsonData.toString();
-    }
 }
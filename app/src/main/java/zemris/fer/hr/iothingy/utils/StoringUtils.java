@@ -2,12 +2,22 @@ package zemris.fer.hr.iothingy.utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import com.gdubina.multiprocesspreferences.MultiprocessPreferences;
 import org.json.JSONArray;
 import zemris.fer.hr.iothingy.R;
+import zemris.fer.hr.iothingy.sensors.SensorDemand;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -15,67 +25,56 @@ import java.util.regex.Pattern;
  */
 public class StoringUtils {
 
+    /** Name of file in which received messages are stored. */
+    private static final String RECEIVED_MESSAGES_FILE = "received_messages.log";
+    /** Store of received messages, shared by whole process. */
+    private static MessageStore receivedMessages;
+    /** Name of file with latest sensor readings. */
+    private static final String SENSOR_SNAPSHOTS_FILE = "sensor_snapshots";
+    /** Name of file in which processes reserve blocks of message IDs. */
+    private static final String MESSAGE_IDS_FILE = "message_ids";
+    /** Number of sensors which can have latest reading in {@link #SENSOR_SNAPSHOTS_FILE}. */
+    private static final int SENSOR_SNAPSHOT_SLOTS = 64;
+    /** Region with latest sensor readings, shared by whole process. */
+    private static SensorSnapshotRegion sensorSnapshots;
+    /** Flag which tells if region with latest sensor readings couldn't be opened. */
+    private static boolean sensorSnapshotsFailed;
+    /** Time in milliseconds for which first sample of sensor which is just demanded is awaited. */
+    private static final long FIRST_SAMPLE_TIMEOUT = 1000;
+    /** Time in milliseconds between two checks if first sample of sensor has arrived. */
+    private static final long FIRST_SAMPLE_POLL = 50;
+
     /**
-     * Method for storing array in {@code SharedPreferences} in JSON format and getting the same thing out depending on
-     * given flag. If flag is true, given value will be stored into array, if flag is false and given value is null
-     * method will return list of messages and if flag is false and value is not null then value is some message which
-     * will be deleted from array.
+     * Method for getting store of received messages, it is kept in {@link MessageLog} in application files. When
+     * store is opened for the first time, messages which are stored in {@code SharedPreferences} as JSON array by
+     * older versions of application are moved into it.
      *
      * @param context
      *         some context
-     * @param key
-     *         key for stored value
-     * @param value
-     *         value if there needs to be stored
-     * @param flag
-     *         if true then given value will be stored in preferences, otherwise list of messages will be given or
-     *         message will be deleted
-     * @return list of messages if flag is false and value null, otherwise null
-     */
-    private static ArrayList<String> stringArrayPref(Context context, String key, String value, boolean flag) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String json = prefs.getString(key, null);
-        try {
-            SharedPreferences.Editor editor = prefs.edit();
-            JSONArray jsonArray;
-            if (flag) {
-                if (json == null) {
-                    jsonArray = new JSONArray();
-                } else {
-                    jsonArray = new JSONArray(json);
-                }
-                jsonArray.put(value);
-                editor.putString(key, jsonArray.toString());
-                editor.apply();
-                return null;
-            } else if (value != null) {
-                if (json != null) {
-                    jsonArray = new JSONArray(json);
-                    JSONArray newJsonArray = new JSONArray();
-                    for (int i = 0; i < jsonArray.length(); ++i) {
-                        String obj = jsonArray.optString(i);
-                        if (!value.equals(obj)) {
-                            newJsonArray.put(obj);
-                        }
-                    }
-                    editor.putString(key, newJsonArray.toString());
-                    editor.apply();
-                    return null;
-                }
-            } else {
-                ArrayList<String> messages = new ArrayList<>();
-                if (json != null) {
-                    jsonArray = new JSONArray(json);
+     * @return store of received messages
+     * @throws IOException
+     *         if store can't be opened
+     */
+    private static synchronized MessageStore getReceivedMessagesStore(Context context) throws IOException {
+        if (receivedMessages == null) {
+            MessageStore store = new LogMessageStore(new MessageLog(new File(
+                    context.getApplicationContext().getFilesDir(), RECEIVED_MESSAGES_FILE)));
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            String json = prefs.getString(Constants.KEY_RECEIVED_MESSAGES, null);
+            if (json != null) {
+                try {
+                    JSONArray jsonArray = new JSONArray(json);
                     for (int i = 0; i < jsonArray.length(); ++i) {
-                        messages.add(jsonArray.optString(i));
+                        store.add(ReceivedServerMessage.parseStoreMsg(jsonArray.optString(i)));
                     }
+                } catch (Exception e) {
+                    //old messages are lost
                 }
-                return messages;
+                prefs.edit().remove(Constants.KEY_RECEIVED_MESSAGES).apply();
             }
-        } catch (Exception e) {
-            return null;
+            receivedMessages = store;
         }
-        return null;
+        return receivedMessages;
     }
 
     /**
@@ -87,7 +86,11 @@ public class StoringUtils {
      *         new message to add
      */
     public static void addReceivedMessage(Context context, ReceivedServerMessage message) {
-        stringArrayPref(context, Constants.KEY_RECEIVED_MESSAGES, message.storeMsgFormat(), true);
+        try {
+            getReceivedMessagesStore(context).add(message);
+        } catch (IOException e) {
+            //message is lost
+        }
     }
 
     /**
@@ -99,7 +102,11 @@ public class StoringUtils {
      *         message which will be removed
      */
     public static void removeReceivedMessage(Context context, ReceivedServerMessage message) {
-        stringArrayPref(context, Constants.KEY_RECEIVED_MESSAGES, message.storeMsgFormat(), false);
+        try {
+            getReceivedMessagesStore(context).remove(message.getStoreKey());
+        } catch (IOException e) {
+            //ignore
+        }
     }
 
     /**
@@ -107,17 +114,292 @@ public class StoringUtils {
      *
      * @param context
      *         some context
-     * @return list of messages or ull
+     * @return list of messages
      */
     public static List<ReceivedServerMessage> getReceivedMessages(Context context) {
-        List<String> unparsedMsgs = stringArrayPref(context, Constants.KEY_RECEIVED_MESSAGES, null, false);
-        List<ReceivedServerMessage> messages = new ArrayList<>();
-        if (unparsedMsgs != null) {
-            for (String unpMsg : unparsedMsgs) {
-                messages.add(ReceivedServerMessage.parseStoreMsg(unpMsg));
+        try {
+            return getReceivedMessagesStore(context).getAll();
+        } catch (IOException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Method for getting one received message.
+     *
+     * @param context
+     *         some context
+     * @param key
+     *         key of message, see {@link ReceivedServerMessage#getStoreKey()}
+     * @return message or null if there is no such message
+     */
+    public static ReceivedServerMessage getReceivedMessage(Context context, String key) {
+        try {
+            return getReceivedMessagesStore(context).get(key);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method for getting number of auto-reply worker threads.
+     *
+     * @param context
+     *         some context
+     * @return number of worker threads
+     */
+    public static int getReplyWorkers(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_REPLY_WORKERS, Constants.DEFAULT_REPLY_WORKERS);
+    }
+
+    /**
+     * Method for getting capacity of auto-reply queue.
+     *
+     * @param context
+     *         some context
+     * @return queue capacity
+     */
+    public static int getReplyQueueCapacity(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_REPLY_QUEUE_CAPACITY, Constants.DEFAULT_REPLY_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Method for getting maximal number of messages which are replied in one batch.
+     *
+     * @param context
+     *         some context
+     * @return batch size
+     */
+    public static int getReplyBatchSize(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_REPLY_BATCH_SIZE, Constants.DEFAULT_REPLY_BATCH_SIZE);
+    }
+
+    /**
+     * Method for getting time between two writes of sensor values.
+     *
+     * @param context
+     *         some context
+     * @return time in milliseconds
+     */
+    public static int getSensorFlushInterval(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_SENSOR_FLUSH_INTERVAL, Constants.DEFAULT_SENSOR_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Method for checking if sensors are registered only when some process reads their values, see {@link
+     * zemris.fer.hr.iothingy.sensors.SensorDemand}. Otherwise all sensors are registered.
+     *
+     * @param context
+     *         some context
+     * @return true if sensors are registered on demand
+     */
+    public static boolean isSensorDemandDriven(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(Constants.KEY_SENSOR_DEMAND_DRIVEN, true);
+    }
+
+    /**
+     * Method for getting maximal latency of sensor events. If it is positive, sensors which have hardware FIFO keep
+     * events in it for up to this time and deliver them in bursts, so CPU isn't woken up for every event.
+     *
+     * @param context
+     *         some context
+     * @return latency in milliseconds, 0 if events aren't batched
+     */
+    public static int getSensorReportLatency(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_SENSOR_REPORT_LATENCY, Constants.DEFAULT_SENSOR_REPORT_LATENCY);
+    }
+
+    /**
+     * Method for getting time between two telemetry messages.
+     *
+     * @param context
+     *         some context
+     * @return time in milliseconds
+     */
+    public static int getTelemetryPeriod(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_TELEMETRY_PERIOD, Constants.DEFAULT_TELEMETRY_PERIOD);
+    }
+
+    /**
+     * Method for getting maximal jitter of telemetry messages.
+     *
+     * @param context
+     *         some context
+     * @return jitter in milliseconds
+     */
+    public static int getTelemetryJitter(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(Constants.KEY_TELEMETRY_JITTER, Constants.DEFAULT_TELEMETRY_JITTER);
+    }
+
+    /**
+     * Method for checking if messages which are sent from application contain only sensors which have changed since
+     * previous message to the same destination, see {@link DeltaReporter}.
+     *
+     * @param context
+     *         some context
+     * @return true if delta reporting is on
+     */
+    public static boolean isDeltaReporting(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(Constants.KEY_DELTA_REPORTING, false);
+    }
+
+    /**
+     * Method for making {@link MessageIdGenerator} reserve IDs in file which is shared by all processes, so that
+     * messages sent from different processes never have same ID.
+     *
+     * @param context
+     *         some context
+     */
+    public static void applyMessageIdFile(Context context) {
+        MessageIdGenerator.setSharedFile(new File(context.getApplicationContext().getFilesDir(), MESSAGE_IDS_FILE));
+    }
+
+    /**
+     * Method for giving secret from shared preferences to {@link MessageCrypto}. There is no default secret, so if no
+     * secret is stored, messages with HMAC and FULL encryption can't be sent or read.
+     *
+     * @param context
+     *         some context
+     */
+    public static void applySharedSecret(Context context) {
+        String secret = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(Constants.KEY_SHARED_SECRET, null);
+        try {
+            MessageCrypto.setMasterSecret(secret == null ? null : secret.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method for getting memory mapped region with latest sensor readings, which is shared by all processes.
+     *
+     * @param context
+     *         some context
+     * @return region or null if it can't be opened
+     */
+    public static synchronized SensorSnapshotRegion getSensorSnapshots(Context context) {
+        if (sensorSnapshots == null && !sensorSnapshotsFailed) {
+            try {
+                sensorSnapshots = new SensorSnapshotRegion(new File(context.getApplicationContext().getFilesDir(),
+                        SENSOR_SNAPSHOTS_FILE), SENSOR_SNAPSHOT_SLOTS);
+            } catch (IOException e) {
+                //readings are stored only in preferences
+                sensorSnapshotsFailed = true;
+            }
+        }
+        return sensorSnapshots;
+    }
+
+    /**
+     * Method for storing latest reading of sensor into region returned by {@link #getSensorSnapshots(Context)}.
+     *
+     * @param context
+     *         some context
+     * @param key
+     *         key of sensor
+     * @param type
+     *         sensor type
+     * @param timestamp
+     *         time of reading
+     * @param values
+     *         values
+     */
+    public static void storeSensorSnapshot(Context context, String key, int type, long timestamp, float[] values) {
+        SensorSnapshotRegion region = getSensorSnapshots(context);
+        if (region != null) {
+            try {
+                region.write(key, type, timestamp, values);
+            } catch (IOException e) {
+                //reading is still stored in preferences
+            }
+        }
+    }
+
+    /**
+     * Method for getting latest readings of sensors. Readings are read from region returned by {@link
+     * #getSensorSnapshots(Context)} and readings of sensors which aren't there are read from {@link
+     * MultiprocessPreferences} with one query. Read is reported to {@link SensorDemand}, so sensors which are read
+     * stay registered. Sensor which isn't registered has no reading (see {@link
+     * zemris.fer.hr.iothingy.sensors.DeviceSensors}), so if demand for it is just sent, its first sample is awaited
+     * for at most {@link #FIRST_SAMPLE_TIMEOUT} milliseconds, except on UI thread.
+     *
+     * @param context
+     *         some context
+     * @param keys
+     *         keys of sensors
+     * @return map with readings, sensors without reading are not in map
+     */
+    public static Map<String, SensorReading> getLatestReadings(Context context, Collection<String> keys) {
+        List<String> demanded = SensorDemand.consumed(context, keys);
+        Map<String, SensorReading> readings = readLatest(context, keys);
+        if (demanded.isEmpty() || Looper.myLooper() == Looper.getMainLooper()) {
+            return readings;
+        }
+        List<String> waiting = new ArrayList<>();
+        for (String key : demanded) {
+            if (!readings.containsKey(key)) {
+                waiting.add(key);
+            }
+        }
+        long end = SystemClock.elapsedRealtime() + FIRST_SAMPLE_TIMEOUT;
+        while (!waiting.isEmpty() && SystemClock.elapsedRealtime() < end) {
+            try {
+                Thread.sleep(FIRST_SAMPLE_POLL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Map<String, SensorReading> arrived = readLatest(context, waiting);
+            readings.putAll(arrived);
+            waiting.removeAll(arrived.keySet());
+        }
+        return readings;
+    }
+
+    /**
+     * Method for reading latest readings of sensors from shared region and preferences. Readings without current
+     * values (see {@link SensorJson#isWritable(SensorReading)}) are left out.
+     *
+     * @param context
+     *         some context
+     * @param keys
+     *         keys of sensors
+     * @return map with readings
+     */
+    private static Map<String, SensorReading> readLatest(Context context, Collection<String> keys) {
+        Map<String, SensorReading> readings = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        SensorSnapshotRegion region = getSensorSnapshots(context);
+        SensorSnapshotRegion.Entry entry = new SensorSnapshotRegion.Entry();
+        for (String key : keys) {
+            if (region != null && region.read(key, entry)) {
+                SensorReading reading = entry.toReading();
+                if (SensorJson.isWritable(reading)) {
+                    readings.put(key, reading);
+                }
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Map.Entry<String, String> stored : MultiprocessPreferences.getDefaultSharedPreferences(context)
+                    .getStrings(missing).entrySet()) {
+                SensorReading reading = SensorReading.decodeOrNull(stored.getValue());
+                if (SensorJson.isWritable(reading)) {
+                    readings.put(stored.getKey(), reading);
+                }
             }
         }
-        return messages;
+        return readings;
     }
 
     /**
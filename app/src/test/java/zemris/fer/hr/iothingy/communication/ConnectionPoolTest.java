@@ -0,0 +1,146 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ConnectionPool} against {@link LoopbackServer}.
+ */
+public class ConnectionPoolTest {
+
+    /** Server used by test. */
+    private LoopbackServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void connectionIsReused() throws Exception {
+        server = new LoopbackServer(1, 0);
+        ConnectionPool pool = new ConnectionPool(2, 60000);
+        for (int i = 0; i < 10; ++i) {
+            List<String> replies = pool.send("127.0.0.1", server.getPort(), lines(1, i));
+            assertEquals(1, replies.size());
+        }
+        assertEquals(1, server.getConnections());
+        assertEquals(1, pool.getOpenedConnections());
+        pool.closeIdle();
+    }
+
+    @Test
+    public void pipelinedRepliesAreInOrder() throws Exception {
+        server = new LoopbackServer(2, 0);
+        ConnectionPool pool = new ConnectionPool(2, 60000);
+        List<String> lines = lines(100, 0);
+        List<String> replies = pool.send("127.0.0.1", server.getPort(), lines);
+        assertEquals(200, replies.size());
+        for (int i = 0; i < lines.size(); ++i) {
+            String msgID = lines.get(i).substring(1, 9);
+            assertEquals(LoopbackServer.reply(msgID, 0), replies.get(2 * i));
+            assertEquals(LoopbackServer.reply(msgID, 1), replies.get(2 * i + 1));
+        }
+        assertEquals(1, server.getConnections());
+        pool.closeIdle();
+    }
+
+    @Test
+    public void serverWhichClosesAfterEveryLine() throws Exception {
+        server = new LoopbackServer(1, 1);
+        ConnectionPool pool = new ConnectionPool(2, 60000);
+        List<String> replies = pool.send("127.0.0.1", server.getPort(), lines(5, 0));
+        assertEquals(5, replies.size());
+        assertEquals(5, server.getReceivedLines());
+        assertEquals(5, server.getConnections());
+        //next send reuses closed connection, pool needs to notice that and open new one
+        replies = pool.send("127.0.0.1", server.getPort(), lines(1, 0));
+        assertEquals(1, replies.size());
+        pool.closeIdle();
+    }
+
+    @Test
+    public void answeredLinesAreReportedWhenSendFails() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    String line = in.readLine();
+                    //server goes away after it answers first line
+                    serverSocket.close();
+                    OutputStream out = socket.getOutputStream();
+                    out.write((LoopbackServer.reply(line.substring(1, 9), 0) + "\r\nidle\r\n").getBytes("UTF-8"));
+                    socket.close();
+                } catch (Exception e) {
+                    //test fails on client side
+                }
+            }
+        });
+        thread.start();
+        ConnectionPool pool = new ConnectionPool(2, 60000);
+        try {
+            pool.send("127.0.0.1", serverSocket.getLocalPort(), lines(3, 0));
+            fail("Send must fail");
+        } catch (ConnectionPool.PartialSendException e) {
+            assertEquals(1, e.getAnswered());
+            assertEquals(Collections.singletonList(LoopbackServer.reply("00000001", 0)), e.getReplies());
+        }
+        thread.join();
+    }
+
+    @Test
+    public void pipelinedSendsShareOneConnection() throws Exception {
+        server = new LoopbackServer(1, 0);
+        //pool which doesn't keep idle connections behaves like one socket per message
+        ConnectionPool noPool = new ConnectionPool(0, 0);
+        List<String> lines = lines(10, 0);
+        for (String line : lines) {
+            assertEquals(1, noPool.send("127.0.0.1", server.getPort(), Collections.singletonList(line)).size());
+        }
+        assertEquals(10, server.getConnections());
+        assertEquals(10, noPool.getOpenedConnections());
+
+        ConnectionPool pool = new ConnectionPool(2, 60000);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(10, pool.send("127.0.0.1", server.getPort(), lines).size());
+        }
+        assertEquals(11, server.getConnections());
+        assertEquals(1, pool.getOpenedConnections());
+        pool.closeIdle();
+    }
+
+    /**
+     * Method for creating lines in format which is returned by {@code Message#getComSendMessage()}.
+     *
+     * @param count
+     *         number of lines
+     * @param offset
+     *         offset for message ID
+     * @return list of lines
+     */
+    private static List<String> lines(int count, int offset) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add("0" + String.format("%08d", offset + i + 1) + "THING_45" + "SERVER01" + "00000000"
+                    + "{\"GPS\":{\"VALUES\":[45.8,15.9,120.0],\"NAMES\":[\"LATITUDE\",\"LONGITUDE\",\"ALTITUDE\"]}}");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,126 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end load test of clients against {@link LoopbackServer}. Thousands of simulated things send messages through
+ * blocking {@link ConnectionPool} and through {@link NioClient}, against well behaved and faulty server, and driver
+ * prints throughput and latency percentiles.
+ */
+public class LoadBenchmark {
+
+    /** Number of simulated things. */
+    private static final int THINGS = 2000;
+    /** Number of messages which every thing sends. */
+    private static final int MESSAGES_PER_THING = 5;
+    /** Number of things which run at once. */
+    private static final int CONCURRENCY = 32;
+    /** Number of GET commands which server returns for every line. */
+    private static final int REPLIES_PER_LINE = 2;
+
+    /** Server used by test. */
+    private LoopbackServer server;
+    /** NIO client used by test. */
+    private NioClient client;
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void blockingPool() throws Exception {
+        server = new LoopbackServer(REPLIES_PER_LINE, 0);
+        final ConnectionPool pool = new ConnectionPool(CONCURRENCY, 60000);
+        LoadDriver.Result result = run("blocking pool", new MessageSender.Transport() {
+            @Override
+            public List<String> exchange(String destIP, int destPort, List<String> lines) throws Exception {
+                return pool.send(destIP, destPort, lines);
+            }
+        });
+        pool.closeIdle();
+        assertClean(result);
+    }
+
+    @Test
+    public void selector() throws Exception {
+        server = new LoopbackServer(REPLIES_PER_LINE, 0);
+        client = new NioClient(5000, 10000, 60000);
+        LoadDriver.Result result = run("selector", nioTransport());
+        assertClean(result);
+        assertEquals(1, client.getOpenedConnections());
+    }
+
+    @Test
+    public void selectorWithFaultyServer() throws Exception {
+        server = new LoopbackServer(REPLIES_PER_LINE, 0);
+        server.setDropEvery(2000);
+        server.setCloseEarlyEvery(700);
+        client = new NioClient(5000, 300, 60000);
+        LoadDriver.Result result = run("selector, faulty server", nioTransport());
+        assertEquals(THINGS * MESSAGES_PER_THING, result.getSucceeded() + result.getFailed());
+        assertTrue(server.getDroppedLines() > 0);
+        assertTrue(server.getClosedEarly() > 0);
+        //dropped line fails itself and lines pipelined behind it, other things go on
+        assertTrue(result.getFailed() > 0);
+        assertTrue(result.getSucceeded() > THINGS * MESSAGES_PER_THING / 2);
+    }
+
+    /**
+     * Method for running load against server of test and printing result.
+     *
+     * @param name
+     *         name which is printed with result
+     * @param transport
+     *         client through which messages are sent
+     * @return result
+     * @throws InterruptedException
+     *         if thread is interrupted
+     */
+    private LoadDriver.Result run(String name, MessageSender.Transport transport) throws InterruptedException {
+        LoadDriver driver = new LoadDriver(transport, "127.0.0.1", server.getPort());
+        //warm up
+        driver.run(CONCURRENCY, MESSAGES_PER_THING, CONCURRENCY);
+        LoadDriver.Result result = driver.run(THINGS, MESSAGES_PER_THING, CONCURRENCY);
+        System.out.println(String.format("%-25s %s", name, result));
+        return result;
+    }
+
+    /**
+     * Method for checking result of run against well behaved server.
+     *
+     * @param result
+     *         result
+     */
+    private static void assertClean(LoadDriver.Result result) {
+        assertEquals(0, result.getFailed());
+        assertEquals(THINGS * MESSAGES_PER_THING, result.getSucceeded());
+        assertEquals(REPLIES_PER_LINE * THINGS * MESSAGES_PER_THING, result.getReplies());
+        assertTrue(result.getLatency(50) <= result.getLatency(99));
+        assertTrue(result.getLatency(99) <= result.getLatency(99.9));
+    }
+
+    /**
+     * Method for creating transport which sends through NIO client of test.
+     *
+     * @return transport
+     */
+    private MessageSender.Transport nioTransport() {
+        return new MessageSender.Transport() {
+            @Override
+            public List<String> exchange(String destIP, int destPort, List<String> lines) throws Exception {
+                return client.exchange(destIP, destPort, lines);
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load driver which runs many simulated things against one destination through some client. Every thing sends its
+ * messages one after another and waits for replies of every message before it sends next one, like the application
+ * does. Things run at once up to given concurrency. Driver measures latency of every exchange and reports throughput
+ * and latency percentiles.
+ */
+public class LoadDriver {
+
+    /** Client through which messages are sent. */
+    private final MessageSender.Transport transport;
+    /** Destination IP. */
+    private final String destIP;
+    /** Destination port. */
+    private final int destPort;
+
+    /**
+     * Constructor.
+     *
+     * @param transport
+     *         client through which messages are sent
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     */
+    public LoadDriver(MessageSender.Transport transport, String destIP, int destPort) {
+        this.transport = transport;
+        this.destIP = destIP;
+        this.destPort = destPort;
+    }
+
+    /**
+     * Method for running load.
+     *
+     * @param things
+     *         number of simulated things
+     * @param messagesPerThing
+     *         number of messages which every thing sends
+     * @param concurrency
+     *         number of things which run at once
+     * @return result
+     * @throws InterruptedException
+     *         if thread is interrupted while it waits for things
+     */
+    public Result run(int things, final int messagesPerThing, int concurrency) throws InterruptedException {
+        final List<long[]> latencies = Collections.synchronizedList(new ArrayList<long[]>());
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger replies = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < things; ++i) {
+            final String thingID = String.format(Locale.ROOT, "T%07d", i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long[] thingLatencies = new long[messagesPerThing];
+                    int sent = 0;
+                    for (int j = 0; j < messagesPerThing; ++j) {
+                        List<String> line = Collections.singletonList(line(thingID, j));
+                        long sendStart = System.nanoTime();
+                        try {
+                            replies.addAndGet(transport.exchange(destIP, destPort, line).size());
+                            thingLatencies[sent++] = System.nanoTime() - sendStart;
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    latencies.add(Arrays.copyOf(thingLatencies, sent));
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        long time = System.nanoTime() - start;
+        int count = 0;
+        for (long[] thingLatencies : latencies) {
+            count += thingLatencies.length;
+        }
+        long[] all = new long[count];
+        int position = 0;
+        for (long[] thingLatencies : latencies) {
+            System.arraycopy(thingLatencies, 0, all, position, thingLatencies.length);
+            position += thingLatencies.length;
+        }
+        Arrays.sort(all);
+        return new Result(all, failed.get(), replies.get(), time);
+    }
+
+    /**
+     * Method for creating line in format which is returned by {@code Message#getComSendMessage()}.
+     *
+     * @param thingID
+     *         ID of thing which sends line
+     * @param index
+     *         index of message of that thing
+     * @return line
+     */
+    private static String line(String thingID, int index) {
+        return "0" + String.format(Locale.ROOT, "%08d", index + 1) + thingID + "SERVER01" + "00000000"
+                + "{\"GPS\":{\"VALUES\":[45.8,15.9,120.0],\"NAMES\":[\"LATITUDE\",\"LONGITUDE\",\"ALTITUDE\"]}}";
+    }
+
+    /**
+     * Result of one run.
+     */
+    public static class Result {
+        /** Sorted latencies of successful exchanges in nanoseconds. */
+        private final long[] latencies;
+        /** Number of failed exchanges. */
+        private final int failed;
+        /** Number of received reply lines. */
+        private final int replies;
+        /** Duration of run in nanoseconds. */
+        private final long time;
+
+        /**
+         * Constructor.
+         *
+         * @param latencies
+         *         sorted latencies of successful exchanges in nanoseconds
+         * @param failed
+         *         number of failed exchanges
+         * @param replies
+         *         number of received reply lines
+         * @param time
+         *         duration of run in nanoseconds
+         */
+        private Result(long[] latencies, int failed, int replies, long time) {
+            this.latencies = latencies;
+            this.failed = failed;
+            this.replies = replies;
+            this.time = time;
+        }
+
+        /**
+         * Getter for number of successful exchanges.
+         *
+         * @return number of exchanges
+         */
+        public int getSucceeded() {
+            return latencies.length;
+        }
+
+        /**
+         * Getter for number of failed exchanges.
+         *
+         * @return number of exchanges
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Getter for number of received reply lines.
+         *
+         * @return number of lines
+         */
+        public int getReplies() {
+            return replies;
+        }
+
+        /**
+         * Method for getting throughput of successful exchanges.
+         *
+         * @return exchanges per second
+         */
+        public double getThroughput() {
+            return latencies.length * 1e9 / time;
+        }
+
+        /**
+         * Method for getting latency percentile, nearest rank is used.
+         *
+         * @param percentile
+         *         percentile between 0 and 100
+         * @return latency in milliseconds, NaN if no exchange succeeded
+         */
+        public double getLatency(double percentile) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%7d ok %5d failed %9.0f msg/s   p50 %7.2f ms   p99 %7.2f ms   "
+                            + "p999 %7.2f ms", latencies.length, failed, getThroughput(), getLatency(50),
+                    getLatency(99), getLatency(99.9));
+        }
+    }
+}
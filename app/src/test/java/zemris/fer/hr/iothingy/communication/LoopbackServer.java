@@ -0,0 +1,323 @@
+package zemris.fer.hr.iothingy.communication;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in server which speaks the same line protocol as real servers: for every received line it returns configured
+ * number of {@code GET} commands for thing which sent the line and then line {@code idle}. It listens only on loopback
+ * interface. Server can also act like slow or faulty server: it can wait before replies, drop some lines (it stops
+ * answering on that connection, like hung server) or close connection before it finishes some reply.
+ */
+public class LoopbackServer implements Runnable {
+
+    /** Server socket. */
+    private final ServerSocket serverSocket;
+    /** Number of message lines returned for every received line. */
+    private final int repliesPerLine;
+    /** Number of lines handled on one connection before it is closed, 0 means unlimited. */
+    private final int linesPerConnection;
+    /** Number of accepted connections. */
+    private final AtomicInteger connections = new AtomicInteger();
+    /** Number of received lines. */
+    private final AtomicInteger receivedLines = new AtomicInteger();
+    /** Received lines in order in which they are received. */
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    /** Open connections. */
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    /** Number of lines which were dropped. */
+    private final AtomicInteger droppedLines = new AtomicInteger();
+    /** Number of connections which were closed before reply was finished. */
+    private final AtomicInteger closedEarly = new AtomicInteger();
+    /** Lines which are returned once, with replies to next received line. */
+    private final ConcurrentLinkedQueue<String> extraReplies = new ConcurrentLinkedQueue<>();
+    /** Delay before replies to every line, in milliseconds. */
+    private volatile long replyDelay;
+    /** Every which received line is dropped, 0 means none. */
+    private volatile int dropEvery;
+    /** Every which received line is answered without {@code idle} and its connection is closed, 0 means none. */
+    private volatile int closeEarlyEvery;
+
+    /**
+     * Constructor which starts server on some free port.
+     *
+     * @param repliesPerLine
+     *         number of message lines returned for every received line
+     * @param linesPerConnection
+     *         number of lines handled on one connection before it is closed, 0 means unlimited
+     * @throws IOException
+     *         if server can't be started
+     */
+    public LoopbackServer(int repliesPerLine, int linesPerConnection) throws IOException {
+        this(0, repliesPerLine, linesPerConnection);
+    }
+
+    /**
+     * Constructor which starts server on given port, e.g. port of server which was stopped before.
+     *
+     * @param port
+     *         port, 0 means some free port
+     * @param repliesPerLine
+     *         number of message lines returned for every received line
+     * @param linesPerConnection
+     *         number of lines handled on one connection before it is closed, 0 means unlimited
+     * @throws IOException
+     *         if server can't be started
+     */
+    public LoopbackServer(int port, int repliesPerLine, int linesPerConnection) throws IOException {
+        this.repliesPerLine = repliesPerLine;
+        this.linesPerConnection = linesPerConnection;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        Thread thread = new Thread(this, "loopback-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                sockets.add(socket);
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                }, "loopback-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                //server is closed
+            }
+        }
+    }
+
+    /**
+     * Method for handling one connection.
+     *
+     * @param socket
+     *         accepted socket
+     */
+    private void handle(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            int handled = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (replyDelay > 0) {
+                    try {
+                        Thread.sleep(replyDelay);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                int number = receivedLines.incrementAndGet();
+                received.add(line);
+                if (dropEvery > 0 && number % dropEvery == 0) {
+                    droppedLines.incrementAndGet();
+                    //hung server, everything else on this connection is ignored until client gives up
+                    while (in.readLine() != null) {
+                        //ignore
+                    }
+                    break;
+                }
+                String msgID = line.substring(1, 9);
+                String thingID = line.substring(9, 17);
+                for (int i = 0; i < repliesPerLine; ++i) {
+                    out.write(reply(thingID, msgID, i));
+                    out.write("\r\n");
+                }
+                for (String extra = extraReplies.poll(); extra != null; extra = extraReplies.poll()) {
+                    out.write(extra);
+                    out.write("\r\n");
+                }
+                if (closeEarlyEvery > 0 && number % closeEarlyEvery == 0) {
+                    closedEarly.incrementAndGet();
+                    break;
+                }
+                out.write("idle\r\n");
+                if (!in.ready()) {
+                    out.flush();
+                }
+                if (linesPerConnection > 0 && ++handled == linesPerConnection) {
+                    break;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            //client closed connection
+        } finally {
+            sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Method for creating GET command for some received message.
+     *
+     * @param msgID
+     *         ID of received message
+     * @param index
+     *         index of reply for that message
+     * @return reply line
+     */
+    public static String reply(String msgID, int index) {
+        return reply("THING_45", msgID, index);
+    }
+
+    /**
+     * Method for creating GET command for some message received from given thing.
+     *
+     * @param thingID
+     *         ID of thing which sent message
+     * @param msgID
+     *         ID of received message
+     * @param index
+     *         index of reply for that message
+     * @return reply line
+     */
+    public static String reply(String thingID, String msgID, int index) {
+        return "0" + String.format("%08d", index + 1) + "SERVER01" + thingID + msgID
+                + "{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\"]}";
+    }
+
+    /**
+     * Setter for delay before replies to every line, so server acts like slow or overloaded server.
+     *
+     * @param replyDelay
+     *         delay in milliseconds
+     */
+    public void setReplyDelay(long replyDelay) {
+        this.replyDelay = replyDelay;
+    }
+
+    /**
+     * Setter for dropping lines. Dropped line is never answered and server stops reading its connection until client
+     * closes it.
+     *
+     * @param dropEvery
+     *         every which received line is dropped, 0 means none
+     */
+    public void setDropEvery(int dropEvery) {
+        this.dropEvery = dropEvery;
+    }
+
+    /**
+     * Setter for closing connections early. Server writes replies to line, but closes connection before line
+     * {@code idle}.
+     *
+     * @param closeEarlyEvery
+     *         every which received line closes its connection, 0 means none
+     */
+    public void setCloseEarlyEvery(int closeEarlyEvery) {
+        this.closeEarlyEvery = closeEarlyEvery;
+    }
+
+    /**
+     * Method for adding lines which are returned once, after configured replies to next received line, e.g. commands
+     * which server wants to send to client.
+     *
+     * @param lines
+     *         lines without terminator
+     */
+    public void addReplies(String... lines) {
+        Collections.addAll(extraReplies, lines);
+    }
+
+    /**
+     * Getter for port on which server listens.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Getter for number of accepted connections.
+     *
+     * @return number of connections
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Getter for number of received lines.
+     *
+     * @return number of lines
+     */
+    public int getReceivedLines() {
+        return receivedLines.get();
+    }
+
+    /**
+     * Getter for number of dropped lines.
+     *
+     * @return number of lines
+     */
+    public int getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * Getter for number of connections which were closed before reply was finished.
+     *
+     * @return number of connections
+     */
+    public int getClosedEarly() {
+        return closedEarly.get();
+    }
+
+    /**
+     * Getter for received lines.
+     *
+     * @return copy of received lines in order in which they are received
+     */
+    public List<String> getReceived() {
+        synchronized (received) {
+            return new ArrayList<>(received);
+        }
+    }
+
+    /**
+     * Method for stopping server. Open connections are closed too, like when server goes down.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            //ignore
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
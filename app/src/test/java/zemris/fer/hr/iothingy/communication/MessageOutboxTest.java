@@ -0,0 +1,219 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageOutbox}. Delivery goes through {@link ConnectionPool} to {@link LoopbackServer} which is
+ * stopped and started again on the same port.
+ */
+public class MessageOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Outbox file. */
+    private File file;
+    /** Server used by test. */
+    private LoopbackServer server;
+    /** Pool used by transport. */
+    private ConnectionPool pool;
+    /** Number of calls of transport. */
+    private volatile int attempts;
+    /** Times of calls of transport. */
+    private final List<Long> attemptTimes = Collections.synchronizedList(new ArrayList<Long>());
+    /** Transport which sends lines to loopback server. */
+    private final MessageOutbox.Transport transport = new MessageOutbox.Transport() {
+        @Override
+        public void deliver(String destIP, int destPort, List<String> lines) throws IOException {
+            attempts++;
+            attemptTimes.add(System.currentTimeMillis());
+            if (pool.send(destIP, destPort, lines).size() != lines.size()) {
+                throw new IOException("Missing replies");
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "outbox.log");
+        pool = new ConnectionPool(2, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+        pool.closeIdle();
+    }
+
+    @Test
+    public void messagesQueuedWhileServerIsDownAreDrainedOverOneConnection() throws Exception {
+        server = new LoopbackServer(1, 0);
+        int port = server.getPort();
+        server.close();
+        MessageOutbox outbox = new MessageOutbox(file, 1024 * 1024, transport, 20, 100);
+        outbox.start();
+        List<String> sent = new ArrayList<>();
+        for (int batch = 0; batch < 3; ++batch) {
+            List<String> lines = lines(10, 10 * batch);
+            outbox.enqueue("127.0.0.1", port, lines);
+            sent.addAll(lines);
+            Thread.sleep(100);
+        }
+        assertTrue(outbox.hasPending("127.0.0.1", port));
+        assertEquals(30, outbox.size());
+        assertTrue(attempts > 1);
+
+        server = new LoopbackServer(port, 1, 0);
+        waitUntilEmpty(outbox);
+        assertEquals(sent, server.getReceived());
+        assertEquals(1, server.getConnections());
+        assertEquals(30, outbox.getDelivered());
+        assertFalse(outbox.hasPending("127.0.0.1", port));
+        outbox.stop();
+    }
+
+    @Test
+    public void retriesBackOffExponentially() throws Exception {
+        server = new LoopbackServer(1, 0);
+        int port = server.getPort();
+        server.close();
+        MessageOutbox outbox = new MessageOutbox(file, 1024 * 1024, transport, 50, 200);
+        outbox.enqueue("127.0.0.1", port, lines(1, 0));
+        outbox.start();
+        Thread.sleep(1000);
+        outbox.stop();
+        List<Long> times = new ArrayList<>(attemptTimes);
+        //attempts at 0, 50, 150, 350, 550, 750, 950
+        assertTrue(times.size() >= 4 && times.size() <= 8);
+        long[] minimal = {45, 95, 195, 195};
+        for (int i = 0; i < minimal.length && i + 1 < times.size(); ++i) {
+            long gap = times.get(i + 1) - times.get(i);
+            assertTrue("gap " + gap, gap >= minimal[i]);
+        }
+        assertEquals(1, outbox.size());
+    }
+
+    @Test
+    public void failingDestinationDoesNotBlockOthers() throws Exception {
+        server = new LoopbackServer(1, 0);
+        LoopbackServer down = new LoopbackServer(1, 0);
+        down.close();
+        MessageOutbox outbox = new MessageOutbox(file, 1024 * 1024, transport, 1000, 1000);
+        List<String> lines = lines(5, 0);
+        outbox.enqueue("127.0.0.1", down.getPort(), lines(5, 100));
+        outbox.enqueue("127.0.0.1", server.getPort(), lines);
+        assertEquals(5, outbox.drain());
+        assertEquals(lines, server.getReceived());
+        assertEquals(5, outbox.size());
+        //failed destination waits for retry
+        assertEquals(0, outbox.drain());
+        assertEquals(2, attempts);
+        outbox.stop();
+    }
+
+    @Test
+    public void answeredMessagesAreNotDeliveredAgain() throws Exception {
+        final List<List<String>> deliveries = new ArrayList<>();
+        MessageOutbox outbox = new MessageOutbox(file, 1024 * 1024, new MessageOutbox.Transport() {
+            @Override
+            public void deliver(String destIP, int destPort, List<String> lines) throws IOException {
+                deliveries.add(new ArrayList<>(lines));
+                if (deliveries.size() == 1) {
+                    //server answers two lines and goes away
+                    throw new ConnectionPool.PartialSendException(2, Collections.<String>emptyList(),
+                            new IOException("Connection reset"));
+                }
+            }
+        }, 1, 1);
+        List<String> lines = lines(5, 0);
+        outbox.enqueue("127.0.0.1", 25000, lines);
+        assertEquals(2, outbox.drain());
+        assertEquals(3, outbox.size());
+        Thread.sleep(5);
+        assertEquals(3, outbox.drain());
+        assertEquals(lines.subList(2, 5), deliveries.get(1));
+        assertEquals(5, outbox.getDelivered());
+        outbox.stop();
+    }
+
+    @Test
+    public void oldestMessagesAreEvictedWhenBudgetIsExceeded() throws Exception {
+        server = new LoopbackServer(1, 0);
+        MessageOutbox outbox = new MessageOutbox(file, 1000, transport, 20, 100);
+        List<String> lines = lines(20, 0);
+        int dropped = outbox.enqueue("127.0.0.1", server.getPort(), lines);
+        assertTrue(dropped > 0);
+        assertEquals(dropped, outbox.getEvicted());
+        assertEquals(20, outbox.size() + dropped);
+        assertEquals(20 - dropped, outbox.drain());
+        assertEquals(lines.subList(dropped, 20), server.getReceived());
+        outbox.stop();
+    }
+
+    @Test
+    public void queueSurvivesReopen() throws Exception {
+        server = new LoopbackServer(1, 0);
+        MessageOutbox outbox = new MessageOutbox(file, 1024 * 1024, transport, 20, 100);
+        List<String> first = lines(5, 0);
+        outbox.enqueue("127.0.0.1", server.getPort(), first);
+        outbox.stop();
+
+        outbox = new MessageOutbox(file, 1024 * 1024, transport, 20, 100);
+        assertEquals(5, outbox.size());
+        List<String> second = lines(5, 5);
+        outbox.enqueue("127.0.0.1", server.getPort(), second);
+        outbox.start();
+        waitUntilEmpty(outbox);
+        List<String> sent = new ArrayList<>(first);
+        sent.addAll(second);
+        assertEquals(sent, server.getReceived());
+        outbox.stop();
+
+        outbox = new MessageOutbox(file, 1024 * 1024, transport, 20, 100);
+        assertEquals(0, outbox.size());
+        outbox.stop();
+    }
+
+    /**
+     * Method for waiting until all messages are delivered.
+     */
+    private static void waitUntilEmpty(MessageOutbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (outbox.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.size());
+    }
+
+    /**
+     * Method for creating lines in format which is returned by {@code Message#getComSendMessage()}.
+     *
+     * @param count
+     *         number of lines
+     * @param offset
+     *         offset for message ID
+     * @return list of lines
+     */
+    private static List<String> lines(int count, int offset) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add("0" + String.format("%08d", offset + i + 1) + "THING_45" + "SERVER01" + "00000000"
+                    + "{\"LIGHT\":{\"VALUES\":[120.0],\"NAMES\":[\"ILLUMINATION\"]}}");
+        }
+        return lines;
+    }
+}
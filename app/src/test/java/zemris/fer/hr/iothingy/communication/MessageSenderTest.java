@@ -0,0 +1,252 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageSender} against fast and slow {@link LoopbackServer}.
+ */
+public class MessageSenderTest {
+
+    /** Servers used by test. */
+    private final List<LoopbackServer> servers = new ArrayList<>();
+    /** Pool used by transport. */
+    private final ConnectionPool pool = new ConnectionPool(2, 60000);
+    /** Transport which sends through pool and counts sends which run at once for the same destination. */
+    private final CountingTransport transport = new CountingTransport();
+
+    @After
+    public void tearDown() {
+        for (LoopbackServer server : servers) {
+            server.close();
+        }
+        pool.closeIdle();
+    }
+
+    @Test
+    public void slowDestinationDoesntDelayOthers() throws Exception {
+        LoopbackServer slow = server(300);
+        LoopbackServer fast = server(0);
+        MessageSender sender = new MessageSender(transport, 2, 64);
+        List<Future<List<String>>> slowSends = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            slowSends.add(sender.send("127.0.0.1", slow.getPort(), lines(1, i), null));
+        }
+        long start = System.nanoTime();
+        List<Future<List<String>>> fastSends = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            fastSends.add(sender.send("127.0.0.1", fast.getPort(), lines(1, i), null));
+        }
+        for (Future<List<String>> send : fastSends) {
+            assertEquals(1, send.get(5, TimeUnit.SECONDS).size());
+        }
+        long fastTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("fast destination took " + fastTime + " ms", fastTime < 300);
+        assertFalse(slowSends.get(2).isDone());
+        for (Future<List<String>> send : slowSends) {
+            assertEquals(1, send.get(5, TimeUnit.SECONDS).size());
+        }
+        sender.shutdown();
+        assertTrue(sender.awaitTermination(1000));
+        assertEquals(0, sender.getActiveDestinations());
+        assertEquals(1, transport.maxConcurrent.get());
+    }
+
+    @Test
+    public void sendsToSameDestinationKeepOrder() throws Exception {
+        LoopbackServer server = server(0);
+        MessageSender sender = new MessageSender(transport, 4, 256);
+        List<String> expected = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(100);
+        final AtomicInteger sent = new AtomicInteger();
+        for (int i = 0; i < 100; ++i) {
+            List<String> lines = lines(1, i);
+            expected.addAll(lines);
+            sender.send("127.0.0.1", server.getPort(), lines, new MessageSender.Callback() {
+                @Override
+                public void onSent(String destIP, int destPort, List<String> replies) {
+                    sent.incrementAndGet();
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailed(String destIP, int destPort, Exception e) {
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100, sent.get());
+        assertEquals(expected, server.getReceived());
+        assertEquals(1, transport.maxConcurrent.get());
+        sender.shutdown();
+    }
+
+    @Test
+    public void sendsOverBoundAreRejected() throws Exception {
+        LoopbackServer slow = server(200);
+        MessageSender sender = new MessageSender(transport, 2, 2);
+        sender.send("127.0.0.1", slow.getPort(), lines(1, 0), null);
+        sender.send("127.0.0.1", slow.getPort(), lines(1, 1), null);
+        RecordingCallback callback = new RecordingCallback();
+        Future<List<String>> rejected = sender.send("127.0.0.1", slow.getPort(), lines(1, 2), callback);
+        assertTrue(rejected.isDone());
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(callback.failure instanceof RejectedExecutionException);
+        assertEquals(2, sender.getPending());
+        sender.shutdown();
+        assertTrue(sender.awaitTermination(2000));
+        assertEquals(2, slow.getReceivedLines());
+    }
+
+    @Test
+    public void queuedSendsCanBeCancelled() throws Exception {
+        LoopbackServer slow = server(200);
+        MessageSender sender = new MessageSender(transport, 2, 16);
+        Future<List<String>> running = sender.send("127.0.0.1", slow.getPort(), lines(1, 0), null);
+        //first send starts, the others wait for it
+        Thread.sleep(50);
+        RecordingCallback callback = new RecordingCallback();
+        Future<List<String>> queued = sender.send("127.0.0.1", slow.getPort(), lines(1, 1), callback);
+        sender.send("127.0.0.1", slow.getPort(), lines(1, 2), null);
+        sender.send("127.0.0.1", slow.getPort(), lines(1, 3), null);
+        assertTrue(queued.cancel(false));
+        assertTrue(callback.failure instanceof CancellationException);
+        assertEquals(3, sender.getPending());
+        assertEquals(2, sender.cancelPending("127.0.0.1", slow.getPort()));
+        assertEquals(1, running.get(5, TimeUnit.SECONDS).size());
+        assertTrue(sender.awaitTermination(1000));
+        assertEquals(1, slow.getReceivedLines());
+        sender.shutdown();
+    }
+
+    @Test
+    public void failureIsReported() throws Exception {
+        LoopbackServer server = server(0);
+        int port = server.getPort();
+        server.close();
+        MessageSender sender = new MessageSender(transport, 1, 16);
+        RecordingCallback callback = new RecordingCallback();
+        Future<List<String>> send = sender.send("127.0.0.1", port, lines(1, 0), callback);
+        try {
+            send.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(callback.await().failure instanceof IOException);
+        sender.shutdown();
+    }
+
+    /**
+     * Method for starting server.
+     *
+     * @param replyDelay
+     *         delay before replies in milliseconds
+     * @return server
+     * @throws IOException
+     *         if server can't be started
+     */
+    private LoopbackServer server(long replyDelay) throws IOException {
+        LoopbackServer server = new LoopbackServer(1, 0);
+        server.setReplyDelay(replyDelay);
+        servers.add(server);
+        return server;
+    }
+
+    /**
+     * Method for creating lines in format which is returned by {@code Message#getComSendMessage()}.
+     *
+     * @param count
+     *         number of lines
+     * @param offset
+     *         offset for message ID
+     * @return list of lines
+     */
+    private static List<String> lines(int count, int offset) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add("0" + String.format("%08d", offset + i + 1) + "THING_45" + "SERVER01" + "00000000"
+                    + "{\"LIGHT\":{\"VALUES\":[120.0],\"NAMES\":[\"ILLUMINANCE\"]}}");
+        }
+        return lines;
+    }
+
+    /**
+     * Transport which sends through pool of test.
+     */
+    private class CountingTransport implements MessageSender.Transport {
+        /** Sends which are running, by destination. */
+        private final ConcurrentHashMap<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        /** Maximal number of sends which were running at once for the same destination. */
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        @Override
+        public List<String> exchange(String destIP, int destPort, List<String> lines) throws Exception {
+            String key = destIP + ":" + destPort;
+            running.putIfAbsent(key, new AtomicInteger());
+            AtomicInteger counter = running.get(key);
+            int now = counter.incrementAndGet();
+            synchronized (maxConcurrent) {
+                maxConcurrent.set(Math.max(maxConcurrent.get(), now));
+            }
+            try {
+                return pool.send(destIP, destPort, lines);
+            } finally {
+                counter.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Callback which remembers failure.
+     */
+    private static class RecordingCallback implements MessageSender.Callback {
+        /** Latch which is released when callback is called. */
+        private final CountDownLatch called = new CountDownLatch(1);
+        /** Failure, null if send didn't fail. */
+        private volatile Exception failure;
+
+        @Override
+        public void onSent(String destIP, int destPort, List<String> replies) {
+            called.countDown();
+        }
+
+        @Override
+        public void onFailed(String destIP, int destPort, Exception e) {
+            failure = e;
+            called.countDown();
+        }
+
+        /**
+         * Method for waiting until callback is called, future is done before its callback is called.
+         *
+         * @return this callback
+         * @throws InterruptedException
+         *         if thread is interrupted
+         */
+        private RecordingCallback await() throws InterruptedException {
+            assertTrue(called.await(5, TimeUnit.SECONDS));
+            return this;
+        }
+    }
+}
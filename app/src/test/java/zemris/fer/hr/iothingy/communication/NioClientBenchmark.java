@@ -0,0 +1,140 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of {@link NioClient} against blocking sends through {@link ConnectionPool}, one destination after another
+ * and with thread per destination ({@link MessageSender}), with 1, 10 and 100 loopback servers. Every server waits a
+ * little before it replies, like server on real network.
+ */
+public class NioClientBenchmark {
+
+    /** Delay of every server before it replies, in milliseconds. */
+    private static final long REPLY_DELAY = 2;
+    /** Number of measured rounds, in every round one line is sent to every server. */
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void fanOut() throws Exception {
+        System.out.println("servers   sequential ms/round   thread per server ms/round   selector ms/round");
+        for (int count : new int[]{1, 10, 100}) {
+            List<LoopbackServer> servers = new ArrayList<>();
+            final ConnectionPool pool = new ConnectionPool(2, 60000);
+            MessageSender sender = new MessageSender(new MessageSender.Transport() {
+                @Override
+                public List<String> exchange(String destIP, int destPort, List<String> lines) throws Exception {
+                    return pool.send(destIP, destPort, lines);
+                }
+            }, count, 2 * count);
+            NioClient client = new NioClient(5000, 10000, 60000);
+            try {
+                for (int i = 0; i < count; ++i) {
+                    LoopbackServer server = new LoopbackServer(1, 0);
+                    server.setReplyDelay(REPLY_DELAY);
+                    servers.add(server);
+                }
+                //warm up opens connections of all clients
+                sequential(pool, servers, 0);
+                threaded(sender, servers, 0);
+                selector(client, servers, 0);
+                long start = System.nanoTime();
+                for (int round = 1; round <= ROUNDS; ++round) {
+                    sequential(pool, servers, round);
+                }
+                double sequential = (System.nanoTime() - start) / 1e6 / ROUNDS;
+                start = System.nanoTime();
+                for (int round = 1; round <= ROUNDS; ++round) {
+                    threaded(sender, servers, round);
+                }
+                double threaded = (System.nanoTime() - start) / 1e6 / ROUNDS;
+                start = System.nanoTime();
+                for (int round = 1; round <= ROUNDS; ++round) {
+                    selector(client, servers, round);
+                }
+                double selector = (System.nanoTime() - start) / 1e6 / ROUNDS;
+                System.out.println(String.format(Locale.ROOT, "%7d %20.1f %28.1f %19.1f", count, sequential,
+                        threaded, selector));
+                assertEquals(count, client.getOpenedConnections());
+                if (count == 100) {
+                    assertTrue(selector < sequential);
+                }
+            } finally {
+                client.close();
+                sender.shutdown();
+                pool.closeIdle();
+                for (LoopbackServer server : servers) {
+                    server.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for sending one line to every server, one server after another.
+     *
+     * @param pool
+     *         pool of blocking connections
+     * @param servers
+     *         servers
+     * @param round
+     *         round, used for message ID
+     * @throws Exception
+     *         if some send fails
+     */
+    private static void sequential(ConnectionPool pool, List<LoopbackServer> servers, int round) throws Exception {
+        for (LoopbackServer server : servers) {
+            assertEquals(1, pool.send("127.0.0.1", server.getPort(), NioClientTest.lines(1, round)).size());
+        }
+    }
+
+    /**
+     * Method for sending one line to every server, every server on its own thread.
+     *
+     * @param sender
+     *         sender with thread per server
+     * @param servers
+     *         servers
+     * @param round
+     *         round, used for message ID
+     * @throws Exception
+     *         if some send fails
+     */
+    private static void threaded(MessageSender sender, List<LoopbackServer> servers, int round) throws Exception {
+        List<Future<List<String>>> sends = new ArrayList<>();
+        for (LoopbackServer server : servers) {
+            sends.add(sender.send("127.0.0.1", server.getPort(), NioClientTest.lines(1, round), null));
+        }
+        for (Future<List<String>> send : sends) {
+            assertEquals(1, send.get().size());
+        }
+    }
+
+    /**
+     * Method for sending one line to every server through one selector.
+     *
+     * @param client
+     *         selector client
+     * @param servers
+     *         servers
+     * @param round
+     *         round, used for message ID
+     * @throws Exception
+     *         if some send fails
+     */
+    private static void selector(NioClient client, List<LoopbackServer> servers, int round) throws Exception {
+        List<Future<List<String>>> sends = new ArrayList<>();
+        for (LoopbackServer server : servers) {
+            sends.add(client.send("127.0.0.1", server.getPort(), NioClientTest.lines(1, round), null));
+        }
+        for (Future<List<String>> send : sends) {
+            assertEquals(1, send.get().size());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link NioClient} against {@link LoopbackServer}.
+ */
+public class NioClientTest {
+
+    /** Servers used by test. */
+    private final List<LoopbackServer> servers = new ArrayList<>();
+    /** Client used by test. */
+    private NioClient client;
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        for (LoopbackServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void pipelinedRepliesAreInOrder() throws Exception {
+        LoopbackServer server = server(2, 0, 0);
+        client = new NioClient(5000, 10000, 60000);
+        List<String> lines = lines(100, 0);
+        List<String> replies = client.exchange("127.0.0.1", server.getPort(), lines);
+        assertEquals(200, replies.size());
+        for (int i = 0; i < lines.size(); ++i) {
+            String msgID = lines.get(i).substring(1, 9);
+            assertEquals(LoopbackServer.reply(msgID, 0), replies.get(2 * i));
+            assertEquals(LoopbackServer.reply(msgID, 1), replies.get(2 * i + 1));
+        }
+        assertEquals(lines, server.getReceived());
+    }
+
+    @Test
+    public void connectionIsReused() throws Exception {
+        LoopbackServer server = server(1, 0, 0);
+        client = new NioClient(5000, 10000, 60000);
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(1, client.exchange("127.0.0.1", server.getPort(), lines(1, i)).size());
+        }
+        assertEquals(1, server.getConnections());
+        assertEquals(1, client.getOpenedConnections());
+    }
+
+    @Test
+    public void destinationsAreServedAtOnce() throws Exception {
+        client = new NioClient(5000, 10000, 60000);
+        List<Future<List<String>>> sends = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; ++i) {
+            LoopbackServer server = server(1, 0, 100);
+            sends.add(client.send("127.0.0.1", server.getPort(), lines(1, i), null));
+        }
+        for (Future<List<String>> send : sends) {
+            assertEquals(1, send.get(5, TimeUnit.SECONDS).size());
+        }
+        long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        //one destination after another would take 2 seconds
+        assertTrue("sending took " + time + " ms", time < 1000);
+        assertEquals(20, client.getOpenedConnections());
+    }
+
+    @Test
+    public void serverWhichClosesAfterEveryLine() throws Exception {
+        LoopbackServer server = server(1, 1, 0);
+        client = new NioClient(5000, 10000, 60000);
+        List<String> replies = client.exchange("127.0.0.1", server.getPort(), lines(5, 0));
+        assertEquals(5, replies.size());
+        assertEquals(5, server.getReceivedLines());
+        assertEquals(5, server.getConnections());
+        //next send notices that connection is closed and opens new one
+        assertEquals(1, client.exchange("127.0.0.1", server.getPort(), lines(1, 5)).size());
+    }
+
+    @Test
+    public void refusedConnectionFails() throws Exception {
+        LoopbackServer server = server(1, 0, 0);
+        int port = server.getPort();
+        server.close();
+        client = new NioClient(5000, 10000, 60000);
+        try {
+            client.send("127.0.0.1", port, lines(1, 0), null).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void answeredLinesAreReportedWhenSendFails() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    String line = in.readLine();
+                    //server goes away after it answers first line, so new connection is refused
+                    serverSocket.close();
+                    OutputStream out = socket.getOutputStream();
+                    out.write((LoopbackServer.reply(line.substring(1, 9), 0) + "\r\nidle\r\n").getBytes("UTF-8"));
+                    socket.close();
+                } catch (Exception e) {
+                    //test fails on client side
+                }
+            }
+        });
+        thread.start();
+        client = new NioClient(5000, 10000, 60000);
+        try {
+            client.exchange("127.0.0.1", serverSocket.getLocalPort(), lines(3, 0));
+            fail("Send must fail");
+        } catch (ConnectionPool.PartialSendException e) {
+            assertEquals(1, e.getAnswered());
+            assertEquals(Collections.singletonList(LoopbackServer.reply("00000001", 0)), e.getReplies());
+        }
+        thread.join();
+    }
+
+    @Test
+    public void slowServerTimesOut() throws Exception {
+        LoopbackServer server = server(1, 0, 2000);
+        client = new NioClient(5000, 300, 60000);
+        long start = System.nanoTime();
+        try {
+            client.exchange("127.0.0.1", server.getPort(), lines(1, 0));
+            fail();
+        } catch (SocketTimeoutException e) {
+            //expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    /**
+     * Method for starting server.
+     *
+     * @param repliesPerLine
+     *         number of message lines returned for every received line
+     * @param linesPerConnection
+     *         number of lines handled on one connection before it is closed, 0 means unlimited
+     * @param replyDelay
+     *         delay before replies in milliseconds
+     * @return server
+     * @throws IOException
+     *         if server can't be started
+     */
+    private LoopbackServer server(int repliesPerLine, int linesPerConnection, long replyDelay) throws IOException {
+        LoopbackServer server = new LoopbackServer(repliesPerLine, linesPerConnection);
+        server.setReplyDelay(replyDelay);
+        servers.add(server);
+        return server;
+    }
+
+    /**
+     * Method for creating lines in format which is returned by {@code Message#getComSendMessage()}.
+     *
+     * @param count
+     *         number of lines
+     * @param offset
+     *         offset for message ID
+     * @return list of lines
+     */
+    static List<String> lines(int count, int offset) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add("0" + String.format("%08d", offset + i + 1) + "THING_45" + "SERVER01" + "00000000"
+                    + "{\"GPS\":{\"VALUES\":[45.8,15.9,120.0],\"NAMES\":[\"LATITUDE\",\"LONGITUDE\",\"ALTITUDE\"]}}");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,104 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ReplyDispatcher}.
+ */
+public class ReplyDispatcherTest {
+
+    @Test
+    public void itemsQueuedDuringBatchAreHandledTogether() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(11);
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        ReplyDispatcher<Integer> dispatcher = new ReplyDispatcher<>(new ReplyDispatcher.BatchHandler<Integer>() {
+            @Override
+            public void handle(List<Integer> batch) {
+                batchSizes.add(batch.size());
+                firstStarted.countDown();
+                await(release);
+                for (int i = 0; i < batch.size(); ++i) {
+                    done.countDown();
+                }
+            }
+        }, 1, 100, 16);
+        dispatcher.start();
+        dispatcher.put(0);
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; ++i) {
+            dispatcher.put(i);
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), batchSizes.get(0));
+        assertEquals(Integer.valueOf(10), batchSizes.get(1));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void fullQueueRejectsItems() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ReplyDispatcher<Integer> dispatcher = new ReplyDispatcher<>(new ReplyDispatcher.BatchHandler<Integer>() {
+            @Override
+            public void handle(List<Integer> batch) {
+                started.countDown();
+                await(release);
+            }
+        }, 1, 2, 1);
+        dispatcher.start();
+        assertTrue(dispatcher.offer(0));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.offer(1));
+        assertTrue(dispatcher.offer(2));
+        assertFalse(dispatcher.offer(3));
+        assertEquals(2, dispatcher.pending());
+        release.countDown();
+        dispatcher.shutdown();
+        assertFalse(dispatcher.offer(4));
+    }
+
+    @Test
+    public void workersRunConcurrently() throws Exception {
+        final int workers = 4;
+        final CountDownLatch allStarted = new CountDownLatch(workers);
+        ReplyDispatcher<Integer> dispatcher = new ReplyDispatcher<>(new ReplyDispatcher.BatchHandler<Integer>() {
+            @Override
+            public void handle(List<Integer> batch) {
+                allStarted.countDown();
+                //every worker waits until all of them are handling some batch
+                await(allStarted);
+            }
+        }, workers, 100, 1);
+        dispatcher.start();
+        for (int i = 0; i < workers; ++i) {
+            dispatcher.put(i);
+        }
+        assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Method for waiting on latch inside handler.
+     *
+     * @param latch
+     *         latch
+     */
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+import zemris.fer.hr.iothingy.utils.SensorJson;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SubscriptionSession} against {@link LoopbackServer}.
+ */
+public class SubscriptionSessionTest {
+
+    /** Server IP. */
+    private static final String HOST = "127.0.0.1";
+
+    /** Server used by test. */
+    private LoopbackServer server;
+    /** Session used by test. */
+    private SubscriptionSession session;
+    /** Lines which session gave to listener. */
+    private final List<String> replies = Collections.synchronizedList(new ArrayList<String>());
+    /** Latch which is released when session stops. */
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer(0, 0);
+        SubscriptionSession.Listener listener = new SubscriptionSession.Listener() {
+            @Override
+            public void onReplies(String destIP, int destPort, List<String> lines) {
+                replies.addAll(lines);
+            }
+
+            @Override
+            public void onClosed(SubscriptionSession session) {
+                closed.countDown();
+            }
+        };
+        session = new SubscriptionSession(HOST, server.getPort(), new FixedSource(), listener, 1000, 2000);
+    }
+
+    @After
+    public void tearDown() {
+        session.close();
+        server.close();
+    }
+
+    @Test
+    public void updatesAreStreamedThroughOneConnection() throws Exception {
+        String jsonData = "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":100}";
+        assertTrue(session.subscribe(command("00000007", jsonData)));
+        Thread.sleep(550);
+        session.close();
+        assertTrue(closed.await(2, TimeUnit.SECONDS));
+        List<String> received = server.getReceived();
+        assertTrue("updates " + received.size(), received.size() >= 4 && received.size() <= 7);
+        assertEquals(1, server.getConnections());
+        assertEquals(1, session.getOpenedConnections());
+        for (String line : received) {
+            ReceivedServerMessage update = parse(line);
+            assertEquals("THING_45", update.getSrcID());
+            assertEquals("SERVER01", update.getDestID());
+            assertEquals("00000007", update.getPreviousMessageID());
+            assertArrayEquals(new float[]{120}, SensorJson.parseJSONData(update.getJsonData()).get("LIGHT"), 0);
+        }
+        assertFalse(session.subscribe(command("00000008", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"]}")));
+    }
+
+    @Test
+    public void unsubscribeCancelsOnlyItsSubscription() throws Exception {
+        session.subscribe(command("00000001", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":100}"));
+        session.subscribe(command("00000002", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"GPS\"],\"PERIOD\":100}"));
+        assertEquals(1, session.unsubscribe(command("00000003", "00000001", "{\"CMD\":\"UNSUBSCRIBE\"}")));
+        assertEquals(1, session.getSubscriptions());
+        Thread.sleep(300);
+        for (String line : server.getReceived().subList(1, server.getReceived().size())) {
+            assertEquals("00000002", parse(line).getPreviousMessageID());
+        }
+        assertFalse(session.isClosed());
+    }
+
+    @Test
+    public void serverStopsStreamWithUnsubscribe() throws Exception {
+        server.addReplies(line("00000002", "00000000", "{\"CMD\":\"UNSUBSCRIBE\"}"));
+        session.subscribe(command("00000001", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":100}"));
+        assertTrue(closed.await(2, TimeUnit.SECONDS));
+        assertTrue(session.isClosed());
+        assertEquals(0, session.getSubscriptions());
+        assertEquals(1, server.getReceivedLines());
+    }
+
+    @Test
+    public void commandsAreHandledOnTheSameConnection() throws Exception {
+        server.addReplies(line("00000002", "00000000", "{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\"]}"),
+                line("00000003", "00000000", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"GPS\"],\"PERIOD\":5000}"),
+                line("00000004", "00000000", "{\"CMD\":\"PING\"}"));
+        session.subscribe(command("00000001", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":5000}"));
+        Thread.sleep(300);
+        List<String> received = server.getReceived();
+        assertEquals(3, received.size());
+        assertEquals("00000001", parse(received.get(0)).getPreviousMessageID());
+        //response to GET and first update of new subscription
+        assertEquals("00000002", parse(received.get(1)).getPreviousMessageID());
+        assertEquals("00000003", parse(received.get(2)).getPreviousMessageID());
+        assertTrue(SensorJson.parseJSONData(parse(received.get(2)).getJsonData()).containsKey("GPS"));
+        assertEquals(1, server.getConnections());
+        assertEquals(2, session.getSubscriptions());
+        assertEquals(1, replies.size());
+        assertEquals("PING", parse(replies.get(0)).returnMsgDataInfo().split(":")[0]);
+    }
+
+    @Test
+    public void sessionReconnectsAndStopsWhenServerIsGone() throws Exception {
+        server.setCloseEarlyEvery(2);
+        session.subscribe(command("00000001", "{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":100}"));
+        Thread.sleep(550);
+        assertFalse(session.isClosed());
+        assertTrue("connections " + server.getConnections(), server.getConnections() >= 2);
+        server.close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, session.getSubscriptions());
+    }
+
+    /**
+     * Method for parsing line which session sent.
+     *
+     * @param line
+     *         line
+     * @return message
+     */
+    private ReceivedServerMessage parse(String line) {
+        return ReceivedServerMessage.parseReceivedMessage(line, "INTERNET", "NONE", HOST, "" + server.getPort());
+    }
+
+    /**
+     * Method for creating command of server which isn't reply to any message.
+     *
+     * @param messageID
+     *         message ID
+     * @param jsonData
+     *         JSON data
+     * @return command
+     */
+    private ReceivedServerMessage command(String messageID, String jsonData) {
+        return command(messageID, "00000000", jsonData);
+    }
+
+    /**
+     * Method for creating command of server.
+     *
+     * @param messageID
+     *         message ID
+     * @param previousMessageID
+     *         previous message ID
+     * @param jsonData
+     *         JSON data
+     * @return command
+     */
+    private ReceivedServerMessage command(String messageID, String previousMessageID, String jsonData) {
+        return parse(line(messageID, previousMessageID, jsonData));
+    }
+
+    /**
+     * Method for creating line of server for thing THING_45.
+     *
+     * @param messageID
+     *         message ID
+     * @param previousMessageID
+     *         previous message ID
+     * @param jsonData
+     *         JSON data
+     * @return line without terminator
+     */
+    private static String line(String messageID, String previousMessageID, String jsonData) {
+        return "0" + messageID + "SERVER01THING_45" + previousMessageID + jsonData;
+    }
+
+    /**
+     * Source which always has same light and GPS values.
+     */
+    private static class FixedSource implements SensorValueSource {
+
+        @Override
+        public Map<String, SensorReading> getLatestReadings(Collection<String> keys) {
+            Map<String, SensorReading> readings = new HashMap<>();
+            readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1000, new float[]{120}));
+            readings.put("GPS", SensorReading.of(SensorReading.TYPE_GPS, 1000, new float[]{45.8f, 15.9f, 120}));
+            readings.keySet().retainAll(keys);
+            return readings;
+        }
+
+        @Override
+        public SensorReading getAggregatedReading(String key, String aggregate) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TelemetryScheduler}.
+ */
+public class TelemetrySchedulerTest {
+
+    @Test
+    public void periodIsAlignedWithSampling() {
+        assertEquals(200, TelemetryScheduler.alignPeriod(50, 200));
+        assertEquals(200, TelemetryScheduler.alignPeriod(250, 200));
+        assertEquals(400, TelemetryScheduler.alignPeriod(350, 200));
+        assertEquals(5000, TelemetryScheduler.alignPeriod(5000, 200));
+        assertEquals(123, TelemetryScheduler.alignPeriod(123, 0));
+    }
+
+    @Test
+    public void fastPublisherReachesTargetRate() throws Exception {
+        final List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+        TelemetryScheduler scheduler = new TelemetryScheduler(new TelemetryScheduler.Publisher() {
+            @Override
+            public boolean publish(long tick) {
+                times.add(System.nanoTime());
+                return true;
+            }
+        }, 20, 10, new Random(1));
+        long start = System.nanoTime();
+        scheduler.start();
+        Thread.sleep(1000);
+        scheduler.stop();
+        assertEquals(50, scheduler.getTargetRate(), 0);
+        assertTrue(scheduler.getAchievedRate() > 40 && scheduler.getAchievedRate() <= 51);
+        assertEquals(0, scheduler.getFailed());
+        //every tick is within its period plus jitter, so jitter doesn't accumulate
+        boolean jittered = false;
+        for (int i = 0; i < times.size(); ++i) {
+            long offset = (times.get(i) - start) / 1000000 - 20 * i;
+            assertTrue("offset " + offset, offset >= -1 && offset < 10 + 15);
+            jittered |= offset >= 2;
+        }
+        assertTrue(jittered);
+    }
+
+    @Test
+    public void slowPublisherSkipsTicks() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        TelemetryScheduler scheduler = new TelemetryScheduler(new TelemetryScheduler.Publisher() {
+            @Override
+            public boolean publish(long tick) throws Exception {
+                maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                try {
+                    Thread.sleep(70);
+                } finally {
+                    running.decrementAndGet();
+                }
+                if (tick % 2 == 1) {
+                    throw new Exception("Server isn't reachable");
+                }
+                return true;
+            }
+        }, 20, 0, new Random(1));
+        scheduler.start();
+        Thread.sleep(1000);
+        scheduler.stop();
+        assertEquals(1, maxRunning.get());
+        assertTrue(scheduler.getSkipped() > scheduler.getPublished());
+        long attempts = scheduler.getPublished() + scheduler.getFailed();
+        //one publish per 80 ms, the first tick after previous publish
+        assertTrue("attempts " + attempts, attempts >= 10 && attempts <= 15);
+        assertTrue(scheduler.getAchievedRate() < scheduler.getTargetRate() / 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void jitterMustBeShorterThanPeriod() {
+        new TelemetryScheduler(null, 100, 100, new Random());
+    }
+}
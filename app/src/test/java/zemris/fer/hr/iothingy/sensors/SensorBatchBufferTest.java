@@ -0,0 +1,121 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SensorBatchBuffer} and {@link SensorHistory#addAll(long[], float[], int, int)}, driven by {@link
+ * SyntheticSensorEvents}.
+ */
+public class SensorBatchBufferTest {
+
+    /** Aggregates which are compared. */
+    private static final String[] AGGREGATES = {"LAST", "AVG_10S", "MIN_10S", "MAX_1M", "VAR_1M", "AVG_30S"};
+
+    @Test
+    public void bulkIngestMatchesIngestOfSingleEvents() {
+        final SensorHistory single = new SensorHistory(1024, 3, 10000, 60000);
+        final SensorHistory bulk = new SensorHistory(1024, 3, 10000, 60000);
+        final SensorBatchBuffer batch = new SensorBatchBuffer(256, 3);
+        final AtomicInteger updates = new AtomicInteger();
+        int deliveries = new SyntheticSensorEvents(1, 20, 1000, 3).run(120000, new SyntheticSensorEvents.Listener() {
+            @Override
+            public void onEvent(long timestamp, float[] values, long now) {
+                single.add(timestamp, values);
+                if (batch.add(timestamp, values) || SensorBatchBuffer.isFresh(timestamp, now, 20)) {
+                    assertNotNull(batch.drainTo(bulk));
+                    updates.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(121, deliveries);
+        //one update for every burst instead of one for every event
+        assertEquals(deliveries, updates.get());
+        assertEquals(6001, batch.getEvents());
+        assertEquals(0, batch.size());
+        assertEquals(single.size(), bulk.size());
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        for (String aggregate : AGGREGATES) {
+            assertTrue(single.aggregate(aggregate, 120000, expected));
+            assertTrue(bulk.aggregate(aggregate, 120000, actual));
+            assertArrayEquals(aggregate, expected, actual, 1e-3f);
+        }
+    }
+
+    @Test
+    public void eventsWithoutFifoAreDrainedOneByOne() {
+        final SensorHistory history = new SensorHistory(64, 3, 10000);
+        final SensorBatchBuffer batch = new SensorBatchBuffer(256, 3);
+        final AtomicInteger updates = new AtomicInteger();
+        new SyntheticSensorEvents(2, 200, 0, 3).run(10000, new SyntheticSensorEvents.Listener() {
+            @Override
+            public void onEvent(long timestamp, float[] values, long now) {
+                if (batch.add(timestamp, values) || SensorBatchBuffer.isFresh(timestamp, now, 200)) {
+                    batch.drainTo(history);
+                    updates.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(51, updates.get());
+        assertEquals(51, batch.getDrains());
+        assertEquals(51, history.size());
+    }
+
+    @Test
+    public void fullBufferIsDrained() {
+        SensorHistory history = new SensorHistory(16, 2, 10000);
+        SensorBatchBuffer batch = new SensorBatchBuffer(3, 2);
+        assertNull(batch.drainTo(history));
+        assertFalse(batch.add(0, new float[]{1, 2, 3}));
+        assertFalse(batch.add(10, new float[]{4}));
+        assertTrue(batch.add(20, new float[]{5, 6}));
+        try {
+            batch.add(30, new float[]{7, 8});
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        assertArrayEquals(new float[]{5, 6}, batch.drainTo(history), 0);
+        float[] out = new float[2];
+        assertTrue(history.aggregate("MAX_10S", 20, out));
+        assertArrayEquals(new float[]{5, 6}, out, 0);
+        assertTrue(history.aggregate("MIN_10S", 20, out));
+        assertArrayEquals(new float[]{1, 0}, out, 0);
+    }
+
+    @Test
+    public void timestampsDontGoBack() {
+        SensorHistory history = new SensorHistory(16, 1, 10000);
+        SensorBatchBuffer batch = new SensorBatchBuffer(8, 1);
+        batch.add(100, new float[]{1});
+        batch.add(50, new float[]{2});
+        batch.add(150, new float[]{3});
+        batch.drainTo(history);
+        float[] out = new float[1];
+        assertEquals(3, history.size());
+        //second event got timestamp 100, so it leaves window together with the first one
+        assertTrue(history.aggregate("AVG_10S", 10099, out));
+        assertEquals(2, out[0], 1e-6f);
+        assertTrue(history.aggregate("AVG_10S", 10100, out));
+        assertEquals(3, out[0], 1e-6f);
+    }
+
+    @Test
+    public void addAllRejectsDecreasingTimestamps() {
+        SensorHistory history = new SensorHistory(16, 1, 10000);
+        history.add(100, new float[]{1});
+        try {
+            history.addAll(new long[]{200, 150}, new float[]{2, 3}, 1, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals(1, history.size());
+        history.addAll(new long[]{200, 300}, new float[]{2, 3}, 1, 2);
+        assertEquals(3, history.size());
+    }
+}
@@ -0,0 +1,123 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SensorDemandTracker} and {@link SensorDemand.Meter}.
+ */
+public class SensorDemandTrackerTest {
+
+    @Test
+    public void samplingPeriodIsHalfOfReadPeriodInPowerOfTwoSteps() {
+        SensorDemandTracker tracker = new SensorDemandTracker(25, 800, 200, 60000);
+        assertEquals(25, tracker.samplingPeriodFor(10));
+        assertEquals(25, tracker.samplingPeriodFor(60));
+        assertEquals(50, tracker.samplingPeriodFor(100));
+        assertEquals(200, tracker.samplingPeriodFor(500));
+        assertEquals(400, tracker.samplingPeriodFor(1000));
+        assertEquals(800, tracker.samplingPeriodFor(5000));
+        assertEquals(800, tracker.samplingPeriodFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void fastestConsumerDecides() {
+        SensorDemandTracker tracker = new SensorDemandTracker(25, 800, 200, 60000);
+        assertEquals(-1, tracker.getSamplingPeriod("LIGHT"));
+        assertTrue(tracker.demand("LIGHT", "app:1", 5000, 0));
+        assertEquals(800, tracker.getSamplingPeriod("LIGHT"));
+        assertTrue(tracker.demand("LIGHT", "app:2", 1000, 0));
+        assertEquals(400, tracker.getSamplingPeriod("LIGHT"));
+        //slower consumer doesn't change period
+        assertFalse(tracker.demand("LIGHT", "app:1", 3000, 0));
+        //unknown read period gets default sampling period
+        assertTrue(tracker.demand("GYRO", "app:1", 0, 0));
+        assertEquals(200, tracker.getSamplingPeriod("GYRO"));
+        assertEquals(Arrays.asList("GYRO", "LIGHT"), new ArrayList<>(tracker.getDemanded()));
+    }
+
+    @Test
+    public void idleDemandExpires() {
+        SensorDemandTracker tracker = new SensorDemandTracker(25, 800, 200, 60000);
+        tracker.demand("LIGHT", "app:1", 5000, 0);
+        tracker.demand("LIGHT", "app:2", 100, 0);
+        tracker.demand("GYRO", "app:1", 1000, 0);
+        assertEquals(Collections.emptyList(), tracker.expire(30000));
+        tracker.demand("LIGHT", "app:1", 5000, 50000);
+        assertEquals(Arrays.asList("LIGHT", "GYRO"), sorted(tracker.expire(70000), "LIGHT"));
+        assertEquals(800, tracker.getSamplingPeriod("LIGHT"));
+        assertEquals(-1, tracker.getSamplingPeriod("GYRO"));
+        assertEquals(Collections.singletonList("LIGHT"), tracker.expire(120000));
+        assertTrue(tracker.getDemanded().isEmpty());
+    }
+
+    @Test
+    public void eventRateIsMeasuredPerWindow() {
+        SensorDemandTracker tracker = new SensorDemandTracker(25, 800, 200, 60000);
+        //5 events per second during first window
+        for (long t = 0; t < SensorDemandTracker.RATE_WINDOW; t += 200) {
+            tracker.onEvent("LIGHT", t);
+        }
+        assertEquals(0, tracker.getEventRate("LIGHT", 4999), 0);
+        assertEquals(5, tracker.getEventRate("LIGHT", 5000), 0);
+        assertEquals(5, tracker.getEventRates(6000).get("LIGHT"), 0);
+        //no events for two windows
+        assertEquals(0, tracker.getEventRate("LIGHT", 15000), 0);
+        assertEquals(0, tracker.getEventRate("GYRO", 15000), 0);
+    }
+
+    @Test
+    public void meterSendsDemandOnlyWhenNeeded() {
+        SensorDemand.Meter meter = new SensorDemand.Meter(20000);
+        List<Long> periods = new ArrayList<>();
+        assertEquals(Arrays.asList("LIGHT", "GYRO"), meter.consume(Arrays.asList("LIGHT", "GYRO"), 0, periods));
+        assertEquals(Arrays.asList(0L, 0L), periods);
+        //first known period is sent
+        periods.clear();
+        assertEquals(Arrays.asList("LIGHT", "GYRO"), meter.consume(Arrays.asList("LIGHT", "GYRO"), 1000, periods));
+        assertEquals(Arrays.asList(1000L, 1000L), periods);
+        //steady reads aren't sent
+        for (long t = 2000; t <= 20000; t += 1000) {
+            assertTrue(meter.consume(Collections.singletonList("LIGHT"), t, periods).isEmpty());
+        }
+        //read in the same burst isn't counted
+        assertTrue(meter.consume(Collections.singletonList("LIGHT"), 20005, periods).isEmpty());
+        //renewal
+        periods.clear();
+        assertEquals(Collections.singletonList("LIGHT"), meter.consume(Collections.singletonList("LIGHT"), 21000,
+                periods));
+        assertEquals(Collections.singletonList(1000L), periods);
+        //ten times faster reads are sent when average period halves, not on every read
+        int reported = 0;
+        for (long t = 21100; t < 22000; t += 100) {
+            reported += meter.consume(Collections.singletonList("LIGHT"), t, periods).size();
+        }
+        assertEquals(2, reported);
+        meter.forget(Collections.singletonList("GYRO"));
+        assertEquals(Collections.singletonList("GYRO"), meter.consume(Collections.singletonList("GYRO"), 22000,
+                periods));
+    }
+
+    /**
+     * Method for sorting keys so given key is first.
+     *
+     * @param keys
+     *         keys
+     * @param first
+     *         key which is first
+     * @return sorted keys
+     */
+    private static List<String> sorted(List<String> keys, String first) {
+        List<String> result = new ArrayList<>(keys);
+        if (result.remove(first)) {
+            result.add(0, first);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,117 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SensorWriteCoalescer}.
+ */
+public class SensorWriteCoalescerTest {
+
+    @Test
+    public void onlyLatestValuesAreWrittenInOneBatch() {
+        RecordingSink sink = new RecordingSink();
+        SensorWriteCoalescer writer = new SensorWriteCoalescer(sink, 1000);
+        float[] values = new float[3];
+        for (int i = 0; i < 100; ++i) {
+            values[0] = i;
+            writer.update("ACCELEROMETER", 0, values);
+            writer.update("GYROSCOPE", 0, values);
+        }
+        writer.update("LIGHT", 0, new float[]{42});
+        assertEquals(3, writer.flush());
+        assertEquals(1, sink.batches.size());
+        Map<String, float[]> batch = sink.batches.get(0);
+        assertEquals(99f, batch.get("ACCELEROMETER")[0], 0);
+        assertEquals(99f, batch.get("GYROSCOPE")[0], 0);
+        assertEquals(42f, batch.get("LIGHT")[0], 0);
+        assertEquals(201, writer.getEventsReceived());
+        assertEquals(198, writer.getEventsCoalesced());
+        assertEquals(1, writer.getFlushes());
+    }
+
+    @Test
+    public void unchangedSensorsAreNotWrittenAgain() {
+        RecordingSink sink = new RecordingSink();
+        SensorWriteCoalescer writer = new SensorWriteCoalescer(sink, 1000);
+        writer.update("ACCELEROMETER", 0, new float[]{1, 2, 3});
+        writer.update("LIGHT", 0, new float[]{4});
+        writer.flush();
+        assertEquals(0, writer.flush());
+        writer.update("LIGHT", 0, new float[]{5});
+        assertEquals(1, writer.flush());
+        assertEquals(2, sink.batches.size());
+        assertEquals(1, sink.batches.get(1).size());
+        assertEquals(5f, sink.batches.get(1).get("LIGHT")[0], 0);
+        assertEquals(0, writer.getEventsCoalesced());
+    }
+
+    @Test
+    public void stopWritesPendingValues() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        SensorWriteCoalescer writer = new SensorWriteCoalescer(sink, 20);
+        writer.start();
+        writer.update("PROXIMITY", 0, new float[]{1});
+        Thread.sleep(100);
+        writer.update("PROXIMITY", 0, new float[]{2});
+        writer.stop();
+        synchronized (sink) {
+            assertEquals(2, sink.batches.size());
+            assertEquals(2f, sink.batches.get(1).get("PROXIMITY")[0], 0);
+        }
+    }
+
+    @Test
+    public void eventBurstIsReducedToFewWrites() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        SensorWriteCoalescer writer = new SensorWriteCoalescer(sink, 50);
+        writer.start();
+        float[] values = new float[3];
+        long end = System.currentTimeMillis() + 300;
+        while (System.currentTimeMillis() < end) {
+            for (int sensor = 0; sensor < 20; ++sensor) {
+                writer.update("SENSOR_" + sensor, 0, values);
+            }
+        }
+        writer.stop();
+        long received = writer.getEventsReceived();
+        long written;
+        int batches;
+        synchronized (sink) {
+            written = sink.writes;
+            batches = sink.batches.size();
+        }
+        assertEquals(received, writer.getEventsCoalesced() + written);
+        assertEquals(writer.getFlushes(), batches);
+        assertTrue(batches > 0 && batches < 20);
+        //every batch writes every sensor at most once, all other events are coalesced
+        assertTrue(written <= 20 * batches);
+        assertTrue(writer.getEventsCoalesced() >= received * 9 / 10);
+    }
+
+    /**
+     * Sink which remembers copies of all batches.
+     */
+    private static class RecordingSink implements SensorWriteCoalescer.Sink {
+        /** Written batches. */
+        private final List<Map<String, float[]>> batches = new ArrayList<>();
+        /** Number of written sensor values. */
+        private long writes;
+
+        @Override
+        public synchronized void write(List<String> keys, long[] timestamps, List<float[]> values) {
+            Map<String, float[]> batch = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); ++i) {
+                batch.put(keys.get(i), values.get(i).clone());
+            }
+            batches.add(batch);
+            writes += keys.size();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import java.util.Random;
+
+/**
+ * Stand-in for sensor with hardware FIFO. It samples noisy sine wave every sampling period and, like real sensor
+ * registered with maximal report latency, delivers all events which happened since previous delivery at once. With
+ * report latency 0, every event is delivered when it happens. Like {@link android.hardware.SensorEvent}, array with
+ * values is reused between events.
+ */
+public class SyntheticSensorEvents {
+
+    /**
+     * Receiver of delivered events.
+     */
+    public interface Listener {
+        /**
+         * Method which is called for every delivered event.
+         *
+         * @param timestamp
+         *         time when event happened, in milliseconds
+         * @param values
+         *         values of event, valid only during this call
+         * @param now
+         *         time of delivery in milliseconds
+         */
+        void onEvent(long timestamp, float[] values, long now);
+    }
+
+    /** Generator of noise. */
+    private final Random random;
+    /** Sampling period in milliseconds. */
+    private final long samplingPeriod;
+    /** Maximal report latency in milliseconds. */
+    private final long reportLatency;
+    /** Values of current event. */
+    private final float[] values;
+    /** Time of next event. */
+    private long nextEvent;
+
+    /**
+     * Constructor.
+     *
+     * @param seed
+     *         seed of noise
+     * @param samplingPeriod
+     *         sampling period in milliseconds
+     * @param reportLatency
+     *         maximal report latency in milliseconds, 0 for sensor without FIFO
+     * @param dimensions
+     *         number of values of every event
+     */
+    public SyntheticSensorEvents(long seed, long samplingPeriod, long reportLatency, int dimensions) {
+        random = new Random(seed);
+        this.samplingPeriod = samplingPeriod;
+        this.reportLatency = reportLatency;
+        values = new float[dimensions];
+    }
+
+    /**
+     * Method for running sensor until given time.
+     *
+     * @param end
+     *         time until which sensor runs, in milliseconds
+     * @param listener
+     *         receiver of events
+     * @return number of deliveries
+     */
+    public int run(long end, Listener listener) {
+        int deliveries = 0;
+        long step = reportLatency > 0 ? reportLatency : samplingPeriod;
+        for (long delivery = 0; delivery <= end; delivery += step) {
+            if (nextEvent > delivery) {
+                continue;
+            }
+            while (nextEvent <= delivery) {
+                for (int d = 0; d < values.length; ++d) {
+                    values[d] = (float) (10 * Math.sin(nextEvent / 1000.0 + d) + random.nextGaussian());
+                }
+                listener.onEvent(nextEvent, values, delivery);
+                nextEvent += samplingPeriod;
+            }
+            deliveries++;
+        }
+        return deliveries;
+    }
+}
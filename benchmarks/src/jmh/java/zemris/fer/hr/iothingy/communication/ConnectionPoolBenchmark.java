@@ -0,0 +1,89 @@
+package zemris.fer.hr.iothingy.communication;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import zemris.fer.hr.iothingy.gateway.Gateway;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of sending batch of messages to {@link Gateway} on loopback through {@link ConnectionPool}: with new socket for
+ * every message, with pooled connection and one send per message, and with all messages pipelined in one send. Every
+ * measured operation is whole batch, so time per message is score divided by number of messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+
+    /** Number of messages in batch. */
+    @Param({"1", "10", "100"})
+    public int messages;
+
+    /** Gateway which answers messages. */
+    private Gateway gateway;
+    /** Pool which keeps connection open. */
+    private ConnectionPool pool;
+    /** Pool which doesn't keep idle connections, so it opens new socket for every send. */
+    private ConnectionPool noPool;
+    /** Messages of batch. */
+    private List<String> lines;
+
+    @Setup
+    public void setUp() throws IOException {
+        gateway = new Gateway(Gateway.DEFAULT_ID, 0, 60000, 60000);
+        pool = new ConnectionPool(2, 60000);
+        noPool = new ConnectionPool(0, 0);
+        lines = new ArrayList<>(messages);
+        for (int i = 0; i < messages; ++i) {
+            lines.add("0" + String.format("%08d", i + 1) + "THING_45" + Gateway.DEFAULT_ID + "00000000"
+                    + "{\"GPS\":{\"VALUES\":[45.8,15.9,120.0],\"NAMES\":[\"LATITUDE\",\"LONGITUDE\",\"ALTITUDE\"]}}");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.closeIdle();
+        gateway.close();
+    }
+
+    @Benchmark
+    public int newSocketPerMessage() throws IOException {
+        int replies = 0;
+        for (String line : lines) {
+            replies += noPool.send("127.0.0.1", gateway.getPort(), Collections.singletonList(line)).size();
+        }
+        return replies;
+    }
+
+    @Benchmark
+    public int pooledSendPerMessage() throws IOException {
+        int replies = 0;
+        for (String line : lines) {
+            replies += pool.send("127.0.0.1", gateway.getPort(), Collections.singletonList(line)).size();
+        }
+        return replies;
+    }
+
+    @Benchmark
+    public int pipelined() throws IOException {
+        return pool.send("127.0.0.1", gateway.getPort(), lines).size();
+    }
+}
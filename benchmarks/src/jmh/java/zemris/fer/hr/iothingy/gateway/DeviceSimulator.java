@@ -0,0 +1,422 @@
+package zemris.fer.hr.iothingy.gateway;
+
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+import zemris.fer.hr.iothingy.utils.Message;
+import zemris.fer.hr.iothingy.utils.MessageIdGenerator;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+import zemris.fer.hr.iothingy.utils.SensorJson;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Simulator of many devices which talk to {@link Gateway}, every device has its own connection and all connections are
+ * driven by one selector. Every device sends given number of messages with light value, one after another, and answers
+ * GET commands which gateway writes as replies. When all devices are done their connections stay open until line is
+ * read from standard input, so gateway can be checked while it holds all of them.
+ * <p>
+ * Arguments are host, port, number of devices, number of messages per device and maximal number of connections which
+ * are being opened at once. Result is printed as one line which starts with {@code RESULT} and has {@code key=value}
+ * pairs: connected devices, answered lines, failed devices, answered commands, latency percentiles of lines in
+ * milliseconds and duration in seconds.
+ */
+public class DeviceSimulator {
+
+    /** UTF-8 charset. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Time after which simulation stops, in milliseconds. */
+    private static final long TIMEOUT = 120 * 1000;
+
+    /** Address of gateway. */
+    private final InetSocketAddress address;
+    /** Gateway host, devices use it as destination IP of messages. */
+    private final String host;
+    /** Number of messages which every device sends. */
+    private final int rounds;
+    /** Maximal number of connections which are being opened at once. */
+    private final int maxConnecting;
+    /** Selector. */
+    private final Selector selector;
+    /** Buffer for reading, shared by all devices. */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    /** Devices which aren't connected yet. */
+    private final Deque<Device> waiting = new ArrayDeque<>();
+    /** Latencies of answered lines, in nanoseconds. */
+    private long[] latencies = new long[1024];
+    /** Number of answered lines. */
+    private int lines;
+    /** Number of connections which are being opened. */
+    private int connecting;
+    /** Number of connected devices. */
+    private int connected;
+    /** Number of devices which sent all messages. */
+    private int done;
+    /** Number of failed devices. */
+    private int failed;
+    /** Number of answered commands. */
+    private int commands;
+
+    /**
+     * Constructor.
+     *
+     * @param host
+     *         gateway host
+     * @param port
+     *         gateway port
+     * @param devices
+     *         number of devices
+     * @param rounds
+     *         number of messages which every device sends
+     * @param maxConnecting
+     *         maximal number of connections which are being opened at once
+     * @throws IOException
+     *         if selector can't be opened
+     */
+    public DeviceSimulator(String host, int port, int devices, int rounds, int maxConnecting) throws IOException {
+        this.host = host;
+        this.rounds = rounds;
+        this.maxConnecting = maxConnecting;
+        address = new InetSocketAddress(host, port);
+        selector = Selector.open();
+        for (int i = 0; i < devices; i++) {
+            waiting.add(new Device(String.format("D%07d", i), port));
+        }
+    }
+
+    /**
+     * Method for running simulation from command line.
+     *
+     * @param args
+     *         host, port, number of devices, number of messages per device and maximal number of connections which are
+     *         being opened at once
+     * @throws IOException
+     *         if simulation can't be started
+     */
+    public static void main(String[] args) throws IOException {
+        DeviceSimulator simulator = new DeviceSimulator(args[0], Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        long start = System.nanoTime();
+        simulator.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("RESULT connected=%d lines=%d failed=%d commands=%d p50=%.3f p99=%.3f "
+                        + "p999=%.3f seconds=%.3f", simulator.connected, simulator.lines, simulator.failed,
+                simulator.commands, simulator.latency(50), simulator.latency(99), simulator.latency(99.9), seconds));
+        System.out.flush();
+        System.in.read();
+        simulator.selector.close();
+    }
+
+    /**
+     * Method for running all devices until they are done or fail.
+     *
+     * @throws IOException
+     *         if selector fails
+     */
+    private void run() throws IOException {
+        int devices = waiting.size();
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (done + failed < devices && System.currentTimeMillis() < end) {
+            while (connecting < maxConnecting && !waiting.isEmpty()) {
+                connect(waiting.pollFirst());
+            }
+            selector.select(100);
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                SelectionKey key = it.next();
+                it.remove();
+                Device device = (Device) key.attachment();
+                try {
+                    if (key.isConnectable()) {
+                        device.finishConnect();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        device.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        device.read();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    device.fail();
+                }
+            }
+        }
+        failed += devices - done - failed;
+    }
+
+    /**
+     * Method for starting connection of device.
+     *
+     * @param device
+     *         device
+     */
+    private void connect(Device device) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            device.channel = channel;
+            connecting++;
+            device.connecting = true;
+            if (channel.connect(address)) {
+                device.key = channel.register(selector, SelectionKey.OP_READ, device);
+                device.finishConnect();
+            } else {
+                device.key = channel.register(selector, SelectionKey.OP_CONNECT, device);
+            }
+        } catch (IOException e) {
+            device.fail();
+        }
+    }
+
+    /**
+     * Method for remembering latency of answered line.
+     *
+     * @param nanos
+     *         latency in nanoseconds
+     */
+    private void record(long nanos) {
+        if (lines == latencies.length) {
+            latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+        }
+        latencies[lines++] = nanos;
+    }
+
+    /**
+     * Method for getting latency percentile of answered lines, nearest rank is used.
+     *
+     * @param percentile
+     *         percentile, between 0 and 100
+     * @return latency in milliseconds, 0 if no line is answered
+     */
+    private double latency(double percentile) {
+        if (lines == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, lines);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * lines);
+        return sorted[Math.max(rank, 1) - 1] / 1e6;
+    }
+
+    /**
+     * One simulated device and its connection.
+     */
+    private class Device implements SensorValueSource {
+        /** Thing ID. */
+        private final String thingID;
+        /** Gateway port, used as destination port of messages. */
+        private final int port;
+        /** Generator of message IDs. */
+        private final MessageIdGenerator ids;
+        /** Send times of lines which wait for {@code idle}, in nanoseconds. */
+        private final Deque<Long> sent = new ArrayDeque<>();
+        /** Channel. */
+        private SocketChannel channel;
+        /** Selection key. */
+        private SelectionKey key;
+        /** Flag which tells if connection is being opened. */
+        private boolean connecting;
+        /** Bytes which wait to be written. */
+        private ByteBuffer out;
+        /** Bytes of line which is being read. */
+        private byte[] line = new byte[256];
+        /** Number of bytes of line which is being read. */
+        private int lineLength;
+        /** Number of sent messages with light value. */
+        private int round;
+
+        /**
+         * Constructor.
+         *
+         * @param thingID
+         *         thing ID
+         * @param port
+         *         gateway port
+         */
+        private Device(String thingID, int port) {
+            this.thingID = thingID;
+            this.port = port;
+            ids = MessageIdGenerator.forDevice(thingID);
+        }
+
+        /**
+         * Method for finishing connection and sending first message.
+         *
+         * @throws IOException
+         *         if connection can't be opened
+         */
+        private void finishConnect() throws IOException {
+            if (channel.isConnectionPending()) {
+                channel.finishConnect();
+            }
+            connecting = false;
+            DeviceSimulator.this.connecting--;
+            connected++;
+            key.interestOps(SelectionKey.OP_READ);
+            sendRound();
+        }
+
+        /**
+         * Method for sending next message with light value.
+         *
+         * @throws IOException
+         *         if message can't be written
+         */
+        private void sendRound() throws IOException {
+            round++;
+            String jsonData = SensorJson.createJSONData(Collections.singletonMap("LIGHT",
+                    SensorReading.of(SensorReading.TYPE_LIGHT, System.currentTimeMillis(), new float[]{round})));
+            send(new Message(ids.nextId(), thingID, Gateway.DEFAULT_ID, jsonData, null, "INTERNET", "NONE", host,
+                    port));
+        }
+
+        /**
+         * Method for writing message.
+         *
+         * @param message
+         *         message
+         * @throws IOException
+         *         if message can't be written
+         */
+        private void send(Message message) throws IOException {
+            byte[] bytes = (message.getComSendMessage() + "\r\n").getBytes(UTF_8);
+            if (out == null) {
+                out = ByteBuffer.wrap(bytes);
+            } else {
+                ByteBuffer joined = ByteBuffer.allocate(out.remaining() + bytes.length);
+                joined.put(out).put(bytes).flip();
+                out = joined;
+            }
+            sent.addLast(System.nanoTime());
+            write();
+        }
+
+        /**
+         * Method for writing as many bytes as channel accepts.
+         *
+         * @throws IOException
+         *         if bytes can't be written
+         */
+        private void write() throws IOException {
+            if (out == null) {
+                return;
+            }
+            channel.write(out);
+            if (out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                out = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Method for reading available bytes and handling complete lines.
+         *
+         * @throws IOException
+         *         if bytes can't be read or gateway closed connection
+         */
+        private void read() throws IOException {
+            readBuffer.clear();
+            if (channel.read(readBuffer) < 0) {
+                throw new IOException("Connection closed by gateway");
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    lineLength = 0;
+                    onLine(new String(line, 0, length, UTF_8));
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, 2 * line.length);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        /**
+         * Method for handling line of gateway.
+         *
+         * @param received
+         *         line without terminator
+         * @throws IOException
+         *         if reply can't be written
+         */
+        private void onLine(String received) throws IOException {
+            if (!"idle".equals(received)) {
+                ReceivedServerMessage command = ReceivedServerMessage.parseReceivedMessage(received, "INTERNET",
+                        "NONE", host, "" + port);
+                Message response = command.responseMessage(this);
+                if (response != null) {
+                    commands++;
+                    send(response);
+                }
+                return;
+            }
+            Long start = sent.pollFirst();
+            if (start == null) {
+                throw new IOException("Unexpected idle");
+            }
+            record(System.nanoTime() - start);
+            if (sent.isEmpty()) {
+                if (round < rounds) {
+                    sendRound();
+                } else {
+                    done++;
+                }
+            }
+        }
+
+        /**
+         * Method for closing connection of failed device.
+         */
+        private void fail() {
+            if (connecting) {
+                connecting = false;
+                DeviceSimulator.this.connecting--;
+            }
+            failed++;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+
+        @Override
+        public Map<String, SensorReading> getLatestReadings(Collection<String> keys) {
+            Map<String, SensorReading> readings = new HashMap<>();
+            if (keys.contains("LIGHT")) {
+                readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, System.currentTimeMillis(),
+                        new float[]{round}));
+            }
+            return readings;
+        }
+
+        @Override
+        public SensorReading getAggregatedReading(String key, String aggregate) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package zemris.fer.hr.iothingy.gateway;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load benchmark of {@link Gateway} with 10000 simulated devices which are connected at once. Devices are simulated by
+ * {@link DeviceSimulator} in separate JVM, so that client and server sides of connections don't share limit of open
+ * files. Every tenth device gets GET command, which must be correlated with its response. Measured time is time until
+ * all devices are done, latency percentiles of lines are printed with result of simulator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+public class GatewayLoadBenchmark {
+
+    /** Number of simulated devices. */
+    private static final int DEVICES = 10000;
+    /** Number of messages which every device sends. */
+    private static final int ROUNDS = 3;
+    /** Every which device gets GET command. */
+    private static final int GET_EVERY = 10;
+    /** Maximal number of connections which simulator opens at once. */
+    private static final int MAX_CONNECTING = 256;
+
+    /** Gateway used by benchmark. */
+    private Gateway gateway;
+    /** Responses to GET commands. */
+    private List<Future<ReceivedServerMessage>> futures;
+    /** Simulator process. */
+    private Process simulator;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        gateway = new Gateway(Gateway.DEFAULT_ID, 0, 60000, 120000);
+        futures = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i += GET_EVERY) {
+            futures.add(gateway.get(String.format("D%07d", i), Arrays.asList("LIGHT")));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        try {
+            check();
+        } finally {
+            if (simulator != null) {
+                simulator.destroy();
+                simulator = null;
+            }
+            gateway.close();
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> tenThousandDevices() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        simulator = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                DeviceSimulator.class.getName(), "127.0.0.1", "" + gateway.getPort(), "" + DEVICES, "" + ROUNDS,
+                "" + MAX_CONNECTING).redirectErrorStream(true).start();
+        Map<String, String> result = readResult(simulator);
+        System.out.println(String.format("%-25s devices=%d lines=%s p50=%sms p99=%sms p999=%sms seconds=%s",
+                "gateway, 10k devices", DEVICES, result.get("lines"), result.get("p50"), result.get("p99"),
+                result.get("p999"), result.get("seconds")));
+        expect("connected", DEVICES, Integer.parseInt(result.get("connected")));
+        expect("failed", 0, Integer.parseInt(result.get("failed")));
+        expect("commands", DEVICES / GET_EVERY, Integer.parseInt(result.get("commands")));
+        expect("lines", DEVICES * ROUNDS + DEVICES / GET_EVERY, Integer.parseInt(result.get("lines")));
+        return result;
+    }
+
+    /**
+     * Method for checking state of gateway after simulator is done, so that time of run which didn't do all work isn't
+     * reported as valid result.
+     *
+     * @throws Exception
+     *         if response to GET command isn't received or simulator doesn't stop
+     */
+    private void check() throws Exception {
+        //simulator keeps all connections open until it is told to stop
+        expect("gateway connections", DEVICES, gateway.getConnections());
+        expect("gateway sessions", DEVICES, gateway.getSessions());
+        for (Future<ReceivedServerMessage> future : futures) {
+            ReceivedServerMessage response = future.get(10, TimeUnit.SECONDS);
+            expect("sensors in response", 1, response.getSensorData().size());
+        }
+        DeviceSession session = gateway.getSession(String.format("D%07d", DEVICES - 1));
+        expect("received messages", ROUNDS, session.getReceivedMessages());
+        expect("light value", ROUNDS, (int) session.getSensorValues().get("LIGHT")[0]);
+        simulator.getOutputStream().close();
+        expect("simulator exit value", 0, simulator.waitFor());
+    }
+
+    /**
+     * Method for checking one value of benchmark run.
+     *
+     * @param name
+     *         name of value
+     * @param expected
+     *         expected value
+     * @param actual
+     *         actual value
+     * @throws IllegalStateException
+     *         if values differ
+     */
+    private static void expect(String name, int expected, int actual) {
+        if (expected != actual) {
+            throw new IllegalStateException("Expected " + name + " " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Method for reading result line of simulator.
+     *
+     * @param process
+     *         simulator process
+     * @return values from result line by their keys
+     * @throws IOException
+     *         if output can't be read or there is no result line
+     */
+    private static Map<String, String> readResult(Process process) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (!line.startsWith("RESULT ")) {
+                System.out.println(line);
+                continue;
+            }
+            Map<String, String> result = new HashMap<>();
+            for (String pair : line.substring(7).split(" ")) {
+                int split = pair.indexOf('=');
+                result.put(pair.substring(0, split), pair.substring(split + 1));
+            }
+            return result;
+        }
+        throw new IOException("Simulator stopped without result");
+    }
+}
@@ -0,0 +1,95 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of hot paths of one message exchange at different sizes: encoding of sent message and decoding of
+ * received GET command. Building and parsing of sensor JSON data is measured by {@link JsonBenchmark} and inbox by
+ * {@link MessageLogBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+
+    /** Number of sensors in sensor data and GET command. */
+    @Param({"1", "10", "50"})
+    public int sensors;
+
+    /** Message which is encoded. */
+    private Message message;
+    /** Line with GET command which is decoded. */
+    private String line;
+
+    @Setup
+    public void setUp() {
+        message = new Message("00000042", "THING_45", "SERVER01", SensorJson.createJSONData(readings(sensors)),
+                "00000041", "INTERNET", "NONE", "127.0.0.1", 25000);
+        line = getCommand(sensors);
+        if (!ReceivedServerMessage.parseReceivedMessage(line, "INTERNET", "NONE", "127.0.0.1", "25000")
+                .isGetCommand()) {
+            throw new IllegalStateException("Line isn't GET command");
+        }
+    }
+
+    @Benchmark
+    public String encode() {
+        return message.getComSendMessage();
+    }
+
+    @Benchmark
+    public ReceivedServerMessage decode() {
+        return ReceivedServerMessage.parseReceivedMessage(line, "INTERNET", "NONE", "127.0.0.1", "25000");
+    }
+
+    /**
+     * Method for creating readings of given number of sensors.
+     *
+     * @param sensors
+     *         number of sensors
+     * @return readings by sensor name
+     */
+    static Map<String, SensorReading> readings(int sensors) {
+        Map<String, SensorReading> readings = new LinkedHashMap<>();
+        for (int i = 0; i < sensors; ++i) {
+            readings.put("SENSOR_" + i, SensorReading.of(1, 1466000000000L + i, new float[]{0.125f * i, -9.81f,
+                    0.5f + i}));
+        }
+        return readings;
+    }
+
+    /**
+     * Method for creating received line with GET command for given number of sensors.
+     *
+     * @param sensors
+     *         number of sensors
+     * @return line in format which server returns
+     */
+    private static String getCommand(int sensors) {
+        StringBuilder line = new StringBuilder("000000043SERVER01THING_4500000042{\"CMD\":\"GET\",\"SENSOR\":[");
+        for (int i = 0; i < sensors; ++i) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append("\"SENSOR_").append(i).append('"');
+        }
+        return line.append("]}").toString();
+    }
+}
@@ -0,0 +1,137 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of org.json tree and streaming JSON ({@link JsonStreamWriter}, {@link JsonPullParser}) for sensor data
+ * and GET commands with different number of sensors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    /** Number of sensors in sensor data and GET command. */
+    @Param({"1", "10", "50"})
+    public int sensors;
+
+    /** Readings which are written. */
+    private Map<String, SensorReading> readings;
+    /** Sensor data which is parsed. */
+    private String sensorData;
+    /** GET command which is parsed. */
+    private String getCommand;
+    /** Builder which is reused by streaming writer. */
+    private final StringBuilder out = new StringBuilder(64 * 1024);
+    /** Parser which is reused for GET commands. */
+    private final JsonPullParser parser = new JsonPullParser("");
+
+    @Setup
+    public void setUp() {
+        readings = HotPathBenchmark.readings(sensors);
+        sensorData = SensorJson.createJSONData(readings);
+        StringBuilder command = new StringBuilder("{\"CMD\":\"GET\",\"SENSOR\":[");
+        for (int i = 0; i < sensors; ++i) {
+            command.append(i > 0 ? "," : "").append("\"SENSOR_").append(i).append('"');
+        }
+        getCommand = command.append("]}").toString();
+        if (SensorJson.parseJSONData(sensorData).size() != sensors) {
+            throw new IllegalStateException("Sensor data isn't parsed back");
+        }
+    }
+
+    @Benchmark
+    public String writeSensorDataOrgJson() throws JSONException {
+        JSONObject jsonData = new JSONObject();
+        for (Map.Entry<String, SensorReading> entry : readings.entrySet()) {
+            SensorReading reading = entry.getValue();
+            JSONArray values = new JSONArray();
+            JSONArray names = new JSONArray();
+            for (int i = 0; i < reading.size(); ++i) {
+                values.put(Float.valueOf(reading.getValue(i)));
+                names.put(reading.getValueName(i));
+            }
+            JSONObject sensor = new JSONObject();
+            sensor.put("VALUES", values);
+            sensor.put("NAMES", names);
+            jsonData.put(entry.getKey(), sensor);
+        }
+        return jsonData.toString();
+    }
+
+    @Benchmark
+    public int writeSensorDataStreaming() {
+        out.setLength(0);
+        SensorJson.writeJSONData(readings, out);
+        return out.length();
+    }
+
+    @Benchmark
+    public long parseSensorDataOrgJson() throws JSONException {
+        JSONObject jsonObject = new JSONObject(sensorData.toUpperCase());
+        long count = 0;
+        for (Iterator<String> it = jsonObject.keys(); it.hasNext(); ) {
+            JSONArray values = jsonObject.getJSONObject(it.next()).getJSONArray("VALUES");
+            for (int i = 0; i < values.length(); ++i) {
+                count += (long) values.getDouble(i);
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Map<String, float[]> parseSensorDataPullParser() {
+        return SensorJson.parseJSONData(sensorData);
+    }
+
+    @Benchmark
+    public int parseGetCommandOrgJson() throws JSONException {
+        JSONObject jsonObject = new JSONObject(getCommand.toUpperCase());
+        StringBuilder values = new StringBuilder();
+        JSONArray sensorArray = jsonObject.getJSONArray("SENSOR");
+        for (int i = 0, len = sensorArray.length(); i < len - 1; ++i) {
+            values.append(sensorArray.getString(i)).append(' ');
+        }
+        values.append(sensorArray.getString(sensorArray.length() - 1));
+        return jsonObject.getString("CMD").length() + values.length();
+    }
+
+    @Benchmark
+    public long parseGetCommandPullParser() {
+        parser.reset(getCommand);
+        parser.expect(JsonPullParser.BEGIN_OBJECT);
+        long length = 0;
+        while (parser.next() == JsonPullParser.NAME) {
+            if (parser.nameEquals("SENSOR")) {
+                parser.expect(JsonPullParser.BEGIN_ARRAY);
+                while (parser.next() != JsonPullParser.END_ARRAY) {
+                    length += parser.getString().length();
+                }
+            } else {
+                parser.next();
+                length += parser.getString().length();
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,90 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of text format ({@link Message#getComSendMessage()} and fixed offset slicing) and binary format ({@link
+ * BinaryMessageCodec}) of messages for different JSON data sizes. Decoding is measured up to the point where IDs and
+ * JSON data are available, JSON parsing is the same for both formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    /** UTF-8 charset. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of sensors in JSON data. */
+    @Param({"1", "10", "50"})
+    public int sensors;
+
+    /** Message which is encoded. */
+    private Message message;
+    /** Buffer which is reused for encoding of binary frames. */
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    /** Encoded line with terminator. */
+    private byte[] textBytes;
+    /** Encoded binary frame. */
+    private ByteBuffer binaryBytes;
+    /** Frame which is reused for decoding. */
+    private final BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+
+    @Setup
+    public void setUp() {
+        message = new Message("00000042", "THING_45", "SERVER01", SensorJson.createJSONData(
+                HotPathBenchmark.readings(sensors)), "00000041", "INTERNET", "NONE", "127.0.0.1", 25000);
+        textBytes = (message.getComSendMessage() + "\r\n").getBytes(UTF_8);
+        ByteBuffer frameBytes = ByteBuffer.allocate(64 * 1024);
+        message.encodeBinary(frameBytes);
+        frameBytes.flip();
+        binaryBytes = frameBytes;
+    }
+
+    @Benchmark
+    public int encodeText() {
+        return (message.getComSendMessage() + "\r\n").getBytes(UTF_8).length;
+    }
+
+    @Benchmark
+    public int encodeBinary() {
+        out.clear();
+        return message.encodeBinary(out);
+    }
+
+    @Benchmark
+    public int decodeText() {
+        String line = new String(textBytes, 0, textBytes.length - 2, UTF_8);
+        String messageID = line.substring(1, 9);
+        String srcID = line.substring(9, 17);
+        String destID = line.substring(17, 25);
+        String previousMessageID = line.substring(25, 33);
+        String jsonData = line.substring(33);
+        return messageID.length() + srcID.length() + destID.length() + previousMessageID.length()
+                + jsonData.length();
+    }
+
+    @Benchmark
+    public int decodeBinary() {
+        ByteBuffer in = binaryBytes.duplicate();
+        BinaryMessageCodec.decode(in, frame);
+        return (frame.idEquals(BinaryMessageCodec.DEST_ID, "SERVER01") ? 1 : 0) + frame.getPayloadLength();
+    }
+}
@@ -0,0 +1,82 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of encryption types NONE, HMAC and FULL for different JSON data sizes. Messages are protected and the
+ * other side reads them, so every measured operation is one message which is sent and received, as text line or as
+ * binary frame which is protected in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCryptoBenchmark {
+
+    /** Number of sensors in JSON data. */
+    @Param({"1", "10", "50"})
+    public int sensors;
+    /** Encryption type. */
+    @Param({"NONE", "HMAC", "FULL"})
+    public String encryption;
+
+    /** Message which is sent and received. */
+    private Message message;
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        MessageCrypto.setMasterSecret("benchmark secret".getBytes("UTF-8"));
+        message = new Message("00000042", "THING_45", "SERVER01", SensorJson.createJSONData(
+                HotPathBenchmark.readings(sensors)), "00000041", "INTERNET", encryption, "127.0.0.1", 25000);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MessageCrypto.setMasterSecret(null);
+    }
+
+    @Benchmark
+    public String sendAndReceive() {
+        String line = message.getComSendMessage();
+        return ReceivedServerMessage.parseReceivedMessage(line, "INTERNET", encryption, "127.0.0.1", "25000")
+                .getJsonData();
+    }
+
+    @Benchmark
+    public int sendAndReceiveFrame(Frames frames) {
+        ByteBuffer buffer = frames.buffer;
+        buffer.clear();
+        message.encodeBinary(buffer);
+        buffer.flip();
+        MessageCrypto.open(buffer, frames.frame, "127.0.0.1", 25000);
+        return frames.frame.getPayloadLength();
+    }
+
+    /**
+     * Buffer and frame of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Frames {
+        /** Buffer which is reused for binary frames. */
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        /** Frame which is reused for decoding. */
+        final BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+    }
+}
@@ -0,0 +1,99 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link MessageLog} with the same operations which are used for inbox of received messages: adding
+ * message and removing it when it is answered, and reading all messages, with different number of messages which are
+ * already in inbox.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageLogBenchmark {
+
+    /** Number of messages which are already in inbox. */
+    @Param({"100", "10000", "100000"})
+    public int size;
+
+    /** Directory with log. */
+    private File dir;
+    /** Log which is used as inbox. */
+    private MessageLog log;
+    /** ID of message which is added and removed. */
+    private String id;
+    /** Message which is added and removed. */
+    private String record;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = File.createTempFile("inbox", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Can't create " + dir);
+        }
+        log = new MessageLog(new File(dir, "inbox.log"));
+        for (int i = 0; i < size; ++i) {
+            String messageId = String.format("%08d", i + 1);
+            log.append(messageId, storeMsg(messageId));
+        }
+        id = String.format("%08d", size + 1);
+        record = storeMsg(id);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public boolean addAndRemove() throws IOException {
+        log.append(id, record);
+        return log.remove(id);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<String> readAll() throws IOException {
+        return log.records();
+    }
+
+    /**
+     * Method for creating message in format which is returned by {@code ReceivedServerMessage#storeMsgFormat()}.
+     *
+     * @param id
+     *         message ID
+     * @return stored message
+     */
+    private static String storeMsg(String id) {
+        String delim = Constants.MSG_DELIM;
+        return id + delim + "SERVER01" + delim + "THING_45" + delim + "00000000" + delim
+                + "{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\",\"BMI160 ACCELEROMETER\"]}" + delim + "INTERNET" + delim
+                + "NONE" + delim + "10.129.71.41" + delim + "25000";
+    }
+}
@@ -0,0 +1,599 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import java.util.Locale;
+
+/**
+ * History of values of one sensor. Samples are stored in fixed-capacity ring buffer of primitive arrays (one array for
+ * timestamps and one for values of all dimensions), so adding sample doesn't create any objects. When buffer is full,
+ * oldest sample is overwritten.
+ * <p>
+ * For every window given to constructor, history keeps running sums (for mean and variance) and monotonic queues of
+ * samples (for minimum and maximum) which are updated when sample is added or leaves window. Because every sample
+ * enters and leaves window only once, aggregates over those windows are computed in amortized O(1). Aggregates over
+ * other windows are computed by scanning samples which are still in buffer.
+ * <p>
+ * History created with {@link #forWindows(int, long, long...)} keeps at most one sample per minimal interval, samples
+ * which come sooner after previous stored sample are dropped. Its buffer is large enough for the longest window, so
+ * aggregates over that window see all stored samples no matter how fast sensor delivers events.
+ * <p>
+ * Aggregates are given with names in format {@code FUNCTION_WINDOW}, e.g. {@code AVG_10S} or {@code MAX_1M}, where
+ * function is one of MIN, MAX, AVG and VAR, and window is number followed by unit S (seconds), M (minutes) or H
+ * (hours). Special aggregate {@code LAST} returns latest sample. This class is thread safe.
+ */
+public class SensorHistory {
+
+    /** Name of aggregate which returns latest sample. */
+    public static final String LAST = "LAST";
+    /** Function which returns minimum. */
+    private static final int MIN = 0;
+    /** Function which returns maximum. */
+    private static final int MAX = 1;
+    /** Function which returns mean. */
+    private static final int AVG = 2;
+    /** Function which returns variance. */
+    private static final int VAR = 3;
+    /** Names of functions, index is function. */
+    private static final String[] FUNCTIONS = {"MIN", "MAX", "AVG", "VAR"};
+
+    /** Capacity of buffer. */
+    private final int capacity;
+    /** Number of values in every sample. */
+    private final int dimensions;
+    /** Timestamps of samples. */
+    private final long[] timestamps;
+    /** Values of samples, sample with index i has values from i * dimensions. */
+    private final float[] values;
+    /** Windows with running aggregates. */
+    private final Window[] windows;
+    /** Minimal time between two stored samples in milliseconds, 0 if all samples are stored. */
+    private final long minInterval;
+    /** Sequence number of next sample, sample with sequence number s is stored at index s % capacity. */
+    private long next;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *         maximal number of stored samples
+     * @param dimensions
+     *         number of values in every sample
+     * @param windowLengths
+     *         lengths of windows with running aggregates, in milliseconds
+     */
+    public SensorHistory(int capacity, int dimensions, long... windowLengths) {
+        this(capacity, dimensions, 0, windowLengths);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *         maximal number of stored samples
+     * @param dimensions
+     *         number of values in every sample
+     * @param minInterval
+     *         minimal time between two stored samples in milliseconds, 0 if all samples are stored
+     * @param windowLengths
+     *         lengths of windows with running aggregates, in milliseconds
+     */
+    private SensorHistory(int capacity, int dimensions, long minInterval, long[] windowLengths) {
+        if (capacity < 1 || dimensions < 1) {
+            throw new IllegalArgumentException("Capacity and dimensions must be positive");
+        }
+        this.capacity = capacity;
+        this.dimensions = dimensions;
+        this.minInterval = minInterval;
+        timestamps = new long[capacity];
+        values = new float[capacity * dimensions];
+        windows = new Window[windowLengths.length];
+        for (int i = 0; i < windowLengths.length; ++i) {
+            if (windowLengths[i] <= 0) {
+                throw new IllegalArgumentException("Window length must be positive");
+            }
+            windows[i] = new Window(windowLengths[i]);
+        }
+    }
+
+    /**
+     * Method for creating history which keeps at most one sample per given interval, with buffer which holds the
+     * longest window.
+     *
+     * @param dimensions
+     *         number of values in every sample
+     * @param minInterval
+     *         minimal time between two stored samples in milliseconds
+     * @param windowLengths
+     *         lengths of windows with running aggregates, in milliseconds
+     * @return new history
+     */
+    public static SensorHistory forWindows(int dimensions, long minInterval, long... windowLengths) {
+        if (minInterval <= 0 || windowLengths.length == 0) {
+            throw new IllegalArgumentException("Interval must be positive and there must be some window");
+        }
+        long longest = 0;
+        for (long length : windowLengths) {
+            longest = Math.max(longest, length);
+        }
+        return new SensorHistory((int) (longest / minInterval) + 1, dimensions, minInterval, windowLengths);
+    }
+
+    /**
+     * Method for adding sample. Timestamps of samples must not decrease. If sample has fewer values than history has
+     * dimensions, missing values are 0, extra values are ignored.
+     *
+     * @param timestamp
+     *         time of sample in milliseconds
+     * @param sample
+     *         values of sample
+     */
+    public synchronized void add(long timestamp, float[] sample) {
+        if (next > 0 && timestamp < timestamps[index(next - 1)]) {
+            throw new IllegalArgumentException("Timestamps must not decrease");
+        }
+        append(timestamp, sample, 0, sample.length);
+        for (Window window : windows) {
+            window.evictOlderThan(timestamp);
+        }
+    }
+
+    /**
+     * Method for adding burst of samples in one pass, e.g. events which sensor delivered from its hardware FIFO.
+     * Samples are stored the same way as with {@link #add(long, float[])}, but lock is taken once and samples which
+     * leave windows because of time are removed once, after the last sample. Timestamps must not decrease, if they
+     * do, no sample is added.
+     *
+     * @param sampleTimestamps
+     *         times of samples in milliseconds
+     * @param sampleValues
+     *         values of samples, sample with index i has {@code stride} values from {@code i * stride}
+     * @param stride
+     *         number of values of every sample in given array, values after history dimensions are ignored
+     * @param count
+     *         number of samples
+     */
+    public synchronized void addAll(long[] sampleTimestamps, float[] sampleValues, int stride, int count) {
+        if (count <= 0) {
+            return;
+        }
+        long previous = next > 0 ? timestamps[index(next - 1)] : Long.MIN_VALUE;
+        for (int i = 0; i < count; ++i) {
+            if (sampleTimestamps[i] < previous) {
+                throw new IllegalArgumentException("Timestamps must not decrease");
+            }
+            previous = sampleTimestamps[i];
+        }
+        for (int i = 0; i < count; ++i) {
+            append(sampleTimestamps[i], sampleValues, i * stride, stride);
+        }
+        for (Window window : windows) {
+            window.evictOlderThan(previous);
+        }
+    }
+
+    /**
+     * Method for storing sample and adding it to windows. Samples which are too old for windows aren't removed.
+     *
+     * @param timestamp
+     *         time of sample
+     * @param source
+     *         array with values of sample
+     * @param offset
+     *         index of first value in array
+     * @param length
+     *         number of values of sample
+     */
+    private void append(long timestamp, float[] source, int offset, int length) {
+        if (minInterval > 0 && next > 0 && timestamp - timestamps[index(next - 1)] < minInterval) {
+            return;
+        }
+        if (next >= capacity) {
+            //oldest sample is overwritten, so it has to leave all windows first
+            long oldest = next - capacity;
+            for (Window window : windows) {
+                if (window.start == oldest) {
+                    window.evict();
+                }
+            }
+        }
+        int index = index(next);
+        timestamps[index] = timestamp;
+        int destination = index * dimensions;
+        for (int d = 0; d < dimensions; ++d) {
+            values[destination + d] = d < length ? source[offset + d] : 0;
+        }
+        long seq = next++;
+        for (Window window : windows) {
+            window.add(seq);
+        }
+    }
+
+    /**
+     * Getter for number of stored samples.
+     *
+     * @return number of samples
+     */
+    public synchronized int size() {
+        return (int) Math.min(next, capacity);
+    }
+
+    /**
+     * Getter for number of values in every sample.
+     *
+     * @return number of dimensions
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Method for computing aggregate over window which ends at given time.
+     *
+     * @param aggregate
+     *         name of aggregate, e.g. LAST, AVG_10S, MAX_1M
+     * @param now
+     *         current time in milliseconds, in the same time base as timestamps of samples
+     * @param out
+     *         array in which value for every dimension is written, it must have at least {@link #getDimensions()}
+     *         elements
+     * @return true if aggregate is computed, false if there are no samples in window
+     * @throws IllegalArgumentException
+     *         if aggregate name is invalid
+     */
+    public synchronized boolean aggregate(String aggregate, long now, float[] out) {
+        String name = aggregate.trim().toUpperCase(Locale.US);
+        if (LAST.equals(name)) {
+            if (next == 0) {
+                return false;
+            }
+            System.arraycopy(values, index(next - 1) * dimensions, out, 0, dimensions);
+            return true;
+        }
+        int split = name.indexOf('_');
+        int function = split < 0 ? -1 : function(name.substring(0, split));
+        if (function < 0) {
+            throw new IllegalArgumentException("Unknown aggregate " + aggregate);
+        }
+        long length = parseWindow(name.substring(split + 1));
+        for (Window window : windows) {
+            if (window.length == length) {
+                window.evictOlderThan(now);
+                return window.compute(function, out);
+            }
+        }
+        return scan(function, now - length, out);
+    }
+
+    /**
+     * Method for checking if aggregate name is valid.
+     *
+     * @param aggregate
+     *         name of aggregate
+     * @return true if aggregate can be computed by {@link #aggregate(String, long, float[])}
+     */
+    public static boolean isValidAggregate(String aggregate) {
+        String name = aggregate.trim().toUpperCase(Locale.US);
+        if (LAST.equals(name)) {
+            return true;
+        }
+        int split = name.indexOf('_');
+        if (split < 0 || function(name.substring(0, split)) < 0) {
+            return false;
+        }
+        try {
+            parseWindow(name.substring(split + 1));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method for getting function from its name.
+     *
+     * @param name
+     *         name of function
+     * @return function or -1 if there is no such function
+     */
+    private static int function(String name) {
+        for (int i = 0; i < FUNCTIONS.length; ++i) {
+            if (FUNCTIONS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method for parsing window length, e.g. 10S, 1M or 2H.
+     *
+     * @param window
+     *         window
+     * @return window length in milliseconds
+     * @throws IllegalArgumentException
+     *         if window is invalid
+     */
+    private static long parseWindow(String window) {
+        if (window.length() < 2) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        long unit;
+        switch (window.charAt(window.length() - 1)) {
+            case 'S':
+                unit = 1000L;
+                break;
+            case 'M':
+                unit = 60 * 1000L;
+                break;
+            case 'H':
+                unit = 60 * 60 * 1000L;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid window " + window);
+        }
+        long amount;
+        try {
+            amount = Long.parseLong(window.substring(0, window.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        return amount * unit;
+    }
+
+    /**
+     * Method for computing aggregate by scanning all stored samples which are newer than given time.
+     *
+     * @param function
+     *         function
+     * @param from
+     *         time of window start, exclusive
+     * @param out
+     *         array for result
+     * @return true if there is at least one sample in window
+     */
+    private boolean scan(int function, long from, float[] out) {
+        long first = Math.max(0, next - capacity);
+        long seq = next;
+        while (seq > first && timestamps[index(seq - 1)] > from) {
+            seq--;
+        }
+        long count = next - seq;
+        if (count == 0) {
+            return false;
+        }
+        for (int d = 0; d < dimensions; ++d) {
+            double sum = 0;
+            double sumSquares = 0;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (long s = seq; s < next; ++s) {
+                float value = values[index(s) * dimensions + d];
+                sum += value;
+                sumSquares += (double) value * value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            out[d] = result(function, min, max, sum, sumSquares, count);
+        }
+        return true;
+    }
+
+    /**
+     * Method for computing result of function from aggregated values.
+     *
+     * @param function
+     *         function
+     * @param min
+     *         minimum
+     * @param max
+     *         maximum
+     * @param sum
+     *         sum
+     * @param sumSquares
+     *         sum of squares
+     * @param count
+     *         number of samples
+     * @return result
+     */
+    private static float result(int function, float min, float max, double sum, double sumSquares, long count) {
+        switch (function) {
+            case MIN:
+                return min;
+            case MAX:
+                return max;
+            case AVG:
+                return (float) (sum / count);
+            default:
+                double mean = sum / count;
+                //running sums can make tiny negative variance because of rounding
+                return (float) Math.max(0, sumSquares / count - mean * mean);
+        }
+    }
+
+    /**
+     * Method for getting index of sample in buffer.
+     *
+     * @param seq
+     *         sequence number of sample
+     * @return index
+     */
+    private int index(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    /**
+     * Window with running aggregates. It contains samples from sequence number {@link #start} to latest sample.
+     */
+    private class Window {
+        /** Length of window in milliseconds. */
+        private final long length;
+        /** Sequence number of oldest sample in window. */
+        private long start;
+        /** Sums of values for every dimension. */
+        private final double[] sums = new double[dimensions];
+        /** Sums of squares of values for every dimension. */
+        private final double[] sumSquares = new double[dimensions];
+        /** Queues of candidates for minimum, one for every dimension. */
+        private final MonotonicQueue[] minimums = new MonotonicQueue[dimensions];
+        /** Queues of candidates for maximum, one for every dimension. */
+        private final MonotonicQueue[] maximums = new MonotonicQueue[dimensions];
+
+        /**
+         * Constructor.
+         *
+         * @param length
+         *         length of window in milliseconds
+         */
+        private Window(long length) {
+            this.length = length;
+            for (int d = 0; d < dimensions; ++d) {
+                minimums[d] = new MonotonicQueue(true);
+                maximums[d] = new MonotonicQueue(false);
+            }
+        }
+
+        /**
+         * Method for adding newest sample to window.
+         *
+         * @param seq
+         *         sequence number of sample
+         */
+        private void add(long seq) {
+            int offset = index(seq) * dimensions;
+            for (int d = 0; d < dimensions; ++d) {
+                float value = values[offset + d];
+                sums[d] += value;
+                sumSquares[d] += (double) value * value;
+                minimums[d].add(seq, d);
+                maximums[d].add(seq, d);
+            }
+        }
+
+        /**
+         * Method for removing samples which are older than window length before given time.
+         *
+         * @param now
+         *         current time
+         */
+        private void evictOlderThan(long now) {
+            while (start < next && timestamps[index(start)] <= now - length) {
+                evict();
+            }
+        }
+
+        /**
+         * Method for removing oldest sample from window.
+         */
+        private void evict() {
+            int offset = index(start) * dimensions;
+            for (int d = 0; d < dimensions; ++d) {
+                float value = values[offset + d];
+                sums[d] -= value;
+                sumSquares[d] -= (double) value * value;
+                minimums[d].evict(start);
+                maximums[d].evict(start);
+            }
+            start++;
+            if (start == next) {
+                //empty window, start again from zero so rounding errors don't accumulate
+                for (int d = 0; d < dimensions; ++d) {
+                    sums[d] = 0;
+                    sumSquares[d] = 0;
+                }
+            }
+        }
+
+        /**
+         * Method for computing function over samples in window.
+         *
+         * @param function
+         *         function
+         * @param out
+         *         array for result
+         * @return true if window isn't empty
+         */
+        private boolean compute(int function, float[] out) {
+            long count = next - start;
+            if (count == 0) {
+                return false;
+            }
+            for (int d = 0; d < dimensions; ++d) {
+                out[d] = result(function, minimums[d].first(d), maximums[d].first(d), sums[d], sumSquares[d],
+                        count);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Queue of sequence numbers of samples in which values are monotonic, so first element is minimum (or maximum) of
+     * window. Sequence numbers are stored in ring buffer, there can't be more of them than samples in history.
+     */
+    private class MonotonicQueue {
+        /** Sequence numbers. */
+        private final long[] queue = new long[capacity];
+        /** Flag which tells if queue keeps minimum. */
+        private final boolean minimum;
+        /** Index of first element. */
+        private int head;
+        /** Number of elements. */
+        private int size;
+
+        /**
+         * Constructor.
+         *
+         * @param minimum
+         *         true for queue which keeps minimum, false for maximum
+         */
+        private MonotonicQueue(boolean minimum) {
+            this.minimum = minimum;
+        }
+
+        /**
+         * Method for adding newest sample. Samples which can't be minimum (maximum) anymore are removed.
+         *
+         * @param seq
+         *         sequence number of sample
+         * @param dimension
+         *         dimension of queue
+         */
+        private void add(long seq, int dimension) {
+            float value = values[index(seq) * dimensions + dimension];
+            while (size > 0) {
+                float last = values[index(queue[(head + size - 1) % capacity]) * dimensions + dimension];
+                if (minimum ? last < value : last > value) {
+                    break;
+                }
+                size--;
+            }
+            queue[(head + size) % capacity] = seq;
+            size++;
+        }
+
+        /**
+         * Method for removing sample which leaves window.
+         *
+         * @param seq
+         *         sequence number of sample
+         */
+        private void evict(long seq) {
+            if (size > 0 && queue[head] == seq) {
+                head = (head + 1) % capacity;
+                size--;
+            }
+        }
+
+        /**
+         * Method for getting value of first sample.
+         *
+         * @param dimension
+         *         dimension of queue
+         * @return minimum (maximum) of window
+         */
+        private float first(int dimension) {
+            return values[index(queue[head]) * dimensions + dimension];
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import zemris.fer.hr.iothingy.utils.SensorReading;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Source of sensor values which are sent as responses to GET commands. On device values are read from shared
+ * snapshots and sensor history of other process, on server or in tests they can come from anywhere.
+ */
+public interface SensorValueSource {
+
+    /**
+     * Method for getting latest readings of given sensors.
+     *
+     * @param keys
+     *         keys of sensors
+     * @return map with readings, sensors without reading are not in map
+     */
+    Map<String, SensorReading> getLatestReadings(Collection<String> keys);
+
+    /**
+     * Method for getting aggregated reading of some sensor.
+     *
+     * @param key
+     *         key of sensor
+     * @param aggregate
+     *         name of aggregate, see {@link SensorHistory}
+     * @return aggregated reading or null if there is no history for sensor
+     */
+    SensorReading getAggregatedReading(String key, String aggregate);
+}
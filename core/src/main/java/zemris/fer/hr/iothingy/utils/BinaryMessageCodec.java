@@ -0,0 +1,421 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Codec for binary format of messages. Text format returned by {@link Message#getComSendMessage()} is one line which
+ * starts with encryption type followed by IDs and JSON data. Binary frame starts with the same encryption type, but
+ * second byte is {@link #MODE_BINARY} so it can't be mistaken for first digit of message ID. Frame has following
+ * format:
+ * <pre>
+ * encryptionType (1 byte) | MODE_BINARY (1 byte) | length (4 bytes, big endian) |
+ * messageID | srcID | destID | previousMessageID (8 ASCII bytes each) | JSON data (UTF-8)
+ * </pre>
+ * Length is number of bytes after length field. Messages are encoded directly into given {@link ByteBuffer} and
+ * decoded into reusable {@link Frame} which only remembers where fields are, so neither path allocates strings.
+ */
+public class BinaryMessageCodec {
+
+    /** Byte which marks binary frame. */
+    public static final byte MODE_BINARY = 'B';
+    /** Length of every ID. */
+    public static final int ID_LENGTH = 8;
+    /** Length of header: encryption type, mode and length. */
+    public static final int HEADER_LENGTH = 6;
+    /** Index of message ID field. */
+    public static final int MESSAGE_ID = 0;
+    /** Index of source ID field. */
+    public static final int SRC_ID = 1;
+    /** Index of destination ID field. */
+    public static final int DEST_ID = 2;
+    /** Index of previous message ID field. */
+    public static final int PREVIOUS_MESSAGE_ID = 3;
+    /** Number of ID fields. */
+    private static final int ID_FIELDS = 4;
+    /** Offset of JSON data in frame. */
+    static final int PAYLOAD_OFFSET = HEADER_LENGTH + ID_FIELDS * ID_LENGTH;
+
+    /**
+     * Constructor, there is no need for instances of this class.
+     */
+    private BinaryMessageCodec() {
+    }
+
+    /**
+     * Method for checking if buffer starts with binary frame. Buffer position is not changed.
+     *
+     * @param in
+     *         buffer with received bytes
+     * @return true if there are at least 2 bytes and second one is {@link #MODE_BINARY}
+     */
+    public static boolean isBinaryFrame(ByteBuffer in) {
+        return in.remaining() >= 2 && in.get(in.position() + 1) == MODE_BINARY;
+    }
+
+    /**
+     * Method for getting length of frame for given message.
+     *
+     * @param msg
+     *         message
+     * @return frame length in bytes
+     */
+    public static int frameLength(Message msg) {
+        return HEADER_LENGTH + ID_FIELDS * ID_LENGTH + utf8Length(msg.getJsonData());
+    }
+
+    /**
+     * Method for encoding message into buffer. Frame is written at buffer position which is moved after frame.
+     *
+     * @param msg
+     *         message
+     * @param encryptionType
+     *         encryption type byte
+     * @param out
+     *         buffer for frame
+     * @return frame length in bytes
+     * @throws BufferOverflowException
+     *         if there is not enough space in buffer, in that case buffer position is not changed
+     */
+    public static int encode(Message msg, byte encryptionType, ByteBuffer out) {
+        int start = out.position();
+        try {
+            //length is known only after JSON data is written, so data is encoded in one pass
+            out.put(encryptionType).put(MODE_BINARY).putInt(0);
+            putId(msg.getMessageID(), out);
+            putId(msg.getSrcID(), out);
+            putId(msg.getDestID(), out);
+            putId(msg.getPreviousMessageID(), out);
+            putUtf8(msg.getJsonData(), out);
+        } catch (RuntimeException e) {
+            out.position(start);
+            throw e;
+        }
+        int length = out.position() - start;
+        out.putInt(start + 2, length - HEADER_LENGTH);
+        return length;
+    }
+
+    /**
+     * Method for decoding frame from buffer. If buffer contains whole frame, frame is wrapped around buffer and buffer
+     * position is moved after frame. Frame is valid until buffer content is changed.
+     *
+     * @param in
+     *         buffer with received bytes
+     * @param frame
+     *         frame which will be wrapped around received bytes
+     * @return true if frame is decoded, false if buffer doesn't contain whole frame yet
+     * @throws IllegalArgumentException
+     *         if buffer doesn't start with binary frame
+     */
+    public static boolean decode(ByteBuffer in, Frame frame) {
+        if (in.remaining() < HEADER_LENGTH) {
+            return false;
+        }
+        int start = in.position();
+        if (in.get(start + 1) != MODE_BINARY) {
+            throw new IllegalArgumentException("Not a binary frame");
+        }
+        int length = in.getInt(start + 2);
+        if (length < ID_FIELDS * ID_LENGTH) {
+            throw new IllegalArgumentException("Illegal frame length " + length);
+        }
+        if (in.remaining() < HEADER_LENGTH + length) {
+            return false;
+        }
+        frame.wrap(in, start, HEADER_LENGTH + length);
+        in.position(start + HEADER_LENGTH + length);
+        return true;
+    }
+
+    /**
+     * Method for writing ID as 8 ASCII bytes.
+     *
+     * @param id
+     *         ID which has 8 ASCII characters
+     * @param out
+     *         buffer
+     */
+    private static void putId(String id, ByteBuffer out) {
+        if (id.length() != ID_LENGTH) {
+            throw new IllegalArgumentException("ID must have " + ID_LENGTH + " characters: " + id);
+        }
+        for (int i = 0; i < ID_LENGTH; ++i) {
+            char c = id.charAt(i);
+            if (c > 0x7F) {
+                throw new IllegalArgumentException("ID must be ASCII: " + id);
+            }
+            out.put((byte) c);
+        }
+    }
+
+    /**
+     * Method for getting number of bytes which UTF-8 encoding of given text has.
+     *
+     * @param text
+     *         text
+     * @return number of bytes
+     */
+    static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0, len = text.length(); i < len; ++i) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Method for writing UTF-8 encoding of given text. Unpaired surrogates are written as '?'. If buffer is backed by
+     * array, bytes are written directly into that array.
+     *
+     * @param text
+     *         text
+     * @param out
+     *         buffer
+     * @throws BufferOverflowException
+     *         if there is not enough space in buffer, in that case part of text can be written
+     */
+    static void putUtf8(CharSequence text, ByteBuffer out) {
+        if (!out.hasArray()) {
+            for (int i = 0, len = text.length(); i < len; ++i) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    out.put((byte) c);
+                } else {
+                    byte[] bytes = new byte[4];
+                    int count = putUtf8Char(text, i, bytes, 0);
+                    out.put(bytes, 0, count);
+                    i += Character.isHighSurrogate(c) && count == 4 ? 1 : 0;
+                }
+            }
+            return;
+        }
+        byte[] array = out.array();
+        int start = out.arrayOffset() + out.position();
+        int limit = out.arrayOffset() + out.limit();
+        int pos = start;
+        for (int i = 0, len = text.length(); i < len; ++i) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (pos == limit) {
+                    throw new BufferOverflowException();
+                }
+                array[pos++] = (byte) c;
+            } else {
+                int count;
+                if (limit - pos >= 4) {
+                    count = putUtf8Char(text, i, array, pos);
+                } else {
+                    //close to the end of buffer character is checked before it is copied
+                    byte[] bytes = new byte[4];
+                    count = putUtf8Char(text, i, bytes, 0);
+                    if (limit - pos < count) {
+                        throw new BufferOverflowException();
+                    }
+                    System.arraycopy(bytes, 0, array, pos, count);
+                }
+                pos += count;
+                i += count == 4 ? 1 : 0;
+            }
+        }
+        out.position(out.position() + pos - start);
+    }
+
+    /**
+     * Method for writing UTF-8 encoding of one non ASCII character (or surrogate pair) into array.
+     *
+     * @param text
+     *         text
+     * @param i
+     *         index of character
+     * @param array
+     *         destination array
+     * @param pos
+     *         position in destination array
+     * @return number of written bytes, 4 means that surrogate pair is written
+     */
+    private static int putUtf8Char(CharSequence text, int i, byte[] array, int pos) {
+        char c = text.charAt(i);
+        if (c < 0x800) {
+            array[pos] = (byte) (0xC0 | (c >> 6));
+            array[pos + 1] = (byte) (0x80 | (c & 0x3F));
+            return 2;
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            array[pos] = (byte) (0xF0 | (codePoint >> 18));
+            array[pos + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            array[pos + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            array[pos + 3] = (byte) (0x80 | (codePoint & 0x3F));
+            return 4;
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            array[pos] = '?';
+            return 1;
+        }
+        array[pos] = (byte) (0xE0 | (c >> 12));
+        array[pos + 1] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        array[pos + 2] = (byte) (0x80 | (c & 0x3F));
+        return 3;
+    }
+
+    /**
+     * View of one decoded frame. It doesn't copy received bytes, it only remembers where frame is in buffer, so one
+     * instance can be used for all received frames.
+     */
+    public static class Frame {
+        /** Buffer which contains frame. */
+        private ByteBuffer buffer;
+        /** Offset of frame in buffer. */
+        private int offset;
+        /** Length of frame. */
+        private int length;
+
+        /**
+         * Method for wrapping this view around frame in buffer.
+         *
+         * @param buffer
+         *         buffer
+         * @param offset
+         *         offset of frame
+         * @param length
+         *         length of frame
+         */
+        void wrap(ByteBuffer buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Getter for encryption type byte.
+         *
+         * @return encryption type
+         */
+        public byte getEncryptionType() {
+            return buffer.get(offset);
+        }
+
+        /**
+         * Method for comparing ID field with given ID without creating string.
+         *
+         * @param field
+         *         index of field, e.g. {@link #MESSAGE_ID}
+         * @param id
+         *         ID for comparing
+         * @return true if ID field is equal to given ID
+         */
+        public boolean idEquals(int field, CharSequence id) {
+            if (id.length() != ID_LENGTH) {
+                return false;
+            }
+            int start = idOffset(field);
+            for (int i = 0; i < ID_LENGTH; ++i) {
+                if (buffer.get(start + i) != id.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Method for copying ID field into char array.
+         *
+         * @param field
+         *         index of field, e.g. {@link #MESSAGE_ID}
+         * @param dst
+         *         destination array
+         * @param dstOffset
+         *         offset in destination array
+         */
+        public void copyId(int field, char[] dst, int dstOffset) {
+            int start = idOffset(field);
+            for (int i = 0; i < ID_LENGTH; ++i) {
+                dst[dstOffset + i] = (char) (buffer.get(start + i) & 0xFF);
+            }
+        }
+
+        /**
+         * Method for getting ID field as string.
+         *
+         * @param field
+         *         index of field, e.g. {@link #MESSAGE_ID}
+         * @return ID
+         */
+        public String getId(int field) {
+            char[] id = new char[ID_LENGTH];
+            copyId(field, id, 0);
+            return new String(id);
+        }
+
+        /**
+         * Getter for offset of JSON data in buffer.
+         *
+         * @return offset of JSON data
+         */
+        public int getPayloadOffset() {
+            return offset + HEADER_LENGTH + ID_FIELDS * ID_LENGTH;
+        }
+
+        /**
+         * Getter for length of JSON data in bytes.
+         *
+         * @return length of JSON data
+         */
+        public int getPayloadLength() {
+            return length - HEADER_LENGTH - ID_FIELDS * ID_LENGTH;
+        }
+
+        /**
+         * Getter for buffer which contains frame.
+         *
+         * @return buffer
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Method for getting JSON data as string.
+         *
+         * @return JSON data
+         */
+        public String getJsonData() {
+            byte[] payload = new byte[getPayloadLength()];
+            ByteBuffer view = buffer.duplicate();
+            view.position(getPayloadOffset());
+            view.get(payload);
+            try {
+                return new String(payload, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Method for getting offset of ID field in buffer.
+         *
+         * @param field
+         *         index of field
+         * @return offset of field
+         */
+        private int idOffset(int field) {
+            if (field < 0 || field >= ID_FIELDS) {
+                throw new IllegalArgumentException("Illegal ID field " + field);
+            }
+            return offset + HEADER_LENGTH + field * ID_LENGTH;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package zemris.fer.hr.iothingy.utils;
+
+/**
+ * Class contains all constants that are used in application and are needed in multiple classes.
+ */
+public class Constants {
+    /** Name for GPS sensor. */
+    public static final String GPS_SENSOR_NAME = "GPS";
+    /** Name for the error which can be return value of some methods. */
+    public static final String STRING_ERROR = "ERROR";
+    /** Name for the ok result which can be return value of some methods. */
+    public static final String STRING_OK = "OK";
+    /** Name for the result which says that messages are queued for sending later. */
+    public static final String STRING_QUEUED = "QUEUED";
+    /** Default sensor data. */
+    public static final String DEFAULT_SENSOR_DATA = "NULL\nNULL\nNULL";
+    /** Empty tab name. */
+    public static final String EMPTY_TAB_TAG = "EMPTY";
+    /** Key for saving found sensors. */
+    public static final String KEY_FOUND_SENSORS = "FOUND_SENSORS";
+    /** Key for saving selected sensors. */
+    public static final String KEY_SEL_SENSORS = "SELECTED_SENSORS";
+    /** Key auto reply service running. */
+    public static final String KEY_AUTO_REPLY_ON = "AUTOREPLY_ON";
+    /** Key for destination string. */
+    public static final String KEY_DESTINATION = "DESTINATION";
+    /** Key for encryption string. */
+    public static final String KEY_ENCRYPTION = "ENCRYPTION";
+    /** Key for send mode string. */
+    public static final String KEY_SEND_MODE = "SEND_MODE";
+    /** Key for device id string. */
+    public static final String KEY_DEVICE_ID = "DEVICE_ID";
+    /** Key for storing destination adresses. */
+    public static final String KEY_DESTINATION_ADDRESSES = "DESTINATION_ADRESSES";
+    /** Key for getting received messages. */
+    public static final String KEY_RECEIVED_MESSAGES = "RECEIVED_MESSAGES";
+    /** Key for number of auto-reply worker threads. */
+    public static final String KEY_REPLY_WORKERS = "REPLY_WORKERS";
+    /** Key for capacity of auto-reply queue. */
+    public static final String KEY_REPLY_QUEUE_CAPACITY = "REPLY_QUEUE_CAPACITY";
+    /** Key for maximal number of messages replied in one batch. */
+    public static final String KEY_REPLY_BATCH_SIZE = "REPLY_BATCH_SIZE";
+    /** Default number of auto-reply worker threads. */
+    public static final int DEFAULT_REPLY_WORKERS = 2;
+    /** Default capacity of auto-reply queue. */
+    public static final int DEFAULT_REPLY_QUEUE_CAPACITY = 256;
+    /** Default maximal number of messages replied in one batch. */
+    public static final int DEFAULT_REPLY_BATCH_SIZE = 16;
+    /** Key for time between two writes of sensor values. */
+    public static final String KEY_SENSOR_FLUSH_INTERVAL = "SENSOR_FLUSH_INTERVAL";
+    /** Default time between two writes of sensor values in milliseconds. */
+    public static final int DEFAULT_SENSOR_FLUSH_INTERVAL = 500;
+    /** Key for flag which tells if sensors are registered only when their values are read. */
+    public static final String KEY_SENSOR_DEMAND_DRIVEN = "SENSOR_DEMAND_DRIVEN";
+    /** Key for maximal latency of batched sensor events. */
+    public static final String KEY_SENSOR_REPORT_LATENCY = "SENSOR_REPORT_LATENCY";
+    /** Default maximal latency of batched sensor events in milliseconds, 0 means that events aren't batched. */
+    public static final int DEFAULT_SENSOR_REPORT_LATENCY = 0;
+    /** Key for time between two telemetry messages. */
+    public static final String KEY_TELEMETRY_PERIOD = "TELEMETRY_PERIOD";
+    /** Key for maximal jitter of telemetry messages. */
+    public static final String KEY_TELEMETRY_JITTER = "TELEMETRY_JITTER";
+    /** Default time between two telemetry messages in milliseconds. */
+    public static final int DEFAULT_TELEMETRY_PERIOD = 5000;
+    /** Default maximal jitter of telemetry messages in milliseconds. */
+    public static final int DEFAULT_TELEMETRY_JITTER = 500;
+    /** Key for flag which tells if only changed sensors are sent. */
+    public static final String KEY_DELTA_REPORTING = "DELTA_REPORTING";
+    /** Key for secret from which message keys are derived. */
+    public static final String KEY_SHARED_SECRET = "SHARED_SECRET";
+    /** Key for getting sensors. */
+    public static final String KEY_SENSORS = "FOUND_SENSORS";
+    /** Regex for checking destination, format is: IP_ADDR:PORT DEST_THING_NAME */
+    public static final String REGEX_INTERNET_DESTINATION_FORMAT =
+            "(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}):(\\d{1,5})\\s+[a-zA-Z0-9\\_\\-]{8}";
+    /** String which is used to split values for received message. */
+    public static final String MSG_DELIM = "L;;R";
+}
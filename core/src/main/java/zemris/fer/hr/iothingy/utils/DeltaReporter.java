@@ -0,0 +1,233 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reporter which sends only sensors whose values have changed since they were last sent to the same destination. Value
+ * is changed if it differs from last sent value by more than dead-band of its sensor, so small noise isn't sent and
+ * slow drift is sent when it grows over dead-band. Other sensors are listed under {@link #UNCHANGED} in JSON data, or
+ * they are left out, and receiver takes their values from previous messages (see {@link
+ * ReceivedServerMessage#rebuildSensorData(Map, CharSequence)}). Every {@code fullInterval}-th message to some
+ * destination contains all sensors, so receiver which missed some message gets full state again. At most {@link
+ * #MAX_DESTINATIONS} destinations are remembered, destination which is forgotten gets all sensors in next message.
+ * <p>
+ * Values are remembered as sent when JSON data is created, so sender must call {@link #reset(String)} or {@link
+ * #resetAddress(String, int)} when message isn't delivered, otherwise receiver would miss changes which it never got.
+ */
+public class DeltaReporter {
+
+    /** Name of JSON field with names of sensors which haven't changed. */
+    public static final String UNCHANGED = "UNCHANGED";
+    /** Default number of messages after which all sensors are sent again. */
+    public static final int DEFAULT_FULL_INTERVAL = 20;
+    /** Maximal number of destinations whose sent values are remembered, least recently used is forgotten first. */
+    public static final int MAX_DESTINATIONS = 256;
+    /** Reporter shared by process. */
+    private static DeltaReporter instance;
+
+    /** Dead-bands of sensors by sensor types, last value is used for all next values of sensor. */
+    private final Map<Integer, float[]> typeDeadBands = new HashMap<>();
+    /** Dead-bands of sensors by sensor names, they override dead-bands by types. */
+    private final Map<String, float[]> nameDeadBands = new HashMap<>();
+    /** Last sent values by destinations and sensor names, least recently used first. */
+    private final Map<String, Destination> destinations = new LinkedHashMap<String, Destination>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Destination> eldest) {
+            return size() > MAX_DESTINATIONS;
+        }
+    };
+    /** Number of messages after which all sensors are sent again, 0 means never. */
+    private final int fullInterval;
+    /** Flag which tells if unchanged sensors are listed or left out. */
+    private final boolean listUnchanged;
+
+    /**
+     * Constructor. Default dead-bands are set for common sensors.
+     *
+     * @param fullInterval
+     *         number of messages after which all sensors are sent again, 0 means never
+     * @param listUnchanged
+     *         true if unchanged sensors are listed under {@link #UNCHANGED}, false if they are left out
+     */
+    public DeltaReporter(int fullInterval, boolean listUnchanged) {
+        this.fullInterval = fullInterval;
+        this.listUnchanged = listUnchanged;
+        typeDeadBands.put(SensorReading.TYPE_ACCELEROMETER, new float[]{0.1f});
+        typeDeadBands.put(SensorReading.TYPE_LINEAR_ACCELERATION, new float[]{0.1f});
+        typeDeadBands.put(SensorReading.TYPE_GRAVITY, new float[]{0.1f});
+        typeDeadBands.put(SensorReading.TYPE_GYROSCOPE, new float[]{0.05f});
+        typeDeadBands.put(SensorReading.TYPE_MAGNETIC_FIELD, new float[]{1});
+        typeDeadBands.put(SensorReading.TYPE_LIGHT, new float[]{10});
+        typeDeadBands.put(SensorReading.TYPE_PRESSURE, new float[]{0.1f});
+        typeDeadBands.put(SensorReading.TYPE_AMBIENT_TEMPERATURE, new float[]{0.2f});
+        //about 10 meters for latitude and longitude, altitude in meters
+        typeDeadBands.put(SensorReading.TYPE_GPS, new float[]{0.0001f, 0.0001f, 5});
+    }
+
+    /**
+     * Method for getting reporter shared by process, it lists unchanged sensors.
+     *
+     * @return reporter
+     */
+    public static synchronized DeltaReporter getInstance() {
+        if (instance == null) {
+            instance = new DeltaReporter(DEFAULT_FULL_INTERVAL, true);
+        }
+        return instance;
+    }
+
+    /**
+     * Method for setting dead-band of sensor with given name. If there are less dead-bands than values, last dead-band
+     * is used for remaining values. Dead-band 0 means that every change is sent.
+     *
+     * @param sensor
+     *         sensor name
+     * @param deadBands
+     *         dead-bands of sensor values
+     */
+    public synchronized void setDeadBand(String sensor, float... deadBands) {
+        if (deadBands.length == 0) {
+            throw new IllegalArgumentException("No dead-band for " + sensor);
+        }
+        nameDeadBands.put(sensor.toUpperCase(), deadBands.clone());
+    }
+
+    /**
+     * Method for creating JSON data for destination with sensors which have changed since last message to that
+     * destination. Format is the same as format of {@link SensorJson#createJSONData(Map)} with additional field {@link
+     * #UNCHANGED}. Sent values are remembered, so destination must be reset if data isn't delivered.
+     *
+     * @param destination
+     *         destination, e.g. IP:PORT and thing name
+     * @param readings
+     *         current readings of sensors
+     * @return JSON data, sensors which can't be written are left out
+     */
+    public String createJSONData(String destination, Map<String, SensorReading> readings) {
+        List<String> unchanged = new ArrayList<>();
+        Map<String, SensorReading> changed = changes(destination, readings, unchanged);
+        return SensorJson.createJSONData(changed, listUnchanged ? unchanged : null);
+    }
+
+    /**
+     * Method for finding sensors which have changed since last message to destination. Values of changed sensors are
+     * remembered as sent values, so destination must be reset if they aren't delivered. Sensors which can't be written
+     * (see {@link SensorJson#isWritable(SensorReading)}) are neither changed nor unchanged, so their last sent values
+     * are kept.
+     *
+     * @param destination
+     *         destination
+     * @param readings
+     *         current readings of sensors
+     * @param unchanged
+     *         list into which names of unchanged sensors are added
+     * @return changed sensors and their readings
+     */
+    public synchronized Map<String, SensorReading> changes(String destination, Map<String, SensorReading> readings,
+                                                          List<String> unchanged) {
+        Destination sent = destinations.get(destination);
+        if (sent == null) {
+            sent = new Destination();
+            destinations.put(destination, sent);
+        }
+        boolean full = fullInterval > 0 && sent.messages % fullInterval == 0;
+        sent.messages++;
+        Map<String, SensorReading> changed = new LinkedHashMap<>();
+        for (Map.Entry<String, SensorReading> entry : readings.entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            SensorReading reading = entry.getValue();
+            if (!SensorJson.isWritable(reading)) {
+                continue;
+            }
+            float[] previous = sent.values.get(name);
+            if (!full && previous != null && !exceeds(name, reading, previous)) {
+                unchanged.add(name);
+                continue;
+            }
+            changed.put(entry.getKey(), reading);
+            float[] values = new float[reading.size()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = reading.getValue(i);
+            }
+            sent.values.put(name, values);
+        }
+        return changed;
+    }
+
+    /**
+     * Method for forgetting values which are sent to destination, so next message contains all sensors.
+     *
+     * @param destination
+     *         destination
+     */
+    public synchronized void reset(String destination) {
+        destinations.remove(destination);
+    }
+
+    /**
+     * Method for forgetting values which are sent to all destinations at given address, so next message to any of them
+     * contains all sensors. It is used when sending to address fails and sender doesn't know which destinations its
+     * messages were for. Destination matches if it has format {@code SRC@IP:PORT}, optionally followed by space and
+     * thing ID.
+     *
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     */
+    public synchronized void resetAddress(String destIP, int destPort) {
+        String address = "@" + destIP + ":" + destPort;
+        Iterator<String> keys = destinations.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            int at = key.indexOf(address);
+            int end = at + address.length();
+            if (at >= 0 && (end == key.length() || key.charAt(end) == ' ')) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Method for checking if some value of reading differs from previously sent value by more than its dead-band.
+     *
+     * @param name
+     *         upper case sensor name
+     * @param reading
+     *         current reading
+     * @param previous
+     *         previously sent values
+     * @return true if reading needs to be sent
+     */
+    private boolean exceeds(String name, SensorReading reading, float[] previous) {
+        if (reading.size() != previous.length) {
+            return true;
+        }
+        float[] deadBands = nameDeadBands.get(name);
+        if (deadBands == null) {
+            deadBands = typeDeadBands.get(reading.getType());
+        }
+        for (int i = 0; i < previous.length; ++i) {
+            float deadBand = deadBands == null ? 0 : deadBands[Math.min(i, deadBands.length - 1)];
+            if (Math.abs(reading.getValue(i) - previous[i]) > deadBand) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Values which are sent to one destination.
+     */
+    private static class Destination {
+        /** Last sent values by upper case sensor names. */
+        private final Map<String, float[]> values = new HashMap<>();
+        /** Number of messages sent to destination. */
+        private long messages;
+    }
+}
@@ -0,0 +1,416 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.util.Arrays;
+
+/**
+ * Pull parser which reads JSON directly from received text. Caller asks for next token with {@link #next()} and reads
+ * its value, so there is no tree of objects and strings are created only when caller asks for them. Names can be
+ * compared with {@link #nameEquals(String)} without creating string, and comparison ignores case because messages in
+ * this application are not case sensitive. Parser is lenient about commas between elements.
+ */
+public class JsonPullParser {
+
+    /** Start of object. */
+    public static final int BEGIN_OBJECT = 1;
+    /** End of object. */
+    public static final int END_OBJECT = 2;
+    /** Start of array. */
+    public static final int BEGIN_ARRAY = 3;
+    /** End of array. */
+    public static final int END_ARRAY = 4;
+    /** Name of object member. */
+    public static final int NAME = 5;
+    /** String value. */
+    public static final int STRING = 6;
+    /** Number value. */
+    public static final int NUMBER = 7;
+    /** Boolean value. */
+    public static final int BOOLEAN = 8;
+    /** Null value. */
+    public static final int NULL = 9;
+    /** End of text. */
+    public static final int END_DOCUMENT = 10;
+
+    /** Text which is parsed. */
+    private CharSequence text;
+    /** Position of next character. */
+    private int position;
+    /** Current token. */
+    private int token;
+    /** Start of current token content, for strings without quotes. */
+    private int tokenStart;
+    /** End of current token content, exclusive. */
+    private int tokenEnd;
+    /** Flag which tells if current string token contains escape sequences. */
+    private boolean escaped;
+    /** For every nesting level, flag which tells if it is object. */
+    private boolean[] objects = new boolean[8];
+    /** Current nesting level. */
+    private int depth;
+    /** Flag which tells if next string in object is name. */
+    private boolean expectName;
+
+    /**
+     * Constructor.
+     *
+     * @param text
+     *         JSON text
+     */
+    public JsonPullParser(CharSequence text) {
+        reset(text);
+    }
+
+    /**
+     * Method for starting to parse new text.
+     *
+     * @param text
+     *         JSON text
+     * @return this parser
+     */
+    public JsonPullParser reset(CharSequence text) {
+        this.text = text;
+        position = 0;
+        token = 0;
+        depth = 0;
+        expectName = false;
+        return this;
+    }
+
+    /**
+     * Method for moving to next token.
+     *
+     * @return next token
+     * @throws IllegalArgumentException
+     *         if text isn't valid JSON
+     */
+    public int next() {
+        skipWhitespaceAndSeparators();
+        if (position >= text.length()) {
+            if (depth > 0) {
+                throw error("Unexpected end of text");
+            }
+            return token = END_DOCUMENT;
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{':
+                position++;
+                push(true);
+                return token = BEGIN_OBJECT;
+            case '[':
+                position++;
+                push(false);
+                return token = BEGIN_ARRAY;
+            case '}':
+            case ']':
+                if (depth == 0 || objects[depth] != (c == '}')) {
+                    throw error("Unexpected " + c);
+                }
+                position++;
+                depth--;
+                expectName = depth > 0 && objects[depth];
+                return token = c == '}' ? END_OBJECT : END_ARRAY;
+            case '"':
+                readString();
+                if (expectName) {
+                    skipWhitespace();
+                    if (position >= text.length() || text.charAt(position) != ':') {
+                        throw error("Expected ':'");
+                    }
+                    position++;
+                    expectName = false;
+                    return token = NAME;
+                }
+                valueRead();
+                return token = STRING;
+            default:
+                if (expectName) {
+                    throw error("Expected name");
+                }
+                return token = readLiteral();
+        }
+    }
+
+    /**
+     * Getter for current token.
+     *
+     * @return current token
+     */
+    public int getToken() {
+        return token;
+    }
+
+    /**
+     * Method for checking if current name is equal to given name, case is ignored.
+     *
+     * @param name
+     *         name
+     * @return true if current token is name equal to given name
+     */
+    public boolean nameEquals(String name) {
+        if (token != NAME) {
+            return false;
+        }
+        if (!escaped) {
+            int length = tokenEnd - tokenStart;
+            if (length != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                char a = text.charAt(tokenStart + i);
+                char b = name.charAt(i);
+                if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return getString().equalsIgnoreCase(name);
+    }
+
+    /**
+     * Method for getting current name or string value.
+     *
+     * @return string
+     */
+    public String getString() {
+        if (token != NAME && token != STRING && token != NUMBER && token != BOOLEAN) {
+            throw new IllegalStateException("Current token has no text");
+        }
+        if (!escaped) {
+            return text.subSequence(tokenStart, tokenEnd).toString();
+        }
+        StringBuilder value = new StringBuilder(tokenEnd - tokenStart);
+        for (int i = tokenStart; i < tokenEnd; ++i) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            c = text.charAt(++i);
+            switch (c) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    value.append((char) Integer.parseInt(text.subSequence(i + 1, i + 5).toString(), 16));
+                    i += 4;
+                    break;
+                default:
+                    value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Method for getting current number value as float.
+     *
+     * @return value
+     */
+    public float getFloat() {
+        if (token != NUMBER) {
+            throw new IllegalStateException("Current token is not number");
+        }
+        return Float.parseFloat(text.subSequence(tokenStart, tokenEnd).toString());
+    }
+
+    /**
+     * Method for getting current number value as long.
+     *
+     * @return value
+     * @throws NumberFormatException
+     *         if number isn't integer
+     */
+    public long getLong() {
+        if (token != NUMBER) {
+            throw new IllegalStateException("Current token is not number");
+        }
+        return Long.parseLong(text.subSequence(tokenStart, tokenEnd).toString());
+    }
+
+    /**
+     * Method for getting current boolean value.
+     *
+     * @return value
+     */
+    public boolean getBoolean() {
+        if (token != BOOLEAN) {
+            throw new IllegalStateException("Current token is not boolean");
+        }
+        return Character.toLowerCase(text.charAt(tokenStart)) == 't';
+    }
+
+    /**
+     * Method for skipping current value. If current token is start of object or array, everything to its end is
+     * skipped. If current token is name, its value is skipped.
+     */
+    public void skipValue() {
+        if (token == NAME) {
+            next();
+        }
+        if (token == BEGIN_OBJECT || token == BEGIN_ARRAY) {
+            int level = depth;
+            while (depth >= level) {
+                next();
+            }
+        }
+    }
+
+    /**
+     * Method for moving to next token which must be of given type.
+     *
+     * @param expected
+     *         expected token
+     * @throws IllegalArgumentException
+     *         if next token is of other type
+     */
+    public void expect(int expected) {
+        if (next() != expected) {
+            throw error("Unexpected token " + token);
+        }
+    }
+
+    /**
+     * Method for skipping whitespace and comma between elements.
+     */
+    private void skipWhitespaceAndSeparators() {
+        skipWhitespace();
+        if (position < text.length() && text.charAt(position) == ',') {
+            position++;
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * Method for skipping whitespace.
+     */
+    private void skipWhitespace() {
+        while (position < text.length() && text.charAt(position) <= ' ') {
+            position++;
+        }
+    }
+
+    /**
+     * Method for going one level deeper.
+     *
+     * @param object
+     *         true for object, false for array
+     */
+    private void push(boolean object) {
+        depth++;
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, 2 * depth);
+        }
+        objects[depth] = object;
+        expectName = object;
+    }
+
+    /**
+     * Method for updating state after value is read.
+     */
+    private void valueRead() {
+        expectName = depth > 0 && objects[depth];
+    }
+
+    /**
+     * Method for reading string token, content is between {@link #tokenStart} and {@link #tokenEnd}.
+     */
+    private void readString() {
+        int i = position + 1;
+        escaped = false;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                tokenStart = position + 1;
+                tokenEnd = i;
+                position = i + 1;
+                return;
+            }
+            if (c == '\\') {
+                escaped = true;
+                i++;
+            }
+            i++;
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Method for reading number, boolean or null.
+     *
+     * @return token
+     */
+    private int readLiteral() {
+        int start = position;
+        int length = text.length();
+        while (position < length) {
+            char c = text.charAt(position);
+            if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                break;
+            }
+            position++;
+        }
+        if (start == position) {
+            throw error("Expected value");
+        }
+        tokenStart = start;
+        tokenEnd = position;
+        escaped = false;
+        valueRead();
+        if (regionEquals("true") || regionEquals("false")) {
+            return BOOLEAN;
+        }
+        if (regionEquals("null")) {
+            return NULL;
+        }
+        char first = text.charAt(start);
+        if (first != '-' && (first < '0' || first > '9')) {
+            throw error("Unexpected value");
+        }
+        return NUMBER;
+    }
+
+    /**
+     * Method for checking if current token content is equal to given literal, case is ignored.
+     *
+     * @param literal
+     *         literal
+     * @return true if token is equal to literal
+     */
+    private boolean regionEquals(String literal) {
+        if (tokenEnd - tokenStart != literal.length()) {
+            return false;
+        }
+        for (int i = 0; i < literal.length(); ++i) {
+            if (Character.toLowerCase(text.charAt(tokenStart + i)) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method for creating exception with position of error.
+     *
+     * @param message
+     *         error message
+     * @return exception
+     */
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
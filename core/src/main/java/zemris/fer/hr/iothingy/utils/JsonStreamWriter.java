@@ -0,0 +1,245 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer which appends tokens directly into given {@link StringBuilder}, without building tree of
+ * objects first. Writer only takes care of commas and string escaping, caller is responsible for writing names and
+ * values in valid order. One instance can be reused for many documents by calling {@link #reset(StringBuilder)}.
+ */
+public class JsonStreamWriter {
+
+    /** Hexadecimal digits for escaping control characters. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Destination of JSON text. */
+    private StringBuilder out;
+    /** For every nesting level, flag which tells if next element needs comma before itself. */
+    private boolean[] needsComma = new boolean[8];
+    /** Current nesting level. */
+    private int depth;
+    /** Flag which tells if last written token was name, so value doesn't need comma. */
+    private boolean afterName;
+
+    /**
+     * Constructor.
+     *
+     * @param out
+     *         destination of JSON text
+     */
+    public JsonStreamWriter(StringBuilder out) {
+        reset(out);
+    }
+
+    /**
+     * Method for starting new document.
+     *
+     * @param out
+     *         destination of JSON text
+     * @return this writer
+     */
+    public JsonStreamWriter reset(StringBuilder out) {
+        this.out = out;
+        depth = 0;
+        needsComma[0] = false;
+        afterName = false;
+        return this;
+    }
+
+    /**
+     * Method for writing start of object.
+     *
+     * @return this writer
+     */
+    public JsonStreamWriter beginObject() {
+        return open('{');
+    }
+
+    /**
+     * Method for writing end of object.
+     *
+     * @return this writer
+     */
+    public JsonStreamWriter endObject() {
+        return close('}');
+    }
+
+    /**
+     * Method for writing start of array.
+     *
+     * @return this writer
+     */
+    public JsonStreamWriter beginArray() {
+        return open('[');
+    }
+
+    /**
+     * Method for writing end of array.
+     *
+     * @return this writer
+     */
+    public JsonStreamWriter endArray() {
+        return close(']');
+    }
+
+    /**
+     * Method for writing name of object member.
+     *
+     * @param name
+     *         name
+     * @return this writer
+     */
+    public JsonStreamWriter name(CharSequence name) {
+        separator();
+        writeString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Method for writing string value.
+     *
+     * @param value
+     *         value, null is written as JSON null
+     * @return this writer
+     */
+    public JsonStreamWriter value(CharSequence value) {
+        separator();
+        if (value == null) {
+            out.append("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Method for writing float value. Value is written in the shortest form which is parsed back to the same float.
+     *
+     * @param value
+     *         value
+     * @return this writer
+     * @throws IllegalArgumentException
+     *         if value is NaN or infinite, JSON doesn't allow them
+     */
+    public JsonStreamWriter value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON doesn't allow " + value);
+        }
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Method for writing integer value.
+     *
+     * @param value
+     *         value
+     * @return this writer
+     */
+    public JsonStreamWriter value(long value) {
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Method for writing boolean value.
+     *
+     * @param value
+     *         value
+     * @return this writer
+     */
+    public JsonStreamWriter value(boolean value) {
+        separator();
+        out.append(value);
+        return this;
+    }
+
+    /**
+     * Method for opening object or array.
+     *
+     * @param bracket
+     *         opening bracket
+     * @return this writer
+     */
+    private JsonStreamWriter open(char bracket) {
+        separator();
+        out.append(bracket);
+        depth++;
+        if (depth == needsComma.length) {
+            needsComma = Arrays.copyOf(needsComma, 2 * depth);
+        }
+        needsComma[depth] = false;
+        return this;
+    }
+
+    /**
+     * Method for closing object or array.
+     *
+     * @param bracket
+     *         closing bracket
+     * @return this writer
+     */
+    private JsonStreamWriter close(char bracket) {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        depth--;
+        out.append(bracket);
+        return this;
+    }
+
+    /**
+     * Method for writing comma before element if it isn't first element in its object or array.
+     */
+    private void separator() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (needsComma[depth]) {
+            out.append(',');
+        }
+        needsComma[depth] = true;
+    }
+
+    /**
+     * Method for writing quoted and escaped string.
+     *
+     * @param value
+     *         string
+     */
+    private void writeString(CharSequence value) {
+        out.append('"');
+        for (int i = 0, len = value.length(); i < len; ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
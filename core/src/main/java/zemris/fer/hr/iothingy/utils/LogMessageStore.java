@@ -0,0 +1,51 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inbox of received messages which is kept in {@link MessageLog}. Messages are stored in format returned by {@link
+ * ReceivedServerMessage#storeMsgFormat()} under their keys.
+ */
+public class LogMessageStore implements MessageStore {
+
+    /** Log in which messages are kept. */
+    private final MessageLog log;
+
+    /**
+     * Constructor.
+     *
+     * @param log
+     *         log in which messages are kept
+     */
+    public LogMessageStore(MessageLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void add(ReceivedServerMessage message) throws IOException {
+        log.append(message.getStoreKey(), message.storeMsgFormat());
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        return log.remove(key);
+    }
+
+    @Override
+    public ReceivedServerMessage get(String key) throws IOException {
+        String storeMsg = log.get(key);
+        return storeMsg == null ? null : ReceivedServerMessage.parseStoreMsg(storeMsg);
+    }
+
+    @Override
+    public List<ReceivedServerMessage> getAll() throws IOException {
+        List<String> records = log.records();
+        List<ReceivedServerMessage> messages = new ArrayList<>(records.size());
+        for (String storeMsg : records) {
+            messages.add(ReceivedServerMessage.parseStoreMsg(storeMsg));
+        }
+        return messages;
+    }
+}
@@ -1,7 +1,7 @@
 package zemris.fer.hr.iothingy.utils;
 
-import java.util.Locale;
-import java.util.Random;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class which represents message. There are messages that are send to someone and which are received and they both have
@@ -28,12 +28,10 @@ public class Message {
     protected String sendMode;
     /** Encryption. */
     protected String encryption;
-    /** Generator for message ID. */
-    private static final Random random = new Random();
 
     /**
-     * Constructor. If message ID is null, it will be randomly created, if previous message id is null, it will be
-     * 00000000.
+     * Constructor. If message ID is null, it will be issued by {@link MessageIdGenerator} of source thing, if previous
+     * message id is null, it will be 00000000.
      *
      * @param messageID
      *         message ID
@@ -57,7 +55,7 @@ public class Message {
         if (messageID != null) {
             this.messageID = messageID;
         } else {
-            this.messageID = String.format(Locale.getDefault(), "%08d", random.nextInt(79999999) + 1);
+            this.messageID = MessageIdGenerator.forDevice(srcID == null ? "" : srcID).nextId();
         }
         this.srcID = srcID;
         this.destID = destID;
@@ -74,8 +72,8 @@ public class Message {
     }
 
     /**
-     * Constructor. If message ID is null, it will be randomly created, if previous message id is null, it will be
-     * 00000000.
+     * Constructor. If message ID is null, it will be issued by {@link MessageIdGenerator} of source thing, if previous
+     * message id is null, it will be 00000000.
      *
      * @param messageID
      *         message ID
@@ -102,35 +100,48 @@ public class Message {
 
     /**
      * Method for getting message in format which will be used to send to some other device. That message is in
-     * following format: --encryptionType messageID srcID destID preMsgID jsonDATA--
+     * following format: --encryptionType messageID srcID destID preMsgID jsonDATA--, everything after encryption type
+     * is protected as described in {@link MessageCrypto}.
      *
      * @return message string in proper format
      */
     public String getComSendMessage() {
-        String sendMsg = encryptMessage();
-        char encryptType = '0';
-        switch (encryption.toUpperCase()) {
-            case "FULL":
-                encryptType = '1';
-                break;
-        }
-        return encryptType + sendMsg;
+        char type = getEncryptionType();
+        return type + MessageCrypto.protect(messageID + srcID + destID + previousMessageID + jsonData, type, destIP,
+                destPort);
     }
 
     /**
-     * Method for encrypting message. Encryption types are NONE, FULL, HMAC.
+     * Method for encoding message in binary format into given buffer. Format is described in {@link
+     * BinaryMessageCodec}, frame is protected in place as described in {@link MessageCrypto}.
      *
-     * @return encrypted message
+     * @param out
+     *         buffer into which message is written
+     * @return number of written bytes
+     * @throws BufferOverflowException
+     *         if there is not enough space in buffer, in that case buffer position is not changed
      */
-    private String encryptMessage() {
-        switch (encryption.toUpperCase()) {
-            case "NONE":
-                return messageID + srcID + destID + previousMessageID + jsonData;
-            default:
-                return messageID + srcID + destID + previousMessageID + jsonData;
+    public int encodeBinary(ByteBuffer out) {
+        char type = getEncryptionType();
+        int start = out.position();
+        BinaryMessageCodec.encode(this, (byte) type, out);
+        try {
+            return MessageCrypto.seal(out, start, destIP, destPort);
+        } catch (BufferOverflowException e) {
+            out.position(start);
+            throw e;
         }
     }
 
+    /**
+     * Method for getting character which is used in communication to tell which encryption message uses.
+     *
+     * @return encryption type character
+     */
+    private char getEncryptionType() {
+        return MessageCrypto.typeOf(encryption);
+    }
+
     /**
      * Getter for previous message ID.
      *
@@ -0,0 +1,698 @@
+package zemris.fer.hr.iothingy.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Protection of messages with encryption types NONE, FULL and HMAC. HMAC appends HMAC-SHA256 tag of whole message and
+ * FULL encrypts message with AES-GCM. There is no default master secret, so HMAC and FULL can be used only after
+ * secret is set with {@link #setMasterSecret(byte[])}.
+ * <p>
+ * Keys are derived with HKDF-SHA256 from master secret, address of server and source ID of message, so every thing
+ * has its own keys even if all things share the same secret. Keys are derived once per source and server, there is no
+ * key derivation per message. Every thread keeps its own {@link Mac} and {@link Cipher} for every key: {@code Mac} is
+ * initialized only once, {@code Cipher} is only given new nonce. Nonces are 96 random bits, so they don't depend on
+ * state which could be lost or shared by processes.
+ * <p>
+ * In text format, encryption type character is followed by
+ * <ul>
+ * <li>NONE: message</li>
+ * <li>HMAC: message and Base64 of tag over type character and message</li>
+ * <li>FULL: source ID and Base64 of nonce, cipher text and GCM tag, type character and source ID are authenticated
+ * data. Source ID is sent in clear because receiver needs it to find the key.</li>
+ * </ul>
+ * In binary format ({@link BinaryMessageCodec}), frame is protected in place and length in header is increased. HMAC
+ * tag over header, IDs and JSON data is appended after frame. FULL encrypts JSON data in place with header and IDs as
+ * authenticated data, and GCM tag and nonce are appended after it. IDs stay in clear, so receiver finds the key by
+ * source ID without copying the frame.
+ */
+public class MessageCrypto {
+
+    /** Encryption type character of NONE. */
+    public static final char TYPE_NONE = '0';
+    /** Encryption type character of FULL. */
+    public static final char TYPE_FULL = '1';
+    /** Encryption type character of HMAC. */
+    public static final char TYPE_HMAC = '2';
+    /** Length of GCM nonce in bytes. */
+    public static final int NONCE_LENGTH = 12;
+    /** Length of GCM tag in bytes. */
+    public static final int GCM_TAG_LENGTH = 16;
+    /** Length of HMAC-SHA256 tag in bytes. */
+    public static final int HMAC_LENGTH = 32;
+    /** Length of source ID, see {@link Message}. */
+    private static final int ID_LENGTH = 8;
+    /** Position of source ID in message without type character. */
+    private static final int SRC_ID_START = 8;
+    /** Base64 alphabet. */
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    /** Flag which tells if platform has {@link GCMParameterSpec}, older Android versions don't have it. */
+    private static final boolean HAS_GCM_SPEC = hasGcmParameterSpec();
+    /** Generator of nonces. */
+    private static final SecureRandom random = new SecureRandom();
+
+    /** Master secret from which session keys are derived, null if it isn't set. */
+    private static byte[] masterSecret;
+    /** Session keys by source ID and server address. */
+    private static final ConcurrentMap<String, SessionKey> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor, there is no need for instances of this class.
+     */
+    private MessageCrypto() {
+    }
+
+    /**
+     * Method for setting master secret from which session keys are derived. Session keys are derived again only if
+     * secret is changed.
+     *
+     * @param secret
+     *         master secret, null or empty to remove secret, after which HMAC and FULL can't be used
+     */
+    public static synchronized void setMasterSecret(byte[] secret) {
+        if (secret != null && secret.length == 0) {
+            secret = null;
+        }
+        if (!Arrays.equals(masterSecret, secret)) {
+            masterSecret = secret == null ? null : secret.clone();
+            sessions.clear();
+        }
+    }
+
+    /**
+     * Method for checking if master secret is set, which is needed for HMAC and FULL.
+     *
+     * @return true if secret is set
+     */
+    public static synchronized boolean hasMasterSecret() {
+        return masterSecret != null;
+    }
+
+    /**
+     * Method for getting encryption type character of given encryption.
+     *
+     * @param encryption
+     *         encryption name NONE, FULL or HMAC
+     * @return type character, {@link #TYPE_NONE} for unknown names
+     */
+    public static char typeOf(String encryption) {
+        switch (encryption.toUpperCase()) {
+            case "FULL":
+                return TYPE_FULL;
+            case "HMAC":
+                return TYPE_HMAC;
+            default:
+                return TYPE_NONE;
+        }
+    }
+
+    /**
+     * Method for getting encryption name of given type character, which is first character of every sent and received
+     * line.
+     *
+     * @param type
+     *         encryption type character
+     * @return encryption name NONE, FULL or HMAC, NONE for unknown characters
+     */
+    public static String nameOf(char type) {
+        switch (type) {
+            case TYPE_FULL:
+                return "FULL";
+            case TYPE_HMAC:
+                return "HMAC";
+            default:
+                return "NONE";
+        }
+    }
+
+    /**
+     * Method for getting number of bytes which protection adds to binary frame.
+     *
+     * @param type
+     *         encryption type character
+     * @return number of added bytes
+     */
+    public static int overhead(char type) {
+        switch (type) {
+            case TYPE_FULL:
+                return GCM_TAG_LENGTH + NONCE_LENGTH;
+            case TYPE_HMAC:
+                return HMAC_LENGTH;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Method for protecting message in text format.
+     *
+     * @param message
+     *         message without type character
+     * @param type
+     *         encryption type character
+     * @param destIP
+     *         IP address of other side
+     * @param destPort
+     *         port of other side
+     * @return protected message without type character
+     * @throws IllegalStateException
+     *         if message has to be protected and master secret isn't set
+     */
+    public static String protect(String message, char type, String destIP, int destPort) {
+        if (type != TYPE_FULL && type != TYPE_HMAC) {
+            return message;
+        }
+        if (message.length() < SRC_ID_START + ID_LENGTH) {
+            throw new IllegalArgumentException("Message is too short");
+        }
+        String srcID = message.substring(SRC_ID_START, SRC_ID_START + ID_LENGTH);
+        SessionKey key = session(srcID, destIP, destPort);
+        byte[] plain = utf8(message);
+        try {
+            if (type == TYPE_HMAC) {
+                Mac mac = key.mac();
+                mac.update((byte) type);
+                return message + base64(mac.doFinal(plain));
+            }
+            byte[] out = new byte[NONCE_LENGTH + plain.length + GCM_TAG_LENGTH];
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            System.arraycopy(nonce, 0, out, 0, NONCE_LENGTH);
+            Cipher cipher = key.cipher(Cipher.ENCRYPT_MODE, out, 0);
+            cipher.updateAAD(associatedData(type, srcID));
+            cipher.doFinal(plain, 0, plain.length, out, NONCE_LENGTH);
+            return srcID + base64(out);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method for checking and decrypting message in text format.
+     *
+     * @param message
+     *         protected message without type character
+     * @param type
+     *         encryption type character
+     * @param destIP
+     *         IP address of other side
+     * @param destPort
+     *         port of other side
+     * @return message without type character
+     * @throws IllegalArgumentException
+     *         if message isn't valid or it was changed
+     * @throws IllegalStateException
+     *         if message is protected and master secret isn't set
+     */
+    public static String unprotect(String message, char type, String destIP, int destPort) {
+        if (type != TYPE_FULL && type != TYPE_HMAC) {
+            return message;
+        }
+        try {
+            if (type == TYPE_HMAC) {
+                int tagLength = (HMAC_LENGTH + 2) / 3 * 4;
+                if (message.length() < SRC_ID_START + ID_LENGTH + tagLength) {
+                    throw new IllegalArgumentException("Message is too short");
+                }
+                String plain = message.substring(0, message.length() - tagLength);
+                SessionKey key = session(plain.substring(SRC_ID_START, SRC_ID_START + ID_LENGTH), destIP, destPort);
+                Mac mac = key.mac();
+                mac.update((byte) type);
+                byte[] expected = mac.doFinal(utf8(plain));
+                if (!constantTimeEquals(expected, unbase64(message.substring(plain.length())))) {
+                    throw new IllegalArgumentException("Invalid message tag");
+                }
+                return plain;
+            }
+            if (message.length() < ID_LENGTH) {
+                throw new IllegalArgumentException("Message is too short");
+            }
+            String srcID = message.substring(0, ID_LENGTH);
+            byte[] in = unbase64(message.substring(ID_LENGTH));
+            if (in.length < NONCE_LENGTH + GCM_TAG_LENGTH) {
+                throw new IllegalArgumentException("Message is too short");
+            }
+            SessionKey key = session(srcID, destIP, destPort);
+            Cipher cipher = key.cipher(Cipher.DECRYPT_MODE, in, 0);
+            cipher.updateAAD(associatedData(type, srcID));
+            String plain = new String(cipher.doFinal(in, NONCE_LENGTH, in.length - NONCE_LENGTH), "UTF-8");
+            if (!plain.startsWith(srcID, SRC_ID_START)) {
+                throw new IllegalArgumentException("Source ID doesn't match message");
+            }
+            return plain;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid message", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method for protecting binary frame in place. Frame must start at given position and end at buffer position.
+     * Buffer position is moved after protected frame.
+     *
+     * @param buffer
+     *         buffer with frame
+     * @param start
+     *         position of frame
+     * @param destIP
+     *         IP address of other side
+     * @param destPort
+     *         port of other side
+     * @return length of protected frame
+     * @throws BufferOverflowException
+     *         if there is not enough space after frame
+     * @throws IllegalStateException
+     *         if frame has to be protected and master secret isn't set
+     */
+    public static int seal(ByteBuffer buffer, int start, String destIP, int destPort) {
+        char type = (char) buffer.get(start);
+        int plainLength = buffer.position() - start;
+        int overhead = overhead(type);
+        if (overhead == 0) {
+            return plainLength;
+        }
+        if (buffer.remaining() < overhead) {
+            throw new BufferOverflowException();
+        }
+        SessionKey key = session(frameSrcID(buffer, start), destIP, destPort);
+        int payloadStart = start + BinaryMessageCodec.PAYLOAD_OFFSET;
+        buffer.putInt(start + 2, plainLength + overhead - BinaryMessageCodec.HEADER_LENGTH);
+        try {
+            if (type == TYPE_HMAC) {
+                Mac mac = key.mac();
+                mac.update(slice(buffer, start, start + plainLength));
+                buffer.put(mac.doFinal());
+            } else {
+                byte[] nonce = new byte[NONCE_LENGTH];
+                random.nextBytes(nonce);
+                Cipher cipher = key.cipher(Cipher.ENCRYPT_MODE, nonce, 0);
+                cipher.updateAAD(slice(buffer, start, payloadStart));
+                ByteBuffer out = buffer.duplicate();
+                out.position(payloadStart);
+                cipher.doFinal(slice(buffer, payloadStart, start + plainLength), out);
+                buffer.position(out.position());
+                buffer.put(nonce);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return plainLength + overhead;
+    }
+
+    /**
+     * Method for checking and decrypting binary frame in place and decoding it. If buffer contains whole frame, frame
+     * is wrapped around decrypted bytes and buffer position is moved after protected frame.
+     *
+     * @param buffer
+     *         buffer with received bytes
+     * @param frame
+     *         frame which will be wrapped around decrypted bytes
+     * @param destIP
+     *         IP address of other side
+     * @param destPort
+     *         port of other side
+     * @return true if frame is decoded, false if buffer doesn't contain whole frame yet
+     * @throws IllegalArgumentException
+     *         if frame isn't valid or it was changed
+     * @throws IllegalStateException
+     *         if frame is protected and master secret isn't set
+     */
+    public static boolean open(ByteBuffer buffer, BinaryMessageCodec.Frame frame, String destIP, int destPort) {
+        if (buffer.remaining() < BinaryMessageCodec.HEADER_LENGTH) {
+            return false;
+        }
+        int start = buffer.position();
+        char type = (char) buffer.get(start);
+        int overhead = overhead(type);
+        if (overhead == 0) {
+            return BinaryMessageCodec.decode(buffer, frame);
+        }
+        if (buffer.get(start + 1) != BinaryMessageCodec.MODE_BINARY) {
+            throw new IllegalArgumentException("Not a binary frame");
+        }
+        int sealedLength = BinaryMessageCodec.HEADER_LENGTH + buffer.getInt(start + 2);
+        if (sealedLength < BinaryMessageCodec.PAYLOAD_OFFSET + overhead) {
+            throw new IllegalArgumentException("Illegal frame length " + sealedLength);
+        }
+        if (buffer.remaining() < sealedLength) {
+            return false;
+        }
+        SessionKey key = session(frameSrcID(buffer, start), destIP, destPort);
+        int plainLength = sealedLength - overhead;
+        int payloadStart = start + BinaryMessageCodec.PAYLOAD_OFFSET;
+        try {
+            if (type == TYPE_HMAC) {
+                Mac mac = key.mac();
+                mac.update(slice(buffer, start, start + plainLength));
+                byte[] tag = new byte[HMAC_LENGTH];
+                slice(buffer, start + plainLength, start + sealedLength).get(tag);
+                if (!constantTimeEquals(mac.doFinal(), tag)) {
+                    throw new IllegalArgumentException("Invalid frame tag");
+                }
+            } else {
+                byte[] nonce = new byte[NONCE_LENGTH];
+                slice(buffer, start + sealedLength - NONCE_LENGTH, start + sealedLength).get(nonce);
+                Cipher cipher = key.cipher(Cipher.DECRYPT_MODE, nonce, 0);
+                cipher.updateAAD(slice(buffer, start, payloadStart));
+                ByteBuffer out = buffer.duplicate();
+                out.position(payloadStart);
+                cipher.doFinal(slice(buffer, payloadStart, start + sealedLength - NONCE_LENGTH), out);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid frame", e);
+        }
+        //frame is decoded from checked bytes and buffer is moved after protected frame
+        ByteBuffer plain = buffer.duplicate();
+        plain.putInt(start + 2, plainLength - BinaryMessageCodec.HEADER_LENGTH);
+        plain.limit(start + plainLength);
+        BinaryMessageCodec.decode(plain, frame);
+        buffer.position(start + sealedLength);
+        return true;
+    }
+
+    /**
+     * Method for getting source ID of binary frame, which is in clear in every encryption type.
+     *
+     * @param buffer
+     *         buffer with frame
+     * @param start
+     *         position of frame
+     * @return source ID
+     */
+    private static String frameSrcID(ByteBuffer buffer, int start) {
+        char[] srcID = new char[BinaryMessageCodec.ID_LENGTH];
+        int offset = start + BinaryMessageCodec.HEADER_LENGTH
+                + BinaryMessageCodec.SRC_ID * BinaryMessageCodec.ID_LENGTH;
+        for (int i = 0; i < srcID.length; ++i) {
+            srcID[i] = (char) (buffer.get(offset + i) & 0xFF);
+        }
+        return new String(srcID);
+    }
+
+    /**
+     * Method for getting view of part of buffer. Position and limit of buffer are not changed.
+     *
+     * @param buffer
+     *         buffer
+     * @param from
+     *         index of first byte
+     * @param to
+     *         index after last byte
+     * @return view which shares bytes with buffer
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(to);
+        view.position(from);
+        return view;
+    }
+
+    /**
+     * Method for getting session key of source for server. Key is derived only the first time it is needed.
+     *
+     * @param srcID
+     *         source ID of message
+     * @param destIP
+     *         IP address of server
+     * @param destPort
+     *         port of server
+     * @return session key
+     * @throws IllegalStateException
+     *         if master secret isn't set
+     */
+    static SessionKey session(String srcID, String destIP, int destPort) {
+        String address = destIP + ":" + destPort;
+        String id = srcID + "@" + address;
+        SessionKey key = sessions.get(id);
+        if (key == null) {
+            byte[] secret;
+            synchronized (MessageCrypto.class) {
+                secret = masterSecret;
+            }
+            if (secret == null) {
+                throw new IllegalStateException("No shared secret is set for HMAC and FULL encryption");
+            }
+            key = new SessionKey(secret, address, srcID);
+            SessionKey existing = sessions.putIfAbsent(id, key);
+            key = existing == null ? key : existing;
+        }
+        return key;
+    }
+
+    /**
+     * Method for getting authenticated data of FULL message.
+     *
+     * @param type
+     *         encryption type character
+     * @param srcID
+     *         source ID which is sent in clear
+     * @return authenticated data
+     */
+    private static byte[] associatedData(char type, String srcID) {
+        return utf8(type + srcID);
+    }
+
+    /**
+     * Method for comparing tags in time which doesn't depend on position of first difference.
+     *
+     * @param a
+     *         first tag
+     * @param b
+     *         second tag
+     * @return true if tags are equal
+     */
+    private static boolean constantTimeEquals(byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < a.length; ++i) {
+            difference |= a[i] ^ b[i];
+        }
+        return difference == 0;
+    }
+
+    /**
+     * Method for encoding bytes in Base64 with padding.
+     *
+     * @param data
+     *         bytes
+     * @return Base64 text
+     */
+    static String base64(byte[] data) {
+        StringBuilder text = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xFF;
+            }
+            text.append(BASE64[b >> 18 & 0x3F]).append(BASE64[b >> 12 & 0x3F]);
+            text.append(i + 1 < data.length ? BASE64[b >> 6 & 0x3F] : '=');
+            text.append(i + 2 < data.length ? BASE64[b & 0x3F] : '=');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Method for decoding Base64 text with padding.
+     *
+     * @param text
+     *         Base64 text
+     * @return bytes
+     * @throws IllegalArgumentException
+     *         if text isn't valid Base64
+     */
+    static byte[] unbase64(String text) {
+        if (text.length() % 4 != 0) {
+            throw new IllegalArgumentException("Invalid Base64 length");
+        }
+        int padding = text.endsWith("==") ? 2 : text.endsWith("=") ? 1 : 0;
+        byte[] data = new byte[text.length() / 4 * 3 - padding];
+        int index = 0;
+        for (int i = 0; i < text.length(); i += 4) {
+            int b = 0;
+            for (int j = 0; j < 4; ++j) {
+                char c = text.charAt(i + j);
+                b <<= 6;
+                if (c != '=') {
+                    b |= base64Value(c);
+                }
+            }
+            for (int shift = 16; shift >= 0 && index < data.length; shift -= 8) {
+                data[index++] = (byte) (b >> shift);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Method for getting value of Base64 character.
+     *
+     * @param c
+     *         character
+     * @return value
+     */
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        }
+        throw new IllegalArgumentException("Invalid Base64 character " + c);
+    }
+
+    /**
+     * Method for encoding text as UTF-8.
+     *
+     * @param text
+     *         text
+     * @return UTF-8 bytes of text
+     */
+    private static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method for checking if platform has {@link GCMParameterSpec}. Without it GCM parameters are given as {@link
+     * IvParameterSpec}.
+     *
+     * @return true if class exists
+     */
+    private static boolean hasGcmParameterSpec() {
+        try {
+            Class.forName("javax.crypto.spec.GCMParameterSpec");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keys of one destination with {@link Mac} and {@link Cipher} of every thread.
+     */
+    static class SessionKey {
+        /** AES key for FULL encryption. */
+        private final SecretKeySpec aesKey;
+        /** HMAC key. */
+        private final SecretKeySpec hmacKey;
+        /** Initialized {@link Mac} of every thread. */
+        private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(hmacKey);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        /** {@link Cipher} of every thread. */
+        private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    return Cipher.getInstance("AES/GCM/NoPadding");
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        /**
+         * Constructor. Keys are derived with HKDF-SHA256, address of server is salt and source ID is part of info:
+         * first 16 bytes of output are AES key and next 32 bytes are HMAC key.
+         *
+         * @param secret
+         *         master secret
+         * @param address
+         *         address of server
+         * @param srcID
+         *         source ID of messages
+         */
+        SessionKey(byte[] secret, String address, String srcID) {
+            try {
+                Mac hkdf = Mac.getInstance("HmacSHA256");
+                hkdf.init(new SecretKeySpec(utf8(address), "HmacSHA256"));
+                byte[] prk = hkdf.doFinal(secret);
+                hkdf.init(new SecretKeySpec(prk, "HmacSHA256"));
+                byte[] info = utf8("IoThingy message keys " + srcID);
+                hkdf.update(info);
+                hkdf.update((byte) 1);
+                byte[] first = hkdf.doFinal();
+                hkdf.update(first);
+                hkdf.update(info);
+                hkdf.update((byte) 2);
+                byte[] second = hkdf.doFinal();
+                aesKey = new SecretKeySpec(first, 0, 16, "AES");
+                byte[] hmac = new byte[HMAC_LENGTH];
+                System.arraycopy(first, 16, hmac, 0, 16);
+                System.arraycopy(second, 0, hmac, 16, 16);
+                hmacKey = new SecretKeySpec(hmac, "HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Getter for {@link Mac} of current thread, it is already initialized with key.
+         *
+         * @return mac
+         */
+        Mac mac() {
+            Mac mac = macs.get();
+            mac.reset();
+            return mac;
+        }
+
+        /**
+         * Method for getting {@link Cipher} of current thread initialized with key and given nonce.
+         *
+         * @param mode
+         *         {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+         * @param nonce
+         *         array with nonce
+         * @param offset
+         *         position of nonce in array
+         * @return cipher
+         * @throws GeneralSecurityException
+         *         if cipher can't be initialized
+         */
+        Cipher cipher(int mode, byte[] nonce, int offset) throws GeneralSecurityException {
+            AlgorithmParameterSpec spec = HAS_GCM_SPEC
+                    ? new GCMParameterSpec(8 * GCM_TAG_LENGTH, nonce, offset, NONCE_LENGTH)
+                    : new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+            Cipher cipher = ciphers.get();
+            cipher.init(mode, aesKey, spec);
+            return cipher;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Generator of message IDs of one device. IDs have 8 decimal digits and they are issued in increasing order from
+ * 00000001 to 99999999 and then again from 00000001, ID 00000000 is never issued because it means that there is no
+ * previous message. Generator is thread safe and digits are written directly into given array or buffer, without
+ * {@link String#format(String, Object...)} or shared {@link java.util.Random}.
+ * <p>
+ * IDs are issued in blocks of {@link #BLOCK_SIZE}. If file is set with {@link #setSharedFile(File)}, every block is
+ * reserved in that file under file lock, so processes which share the file never issue the same ID and restarted
+ * process continues after blocks of previous process. Without file, blocks simply follow each other in process and
+ * starting point depends on device ID and current time, which is enough for process which is the only one issuing
+ * IDs, e.g. gateway.
+ */
+public class MessageIdGenerator {
+
+    /** Number of digits in ID. */
+    public static final int ID_LENGTH = 8;
+    /** Number of different IDs, including 00000000. */
+    static final int MODULUS = 100000000;
+    /** Number of IDs which are reserved at once. */
+    static final int BLOCK_SIZE = 1000;
+    /** Generators by device IDs. */
+    private static final ConcurrentMap<String, MessageIdGenerator> generators = new ConcurrentHashMap<>();
+    /** File in which blocks of IDs are reserved, null if blocks aren't shared with other processes. */
+    private static volatile File sharedFile;
+
+    /** Next ID which will be issued, 0 is skipped. */
+    private int next;
+    /** Number of IDs which are left in current block. */
+    private int remaining;
+    /** Starting point of first block if shared file is empty. */
+    private final int seed;
+
+    /**
+     * Constructor.
+     *
+     * @param previous
+     *         ID before first issued ID, from 0 to 99999999, it is also used as starting point if shared file is empty
+     */
+    MessageIdGenerator(int previous) {
+        if (previous < 0 || previous >= MODULUS) {
+            throw new IllegalArgumentException("Illegal ID " + previous);
+        }
+        seed = (previous + 1) % MODULUS;
+        next = seed;
+    }
+
+    /**
+     * Method for setting file in which processes of application reserve blocks of IDs. Generators which already
+     * exist start using file with their next block.
+     *
+     * @param file
+     *         file, null if IDs aren't shared with other processes
+     */
+    public static void setSharedFile(File file) {
+        sharedFile = file;
+    }
+
+    /**
+     * Method for getting generator of device with given ID. Every device has only one generator in process.
+     *
+     * @param deviceId
+     *         device ID
+     * @return generator
+     */
+    public static MessageIdGenerator forDevice(String deviceId) {
+        MessageIdGenerator generator = generators.get(deviceId);
+        if (generator == null) {
+            int hash = 0x811C9DC5;
+            for (int i = 0; i < deviceId.length(); ++i) {
+                hash = (hash ^ deviceId.charAt(i)) * 0x01000193;
+            }
+            long seconds = System.currentTimeMillis() / 1000;
+            generator = new MessageIdGenerator((int) (((hash & 0x7FFFFFFFL) + seconds) % MODULUS));
+            MessageIdGenerator existing = generators.putIfAbsent(deviceId, generator);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return generator;
+    }
+
+    /**
+     * Method for issuing next ID.
+     *
+     * @return ID, from 1 to 99999999
+     */
+    public synchronized int nextValue() {
+        while (true) {
+            if (remaining == 0) {
+                reserve();
+            }
+            int id = next;
+            next = next + 1 == MODULUS ? 0 : next + 1;
+            remaining--;
+            if (id != 0) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Method for reserving next block of IDs. If shared file can't be used, block follows previous block.
+     */
+    private void reserve() {
+        remaining = BLOCK_SIZE;
+        File file = sharedFile;
+        if (file == null) {
+            return;
+        }
+        //file lock is held by whole process, so generators of one process mustn't lock file at the same time
+        synchronized (MessageIdGenerator.class) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    try {
+                        int start = raf.length() >= 4 ? raf.readInt() : seed;
+                        if (start < 0 || start >= MODULUS) {
+                            start = seed;
+                        }
+                        raf.seek(0);
+                        raf.writeInt((start + BLOCK_SIZE) % MODULUS);
+                        next = start;
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                //IDs of this block are unique only in this process
+            }
+        }
+    }
+
+    /**
+     * Method for issuing next ID and writing its digits into array.
+     *
+     * @param out
+     *         array
+     * @param offset
+     *         position of first digit
+     * @return issued ID
+     */
+    public int next(char[] out, int offset) {
+        int id = nextValue();
+        format(id, out, offset);
+        return id;
+    }
+
+    /**
+     * Method for issuing next ID and writing its digits as ASCII bytes at buffer position.
+     *
+     * @param out
+     *         buffer
+     * @return issued ID
+     */
+    public int next(ByteBuffer out) {
+        int id = nextValue();
+        int value = id;
+        int position = out.position();
+        for (int i = ID_LENGTH - 1; i >= 0; --i) {
+            out.put(position + i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        out.position(position + ID_LENGTH);
+        return id;
+    }
+
+    /**
+     * Method for issuing next ID as string.
+     *
+     * @return issued ID
+     */
+    public String nextId() {
+        char[] digits = new char[ID_LENGTH];
+        next(digits, 0);
+        return new String(digits);
+    }
+
+    /**
+     * Method for writing 8 digits of ID into array.
+     *
+     * @param id
+     *         ID
+     * @param out
+     *         array
+     * @param offset
+     *         position of first digit
+     */
+    public static void format(int id, char[] out, int offset) {
+        for (int i = ID_LENGTH - 1; i >= 0; --i) {
+            out[offset + i] = (char) ('0' + id % 10);
+            id /= 10;
+        }
+    }
+
+    /**
+     * Method for parsing ID without creating objects.
+     *
+     * @param id
+     *         ID with 8 digits
+     * @return ID or -1 if given text isn't valid ID
+     */
+    public static int parse(CharSequence id) {
+        if (id == null || id.length() != ID_LENGTH) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < ID_LENGTH; ++i) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = 10 * value + c - '0';
+        }
+        return value;
+    }
+}
@@ -0,0 +1,499 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Append-only log of records which are identified by some ID (e.g. message ID). Every record is one line in file in
+ * format {@code +ID\tRECORD}, removed records are marked with line {@code -ID} (tombstone). In memory there is index
+ * which maps IDs of live records to their offsets in file, so adding and removing record costs one append and reading
+ * one record costs one seek. When there are more bytes of removed records than of live ones, log is compacted in
+ * background.
+ * <p>
+ * Log can be used from multiple processes. Every operation is done while holding lock on file with suffix {@code
+ * .lock} which also contains generation of log file. When some process compacts log, generation is increased, so
+ * other processes know that they need to reload index. Otherwise they only read records which are appended after last
+ * operation.
+ */
+public class MessageLog {
+
+    /** Marker for added record. */
+    private static final byte ADD = '+';
+    /** Marker for removed record. */
+    private static final byte REMOVE = '-';
+    /** Separator between ID and record. */
+    private static final byte SEPARATOR = '\t';
+    /** Record terminator. */
+    private static final byte END = '\n';
+    /** Minimal number of bytes of removed records for compaction. */
+    private static final long COMPACT_MIN_DEAD = 64 * 1024;
+    /** Executor for background compaction, shared by all logs. */
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "message-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Log file. */
+    private final File file;
+    /** Lock file, it also contains generation of log file. */
+    private final RandomAccessFile lockFile;
+    /** Opened log file. */
+    private RandomAccessFile log;
+    /** Generation of opened log file. */
+    private long generation = -1;
+    /** Offset to which log file is indexed. */
+    private long indexedEnd;
+    /** Index of live records in order in which they are added. */
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>();
+    /** Number of bytes used by live records. */
+    private long liveBytes;
+    /** Number of bytes used by removed records and tombstones. */
+    private long deadBytes;
+    /** Flag which tells if compaction is already scheduled. */
+    private boolean compactionScheduled;
+    /** Buffer used for reading lines. */
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+
+    /**
+     * Constructor which opens log in given file. If file doesn't exist it will be created.
+     *
+     * @param file
+     *         log file
+     * @throws IOException
+     *         if log can't be opened
+     */
+    public MessageLog(File file) throws IOException {
+        this.file = file;
+        lockFile = new RandomAccessFile(new File(file.getPath() + ".lock"), "rw");
+    }
+
+    /**
+     * Method for adding record. If there is already record with the same ID it will be replaced.
+     *
+     * @param id
+     *         record ID, it can't contain tabs or new lines
+     * @param record
+     *         record, it can't contain new lines
+     * @throws IOException
+     *         if record can't be written
+     */
+    public synchronized void append(String id, String record) throws IOException {
+        if (id.indexOf(SEPARATOR) >= 0 || id.indexOf(END) >= 0 || record.indexOf(END) >= 0) {
+            throw new IllegalArgumentException("Illegal record format");
+        }
+        byte[] idBytes = id.getBytes("UTF-8");
+        byte[] recordBytes = record.getBytes("UTF-8");
+        ByteBuffer line = ByteBuffer.allocate(idBytes.length + recordBytes.length + 3);
+        line.put(ADD).put(idBytes).put(SEPARATOR).put(recordBytes).put(END);
+        FileLock lock = lock();
+        try {
+            long offset = indexedEnd;
+            write(line.array());
+            removeFromIndex(id);
+            index.put(id, new Entry(offset, line.capacity()));
+            liveBytes += line.capacity();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Method for removing record.
+     *
+     * @param id
+     *         record ID
+     * @return true if record existed, otherwise false
+     * @throws IOException
+     *         if tombstone can't be written
+     */
+    public synchronized boolean remove(String id) throws IOException {
+        FileLock lock = lock();
+        try {
+            if (!index.containsKey(id)) {
+                return false;
+            }
+            byte[] idBytes = id.getBytes("UTF-8");
+            ByteBuffer line = ByteBuffer.allocate(idBytes.length + 2);
+            line.put(REMOVE).put(idBytes).put(END);
+            write(line.array());
+            removeFromIndex(id);
+            deadBytes += line.capacity();
+        } finally {
+            lock.release();
+        }
+        scheduleCompaction();
+        return true;
+    }
+
+    /**
+     * Method for getting one record.
+     *
+     * @param id
+     *         record ID
+     * @return record or null if there is no such record
+     * @throws IOException
+     *         if record can't be read
+     */
+    public synchronized String get(String id) throws IOException {
+        FileLock lock = lock();
+        try {
+            Entry entry = index.get(id);
+            if (entry == null) {
+                return null;
+            }
+            byte[] line = new byte[entry.length];
+            log.seek(entry.offset);
+            log.readFully(line);
+            int start = id.getBytes("UTF-8").length + 2;
+            return new String(line, start, line.length - start - 1, "UTF-8");
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Method for getting all records in order in which they are added.
+     *
+     * @return list of records
+     * @throws IOException
+     *         if records can't be read
+     */
+    public synchronized List<String> records() throws IOException {
+        FileLock lock = lock();
+        try {
+            List<String> records = new ArrayList<>(index.size());
+            if (index.isEmpty()) {
+                return records;
+            }
+            //offsets in index are increasing, so all records can be read in one pass
+            log.seek(0);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(log.getChannel()), 64 * 1024);
+            long position = 0;
+            for (Map.Entry<String, Entry> mapEntry : index.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                while (position < entry.offset) {
+                    long skipped = in.skip(entry.offset - position);
+                    if (skipped <= 0) {
+                        throw new IOException("Unexpected end of log");
+                    }
+                    position += skipped;
+                }
+                byte[] line = new byte[entry.length];
+                int read = 0;
+                while (read < line.length) {
+                    int n = in.read(line, read, line.length - read);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of log");
+                    }
+                    read += n;
+                }
+                position += line.length;
+                int start = mapEntry.getKey().getBytes("UTF-8").length + 2;
+                records.add(new String(line, start, line.length - start - 1, "UTF-8"));
+            }
+            return records;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Method for getting number of live records.
+     *
+     * @return number of records
+     * @throws IOException
+     *         if log can't be read
+     */
+    public synchronized int size() throws IOException {
+        FileLock lock = lock();
+        try {
+            return index.size();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Method for rewriting log so that it contains only live records. New log is written into temporary file which
+     * then replaces current one.
+     *
+     * @throws IOException
+     *         if log can't be compacted
+     */
+    public synchronized void compact() throws IOException {
+        FileLock lock = lock();
+        try {
+            compactionScheduled = false;
+            if (deadBytes == 0) {
+                return;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            RandomAccessFile newLog = new RandomAccessFile(tmp, "rw");
+            LinkedHashMap<String, Entry> newIndex = new LinkedHashMap<>();
+            try {
+                newLog.setLength(0);
+                long offset = 0;
+                for (Map.Entry<String, Entry> mapEntry : index.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    byte[] line = new byte[entry.length];
+                    log.seek(entry.offset);
+                    log.readFully(line);
+                    newLog.write(line);
+                    newIndex.put(mapEntry.getKey(), new Entry(offset, entry.length));
+                    offset += entry.length;
+                }
+                newLog.getFD().sync();
+            } catch (IOException e) {
+                newLog.close();
+                tmp.delete();
+                throw e;
+            }
+            //new generation is written first, so if process dies before file is replaced, other processes open
+            //the file again instead of appending to the old one after it is unlinked
+            lockFile.seek(0);
+            lockFile.writeLong(generation + 1);
+            if (!tmp.renameTo(file)) {
+                newLog.close();
+                tmp.delete();
+                throw new IOException("Can't replace log file");
+            }
+            log.close();
+            log = newLog;
+            index.clear();
+            index.putAll(newIndex);
+            indexedEnd = log.length();
+            deadBytes = 0;
+            generation++;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Method for closing log.
+     */
+    public synchronized void close() {
+        try {
+            if (log != null) {
+                log.close();
+            }
+            lockFile.close();
+        } catch (IOException e) {
+            //ignore
+        }
+    }
+
+    /**
+     * Getter for number of bytes used by live records.
+     *
+     * @return number of bytes
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Getter for number of bytes used by removed records and tombstones.
+     *
+     * @return number of bytes
+     */
+    public synchronized long getDeadBytes() {
+        return deadBytes;
+    }
+
+    /**
+     * Method for taking file lock and synchronizing index with log file. If other process compacted log, log is opened
+     * again and whole index is rebuilt, otherwise only records appended by other processes are indexed.
+     *
+     * @return taken lock
+     * @throws IOException
+     *         if log can't be read
+     */
+    private FileLock lock() throws IOException {
+        FileLock lock = lockFile.getChannel().lock();
+        try {
+            long currentGeneration = lockFile.length() < 8 ? 0 : readGeneration();
+            if (log == null || currentGeneration != generation) {
+                if (log != null) {
+                    log.close();
+                }
+                log = new RandomAccessFile(file, "rw");
+                generation = currentGeneration;
+                index.clear();
+                indexedEnd = liveBytes = deadBytes = 0;
+            }
+            if (log.length() != indexedEnd) {
+                scan();
+            }
+        } catch (IOException e) {
+            lock.release();
+            throw e;
+        }
+        return lock;
+    }
+
+    /**
+     * Method for reading generation from lock file.
+     *
+     * @return generation of log file
+     * @throws IOException
+     *         if generation can't be read
+     */
+    private long readGeneration() throws IOException {
+        lockFile.seek(0);
+        return lockFile.readLong();
+    }
+
+    /**
+     * Method for indexing records from {@link #indexedEnd} to the end of file. Unfinished line at the end (left by
+     * process which crashed while writing) is truncated.
+     *
+     * @throws IOException
+     *         if log can't be read
+     */
+    private void scan() throws IOException {
+        FileChannel channel = log.getChannel();
+        channel.position(indexedEnd);
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+        long offset = indexedEnd;
+        int b;
+        lineBuffer.reset();
+        while ((b = in.read()) >= 0) {
+            if (b != END) {
+                lineBuffer.write(b);
+                continue;
+            }
+            int length = lineBuffer.size() + 1;
+            indexLine(lineBuffer.toByteArray(), offset, length);
+            offset += length;
+            lineBuffer.reset();
+        }
+        if (lineBuffer.size() > 0) {
+            log.setLength(offset);
+        }
+        indexedEnd = offset;
+    }
+
+    /**
+     * Method for adding one line of log file into index.
+     *
+     * @param line
+     *         line without terminator
+     * @param offset
+     *         offset of line in file
+     * @param length
+     *         length of line with terminator
+     * @throws IOException
+     *         if line has invalid encoding
+     */
+    private void indexLine(byte[] line, long offset, int length) throws IOException {
+        if (line.length == 0) {
+            deadBytes += length;
+            return;
+        }
+        if (line[0] == ADD) {
+            int separator = 1;
+            while (separator < line.length && line[separator] != SEPARATOR) {
+                separator++;
+            }
+            String id = new String(line, 1, separator - 1, "UTF-8");
+            removeFromIndex(id);
+            index.put(id, new Entry(offset, length));
+            liveBytes += length;
+        } else {
+            String id = new String(line, 1, line.length - 1, "UTF-8");
+            removeFromIndex(id);
+            deadBytes += length;
+        }
+    }
+
+    /**
+     * Method for removing ID from index, record for that ID becomes dead.
+     *
+     * @param id
+     *         record ID
+     */
+    private void removeFromIndex(String id) {
+        Entry old = index.remove(id);
+        if (old != null) {
+            liveBytes -= old.length;
+            deadBytes += old.length;
+        }
+    }
+
+    /**
+     * Method for appending bytes at the end of log file.
+     *
+     * @param bytes
+     *         bytes for writing
+     * @throws IOException
+     *         if bytes can't be written
+     */
+    private void write(byte[] bytes) throws IOException {
+        log.seek(indexedEnd);
+        log.write(bytes);
+        indexedEnd += bytes.length;
+    }
+
+    /**
+     * Method for scheduling compaction if there are enough removed records.
+     */
+    private void scheduleCompaction() {
+        if (compactionScheduled || deadBytes < COMPACT_MIN_DEAD || deadBytes < liveBytes) {
+            return;
+        }
+        compactionScheduled = true;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    //log will be compacted next time
+                }
+            }
+        });
+    }
+
+    /**
+     * Position of one record in log file.
+     */
+    private static class Entry {
+        /** Offset of record line. */
+        private final long offset;
+        /** Length of record line with terminator. */
+        private final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param offset
+         *         offset of record line
+         * @param length
+         *         length of record line with terminator
+         */
+        private Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
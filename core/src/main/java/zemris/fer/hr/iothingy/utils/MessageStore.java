@@ -0,0 +1,52 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persistent inbox of received messages which are kept until they are replied to. Messages are identified by keys
+ * returned by {@link ReceivedServerMessage#getStoreKey()}, because different servers can use the same message IDs.
+ */
+public interface MessageStore {
+
+    /**
+     * Method for adding message. Message with the same key is replaced.
+     *
+     * @param message
+     *         received message
+     * @throws IOException
+     *         if message can't be stored
+     */
+    void add(ReceivedServerMessage message) throws IOException;
+
+    /**
+     * Method for removing message.
+     *
+     * @param key
+     *         key of message
+     * @return true if message was stored
+     * @throws IOException
+     *         if message can't be removed
+     */
+    boolean remove(String key) throws IOException;
+
+    /**
+     * Method for getting one message.
+     *
+     * @param key
+     *         key of message
+     * @return message or null if there is no such message
+     * @throws IOException
+     *         if message can't be read
+     */
+    ReceivedServerMessage get(String key) throws IOException;
+
+    /**
+     * Method for getting all messages.
+     *
+     * @return list of messages in order in which they are added
+     * @throws IOException
+     *         if messages can't be read
+     */
+    List<ReceivedServerMessage> getAll() throws IOException;
+}
@@ -0,0 +1,471 @@
+package zemris.fer.hr.iothingy.utils;
+
+import zemris.fer.hr.iothingy.sensors.SensorHistory;
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message that is received from some server.
+ */
+public class ReceivedServerMessage extends Message {
+
+    /** Reporting mode in which all asked sensors are sent. */
+    public static final String MODE_FULL = "FULL";
+    /** Reporting mode in which only changed sensors are sent, see {@link DeltaReporter}. */
+    public static final String MODE_DELTA = "DELTA";
+    /** Period of updates of SUBSCRIBE command which doesn't have field PERIOD, in milliseconds. */
+    public static final long DEFAULT_PERIOD = 1000;
+    /** Shortest period of updates which SUBSCRIBE command can ask for, in milliseconds. */
+    public static final long MIN_PERIOD = 100;
+
+    /** Command of return message. */
+    private String cmd;
+    /** Command values. */
+    private String cmdValue;
+    /** Aggregate of sensor values which GET command asks for, e.g. LAST or AVG_10S. */
+    private String aggregate = SensorHistory.LAST;
+    /** Reporting mode which GET command asks for, {@link #MODE_FULL} or {@link #MODE_DELTA}. */
+    private String mode = MODE_FULL;
+    /** Period of updates which SUBSCRIBE command asks for, in milliseconds. */
+    private long period = DEFAULT_PERIOD;
+
+    /**
+     * Constructor. If message ID is null, it will be issued by {@link MessageIdGenerator} of source thing, if previous
+     * message id is null, it will be 00000000. It automatically parses jsonData as CMD and CMD_VALUE. GET command can
+     * have field AGG which tells which aggregate of sensor values is needed (see {@link SensorHistory}), default is
+     * LAST, and field MODE which tells if all sensors are sent (FULL, default) or only changed ones (DELTA). SUBSCRIBE
+     * command has the same fields as GET and field PERIOD with period of updates in milliseconds, default is 1000.
+     * UNSUBSCRIBE command has no fields.
+     *
+     * @param messageID
+     *         message ID
+     * @param srcID
+     *         source thing ID
+     * @param jsonData
+     *         unparsed JSON data.
+     * @param previousMessageID
+     *         id of previous message (if exists, otherwise null)
+     * @param sendMode
+     *         send mode (INTERNET, BLUETOOTH, WI-FI)
+     * @param encryption
+     *         encryption NONE, HMAC, FULL
+     * @param destIP
+     *         IP address of destination
+     * @param destPort
+     *         port of destination
+     */
+    public ReceivedServerMessage(String messageID, String srcID, String destID, String jsonData, String
+            previousMessageID,
+                                 String sendMode, String encryption, String destIP, int destPort) {
+        super(messageID, srcID, destID, jsonData, previousMessageID, sendMode, encryption, destIP, destPort);
+        try {
+            parseCommand(jsonData);
+        } catch (Exception e) {
+            cmd = cmdValue = Constants.STRING_ERROR;
+        }
+    }
+
+    /**
+     * Method for parsing command from JSON data. Data is read with {@link JsonPullParser} directly from received text,
+     * names are compared without case and only command, sensor names and aggregate are turned into upper case strings.
+     *
+     * @param jsonData
+     *         JSON data
+     * @throws IllegalArgumentException
+     *         if there is no command or GET command has invalid format
+     */
+    private void parseCommand(String jsonData) {
+        JsonPullParser parser = new JsonPullParser(jsonData);
+        parser.expect(JsonPullParser.BEGIN_OBJECT);
+        StringBuilder sensors = null;
+        while (parser.next() == JsonPullParser.NAME) {
+            if (parser.nameEquals("CMD")) {
+                parser.next();
+                cmd = parser.getString().toUpperCase();
+            } else if (parser.nameEquals("SENSOR")) {
+                parser.expect(JsonPullParser.BEGIN_ARRAY);
+                sensors = new StringBuilder();
+                while (parser.next() != JsonPullParser.END_ARRAY) {
+                    if (sensors.length() > 0) {
+                        sensors.append(' ');
+                    }
+                    sensors.append(parser.getString().toUpperCase());
+                }
+            } else if (parser.nameEquals("AGG")) {
+                parser.next();
+                aggregate = parser.getString().toUpperCase();
+            } else if (parser.nameEquals("MODE")) {
+                parser.next();
+                mode = parser.getString().toUpperCase();
+            } else if (parser.nameEquals("PERIOD")) {
+                parser.next();
+                period = parser.getLong();
+            } else {
+                parser.skipValue();
+            }
+        }
+        if (cmd == null) {
+            throw new IllegalArgumentException("No command");
+        }
+        //handle get and subscribe commands, subscription asks for the same values on every update
+        if (cmd.equals("GET") || cmd.equals("SUBSCRIBE")) {
+            if (sensors == null || sensors.length() == 0) {
+                throw new IllegalArgumentException("No sensors");
+            }
+            cmdValue = sensors.toString();
+            if (!SensorHistory.isValidAggregate(aggregate)) {
+                throw new IllegalArgumentException("Unsupported aggregate " + aggregate);
+            }
+            if (!MODE_FULL.equals(mode) && !MODE_DELTA.equals(mode)) {
+                throw new IllegalArgumentException("Unsupported mode " + mode);
+            }
+            if (period < MIN_PERIOD) {
+                throw new IllegalArgumentException("Period " + period + " is shorter than " + MIN_PERIOD);
+            }
+        }
+    }
+
+    /**
+     * Method for creating response to this message. Currently it supports only command GET.
+     *
+     * @param source
+     *         source of sensor values
+     * @return respond message or null if command is not supported by this method.
+     */
+    public Message responseMessage(SensorValueSource source) {
+        if (!isGetCommand()) {
+            return null;
+        }
+        return createResponse(source);
+    }
+
+    /**
+     * Method for creating next update of subscription made by this message. Update has sensor values which SUBSCRIBE
+     * command asks for, like response to GET command, and its previous message ID is ID of this message, so server can
+     * tell to which subscription it belongs.
+     *
+     * @param source
+     *         source of sensor values
+     * @return update message or null if this message isn't SUBSCRIBE command
+     */
+    public Message updateMessage(SensorValueSource source) {
+        if (!isSubscribeCommand()) {
+            return null;
+        }
+        return createResponse(source);
+    }
+
+    /**
+     * Method for creating message with sensor values which GET or SUBSCRIBE command asks for.
+     *
+     * @param source
+     *         source of sensor values
+     * @return message for source of this message
+     */
+    private Message createResponse(SensorValueSource source) {
+        String jsonResponse = handleGetCommand(source);
+        return new Message(
+                MessageIdGenerator.forDevice(getDestID()).nextId(),
+                getDestID(),
+                getSrcID(),
+                jsonResponse,
+                getMessageID(),
+                getSendMode(),
+                getEncryption(),
+                getDestIP(),
+                getDestPort()
+        );
+    }
+
+    /**
+     * Method for parsing GET command values and making JSON data for response message. Latest values of all sensors
+     * are read at once, other aggregates are read one by one, so sensors without history (e.g. GPS) are left out of
+     * response for them. In delta mode only sensors which changed since last response to the same server are sent,
+     * full response starts over.
+     *
+     * @param source
+     *         source of sensor values
+     * @return json data in string format
+     */
+    private String handleGetCommand(SensorValueSource source) {
+        String[] splits = cmdValue.split(" ");
+        Map<String, SensorReading> sensorDataMap = new HashMap<>();
+        boolean last = SensorHistory.LAST.equals(aggregate);
+        for (int i = 0, len = splits.length; i < len; ++i) {
+            splits[i] = splits[i].trim();
+        }
+        Map<String, SensorReading> latest = last ? source.getLatestReadings(Arrays.asList(splits)) : null;
+        for (int i = 0, len = splits.length; i < len; ++i) {
+            String key = splits[i];
+            SensorReading value = last ? latest.get(key)
+                    : source.getAggregatedReading(key, aggregate);
+            //if there is no such sensor, don't put its data
+            if (value != null) {
+                sensorDataMap.put(key, value);
+            }
+        }
+        String destination = getSrcID() + "@" + getDestIP() + ":" + getDestPort();
+        if (MODE_DELTA.equals(mode)) {
+            return DeltaReporter.getInstance().createJSONData(destination, sensorDataMap);
+        }
+        DeltaReporter.getInstance().reset(destination);
+        return SensorJson.createJSONData(sensorDataMap);
+    }
+
+    /**
+     * Method for getting sensor values from JSON data of this message, which must contain all sensors, i.e. it mustn't
+     * list unchanged sensors.
+     *
+     * @return map with upper case sensor names and their values
+     * @throws IllegalArgumentException
+     *         if JSON data has invalid format or it lists unchanged sensors
+     */
+    public Map<String, float[]> getSensorData() {
+        return getSensorData(new HashMap<String, float[]>());
+    }
+
+    /**
+     * Method for getting full sensor state of source of this message from its JSON data, which can be sent in delta
+     * mode. See {@link #rebuildSensorData(Map, CharSequence)}.
+     *
+     * @param state
+     *         known sensor values of source, they are updated with values from this message
+     * @return map with upper case sensor names and their values
+     * @throws IllegalArgumentException
+     *         if JSON data has invalid format or some unchanged sensor isn't known
+     */
+    public Map<String, float[]> getSensorData(Map<String, float[]> state) {
+        return rebuildSensorData(state, jsonData);
+    }
+
+    /**
+     * Method for rebuilding full sensor state of some source from JSON data written by {@link DeltaReporter} or {@link
+     * SensorJson#createJSONData(Map)}. Values of sent sensors replace known values, values of sensors listed as
+     * unchanged are taken from previous messages of the same source. State belongs to caller, e.g. to session of
+     * source, so it is forgotten together with source, and caller must synchronize access to it.
+     *
+     * @param state
+     *         known sensor values of source by upper case sensor names, they are updated with sent values
+     * @param jsonData
+     *         JSON data with sensor values
+     * @return map with upper case sensor names and values of all sensors in message, in order in which they are
+     * written, changed sensors first
+     * @throws IllegalArgumentException
+     *         if JSON data has invalid format or some unchanged sensor isn't known, then full message is needed
+     */
+    public static Map<String, float[]> rebuildSensorData(Map<String, float[]> state, CharSequence jsonData) {
+        List<String> unchanged = new ArrayList<>();
+        Map<String, float[]> sensors = SensorJson.parseJSONData(jsonData, unchanged);
+        Map<String, float[]> full = new LinkedHashMap<>(sensors);
+        for (String sensor : unchanged) {
+            float[] values = state.get(sensor);
+            if (values == null) {
+                throw new IllegalArgumentException("Unknown state of sensor " + sensor);
+            }
+            full.put(sensor, values.clone());
+        }
+        for (Map.Entry<String, float[]> entry : sensors.entrySet()) {
+            state.put(entry.getKey(), entry.getValue().clone());
+        }
+        return full;
+    }
+
+    /**
+     * Method for parsing JSON data if this message is received from some other message.
+     *
+     * @return message in following format: COMMAND OTHER_DATA
+     */
+    public String returnMsgDataInfo() {
+        return cmd + ":\n" + cmdValue;
+    }
+
+    /**
+     * Getter for aggregate of sensor values which GET command asks for.
+     *
+     * @return aggregate, e.g. LAST or AVG_10S
+     */
+    public String getAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * Getter for reporting mode which GET command asks for.
+     *
+     * @return {@link #MODE_FULL} or {@link #MODE_DELTA}
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Getter for period of updates which SUBSCRIBE command asks for.
+     *
+     * @return period in milliseconds
+     */
+    public long getPeriod() {
+        return period;
+    }
+
+    public boolean isGetCommand() {
+        return cmd.equals("GET");
+    }
+
+    /**
+     * Method for checking if this message asks for stream of sensor values, see {@link
+     * #updateMessage(SensorValueSource)}.
+     *
+     * @return true if message is SUBSCRIBE command
+     */
+    public boolean isSubscribeCommand() {
+        return cmd.equals("SUBSCRIBE");
+    }
+
+    /**
+     * Method for checking if this message stops stream of sensor values.
+     *
+     * @return true if message is UNSUBSCRIBE command
+     */
+    public boolean isUnsubscribeCommand() {
+        return cmd.equals("UNSUBSCRIBE");
+    }
+
+    /**
+     * Method for getting string format of this object which can be saved to some file or something else. Every variable
+     * is separated with delimiter saved in {@link Constants}. Variables are in following order: msgID, srcID, destID,
+     * prevMsgID, jsonData, send mode, encryption, destIP, destPort.
+     *
+     * @return string format of message
+     */
+    public String storeMsgFormat() {
+        String delm = Constants.MSG_DELIM;
+        return messageID + delm + srcID + delm + destID + delm + previousMessageID + delm + jsonData + delm +
+                sendMode + delm + encryption + delm + destIP + delm + destPort;
+    }
+
+    /**
+     * Method for getting key under which this message is stored. Message IDs are chosen by servers, so key contains
+     * also source thing and address of server: {@code srcID@destIP:destPort/messageID}.
+     *
+     * @return key of message
+     */
+    public String getStoreKey() {
+        return srcID + "@" + destIP + ":" + destPort + "/" + messageID;
+    }
+
+    /**
+     * Method for parsing string representation of this object. Given string must be in valid format. Variables are in
+     * following order: msgID, srcID, destID, prevMsgID, jsonData, send mode, encryption, destIP, destPort.
+     *
+     * @param storeMsg
+     *         string representation of message
+     * @return {@code Message} format
+     */
+    public static ReceivedServerMessage parseStoreMsg(String storeMsg) {
+        String[] splits = storeMsg.split(Constants.MSG_DELIM);
+        if (splits.length != 9) {
+            throw new IllegalArgumentException("Illegal message format");
+        }
+        return new ReceivedServerMessage(splits[0], splits[1], splits[2], splits[4], splits[3], splits[5], splits[6],
+                splits[7],
+                Integer.parseInt(splits[8]));
+    }
+
+    /**
+     * Method for creating message summary which represents this message in user readable format.
+     *
+     * @return message summary
+     */
+    public String messageSummary() {
+        String summary = "Message:\n";
+        summary += "message id:           " + messageID;
+        summary += "\nprevious message id:  " + previousMessageID;
+        summary += "\nsource id:            " + srcID;
+        summary += "\ndestination id:       " + destID;
+        summary += "\nsend mode:            " + sendMode;
+        summary += "\nencryption:           " + encryption;
+        summary += "\ndata:\n" + cmd + " " + cmdValue;
+        return summary;
+    }
+
+    /**
+     * Method for parsing received message.
+     *
+     * @param params
+     *         params in following order: received message, send mode, encryption, destination IP, destination port.
+     * @return new message
+     */
+    public static ReceivedServerMessage parseReceivedMessage(String... params) {
+        String rtnMsg = decryptReceivedMessage(params[0], params[2], params[3], Integer.parseInt(params[4]));
+        return new ReceivedServerMessage(
+                rtnMsg.substring(1, 9),          //message ID
+                rtnMsg.substring(9, 17),        //src ID
+                rtnMsg.substring(17, 25),         //dest ID
+                rtnMsg.substring(33),            //JSON data
+                rtnMsg.substring(25, 33),        //previous message id
+                params[1],                       //send mode
+                params[2],                       //encryption
+                params[3],                       //destination IP
+                Integer.parseInt(params[4])      //destination port
+        );
+    }
+
+    /**
+     * Method for creating message from received binary frame.
+     *
+     * @param frame
+     *         frame decoded by {@link BinaryMessageCodec} or opened by {@link MessageCrypto}
+     * @param sendMode
+     *         send mode
+     * @param encryption
+     *         encryption
+     * @param destIP
+     *         destination IP
+     * @param destPort
+     *         destination port
+     * @return new message
+     */
+    public static ReceivedServerMessage parseReceivedFrame(BinaryMessageCodec.Frame frame, String sendMode,
+                                                           String encryption, String destIP, int destPort) {
+        return new ReceivedServerMessage(
+                frame.getId(BinaryMessageCodec.MESSAGE_ID),
+                frame.getId(BinaryMessageCodec.SRC_ID),
+                frame.getId(BinaryMessageCodec.DEST_ID),
+                frame.getJsonData(),
+                frame.getId(BinaryMessageCodec.PREVIOUS_MESSAGE_ID),
+                sendMode,
+                encryption,
+                destIP,
+                destPort
+        );
+    }
+
+    /**
+     * Method for decrypting received message.
+     *
+     * @param rtnMsg
+     *         received message
+     * @param encryption
+     *         encryption name (NONE, FULL, HMAC ...)
+     * @param destIP
+     *         IP address of other side
+     * @param destPort
+     *         port of other side
+     * @return decrypted message, with encryption type character
+     * @throws IllegalArgumentException
+     *         if message isn't valid or it was changed
+     */
+    private static String decryptReceivedMessage(String rtnMsg, String encryption, String destIP, int destPort) {
+        char type = MessageCrypto.typeOf(encryption);
+        if (type == MessageCrypto.TYPE_NONE) {
+            return rtnMsg;
+        }
+        return type + MessageCrypto.unprotect(rtnMsg.substring(1), type, destIP, destPort);
+    }
+
+}
@@ -0,0 +1,149 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table of requests which are sent and which wait for reply. Requests are registered by their IDs and reply is matched
+ * by ID of request to which it replies (previous message ID), so matching is one hash lookup. IDs of requests which
+ * are answered are remembered for some time with ID of their reply, so the same reply which is received again (e.g.
+ * because request was sent again over new connection) is recognized as duplicate. IDs are compared exactly, so
+ * wraparound of {@link MessageIdGenerator} doesn't matter as long as request with the same ID isn't in flight.
+ *
+ * @param <T>
+ *         type of data which is kept for every request
+ */
+public class ReplyCorrelator<T> {
+
+    /** Requests which wait for reply by their IDs. */
+    private final Map<Integer, Pending<T>> inFlight = new HashMap<>();
+    /** IDs of replies of recently answered requests by request IDs. */
+    private final Map<Integer, Integer> answered;
+
+    /**
+     * Constructor.
+     *
+     * @param answeredCapacity
+     *         number of answered requests which are remembered for detection of duplicates
+     */
+    public ReplyCorrelator(final int answeredCapacity) {
+        answered = new LinkedHashMap<Integer, Integer>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+                return size() > answeredCapacity;
+            }
+        };
+    }
+
+    /**
+     * Method for registering request which waits for reply.
+     *
+     * @param requestId
+     *         ID of request
+     * @param data
+     *         data of request
+     * @param now
+     *         current time in milliseconds
+     * @return true if request is registered, false if request with the same ID is already waiting for reply
+     */
+    public synchronized boolean register(int requestId, T data, long now) {
+        if (inFlight.containsKey(requestId)) {
+            return false;
+        }
+        inFlight.put(requestId, new Pending<>(data, now));
+        answered.remove(requestId);
+        return true;
+    }
+
+    /**
+     * Method for matching received reply with its request. Request is removed from table if this is its first reply.
+     *
+     * @param requestId
+     *         ID of request to which reply replies
+     * @param replyId
+     *         ID of reply
+     * @return data of request if this is its first reply, otherwise null
+     */
+    public synchronized T complete(int requestId, int replyId) {
+        Pending<T> pending = inFlight.remove(requestId);
+        if (pending == null) {
+            return null;
+        }
+        answered.put(requestId, replyId);
+        return pending.data;
+    }
+
+    /**
+     * Method for checking if reply is already received.
+     *
+     * @param requestId
+     *         ID of request to which reply replies
+     * @param replyId
+     *         ID of reply
+     * @return true if the same reply to the same request is already matched
+     */
+    public synchronized boolean isDuplicate(int requestId, int replyId) {
+        Integer previous = answered.get(requestId);
+        return previous != null && previous == replyId;
+    }
+
+    /**
+     * Method for removing requests which wait for reply for too long.
+     *
+     * @param now
+     *         current time in milliseconds
+     * @param timeout
+     *         time in milliseconds after which request is removed
+     * @return data of removed requests
+     */
+    public synchronized List<T> expire(long now, long timeout) {
+        List<T> expired = new ArrayList<>();
+        for (Iterator<Pending<T>> it = inFlight.values().iterator(); it.hasNext(); ) {
+            Pending<T> pending = it.next();
+            if (now - pending.registered >= timeout) {
+                expired.add(pending.data);
+                it.remove();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Getter for number of requests which wait for reply.
+     *
+     * @return number of requests
+     */
+    public synchronized int size() {
+        return inFlight.size();
+    }
+
+    /**
+     * Request which waits for reply.
+     *
+     * @param <T>
+     *         type of request data
+     */
+    private static class Pending<T> {
+        /** Data of request. */
+        private final T data;
+        /** Time of registration. */
+        private final long registered;
+
+        /**
+         * Constructor.
+         *
+         * @param data
+         *         data of request
+         * @param registered
+         *         time of registration
+         */
+        private Pending(T data, long registered) {
+            this.data = data;
+            this.registered = registered;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class provides methods for writing sensor readings as JSON data of messages and for parsing that data back.
+ */
+public class SensorJson {
+
+    /**
+     * Method for writing sensor readings as JSON data. Example of output for one sensor:
+     * {"GPS":{"VALUES":[65.966,-18.533,15.044],"NAMES":["LATITUDE","LONGITUDE","ALTITUDE"]}}
+     * Sensors which can't be written (see {@link #isWritable(SensorReading)}) are left out, like sensors which device
+     * doesn't have.
+     *
+     * @param sensorDataMap
+     *         map contains sensors and their readings
+     * @param out
+     *         builder into which JSON data is appended
+     */
+    public static void writeJSONData(Map<String, SensorReading> sensorDataMap, StringBuilder out) {
+        writeJSONData(sensorDataMap, null, out);
+    }
+
+    /**
+     * Method for writing sensor readings as JSON data with names of sensors which haven't changed since previous
+     * message, see {@link DeltaReporter}. Example of output:
+     * {"LIGHT":{"VALUES":[120.0],"NAMES":["ILLUMINATION"]},"UNCHANGED":["GPS","PROXIMITY"]}
+     *
+     * @param sensorDataMap
+     *         map contains changed sensors and their readings
+     * @param unchanged
+     *         names of unchanged sensors, null or empty if there are no such sensors
+     * @param out
+     *         builder into which JSON data is appended
+     */
+    public static void writeJSONData(Map<String, SensorReading> sensorDataMap, Collection<String> unchanged,
+                                     StringBuilder out) {
+        JsonStreamWriter writer = new JsonStreamWriter(out).beginObject();
+        for (Map.Entry<String, SensorReading> entry : sensorDataMap.entrySet()) {
+            SensorReading reading = entry.getValue();
+            if (!isWritable(reading)) {
+                continue;
+            }
+            writer.name(entry.getKey().toUpperCase()).beginObject().name("VALUES").beginArray();
+            for (int i = 0, size = reading.size(); i < size; ++i) {
+                writer.value(reading.getValue(i));
+            }
+            writer.endArray().name("NAMES").beginArray();
+            for (int i = 0, size = reading.size(); i < size; ++i) {
+                writer.value(reading.getValueName(i));
+            }
+            writer.endArray().endObject();
+        }
+        if (unchanged != null && !unchanged.isEmpty()) {
+            writer.name(DeltaReporter.UNCHANGED).beginArray();
+            for (String name : unchanged) {
+                writer.value(name.toUpperCase());
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Method for checking if reading can be written as JSON data. Reading is missing if sensor hasn't given any value
+     * yet, and JSON has no NaN or infinite numbers.
+     *
+     * @param reading
+     *         reading, can be null
+     * @return true if reading exists and all its values are finite numbers
+     */
+    public static boolean isWritable(SensorReading reading) {
+        if (reading == null) {
+            return false;
+        }
+        for (int i = 0, size = reading.size(); i < size; ++i) {
+            float value = reading.getValue(i);
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method for creating JSON data from sensors map and returning it as string.
+     *
+     * @param sensorDataMap
+     *         map contains sensors and their readings
+     * @return string representation of JSON data, sensors which can't be written are left out
+     */
+    public static String createJSONData(Map<String, SensorReading> sensorDataMap) {
+        return createJSONData(sensorDataMap, null);
+    }
+
+    /**
+     * Method for creating JSON data from map of changed sensors and names of unchanged sensors and returning it as
+     * string.
+     *
+     * @param sensorDataMap
+     *         map contains changed sensors and their readings
+     * @param unchanged
+     *         names of unchanged sensors, null or empty if there are no such sensors
+     * @return string representation of JSON data, sensors which can't be written are left out
+     */
+    public static String createJSONData(Map<String, SensorReading> sensorDataMap, Collection<String> unchanged) {
+        StringBuilder out = new StringBuilder(32 + 64 * sensorDataMap.size()
+                + (unchanged == null ? 0 : 16 * unchanged.size()));
+        writeJSONData(sensorDataMap, unchanged, out);
+        return out.toString();
+    }
+
+    /**
+     * Method for parsing JSON data with sensor values, in format which is written by {@link #writeJSONData(Map,
+     * StringBuilder)}. Names of values are not needed to get values, so they are skipped. Names of unchanged sensors
+     * are skipped too.
+     *
+     * @param jsonData
+     *         JSON data
+     * @return map with upper case sensor names and their values, in order in which they are written
+     * @throws IllegalArgumentException
+     *         if JSON data has invalid format
+     */
+    public static Map<String, float[]> parseJSONData(CharSequence jsonData) {
+        return parseJSONData(jsonData, null);
+    }
+
+    /**
+     * Method for parsing JSON data with sensor values, in format which is written by {@link #writeJSONData(Map,
+     * Collection, StringBuilder)}.
+     *
+     * @param jsonData
+     *         JSON data
+     * @param unchanged
+     *         collection into which upper case names of unchanged sensors are added, can be null
+     * @return map with upper case sensor names and their values, in order in which they are written
+     * @throws IllegalArgumentException
+     *         if JSON data has invalid format
+     */
+    public static Map<String, float[]> parseJSONData(CharSequence jsonData, Collection<String> unchanged) {
+        Map<String, float[]> sensors = new LinkedHashMap<>();
+        JsonPullParser parser = new JsonPullParser(jsonData);
+        parser.expect(JsonPullParser.BEGIN_OBJECT);
+        float[] buffer = new float[8];
+        while (parser.next() == JsonPullParser.NAME) {
+            if (parser.nameEquals(DeltaReporter.UNCHANGED)) {
+                parser.expect(JsonPullParser.BEGIN_ARRAY);
+                while (parser.next() != JsonPullParser.END_ARRAY) {
+                    String sensor = parser.getString().toUpperCase();
+                    if (unchanged != null) {
+                        unchanged.add(sensor);
+                    }
+                }
+                continue;
+            }
+            String sensor = parser.getString().toUpperCase();
+            float[] values = null;
+            parser.expect(JsonPullParser.BEGIN_OBJECT);
+            while (parser.next() == JsonPullParser.NAME) {
+                if (!parser.nameEquals("VALUES")) {
+                    parser.skipValue();
+                    continue;
+                }
+                parser.expect(JsonPullParser.BEGIN_ARRAY);
+                int count = 0;
+                while (parser.next() == JsonPullParser.NUMBER) {
+                    if (count == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, 2 * count);
+                    }
+                    buffer[count++] = parser.getFloat();
+                }
+                if (parser.getToken() != JsonPullParser.END_ARRAY) {
+                    throw new IllegalArgumentException("Values of " + sensor + " must be numbers");
+                }
+                values = Arrays.copyOf(buffer, count);
+            }
+            if (values == null) {
+                throw new IllegalArgumentException("No values for " + sensor);
+            }
+            sensors.put(sensor, values);
+        }
+        if (parser.getToken() != JsonPullParser.END_OBJECT) {
+            throw new IllegalArgumentException("Invalid JSON data");
+        }
+        return sensors;
+    }
+}
@@ -0,0 +1,372 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.util.Arrays;
+
+/**
+ * One reading of some sensor: sensor type, unit, time of reading and its values. Readings are stored and transferred in
+ * this form and they are turned into text only when they are displayed, so values are never parsed back from formatted
+ * text. Compact string form returned by {@link #encode()} is lossless, {@link #decode(String)} returns reading with
+ * exactly the same values. Format is: {@code type;UNIT;timestamp;value1,value2,...}.
+ */
+public class SensorReading {
+
+    /** Sensor type of GPS location, Android sensor types are positive. */
+    public static final int TYPE_GPS = -1;
+    /** Android sensor type of accelerometer. */
+    public static final int TYPE_ACCELEROMETER = 1;
+    /** Android sensor type of magnetic field sensor. */
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    /** Android sensor type of gyroscope. */
+    public static final int TYPE_GYROSCOPE = 4;
+    /** Android sensor type of light sensor. */
+    public static final int TYPE_LIGHT = 5;
+    /** Android sensor type of pressure sensor. */
+    public static final int TYPE_PRESSURE = 6;
+    /** Android sensor type of proximity sensor. */
+    public static final int TYPE_PROXIMITY = 8;
+    /** Android sensor type of gravity sensor. */
+    public static final int TYPE_GRAVITY = 9;
+    /** Android sensor type of linear acceleration sensor. */
+    public static final int TYPE_LINEAR_ACCELERATION = 10;
+    /** Android sensor type of temperature sensor. */
+    public static final int TYPE_AMBIENT_TEMPERATURE = 13;
+    /** Android sensor type of uncalibrated magnetic field sensor. */
+    public static final int TYPE_MAGNETIC_FIELD_UNCALIBRATED = 14;
+    /** Android sensor type of uncalibrated gyroscope. */
+    public static final int TYPE_GYROSCOPE_UNCALIBRATED = 16;
+    /** Separator of fields in compact form. */
+    private static final char FIELD_SEPARATOR = ';';
+    /** Separator of values in compact form. */
+    private static final char VALUE_SEPARATOR = ',';
+    /** Names of values for sensors which measure along x, y and z axis. */
+    private static final String[] AXIS_NAMES = {"X", "Y", "Z"};
+    /** Names of GPS values. */
+    private static final String[] GPS_NAMES = {"LATITUDE", "LONGITUDE", "ALTITUDE"};
+
+    /**
+     * Units of sensor values.
+     */
+    public enum Unit {
+        /** Value without unit. */
+        NONE(""),
+        /** Micro tesla. */
+        MICRO_TESLA("\u00B5T"),
+        /** Radians per second. */
+        RADIANS_PER_SECOND("rad/s"),
+        /** Meters per second squared. */
+        METERS_PER_SECOND_SQUARED("m/s\u00B2"),
+        /** Lux. */
+        LUX("lx"),
+        /** Centimeter. */
+        CENTIMETER("cm"),
+        /** Degree Celsius. */
+        CELSIUS("\u2103"),
+        /** Hectopascal. */
+        HECTOPASCAL("hPa"),
+        /** Degree. */
+        DEGREE("\u00B0");
+
+        /** Symbol of unit. */
+        private final String symbol;
+
+        /**
+         * Constructor.
+         *
+         * @param symbol
+         *         symbol of unit
+         */
+        Unit(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * Getter for symbol of unit, e.g. m/s&sup2;.
+         *
+         * @return symbol
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+
+    /** Sensor type, one of {@link Sensor} types or {@link #TYPE_GPS}. */
+    private final int type;
+    /** Unit of values. */
+    private final Unit unit;
+    /** Time of reading in milliseconds since epoch. */
+    private final long timestamp;
+    /** Values. */
+    private final float[] values;
+
+    /**
+     * Constructor. Given values are not copied.
+     *
+     * @param type
+     *         sensor type
+     * @param unit
+     *         unit of values
+     * @param timestamp
+     *         time of reading in milliseconds since epoch
+     * @param values
+     *         values
+     */
+    public SensorReading(int type, Unit unit, long timestamp, float[] values) {
+        if (unit == null || values == null) {
+            throw new IllegalArgumentException("Unit and values must be given");
+        }
+        this.type = type;
+        this.unit = unit;
+        this.timestamp = timestamp;
+        this.values = values;
+    }
+
+    /**
+     * Method for creating reading of sensor with given type. Unit is chosen by sensor type and only values which that
+     * type of sensor has are kept (e.g. 3 for accelerometer, 1 for light sensor). Sensors of unknown type keep all
+     * values.
+     *
+     * @param type
+     *         sensor type
+     * @param timestamp
+     *         time of reading in milliseconds since epoch
+     * @param values
+     *         values, they are copied
+     * @return new reading
+     */
+    public static SensorReading of(int type, long timestamp, float[] values) {
+        int count = valueCount(type);
+        float[] copy = new float[count < 0 ? values.length : count];
+        System.arraycopy(values, 0, copy, 0, Math.min(copy.length, values.length));
+        return new SensorReading(type, unitFor(type), timestamp, copy);
+    }
+
+    /**
+     * Method for getting unit of values of sensor with given type.
+     *
+     * @param type
+     *         sensor type
+     * @return unit
+     */
+    public static Unit unitFor(int type) {
+        switch (type) {
+            case TYPE_MAGNETIC_FIELD:
+            case TYPE_MAGNETIC_FIELD_UNCALIBRATED:
+                return Unit.MICRO_TESLA;
+            case TYPE_GYROSCOPE:
+            case TYPE_GYROSCOPE_UNCALIBRATED:
+                return Unit.RADIANS_PER_SECOND;
+            case TYPE_GRAVITY:
+            case TYPE_LINEAR_ACCELERATION:
+            case TYPE_ACCELEROMETER:
+                return Unit.METERS_PER_SECOND_SQUARED;
+            case TYPE_LIGHT:
+                return Unit.LUX;
+            case TYPE_PROXIMITY:
+                return Unit.CENTIMETER;
+            case TYPE_AMBIENT_TEMPERATURE:
+                return Unit.CELSIUS;
+            case TYPE_PRESSURE:
+                return Unit.HECTOPASCAL;
+            case TYPE_GPS:
+                return Unit.DEGREE;
+            default:
+                return Unit.NONE;
+        }
+    }
+
+    /**
+     * Method for getting number of values which sensor with given type has.
+     *
+     * @param type
+     *         sensor type
+     * @return number of values or -1 if type is unknown
+     */
+    private static int valueCount(int type) {
+        switch (unitFor(type)) {
+            case NONE:
+                return -1;
+            case MICRO_TESLA:
+            case RADIANS_PER_SECOND:
+            case METERS_PER_SECOND_SQUARED:
+            case DEGREE:
+                return 3;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Getter for sensor type.
+     *
+     * @return sensor type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Getter for unit of values.
+     *
+     * @return unit
+     */
+    public Unit getUnit() {
+        return unit;
+    }
+
+    /**
+     * Getter for time of reading.
+     *
+     * @return time in milliseconds since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Getter for number of values.
+     *
+     * @return number of values
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Getter for value with given index.
+     *
+     * @param index
+     *         index of value
+     * @return value
+     */
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Getter for name of value with given index, e.g. X or ILLUMINATION. Names are upper case and they are used in JSON
+     * data.
+     *
+     * @param index
+     *         index of value
+     * @return name of value
+     */
+    public String getValueName(int index) {
+        switch (type) {
+            case TYPE_LIGHT:
+                return "ILLUMINATION";
+            case TYPE_PROXIMITY:
+                return "PROXIMITY";
+            case TYPE_AMBIENT_TEMPERATURE:
+                return "TEMPERATURE";
+            case TYPE_PRESSURE:
+                return "PRESSURE";
+            case TYPE_GPS:
+                return GPS_NAMES[index];
+            default:
+                return unit == Unit.NONE || index >= AXIS_NAMES.length ? "VALUE" + index : AXIS_NAMES[index];
+        }
+    }
+
+    /**
+     * Method for getting compact string form of this reading.
+     *
+     * @return compact form
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder(24 + 12 * values.length);
+        builder.append(type).append(FIELD_SEPARATOR).append(unit.name()).append(FIELD_SEPARATOR).append(timestamp)
+                .append(FIELD_SEPARATOR);
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                builder.append(VALUE_SEPARATOR);
+            }
+            //Float.toString gives the shortest text which is parsed back to the same float
+            builder.append(Float.toString(values[i]));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Method for parsing compact form returned by {@link #encode()}.
+     *
+     * @param encoded
+     *         compact form
+     * @return reading
+     * @throws IllegalArgumentException
+     *         if given string isn't valid compact form
+     */
+    public static SensorReading decode(String encoded) {
+        int first = encoded.indexOf(FIELD_SEPARATOR);
+        int second = encoded.indexOf(FIELD_SEPARATOR, first + 1);
+        int third = encoded.indexOf(FIELD_SEPARATOR, second + 1);
+        if (first < 0 || second < 0 || third < 0) {
+            throw new IllegalArgumentException("Invalid sensor reading " + encoded);
+        }
+        try {
+            int type = Integer.parseInt(encoded.substring(0, first));
+            Unit unit = Unit.valueOf(encoded.substring(first + 1, second));
+            long timestamp = Long.parseLong(encoded.substring(second + 1, third));
+            int count = third + 1 == encoded.length() ? 0 : 1;
+            for (int i = third + 1; i < encoded.length(); ++i) {
+                if (encoded.charAt(i) == VALUE_SEPARATOR) {
+                    count++;
+                }
+            }
+            float[] values = new float[count];
+            int start = third + 1;
+            for (int i = 0; i < count; ++i) {
+                int end = encoded.indexOf(VALUE_SEPARATOR, start);
+                if (end < 0) {
+                    end = encoded.length();
+                }
+                values[i] = Float.parseFloat(encoded.substring(start, end));
+                start = end + 1;
+            }
+            return new SensorReading(type, unit, timestamp, values);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sensor reading " + encoded, e);
+        }
+    }
+
+    /**
+     * Method for parsing compact form which doesn't throw exception.
+     *
+     * @param encoded
+     *         compact form, can be null
+     * @return reading or null if given string is null or isn't valid compact form
+     */
+    public static SensorReading decodeOrNull(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return decode(encoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SensorReading)) {
+            return false;
+        }
+        SensorReading other = (SensorReading) o;
+        return type == other.type && unit == other.unit && timestamp == other.timestamp &&
+                Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * type + unit.hashCode()) + (int) (timestamp ^ (timestamp >>> 32))) +
+                Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
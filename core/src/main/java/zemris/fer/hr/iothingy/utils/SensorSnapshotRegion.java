@@ -0,0 +1,430 @@
+package zemris.fer.hr.iothingy.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory mapped file with latest reading of every sensor, shared by all processes of application. File has fixed
+ * number of slots and every sensor gets its own slot the first time it is written. Slot layout is:
+ * <pre>
+ * 0   sequence number (long)
+ * 8   length of key in bytes (int), 0 for free slot
+ * 12  key, UTF-8, at most {@link #MAX_KEY_LENGTH} bytes
+ * 76  sensor type (int)
+ * 80  number of values (int)
+ * 88  timestamp (long)
+ * 96  values, at most {@link #MAX_VALUES} floats
+ * </pre>
+ * Every slot is protected by seqlock: writer makes sequence number odd, writes reading and makes it even again, and
+ * reader retries if sequence number was odd or changed while reading. Readers therefore never lock and never block
+ * writer, and they copy values directly into given {@link Entry}. Every slot must have only one writer at a time.
+ * Every sensor is written only by process of service which reads it, and writers in that process, e.g. sensor
+ * callbacks and timer which marks expired sensors, are serialized by lock of slot. Free slots are claimed while
+ * holding lock on the whole file.
+ * <p>
+ * Java 7 has no explicit memory fences, so accesses of volatile field are used as barriers between writing of sequence
+ * number and writing of reading.
+ */
+public class SensorSnapshotRegion implements Closeable {
+
+    /** Maximal number of values in one reading. */
+    public static final int MAX_VALUES = 8;
+    /** Maximal length of key in bytes. */
+    public static final int MAX_KEY_LENGTH = 64;
+    /** Value which marks file as snapshot region, "SNP1". */
+    private static final int MAGIC = 0x534E5031;
+    /** Size of file header in bytes. */
+    private static final int HEADER_SIZE = 16;
+    /** Size of one slot in bytes. */
+    private static final int SLOT_SIZE = 128;
+    /** Offsets of slot fields. */
+    private static final int SEQUENCE = 0;
+    private static final int KEY_LENGTH = 8;
+    private static final int KEY = 12;
+    private static final int TYPE = 76;
+    private static final int COUNT = 80;
+    private static final int TIMESTAMP = 88;
+    private static final int VALUES = 96;
+    /** Number of attempts to read slot which is written at the same time. */
+    private static final int READ_ATTEMPTS = 1000;
+
+    /** Field which is accessed only to order accesses of mapped memory. */
+    private static volatile int barrier;
+
+    /** File with region. */
+    private final RandomAccessFile file;
+    /** Mapped content of file. */
+    private final MappedByteBuffer buffer;
+    /** Number of slots. */
+    private final int slotCount;
+    /** Indexes of slots which are already found by keys. */
+    private final Map<String, Integer> slotIndexes = new ConcurrentHashMap<>();
+    /** Locks which serialize writers of slots in this process. */
+    private final Object[] slotLocks;
+
+    /**
+     * Constructor. File is created if it doesn't exist. If it exists, its number of slots is used.
+     *
+     * @param path
+     *         path of file
+     * @param slotCount
+     *         number of slots for new file
+     * @throws IOException
+     *         if file can't be opened or mapped
+     */
+    public SensorSnapshotRegion(File path, int slotCount) throws IOException {
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException("Slot count must be positive");
+        }
+        file = new RandomAccessFile(path, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            FileLock lock = channel.lock();
+            try {
+                if (file.length() >= HEADER_SIZE && file.readInt() == MAGIC) {
+                    slotCount = file.readInt();
+                } else {
+                    file.setLength(0);
+                    file.setLength(HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+                    file.seek(0);
+                    file.writeInt(MAGIC);
+                    file.writeInt(slotCount);
+                }
+                this.slotCount = slotCount;
+                slotLocks = new Object[slotCount];
+                for (int i = 0; i < slotCount; ++i) {
+                    slotLocks[i] = new Object();
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+                buffer.order(ByteOrder.nativeOrder());
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Getter for number of slots.
+     *
+     * @return number of slots
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Method for writing latest reading of sensor. If sensor doesn't have slot, free slot is claimed for it. It can be
+     * called from multiple threads, writes of the same sensor are serialized.
+     *
+     * @param key
+     *         key of sensor
+     * @param type
+     *         sensor type
+     * @param timestamp
+     *         time of reading
+     * @param values
+     *         values, only first {@link #MAX_VALUES} are written
+     * @return true if reading is written, false if there is no free slot or key is too long
+     * @throws IOException
+     *         if slot can't be claimed
+     */
+    public boolean write(String key, int type, long timestamp, float[] values) throws IOException {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            slot = claimSlot(key);
+            if (slot < 0) {
+                return false;
+            }
+        }
+        int offset = offset(slot);
+        synchronized (slotLocks[slot]) {
+            long sequence = buffer.getLong(offset + SEQUENCE);
+            buffer.putLong(offset + SEQUENCE, sequence + 1);
+            barrier = 0;
+            int count = Math.min(values.length, MAX_VALUES);
+            buffer.putInt(offset + TYPE, type);
+            buffer.putInt(offset + COUNT, count);
+            buffer.putLong(offset + TIMESTAMP, timestamp);
+            for (int i = 0; i < count; ++i) {
+                buffer.putFloat(offset + VALUES + 4 * i, values[i]);
+            }
+            barrier = 0;
+            buffer.putLong(offset + SEQUENCE, sequence + 2);
+        }
+        return true;
+    }
+
+    /**
+     * Method for writing latest reading of sensor.
+     *
+     * @param key
+     *         key of sensor
+     * @param reading
+     *         reading
+     * @return true if reading is written, false if there is no free slot or key is too long
+     * @throws IOException
+     *         if slot can't be claimed
+     */
+    public boolean write(String key, SensorReading reading) throws IOException {
+        float[] values = new float[reading.size()];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = reading.getValue(i);
+        }
+        return write(key, reading.getType(), reading.getTimestamp(), values);
+    }
+
+    /**
+     * Method for reading latest reading of sensor into given entry, nothing is allocated.
+     *
+     * @param key
+     *         key of sensor
+     * @param out
+     *         entry for reading
+     * @return true if reading is read, false if sensor has no slot or slot is written all the time
+     */
+    public boolean read(String key, Entry out) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return false;
+        }
+        int offset = offset(slot);
+        for (int attempt = 0; attempt < READ_ATTEMPTS; ++attempt) {
+            long sequence = buffer.getLong(offset + SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            int fence = barrier;
+            int count = Math.min(Math.max(buffer.getInt(offset + COUNT), 0), MAX_VALUES);
+            out.type = buffer.getInt(offset + TYPE);
+            out.count = count;
+            out.timestamp = buffer.getLong(offset + TIMESTAMP);
+            for (int i = 0; i < count; ++i) {
+                out.values[i] = buffer.getFloat(offset + VALUES + 4 * i);
+            }
+            fence += barrier;
+            if (buffer.getLong(offset + SEQUENCE) == sequence) {
+                //sequence 0 means that nothing is written yet
+                return sequence != 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method for reading latest reading of sensor as {@link SensorReading}.
+     *
+     * @param key
+     *         key of sensor
+     * @return reading or null if there is no reading
+     */
+    public SensorReading read(String key) {
+        Entry entry = new Entry();
+        return read(key, entry) ? entry.toReading() : null;
+    }
+
+    /**
+     * Method for finding slot of sensor.
+     *
+     * @param key
+     *         key of sensor
+     * @return index of slot or -1 if sensor has no slot
+     */
+    private int findSlot(String key) {
+        Integer known = slotIndexes.get(key);
+        if (known != null) {
+            return known;
+        }
+        byte[] bytes = keyBytes(key);
+        if (bytes == null) {
+            return -1;
+        }
+        for (int slot = 0; slot < slotCount; ++slot) {
+            int length = buffer.getInt(offset(slot) + KEY_LENGTH);
+            if (length == 0) {
+                //slots are claimed in order, so there is no key after free slot
+                return -1;
+            }
+            if (keyEquals(slot, bytes, length)) {
+                slotIndexes.put(key, slot);
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method for claiming free slot for sensor while holding lock on file. If some other process claimed slot for the
+     * same sensor in the meantime, that slot is returned.
+     *
+     * @param key
+     *         key of sensor
+     * @return index of slot or -1 if there is no free slot or key is too long
+     * @throws IOException
+     *         if file can't be locked
+     */
+    private synchronized int claimSlot(String key) throws IOException {
+        byte[] bytes = keyBytes(key);
+        if (bytes == null) {
+            return -1;
+        }
+        FileLock lock = file.getChannel().lock();
+        try {
+            for (int slot = 0; slot < slotCount; ++slot) {
+                int offset = offset(slot);
+                int length = buffer.getInt(offset + KEY_LENGTH);
+                if (length == 0) {
+                    for (int i = 0; i < bytes.length; ++i) {
+                        buffer.put(offset + KEY + i, bytes[i]);
+                    }
+                    barrier = 0;
+                    //length is written last, so readers never see incomplete key
+                    buffer.putInt(offset + KEY_LENGTH, bytes.length);
+                    slotIndexes.put(key, slot);
+                    return slot;
+                }
+                if (keyEquals(slot, bytes, length)) {
+                    slotIndexes.put(key, slot);
+                    return slot;
+                }
+            }
+            return -1;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Method for comparing key of slot with given key.
+     *
+     * @param slot
+     *         index of slot
+     * @param bytes
+     *         key in UTF-8
+     * @param length
+     *         length of key of slot
+     * @return true if keys are equal
+     */
+    private boolean keyEquals(int slot, byte[] bytes, int length) {
+        if (length != bytes.length) {
+            return false;
+        }
+        int offset = offset(slot) + KEY;
+        for (int i = 0; i < length; ++i) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method for getting key in UTF-8.
+     *
+     * @param key
+     *         key
+     * @return bytes of key or null if key is empty or too long
+     */
+    private static byte[] keyBytes(String key) {
+        try {
+            byte[] bytes = key.getBytes("UTF-8");
+            return bytes.length == 0 || bytes.length > MAX_KEY_LENGTH ? null : bytes;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method for getting offset of slot in file.
+     *
+     * @param slot
+     *         index of slot
+     * @return offset in bytes
+     */
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reusable holder for one reading which is read from region.
+     */
+    public static class Entry {
+        /** Sensor type. */
+        private int type;
+        /** Number of values. */
+        private int count;
+        /** Time of reading. */
+        private long timestamp;
+        /** Values, only first {@link #count} are valid. */
+        private final float[] values = new float[MAX_VALUES];
+
+        /**
+         * Getter for sensor type.
+         *
+         * @return sensor type
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Getter for number of values.
+         *
+         * @return number of values
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Getter for time of reading.
+         *
+         * @return time of reading
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Getter for value with given index.
+         *
+         * @param index
+         *         index of value
+         * @return value
+         */
+        public float getValue(int index) {
+            if (index >= count) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+            }
+            return values[index];
+        }
+
+        /**
+         * Method for making {@link SensorReading} from this entry, values are copied.
+         *
+         * @return reading
+         */
+        public SensorReading toReading() {
+            float[] copy = new float[count];
+            System.arraycopy(values, 0, copy, 0, count);
+            return new SensorReading(type, SensorReading.unitFor(type), timestamp, copy);
+        }
+    }
+}
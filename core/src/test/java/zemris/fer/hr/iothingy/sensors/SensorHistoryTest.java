@@ -0,0 +1,151 @@
+package zemris.fer.hr.iothingy.sensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SensorHistory}.
+ */
+public class SensorHistoryTest {
+
+    @Test
+    public void emptyHistoryHasNoAggregates() {
+        SensorHistory history = new SensorHistory(16, 1, 10000);
+        float[] out = new float[1];
+        assertFalse(history.aggregate("LAST", 0, out));
+        assertFalse(history.aggregate("AVG_10S", 0, out));
+        assertFalse(history.aggregate("MAX_1M", 0, out));
+    }
+
+    @Test
+    public void windowAggregates() {
+        SensorHistory history = new SensorHistory(64, 2, 10000, 60000);
+        for (int i = 0; i < 60; ++i) {
+            history.add(i * 1000L, new float[]{i, -i});
+        }
+        float[] out = new float[2];
+        long now = 59000;
+        assertTrue(history.aggregate("LAST", now, out));
+        assertArrayEquals(new float[]{59, -59}, out, 0);
+        //last 10 seconds contains samples 50..59
+        assertTrue(history.aggregate("AVG_10S", now, out));
+        assertArrayEquals(new float[]{54.5f, -54.5f}, out, 1e-4f);
+        assertTrue(history.aggregate("MIN_10S", now, out));
+        assertArrayEquals(new float[]{50, -59}, out, 0);
+        assertTrue(history.aggregate("MAX_10S", now, out));
+        assertArrayEquals(new float[]{59, -50}, out, 0);
+        assertTrue(history.aggregate("VAR_10S", now, out));
+        assertArrayEquals(new float[]{8.25f, 8.25f}, out, 1e-3f);
+        assertTrue(history.aggregate("MAX_1M", now, out));
+        assertArrayEquals(new float[]{59, 0}, out, 0);
+    }
+
+    @Test
+    public void longestWindowIsKeptWhenEventsAreFasterThanInterval() {
+        SensorHistory history = SensorHistory.forWindows(6, 25, 10000, 60000);
+        float[] out = new float[6];
+        //events every 5 ms for 70 seconds, value is time in seconds
+        for (long t = 0; t <= 70000; t += 5) {
+            history.add(t, new float[]{t / 1000f, 0, 0, 0, 0, -t / 1000f});
+        }
+        assertEquals(60000 / 25 + 1, history.size());
+        assertTrue(history.aggregate("MIN_1M", 70000, out));
+        assertEquals(10, out[0], 0.03f);
+        assertEquals(-70, out[5], 0);
+        assertTrue(history.aggregate("MAX_1M", 70000, out));
+        assertEquals(70, out[0], 0);
+        assertEquals(-10, out[5], 0.03f);
+        assertTrue(history.aggregate("AVG_1M", 70000, out));
+        assertEquals(40, out[0], 0.03f);
+    }
+
+    @Test
+    public void windowMovesWithTimeOfQuery() {
+        SensorHistory history = new SensorHistory(64, 1, 10000);
+        history.add(0, new float[]{5});
+        history.add(1000, new float[]{1});
+        float[] out = new float[1];
+        assertTrue(history.aggregate("MAX_10S", 1000, out));
+        assertEquals(5, out[0], 0);
+        assertTrue(history.aggregate("MAX_10S", 10500, out));
+        assertEquals(1, out[0], 0);
+        assertFalse(history.aggregate("MAX_10S", 20000, out));
+        assertTrue(history.aggregate("LAST", 20000, out));
+        assertEquals(1, out[0], 0);
+    }
+
+    @Test
+    public void overwrittenSamplesLeaveWindow() {
+        SensorHistory history = new SensorHistory(4, 1, 60000);
+        for (int i = 0; i < 10; ++i) {
+            history.add(i, new float[]{10 - i});
+        }
+        assertEquals(4, history.size());
+        float[] out = new float[1];
+        assertTrue(history.aggregate("MAX_1M", 9, out));
+        assertEquals(4, out[0], 0);
+        assertTrue(history.aggregate("AVG_1M", 9, out));
+        assertEquals(2.5f, out[0], 1e-6f);
+    }
+
+    @Test
+    public void runningAggregatesMatchScan() {
+        Random random = new Random(42);
+        //the same windows, only first history has running aggregates
+        SensorHistory running = new SensorHistory(200, 3, 10000, 60000);
+        SensorHistory scanned = new SensorHistory(200, 3);
+        long time = 0;
+        float[] sample = new float[3];
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        String[] aggregates = {"MIN_10S", "MAX_10S", "AVG_10S", "VAR_10S", "MIN_1M", "MAX_1M", "AVG_1M", "VAR_1M"};
+        for (int i = 0; i < 5000; ++i) {
+            time += random.nextInt(500);
+            for (int d = 0; d < 3; ++d) {
+                sample[d] = random.nextFloat() * 20 - 10;
+            }
+            running.add(time, sample);
+            scanned.add(time, sample);
+            if (i % 50 == 0) {
+                long now = time + random.nextInt(20000);
+                for (String aggregate : aggregates) {
+                    boolean found = scanned.aggregate(aggregate, now, expected);
+                    assertEquals(aggregate, found, running.aggregate(aggregate, now, actual));
+                    if (found) {
+                        assertArrayEquals(aggregate, expected, actual, 1e-3f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void missingValuesAreZero() {
+        SensorHistory history = new SensorHistory(4, 3);
+        history.add(0, new float[]{7});
+        float[] out = new float[3];
+        assertTrue(history.aggregate("LAST", 0, out));
+        assertArrayEquals(new float[]{7, 0, 0}, out, 0);
+    }
+
+    @Test
+    public void aggregateNames() {
+        assertTrue(SensorHistory.isValidAggregate("LAST"));
+        assertTrue(SensorHistory.isValidAggregate("avg_10s"));
+        assertTrue(SensorHistory.isValidAggregate("MAX_1M"));
+        assertTrue(SensorHistory.isValidAggregate("VAR_2H"));
+        assertFalse(SensorHistory.isValidAggregate("SUM_10S"));
+        assertFalse(SensorHistory.isValidAggregate("AVG"));
+        assertFalse(SensorHistory.isValidAggregate("AVG_10"));
+        assertFalse(SensorHistory.isValidAggregate("AVG_0S"));
+        assertFalse(SensorHistory.isValidAggregate("AVG_XS"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidAggregateIsRejected() {
+        new SensorHistory(4, 1).aggregate("MEDIAN_10S", 0, new float[1]);
+    }
+}
@@ -0,0 +1,102 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BinaryMessageCodec}.
+ */
+public class BinaryMessageCodecTest {
+
+    /** Message used by tests. */
+    private final Message message = new Message("00000042", "THING_45", "SERVER01",
+            "{\"LIGHT\":{\"VALUES\":[12.5],\"NAMES\":[\"ILLUMINATION \\u00B5\"]},"
+                    + "\"N\":\"\u00B5T \u2103 \uD83D\uDE00\"}",
+            "00000041", "INTERNET", "NONE", "127.0.0.1", 25000);
+
+    @Test
+    public void frameCanBeDecoded() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int length = message.encodeBinary(buffer);
+        assertEquals(length, buffer.position());
+        assertEquals(BinaryMessageCodec.frameLength(message), length);
+        buffer.flip();
+        assertTrue(BinaryMessageCodec.isBinaryFrame(buffer));
+        BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+        assertTrue(BinaryMessageCodec.decode(buffer, frame));
+        assertFalse(buffer.hasRemaining());
+        assertEquals('0', frame.getEncryptionType());
+        assertTrue(frame.idEquals(BinaryMessageCodec.MESSAGE_ID, "00000042"));
+        assertFalse(frame.idEquals(BinaryMessageCodec.MESSAGE_ID, "00000043"));
+        assertEquals("THING_45", frame.getId(BinaryMessageCodec.SRC_ID));
+        assertEquals("SERVER01", frame.getId(BinaryMessageCodec.DEST_ID));
+        assertEquals("00000041", frame.getId(BinaryMessageCodec.PREVIOUS_MESSAGE_ID));
+        assertEquals(message.getJsonData(), frame.getJsonData());
+        assertEquals(message.getJsonData().getBytes("UTF-8").length, frame.getPayloadLength());
+    }
+
+    @Test
+    public void textMessageIsNotBinaryFrame() throws Exception {
+        ByteBuffer text = ByteBuffer.wrap(message.getComSendMessage().getBytes("UTF-8"));
+        assertFalse(BinaryMessageCodec.isBinaryFrame(text));
+    }
+
+    @Test
+    public void partialFrameIsNotDecoded() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        message.encodeBinary(buffer);
+        message.encodeBinary(buffer);
+        int total = buffer.position();
+        BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+        for (int available = 0; available < total / 2; ++available) {
+            ByteBuffer partial = buffer.duplicate();
+            partial.position(0).limit(available);
+            assertFalse(BinaryMessageCodec.decode(partial, frame));
+            assertEquals(0, partial.position());
+        }
+        buffer.flip();
+        assertTrue(BinaryMessageCodec.decode(buffer, frame));
+        assertTrue(BinaryMessageCodec.decode(buffer, frame));
+        assertFalse(BinaryMessageCodec.decode(buffer, frame));
+    }
+
+    @Test
+    public void receivedMessageFromFrame() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        new Message("00000007", "SERVER01", "THING_45", "{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\"]}", "00000006",
+                "INTERNET", "NONE", "127.0.0.1", 25000).encodeBinary(buffer);
+        buffer.flip();
+        BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+        assertTrue(BinaryMessageCodec.decode(buffer, frame));
+        ReceivedServerMessage received = ReceivedServerMessage.parseReceivedFrame(frame, "INTERNET", "NONE",
+                "127.0.0.1", 25000);
+        assertTrue(received.isGetCommand());
+        assertEquals("00000006", received.getPreviousMessageID());
+        assertEquals("SERVER01", received.getSrcID());
+    }
+
+    @Test(expected = java.nio.BufferOverflowException.class)
+    public void smallBufferIsRejected() {
+        message.encodeBinary(ByteBuffer.allocate(10));
+    }
+
+    @Test
+    public void frameFillsBufferExactly() {
+        int length = BinaryMessageCodec.frameLength(message);
+        ByteBuffer buffer = ByteBuffer.allocate(length + 1);
+        buffer.position(1);
+        buffer.limit(length);
+        try {
+            message.encodeBinary(buffer);
+            fail("Frame mustn't fit");
+        } catch (java.nio.BufferOverflowException e) {
+            assertEquals(1, buffer.position());
+        }
+        buffer.limit(length + 1);
+        assertEquals(length, message.encodeBinary(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+}
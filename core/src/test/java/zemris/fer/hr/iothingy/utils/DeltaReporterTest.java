@@ -0,0 +1,208 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DeltaReporter} and rebuilding of sensor state in {@link ReceivedServerMessage}.
+ */
+public class DeltaReporterTest {
+
+    @Test
+    public void changesWithinDeadBandAreListedAsUnchanged() throws Exception {
+        DeltaReporter reporter = new DeltaReporter(0, true);
+        Map<String, SensorReading> readings = new LinkedHashMap<>();
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{300}));
+        readings.put("PROXIMITY", SensorReading.of(SensorReading.TYPE_PROXIMITY, 0, new float[]{5}));
+        assertEquals(SensorJson.createJSONData(readings), reporter.createJSONData("A", readings));
+
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1, new float[]{305}));
+        String json = reporter.createJSONData("A", readings);
+        List<String> unchanged = new ArrayList<>();
+        assertTrue(SensorJson.parseJSONData(json, unchanged).isEmpty());
+        assertEquals(Arrays.asList("LIGHT", "PROXIMITY"), unchanged);
+
+        //proximity has no dead-band, so every change is sent
+        readings.put("PROXIMITY", SensorReading.of(SensorReading.TYPE_PROXIMITY, 2, new float[]{0}));
+        unchanged.clear();
+        Map<String, float[]> sent = SensorJson.parseJSONData(reporter.createJSONData("A", readings), unchanged);
+        assertArrayEquals(new float[]{0}, sent.get("PROXIMITY"), 0);
+        assertEquals(Collections.singletonList("LIGHT"), unchanged);
+
+        //other destination gets everything
+        assertEquals(SensorJson.createJSONData(readings), reporter.createJSONData("B", readings));
+    }
+
+    @Test
+    public void invalidReadingsKeepLastSentValue() {
+        DeltaReporter reporter = new DeltaReporter(0, true);
+        Map<String, SensorReading> readings = new LinkedHashMap<>();
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{300}));
+        reporter.createJSONData("A", readings);
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1, new float[]{Float.NaN}));
+        readings.put("PROXIMITY", null);
+        List<String> unchanged = new ArrayList<>();
+        assertTrue(SensorJson.parseJSONData(reporter.createJSONData("A", readings), unchanged).isEmpty());
+        assertTrue(unchanged.isEmpty());
+        //valid value is compared with value which was sent before invalid one
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 2, new float[]{305}));
+        SensorJson.parseJSONData(reporter.createJSONData("A", readings), unchanged);
+        assertEquals(Collections.singletonList("LIGHT"), unchanged);
+    }
+
+    @Test
+    public void driftIsComparedWithLastSentValue() {
+        DeltaReporter reporter = new DeltaReporter(0, false);
+        reporter.setDeadBand("light", 10);
+        List<String> unchanged = new ArrayList<>();
+        int sent = 0;
+        for (int i = 0; i <= 30; ++i) {
+            Map<String, SensorReading> readings = Collections.singletonMap("LIGHT",
+                    SensorReading.of(SensorReading.TYPE_LIGHT, i, new float[]{100 + 3 * i}));
+            sent += reporter.changes("A", readings, unchanged).size();
+        }
+        //first message and then every fourth step of 3 lux
+        assertEquals(1 + 30 / 4, sent);
+        assertEquals(31 - sent, unchanged.size());
+    }
+
+    @Test
+    public void allSensorsAreSentAfterFullInterval() {
+        DeltaReporter reporter = new DeltaReporter(3, true);
+        Map<String, SensorReading> readings = Collections.singletonMap("LIGHT",
+                SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{100}));
+        int[] expected = {1, 0, 0, 1, 0, 0, 1};
+        for (int count : expected) {
+            assertEquals(count, reporter.changes("A", readings, new ArrayList<String>()).size());
+        }
+        reporter.reset("A");
+        assertEquals(1, reporter.changes("A", readings, new ArrayList<String>()).size());
+    }
+
+    @Test
+    public void failedAddressIsReset() {
+        DeltaReporter reporter = new DeltaReporter(0, true);
+        Map<String, SensorReading> readings = Collections.singletonMap("LIGHT",
+                SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{100}));
+        String[] destinations = {"THING_45@10.0.0.1:25000", "THING_45@10.0.0.1:25000 SERVER01",
+                "THING_45@10.0.0.1:2500", "THING_45@10.0.0.1:250001", "THING_45@10.0.0.2:25000"};
+        for (String destination : destinations) {
+            reporter.changes(destination, readings, new ArrayList<String>());
+        }
+        reporter.resetAddress("10.0.0.1", 25000);
+        int[] expected = {1, 1, 0, 0, 0};
+        for (int i = 0; i < destinations.length; ++i) {
+            assertEquals(destinations[i], expected[i],
+                    reporter.changes(destinations[i], readings, new ArrayList<String>()).size());
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedDestinationIsForgotten() {
+        DeltaReporter reporter = new DeltaReporter(0, true);
+        Map<String, SensorReading> readings = Collections.singletonMap("LIGHT",
+                SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{100}));
+        for (int i = 0; i < DeltaReporter.MAX_DESTINATIONS; ++i) {
+            reporter.changes("D" + i, readings, new ArrayList<String>());
+        }
+        reporter.changes("D0", readings, new ArrayList<String>());
+        reporter.changes("NEW", readings, new ArrayList<String>());
+        assertEquals(0, reporter.changes("D0", readings, new ArrayList<String>()).size());
+        assertEquals(1, reporter.changes("D1", readings, new ArrayList<String>()).size());
+    }
+
+    @Test
+    public void receiverRebuildsFullState() {
+        Map<String, float[]> known = new HashMap<>();
+        ReceivedServerMessage.rebuildSensorData(known,
+                "{\"LIGHT\":{\"VALUES\":[300.0]},\"GPS\":{\"VALUES\":[45.8,15.9,120.0]}}");
+        Map<String, float[]> state = ReceivedServerMessage.rebuildSensorData(known,
+                "{\"LIGHT\":{\"VALUES\":[350.0],\"NAMES\":[\"ILLUMINATION\"]},\"UNCHANGED\":[\"GPS\"]}");
+        assertEquals(2, state.size());
+        assertArrayEquals(new float[]{350}, state.get("LIGHT"), 0);
+        assertArrayEquals(new float[]{45.8f, 15.9f, 120}, state.get("GPS"), 0);
+        try {
+            ReceivedServerMessage.rebuildSensorData(new HashMap<String, float[]>(), "{\"UNCHANGED\":[\"GPS\"]}");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //receiver needs full message
+        }
+    }
+
+    @Test
+    public void recordedTraceIsRebuiltWithinDeadBands() throws Exception {
+        DeltaReporter reporter = new DeltaReporter(DeltaReporter.DEFAULT_FULL_INTERVAL, true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/sensor_trace.csv"), "UTF-8"));
+        long fullBytes = 0;
+        long deltaBytes = 0;
+        int messages = 0;
+        Map<String, SensorReading> readings = new LinkedHashMap<>();
+        long tick = -1;
+        Map<String, float[]> known = new HashMap<>();
+        try {
+            String line;
+            while (true) {
+                line = in.readLine();
+                while (line != null && line.startsWith("#")) {
+                    line = in.readLine();
+                }
+                String[] fields = line == null ? null : line.split(",");
+                long timestamp = fields == null ? -1 : Long.parseLong(fields[0]);
+                if ((fields == null || timestamp != tick) && !readings.isEmpty()) {
+                    //all sensors of one tick are read, send them
+                    String full = SensorJson.createJSONData(readings);
+                    String delta = reporter.createJSONData("SERVER01", readings);
+                    fullBytes += full.getBytes("UTF-8").length;
+                    deltaBytes += delta.getBytes("UTF-8").length;
+                    messages++;
+                    assertRebuilt(readings, ReceivedServerMessage.rebuildSensorData(known, delta));
+                    readings.clear();
+                }
+                if (fields == null) {
+                    break;
+                }
+                tick = timestamp;
+                float[] values = new float[fields.length - 3];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = Float.parseFloat(fields[3 + i]);
+                }
+                readings.put(fields[1], SensorReading.of(Integer.parseInt(fields[2]), timestamp, values));
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(600, messages);
+        //recorded trace saves about 62 %
+        assertTrue("full " + fullBytes + " B, delta " + deltaBytes + " B", deltaBytes <= fullBytes * 0.4);
+    }
+
+    /**
+     * Method for checking that rebuilt state differs from real readings at most by default dead-bands.
+     */
+    private static void assertRebuilt(Map<String, SensorReading> readings, Map<String, float[]> rebuilt) {
+        assertEquals(readings.keySet(), rebuilt.keySet());
+        for (Map.Entry<String, SensorReading> entry : readings.entrySet()) {
+            SensorReading reading = entry.getValue();
+            float[] values = rebuilt.get(entry.getKey());
+            for (int i = 0; i < reading.size(); ++i) {
+                float deadBand = reading.getType() == SensorReading.TYPE_GPS ? (i < 2 ? 0.0001f : 5) :
+                        reading.getType() == SensorReading.TYPE_ACCELEROMETER ? 0.1f :
+                        reading.getType() == SensorReading.TYPE_LIGHT ? 10 :
+                        reading.getType() == SensorReading.TYPE_PRESSURE ? 0.1f : 0;
+                assertEquals(entry.getKey(), reading.getValue(i), values[i], deadBand * 1.0001f);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JsonPullParser} and parsing of messages which uses it.
+ */
+public class JsonPullParserTest {
+
+    @Test
+    public void tokens() {
+        JsonPullParser parser = new JsonPullParser(" {\"a\" : [1, -2.5e3, true, null, \"x\\\"y\\u0041\"], \"B\":{}} ");
+        assertEquals(JsonPullParser.BEGIN_OBJECT, parser.next());
+        assertEquals(JsonPullParser.NAME, parser.next());
+        assertTrue(parser.nameEquals("A"));
+        assertEquals(JsonPullParser.BEGIN_ARRAY, parser.next());
+        assertEquals(JsonPullParser.NUMBER, parser.next());
+        assertEquals(1f, parser.getFloat(), 0);
+        assertEquals(JsonPullParser.NUMBER, parser.next());
+        assertEquals(-2500f, parser.getFloat(), 0);
+        assertEquals(JsonPullParser.BOOLEAN, parser.next());
+        assertTrue(parser.getBoolean());
+        assertEquals(JsonPullParser.NULL, parser.next());
+        assertEquals(JsonPullParser.STRING, parser.next());
+        assertEquals("x\"yA", parser.getString());
+        assertEquals(JsonPullParser.END_ARRAY, parser.next());
+        assertEquals(JsonPullParser.NAME, parser.next());
+        assertEquals("B", parser.getString());
+        assertEquals(JsonPullParser.BEGIN_OBJECT, parser.next());
+        assertEquals(JsonPullParser.END_OBJECT, parser.next());
+        assertEquals(JsonPullParser.END_OBJECT, parser.next());
+        assertEquals(JsonPullParser.END_DOCUMENT, parser.next());
+    }
+
+    @Test
+    public void skipValue() {
+        JsonPullParser parser = new JsonPullParser("{\"skip\":{\"a\":[1,{\"b\":[]}]},\"keep\":3}");
+        parser.expect(JsonPullParser.BEGIN_OBJECT);
+        parser.expect(JsonPullParser.NAME);
+        parser.skipValue();
+        parser.expect(JsonPullParser.NAME);
+        assertTrue(parser.nameEquals("keep"));
+        parser.expect(JsonPullParser.NUMBER);
+        assertEquals(3f, parser.getFloat(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unterminatedObject() {
+        JsonPullParser parser = new JsonPullParser("{\"a\":[1,2]");
+        while (parser.next() != JsonPullParser.END_DOCUMENT) {
+            //read everything
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedBracket() {
+        JsonPullParser parser = new JsonPullParser("{\"a\":[1,2}}");
+        while (parser.next() != JsonPullParser.END_DOCUMENT) {
+            //read everything
+        }
+    }
+
+    @Test
+    public void sensorDataRoundTrip() {
+        String json = "{\"SENSOR_0\":{\"VALUES\":[0.0,-9.81,0.5],\"NAMES\":[\"X\",\"Y\",\"Z\"]},"
+                + "\"SENSOR_1\":{\"VALUES\":[0.125,-9.81,1.5],\"NAMES\":[\"X\",\"Y\",\"Z\"]},"
+                + "\"SENSOR_2\":{\"VALUES\":[0.25,-9.81,2.5],\"NAMES\":[\"X\",\"Y\",\"Z\"]}}";
+        Map<String, float[]> sensors = SensorJson.parseJSONData(json);
+        assertEquals(3, sensors.size());
+        assertArrayEquals(new float[]{0.25f, -9.81f, 2.5f}, sensors.get("SENSOR_2"), 0);
+    }
+
+    @Test
+    public void getCommand() {
+        ReceivedServerMessage message = received("{\"cmd\":\"get\",\"sensor\":[\"gps\",\"light\"],\"agg\":\"avg_10s\"}");
+        assertTrue(message.isGetCommand());
+        assertEquals("GET:\nGPS LIGHT", message.returnMsgDataInfo());
+        assertEquals("AVG_10S", message.getAggregate());
+        message = received("{\"EXTRA\":{\"X\":[1]},\"SENSOR\":[\"GPS\"],\"CMD\":\"GET\"}");
+        assertEquals("GET:\nGPS", message.returnMsgDataInfo());
+        assertEquals("LAST", message.getAggregate());
+    }
+
+    @Test
+    public void invalidCommands() {
+        assertEquals("ERROR:\nERROR", received("{\"SENSOR\":[\"GPS\"]}").returnMsgDataInfo());
+        assertEquals("ERROR:\nERROR", received("{\"CMD\":\"GET\",\"SENSOR\":[]}").returnMsgDataInfo());
+        assertEquals("ERROR:\nERROR", received("{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\"],\"AGG\":\"X\"}")
+                .returnMsgDataInfo());
+        assertEquals("ERROR:\nERROR", received("not json").returnMsgDataInfo());
+        assertFalse(received("{\"CMD\":\"STOP\"}").isGetCommand());
+    }
+
+    /**
+     * Method for creating received message with given JSON data.
+     *
+     * @param jsonData
+     *         JSON data
+     * @return message
+     */
+    private static ReceivedServerMessage received(String jsonData) {
+        return new ReceivedServerMessage("00000001", "SERVER01", "THING_45", jsonData, "00000000", "INTERNET", "NONE",
+                "127.0.0.1", 25000);
+    }
+}
@@ -0,0 +1,46 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JsonStreamWriter}.
+ */
+public class JsonStreamWriterTest {
+
+    @Test
+    public void nestedStructures() {
+        StringBuilder out = new StringBuilder();
+        new JsonStreamWriter(out).beginObject()
+                .name("A").beginArray().value(1.5f).value(-2).value(true).value((String) null).endArray()
+                .name("B").beginObject().endObject()
+                .name("C").beginArray().beginArray().endArray().beginObject().name("D").value("x").endObject()
+                .endArray()
+                .endObject();
+        assertEquals("{\"A\":[1.5,-2,true,null],\"B\":{},\"C\":[[],{\"D\":\"x\"}]}", out.toString());
+    }
+
+    @Test
+    public void stringsAreEscaped() throws Exception {
+        StringBuilder out = new StringBuilder();
+        String text = "quote \" backslash \\ new line \n tab \t control \u0001 unicode š";
+        new JsonStreamWriter(out).beginObject().name("TEXT").value(text).endObject();
+        assertEquals(text, new JSONObject(out.toString()).getString("TEXT"));
+    }
+
+    @Test
+    public void writerCanBeReused() {
+        JsonStreamWriter writer = new JsonStreamWriter(new StringBuilder());
+        writer.beginArray().value(1).value(2);
+        StringBuilder out = new StringBuilder();
+        writer.reset(out).beginArray().value(3).endArray();
+        assertEquals("[3]", out.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanIsRejected() {
+        new JsonStreamWriter(new StringBuilder()).beginArray().value(Float.NaN);
+    }
+}
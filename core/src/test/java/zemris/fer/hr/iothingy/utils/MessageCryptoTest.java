@@ -0,0 +1,185 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageCrypto}.
+ */
+public class MessageCryptoTest {
+
+    /** JSON data used by tests. */
+    private static final String JSON = "{\"CMD\":\"GET\",\"SENSOR\":[\"LIGHT\"],\"N\":\"\u00B5T \u2103 \uD83D\uDE00\"}";
+
+    @Before
+    public void setUp() throws Exception {
+        MessageCrypto.setMasterSecret("test secret".getBytes("UTF-8"));
+    }
+
+    @After
+    public void tearDown() {
+        MessageCrypto.setMasterSecret(null);
+    }
+
+    @Test
+    public void textMessagesCanBeRead() throws Exception {
+        for (String encryption : new String[]{"NONE", "FULL", "HMAC"}) {
+            String line = message(encryption).getComSendMessage();
+            assertEquals(MessageCrypto.typeOf(encryption), line.charAt(0));
+            ReceivedServerMessage received = ReceivedServerMessage.parseReceivedMessage(line, "INTERNET", encryption,
+                    "127.0.0.1", "25000");
+            assertEquals("00000042", received.getMessageID());
+            assertEquals("THING_45", received.getSrcID());
+            assertEquals("SERVER01", received.getDestID());
+            assertEquals("00000041", received.getPreviousMessageID());
+            assertEquals(JSON, received.getJsonData());
+        }
+    }
+
+    @Test
+    public void fullEncryptionHidesMessage() throws Exception {
+        String first = message("FULL").getComSendMessage();
+        String second = message("FULL").getComSendMessage();
+        //only source ID is in clear, receiver needs it to find the key
+        assertTrue(first.startsWith("1THING_45"));
+        assertFalse(first.contains("SERVER01"));
+        assertFalse(first.contains("LIGHT"));
+        //every message has its own nonce
+        assertFalse(first.equals(second));
+    }
+
+    @Test
+    public void changedTextMessagesAreRejected() throws Exception {
+        for (String encryption : new String[]{"FULL", "HMAC"}) {
+            String line = message(encryption).getComSendMessage();
+            char[] changed = line.toCharArray();
+            changed[5] = changed[5] == 'A' ? 'B' : 'A';
+            assertRejected(new String(changed), encryption, 25000);
+            //other destination has other key
+            assertRejected(line, encryption, 25001);
+        }
+    }
+
+    @Test
+    public void everySourceHasItsOwnKey() throws Exception {
+        byte[] data = "data".getBytes("UTF-8");
+        assertFalse(Arrays.equals(MessageCrypto.session("THING_45", "127.0.0.1", 25000).mac().doFinal(data),
+                MessageCrypto.session("THING_46", "127.0.0.1", 25000).mac().doFinal(data)));
+        assertSame(MessageCrypto.session("THING_45", "127.0.0.1", 25000),
+                MessageCrypto.session("THING_45", "127.0.0.1", 25000));
+        //message can't be passed off as message of other source
+        String line = message("FULL").getComSendMessage();
+        assertRejected("1THING_46" + line.substring(9), "FULL", 25000);
+    }
+
+    @Test
+    public void protectionNeedsSecret() throws Exception {
+        MessageCrypto.setMasterSecret(new byte[0]);
+        assertFalse(MessageCrypto.hasMasterSecret());
+        assertTrue(message("NONE").getComSendMessage().startsWith("000000042THING_45"));
+        for (String encryption : new String[]{"FULL", "HMAC"}) {
+            try {
+                message(encryption).getComSendMessage();
+                fail(encryption + " message is sent without secret");
+            } catch (IllegalStateException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void framesAreProtectedInPlace() throws Exception {
+        for (String encryption : new String[]{"NONE", "FULL", "HMAC"}) {
+            Message message = message(encryption);
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            int length = message.encodeBinary(buffer);
+            assertEquals(BinaryMessageCodec.frameLength(message) + MessageCrypto.overhead(
+                    MessageCrypto.typeOf(encryption)), length);
+            message.encodeBinary(buffer);
+            buffer.flip();
+            BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+            for (int i = 0; i < 2; ++i) {
+                assertTrue(MessageCrypto.open(buffer, frame, "127.0.0.1", 25000));
+                assertEquals(MessageCrypto.typeOf(encryption), (char) frame.getEncryptionType());
+                assertEquals("THING_45", frame.getId(BinaryMessageCodec.SRC_ID));
+                assertEquals(JSON, frame.getJsonData());
+            }
+            assertFalse(buffer.hasRemaining());
+            assertFalse(MessageCrypto.open(buffer, frame, "127.0.0.1", 25000));
+        }
+    }
+
+    @Test
+    public void fullEncryptionHidesFramePayload() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int length = message("FULL").encodeBinary(buffer);
+        String frame = new String(buffer.array(), 0, length, "ISO-8859-1");
+        assertTrue(frame.contains("THING_45"));
+        assertFalse(frame.contains("SENSOR"));
+    }
+
+    @Test
+    public void incompleteFrameIsNotOpened() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        message("FULL").encodeBinary(buffer);
+        buffer.flip();
+        ByteBuffer partial = buffer.duplicate();
+        partial.limit(buffer.limit() - 1);
+        assertFalse(MessageCrypto.open(partial, new BinaryMessageCodec.Frame(), "127.0.0.1", 25000));
+        assertEquals(0, partial.position());
+    }
+
+    @Test
+    public void changedFramesAreRejected() throws Exception {
+        for (String encryption : new String[]{"FULL", "HMAC"}) {
+            //one byte of message ID and one byte of JSON data
+            for (int index : new int[]{8, 40}) {
+                ByteBuffer buffer = ByteBuffer.allocate(1024);
+                int length = message(encryption).encodeBinary(buffer);
+                buffer.put(index, (byte) (buffer.get(index) ^ 1));
+                buffer.flip();
+                try {
+                    MessageCrypto.open(buffer, new BinaryMessageCodec.Frame(), "127.0.0.1", 25000);
+                    fail("Changed " + encryption + " frame of " + length + " bytes is accepted");
+                } catch (IllegalArgumentException e) {
+                    //expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void base64RoundTrip() throws Exception {
+        for (int length = 0; length < 10; ++length) {
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; ++i) {
+                data[i] = (byte) (37 * i - 128);
+            }
+            String text = MessageCrypto.base64(data);
+            assertEquals(0, text.length() % 4);
+            assertArrayEquals(data, MessageCrypto.unbase64(text));
+        }
+        assertEquals("Zm9vYmFy", MessageCrypto.base64("foobar".getBytes("UTF-8")));
+        assertEquals("Zm9vYg==", MessageCrypto.base64("foob".getBytes("UTF-8")));
+    }
+
+    private static Message message(String encryption) {
+        return new Message("00000042", "THING_45", "SERVER01", JSON, "00000041", "INTERNET", encryption,
+                "127.0.0.1", 25000);
+    }
+
+    private static void assertRejected(String line, String encryption, int port) {
+        try {
+            ReceivedServerMessage.parseReceivedMessage(line, "INTERNET", encryption, "127.0.0.1", "" + port);
+            fail("Changed " + encryption + " message is accepted");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageIdGenerator}.
+ */
+public class MessageIdGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        MessageIdGenerator.setSharedFile(null);
+    }
+
+    @Test
+    public void idsHaveEightDigits() throws Exception {
+        MessageIdGenerator generator = new MessageIdGenerator(41);
+        assertEquals("00000042", generator.nextId());
+        char[] out = new char[10];
+        assertEquals(43, generator.next(out, 1));
+        assertEquals("00000043", new String(out, 1, 8));
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        assertEquals(44, generator.next(buffer));
+        assertEquals("00000044", new String(buffer.array(), "US-ASCII"));
+        assertEquals(8, buffer.position());
+    }
+
+    @Test
+    public void idsWrapAroundWithoutZero() throws Exception {
+        MessageIdGenerator generator = new MessageIdGenerator(MessageIdGenerator.MODULUS - 2);
+        assertEquals("99999999", generator.nextId());
+        assertEquals("00000001", generator.nextId());
+        assertEquals(2, generator.nextValue());
+    }
+
+    @Test
+    public void idsCanBeParsed() throws Exception {
+        assertEquals(42, MessageIdGenerator.parse("00000042"));
+        assertEquals(99999999, MessageIdGenerator.parse("99999999"));
+        assertEquals(-1, MessageIdGenerator.parse("0000042"));
+        assertEquals(-1, MessageIdGenerator.parse("0000004a"));
+        assertEquals(-1, MessageIdGenerator.parse(null));
+    }
+
+    @Test
+    public void deviceHasOneGenerator() throws Exception {
+        MessageIdGenerator generator = MessageIdGenerator.forDevice("THING_45");
+        assertSame(generator, MessageIdGenerator.forDevice("THING_45"));
+        int first = generator.nextValue();
+        int second = MessageIdGenerator.forDevice("THING_45").nextValue();
+        assertEquals(first == 99999999 ? 1 : first + 1, second);
+    }
+
+    @Test
+    public void concurrentIdsAreUnique() throws Exception {
+        final MessageIdGenerator generator = new MessageIdGenerator(MessageIdGenerator.MODULUS - 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<Integer>>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            futures.add(executor.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() {
+                    List<Integer> ids = new ArrayList<>();
+                    for (int i = 0; i < 10000; ++i) {
+                        ids.add(generator.nextValue());
+                    }
+                    return ids;
+                }
+            }));
+        }
+        Set<Integer> all = new HashSet<>();
+        for (Future<List<Integer>> future : futures) {
+            for (int id : future.get()) {
+                assertTrue(id > 0);
+                assertTrue(all.add(id));
+            }
+        }
+        executor.shutdown();
+        assertEquals(40000, all.size());
+    }
+
+    @Test
+    public void processesSharingFileHaveDisjointIds() throws Exception {
+        File file = new File(folder.getRoot(), "message_ids");
+        MessageIdGenerator.setSharedFile(file);
+        //generators with same starting point, like generators of same device in two processes
+        MessageIdGenerator main = new MessageIdGenerator(41);
+        MessageIdGenerator replies = new MessageIdGenerator(41);
+        assertEquals(42, main.nextValue());
+        assertEquals(42 + MessageIdGenerator.BLOCK_SIZE, replies.nextValue());
+        Set<Integer> all = new HashSet<>();
+        for (int i = 0; i < 3 * MessageIdGenerator.BLOCK_SIZE; ++i) {
+            assertTrue(all.add(main.nextValue()));
+            assertTrue(all.add(replies.nextValue()));
+        }
+
+        //restarted process continues after all reserved blocks
+        MessageIdGenerator restarted = new MessageIdGenerator(41);
+        assertEquals(42 + 8 * MessageIdGenerator.BLOCK_SIZE, restarted.nextValue());
+    }
+
+    @Test
+    public void unusableFileKeepsIdsInProcess() throws Exception {
+        MessageIdGenerator.setSharedFile(folder.getRoot());
+        MessageIdGenerator generator = new MessageIdGenerator(41);
+        for (int i = 0; i < MessageIdGenerator.BLOCK_SIZE; ++i) {
+            generator.nextValue();
+        }
+        assertEquals(42 + MessageIdGenerator.BLOCK_SIZE, generator.nextValue());
+    }
+}
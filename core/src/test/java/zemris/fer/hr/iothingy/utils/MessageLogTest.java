@@ -0,0 +1,113 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link MessageLog}.
+ */
+public class MessageLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Log file. */
+    private File file;
+    /** Log used by test. */
+    private MessageLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "messages.log");
+        log = new MessageLog(file);
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+    }
+
+    @Test
+    public void recordsAreKeptInOrder() throws Exception {
+        log.append("00000001", "first");
+        log.append("00000002", "second");
+        log.append("00000003", "third");
+        assertEquals(Arrays.asList("first", "second", "third"), log.records());
+        assertTrue(log.remove("00000002"));
+        assertFalse(log.remove("00000002"));
+        assertEquals(Arrays.asList("first", "third"), log.records());
+        assertEquals("third", log.get("00000003"));
+        assertNull(log.get("00000002"));
+        assertEquals(2, log.size());
+    }
+
+    @Test
+    public void recordWithSameIdIsReplaced() throws Exception {
+        log.append("00000001", "first");
+        log.append("00000002", "second");
+        log.append("00000001", "\u00B5T first again");
+        assertEquals(Arrays.asList("second", "\u00B5T first again"), log.records());
+    }
+
+    @Test
+    public void logIsRestoredAfterReopen() throws Exception {
+        log.append("00000001", "first");
+        log.append("00000002", "second");
+        log.remove("00000001");
+        log.close();
+        log = new MessageLog(file);
+        assertEquals(Arrays.asList("second"), log.records());
+    }
+
+    @Test
+    public void otherInstanceSeesChanges() throws Exception {
+        MessageLog other = new MessageLog(file);
+        log.append("00000001", "first");
+        assertEquals(Arrays.asList("first"), other.records());
+        other.append("00000002", "second");
+        other.remove("00000001");
+        assertEquals(Arrays.asList("second"), log.records());
+        log.compact();
+        other.append("00000003", "third");
+        assertEquals(Arrays.asList("second", "third"), log.records());
+        assertEquals(Arrays.asList("second", "third"), other.records());
+        other.close();
+    }
+
+    @Test
+    public void compactionRemovesDeadRecords() throws Exception {
+        for (int i = 0; i < 100; ++i) {
+            log.append(String.format("%08d", i), "record " + i);
+        }
+        for (int i = 0; i < 90; ++i) {
+            log.remove(String.format("%08d", i));
+        }
+        long liveBytes = log.getLiveBytes();
+        log.compact();
+        assertEquals(0, log.getDeadBytes());
+        assertEquals(liveBytes, file.length());
+        assertEquals(10, log.records().size());
+        assertEquals("record 95", log.get("00000095"));
+    }
+
+    @Test
+    public void unfinishedRecordIsTruncated() throws Exception {
+        log.append("00000001", "first");
+        log.close();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write("+00000002\tunfini".getBytes("UTF-8"));
+        out.close();
+        log = new MessageLog(file);
+        log.append("00000003", "third");
+        assertEquals(Arrays.asList("first", "third"), log.records());
+    }
+}
@@ -0,0 +1,177 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for handling of GET commands by {@link ReceivedServerMessage} with sensor values from {@link
+ * SensorValueSource}, and for storing received messages in {@link LogMessageStore}.
+ */
+public class ReceivedServerMessageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void latestValuesAreSent() {
+        FakeSource source = new FakeSource();
+        source.latest.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1000, new float[]{120}));
+        source.latest.put("GPS", SensorReading.of(SensorReading.TYPE_GPS, 1000, new float[]{45.8f, 15.9f, 120}));
+        ReceivedServerMessage message = parse("{\"CMD\":\"GET\",\"SENSOR\":[\"light\",\"gps\",\"proximity\"]}");
+        Message response = message.responseMessage(source);
+        assertEquals(Arrays.asList("LIGHT", "GPS", "PROXIMITY"), source.latestKeys);
+        assertTrue(source.aggregates.isEmpty());
+        assertEquals("THING_45", response.getSrcID());
+        assertEquals("SERVER01", response.getDestID());
+        assertEquals("00000043", response.getPreviousMessageID());
+        Map<String, float[]> sensors = SensorJson.parseJSONData(response.getJsonData());
+        assertEquals(2, sensors.size());
+        assertArrayEquals(new float[]{120}, sensors.get("LIGHT"), 0);
+        assertArrayEquals(new float[]{45.8f, 15.9f, 120}, sensors.get("GPS"), 0);
+    }
+
+    @Test
+    public void aggregatesAreReadForEverySensor() {
+        FakeSource source = new FakeSource();
+        source.aggregated.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1000, new float[]{80}));
+        ReceivedServerMessage message = parse("{\"CMD\":\"GET\",\"SENSOR\":[\"LIGHT\",\"GPS\"],\"AGG\":\"avg_10s\"}");
+        Message response = message.responseMessage(source);
+        assertEquals(Arrays.asList("LIGHT AVG_10S", "GPS AVG_10S"), source.aggregates);
+        assertTrue(source.latestKeys.isEmpty());
+        Map<String, float[]> sensors = SensorJson.parseJSONData(response.getJsonData());
+        assertEquals(1, sensors.size());
+        assertArrayEquals(new float[]{80}, sensors.get("LIGHT"), 0);
+    }
+
+    @Test
+    public void otherCommandsHaveNoResponse() {
+        FakeSource source = new FakeSource();
+        assertNull(parse("{\"CMD\":\"PING\"}").responseMessage(source));
+        assertNull(parse("not JSON").responseMessage(source));
+        assertTrue(source.latestKeys.isEmpty());
+    }
+
+    @Test
+    public void subscriptionUpdatesPointToSubscription() {
+        FakeSource source = new FakeSource();
+        source.latest.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1000, new float[]{120}));
+        ReceivedServerMessage message = parse("{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"light\"],\"PERIOD\":250}");
+        assertTrue(message.isSubscribeCommand());
+        assertFalse(message.isGetCommand());
+        assertNull(message.responseMessage(source));
+        assertEquals(250, message.getPeriod());
+        Message first = message.updateMessage(source);
+        Message second = message.updateMessage(source);
+        assertNotEquals(first.getMessageID(), second.getMessageID());
+        assertEquals("00000043", first.getPreviousMessageID());
+        assertEquals("00000043", second.getPreviousMessageID());
+        assertArrayEquals(new float[]{120}, SensorJson.parseJSONData(second.getJsonData()).get("LIGHT"), 0);
+
+        assertEquals(ReceivedServerMessage.DEFAULT_PERIOD,
+                parse("{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"]}").getPeriod());
+        assertTrue(parse("{\"CMD\":\"UNSUBSCRIBE\"}").isUnsubscribeCommand());
+        assertNull(parse("{\"CMD\":\"UNSUBSCRIBE\"}").updateMessage(source));
+        //too short period and subscription without sensors are invalid
+        assertFalse(parse("{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":10}").isSubscribeCommand());
+        assertFalse(parse("{\"CMD\":\"SUBSCRIBE\",\"PERIOD\":1000}").isSubscribeCommand());
+        //period is integer number of milliseconds, float would round it
+        assertEquals(86400001, parse("{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":86400001}").getPeriod());
+        assertFalse(parse("{\"CMD\":\"SUBSCRIBE\",\"SENSOR\":[\"LIGHT\"],\"PERIOD\":250.5}").isSubscribeCommand());
+    }
+
+    @Test
+    public void storedMessagesAreReadBack() throws Exception {
+        MessageLog log = new MessageLog(new File(folder.getRoot(), "inbox.log"));
+        MessageStore store = new LogMessageStore(log);
+        ReceivedServerMessage first = parse("{\"CMD\":\"GET\",\"SENSOR\":[\"LIGHT\"]}");
+        ReceivedServerMessage second = ReceivedServerMessage.parseReceivedMessage(
+                "000000044SERVER01THING_4500000042{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\"]}", "INTERNET", "NONE",
+                "10.129.71.41", "25000");
+        store.add(first);
+        store.add(second);
+        List<ReceivedServerMessage> all = store.getAll();
+        assertEquals(2, all.size());
+        assertEquals(first.storeMsgFormat(), all.get(0).storeMsgFormat());
+        assertEquals(second.storeMsgFormat(), all.get(1).storeMsgFormat());
+        assertEquals("GPS", store.get(second.getStoreKey()).returnMsgDataInfo().split("\n")[1]);
+        assertTrue(store.remove(first.getStoreKey()));
+        assertFalse(store.remove(first.getStoreKey()));
+        assertNull(store.get(first.getStoreKey()));
+        assertEquals(1, store.getAll().size());
+        log.close();
+    }
+
+    @Test
+    public void serversWithSameMessageIdDontOverwriteEachOther() throws Exception {
+        MessageLog log = new MessageLog(new File(folder.getRoot(), "inbox.log"));
+        MessageStore store = new LogMessageStore(log);
+        ReceivedServerMessage first = parse("{\"CMD\":\"GET\",\"SENSOR\":[\"LIGHT\"]}");
+        ReceivedServerMessage second = ReceivedServerMessage.parseReceivedMessage(
+                "000000043SERVER02THING_4500000042{\"CMD\":\"GET\",\"SENSOR\":[\"GPS\"]}", "INTERNET", "NONE",
+                "10.129.71.42", "25000");
+        store.add(first);
+        store.add(second);
+        assertNotEquals(first.getStoreKey(), second.getStoreKey());
+        assertEquals(2, store.getAll().size());
+        assertEquals("SERVER02", store.get(second.getStoreKey()).getSrcID());
+        assertTrue(store.remove(first.getStoreKey()));
+        assertEquals("SERVER02", store.getAll().get(0).getSrcID());
+        log.close();
+    }
+
+    /**
+     * Method for parsing received line with given JSON data.
+     *
+     * @param jsonData
+     *         JSON data
+     * @return message
+     */
+    private static ReceivedServerMessage parse(String jsonData) {
+        return ReceivedServerMessage.parseReceivedMessage("000000043SERVER01THING_4500000042" + jsonData, "INTERNET",
+                "NONE", "10.129.71.41", "25000");
+    }
+
+    /**
+     * Source which returns configured readings and remembers what is asked.
+     */
+    private static class FakeSource implements SensorValueSource {
+        /** Latest readings by sensor keys. */
+        private final Map<String, SensorReading> latest = new HashMap<>();
+        /** Aggregated readings by sensor keys. */
+        private final Map<String, SensorReading> aggregated = new HashMap<>();
+        /** Keys for which latest readings are asked. */
+        private final List<String> latestKeys = new ArrayList<>();
+        /** Keys and aggregates for which aggregated readings are asked. */
+        private final List<String> aggregates = new ArrayList<>();
+
+        @Override
+        public Map<String, SensorReading> getLatestReadings(Collection<String> keys) {
+            latestKeys.addAll(keys);
+            Map<String, SensorReading> readings = new HashMap<>();
+            for (String key : keys) {
+                if (latest.containsKey(key)) {
+                    readings.put(key, latest.get(key));
+                }
+            }
+            return readings;
+        }
+
+        @Override
+        public SensorReading getAggregatedReading(String key, String aggregate) {
+            aggregates.add(key + " " + aggregate);
+            return aggregated.get(key);
+        }
+    }
+}
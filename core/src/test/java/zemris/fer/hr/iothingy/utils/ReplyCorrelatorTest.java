@@ -0,0 +1,66 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ReplyCorrelator}.
+ */
+public class ReplyCorrelatorTest {
+
+    /** Correlator used by tests. */
+    private final ReplyCorrelator<String> correlator = new ReplyCorrelator<>(2);
+
+    @Test
+    public void repliesAreMatchedWithRequests() throws Exception {
+        assertTrue(correlator.register(42, "first", 0));
+        assertTrue(correlator.register(43, "second", 0));
+        assertFalse(correlator.register(42, "again", 0));
+        assertEquals(2, correlator.size());
+        assertEquals("second", correlator.complete(43, 100));
+        assertEquals("first", correlator.complete(42, 101));
+        assertEquals(0, correlator.size());
+        //reply to unknown request
+        assertNull(correlator.complete(44, 102));
+        assertFalse(correlator.isDuplicate(44, 102));
+    }
+
+    @Test
+    public void duplicateRepliesAreDetected() throws Exception {
+        correlator.register(42, "first", 0);
+        assertEquals("first", correlator.complete(42, 100));
+        assertNull(correlator.complete(42, 100));
+        assertTrue(correlator.isDuplicate(42, 100));
+        //other reply to the same request isn't duplicate
+        assertFalse(correlator.isDuplicate(42, 101));
+    }
+
+    @Test
+    public void onlyRecentAnswersAreRemembered() throws Exception {
+        for (int id = 1; id <= 3; ++id) {
+            correlator.register(id, "request" + id, 0);
+            correlator.complete(id, 100 + id);
+        }
+        assertFalse(correlator.isDuplicate(1, 101));
+        assertTrue(correlator.isDuplicate(2, 102));
+        assertTrue(correlator.isDuplicate(3, 103));
+        //ID which is issued again after wraparound is new request
+        assertTrue(correlator.register(3, "again", 0));
+        assertFalse(correlator.isDuplicate(3, 103));
+        assertEquals("again", correlator.complete(3, 103));
+    }
+
+    @Test
+    public void oldRequestsExpire() throws Exception {
+        correlator.register(1, "old", 0);
+        correlator.register(2, "new", 500);
+        assertEquals(Collections.singletonList("old"), correlator.expire(1000, 1000));
+        assertEquals(1, correlator.size());
+        assertEquals(Arrays.asList("new"), correlator.expire(1500, 1000));
+        assertEquals(0, correlator.size());
+    }
+}
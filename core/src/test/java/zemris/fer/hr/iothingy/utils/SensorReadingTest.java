@@ -0,0 +1,117 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SensorReading}.
+ */
+public class SensorReadingTest {
+
+    @Test
+    public void compactFormIsLossless() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; ++i) {
+            float[] values = new float[1 + random.nextInt(6)];
+            for (int j = 0; j < values.length; ++j) {
+                values[j] = Float.intBitsToFloat(random.nextInt());
+                if (Float.isNaN(values[j])) {
+                    values[j] = Float.NaN;
+                }
+            }
+            SensorReading reading = new SensorReading(random.nextInt(40) - 1,
+                    SensorReading.Unit.values()[random.nextInt(SensorReading.Unit.values().length)],
+                    random.nextLong(), values);
+            assertEquals(reading, SensorReading.decode(reading.encode()));
+        }
+    }
+
+    @Test
+    public void readingKeepsValuesOfSensorType() {
+        float[] values = {1.5f, 2.25f, 3.125f, 4, 5, 6};
+        SensorReading accelerometer = SensorReading.of(SensorReading.TYPE_ACCELEROMETER, 100, values);
+        assertEquals(3, accelerometer.size());
+        assertEquals(SensorReading.Unit.METERS_PER_SECOND_SQUARED, accelerometer.getUnit());
+        assertEquals("Z", accelerometer.getValueName(2));
+        SensorReading light = SensorReading.of(SensorReading.TYPE_LIGHT, 100, values);
+        assertEquals(1, light.size());
+        assertEquals("ILLUMINATION", light.getValueName(0));
+        SensorReading unknown = SensorReading.of(1000, 100, values);
+        assertEquals(6, unknown.size());
+        assertEquals(SensorReading.Unit.NONE, unknown.getUnit());
+        assertEquals("VALUE5", unknown.getValueName(5));
+        //values are copied
+        values[0] = 0;
+        assertEquals(1.5f, accelerometer.getValue(0), 0);
+    }
+
+    @Test
+    public void gpsReading() {
+        SensorReading gps = SensorReading.of(SensorReading.TYPE_GPS, 100, new float[]{45.815f, 15.982f, 120});
+        assertEquals(SensorReading.Unit.DEGREE, gps.getUnit());
+        assertEquals("LATITUDE", gps.getValueName(0));
+        assertEquals("ALTITUDE", gps.getValueName(2));
+        assertEquals("-1;DEGREE;100;45.815,15.982,120.0", gps.encode());
+    }
+
+    @Test
+    public void jsonIsWrittenFromTypedValues() throws Exception {
+        Map<String, SensorReading> readings = new LinkedHashMap<>();
+        readings.put("accel", SensorReading.of(SensorReading.TYPE_ACCELEROMETER, 0, new float[]{0.1f, 9.81f, -1.23f}));
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{123.45f}));
+        JSONObject json = new JSONObject(SensorJson.createJSONData(readings));
+        JSONArray values = json.getJSONObject("ACCEL").getJSONArray("VALUES");
+        assertEquals(0.1f, (float) values.getDouble(0), 0);
+        assertEquals(9.81f, (float) values.getDouble(1), 0);
+        //last digit was lost when values were parsed from text
+        assertEquals(-1.23f, (float) values.getDouble(2), 0);
+        assertEquals("Y", json.getJSONObject("ACCEL").getJSONArray("NAMES").getString(1));
+        assertEquals(123.45f, (float) json.getJSONObject("LIGHT").getJSONArray("VALUES").getDouble(0), 0);
+        assertTrue(SensorJson.createJSONData(readings).contains("9.81,"));
+    }
+
+    @Test
+    public void missingAndNonFiniteReadingsAreLeftOut() throws Exception {
+        Map<String, SensorReading> readings = new LinkedHashMap<>();
+        readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 0, new float[]{123.45f}));
+        readings.put("PRESSURE", null);
+        readings.put("GPS", SensorReading.of(SensorReading.TYPE_GPS, 0, new float[]{45.8f, Float.NaN, 120}));
+        readings.put("PROXIMITY", SensorReading.of(SensorReading.TYPE_PROXIMITY, 0,
+                new float[]{Float.POSITIVE_INFINITY}));
+        String json = SensorJson.createJSONData(readings);
+        assertNotNull(json);
+        assertEquals(1, new JSONObject(json).length());
+        assertEquals(123.45f, (float) new JSONObject(json).getJSONObject("LIGHT").getJSONArray("VALUES").getDouble(0),
+                0);
+        readings.remove("LIGHT");
+        assertEquals("{}", SensorJson.createJSONData(readings));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCompactFormIsRejected() {
+        SensorReading.decode("1;METERS;0;1.0");
+    }
+
+    @Test
+    public void invalidCompactFormIsNull() {
+        assertNull(SensorReading.decodeOrNull(null));
+        assertNull(SensorReading.decodeOrNull("x: 1.0 m/s\u00B2"));
+        assertNull(SensorReading.decodeOrNull("1;LUX;0;abc"));
+    }
+
+    @Test
+    public void readingWithoutValueSurvivesCompactForm() {
+        //sensor which isn't registered is stored with NaN, so readers leave it out
+        SensorReading none = SensorReading.decode(SensorReading.of(SensorReading.TYPE_LIGHT, 0,
+                new float[]{Float.NaN}).encode());
+        assertTrue(Float.isNaN(none.getValue(0)));
+        assertFalse(SensorJson.isWritable(none));
+    }
+}
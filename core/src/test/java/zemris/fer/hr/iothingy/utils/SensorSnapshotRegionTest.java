@@ -0,0 +1,209 @@
+package zemris.fer.hr.iothingy.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SensorSnapshotRegion}. Concurrent test starts writers in separate JVM processes, the same way sensor
+ * services write from their own processes.
+ */
+public class SensorSnapshotRegionTest {
+
+    /** Number of writes of every writer process. */
+    private static final int WRITES = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Region file. */
+    private File file;
+    /** Region used by test. */
+    private SensorSnapshotRegion region;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "snapshots");
+        region = new SensorSnapshotRegion(file, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        region.close();
+    }
+
+    @Test
+    public void latestReadingIsRead() throws Exception {
+        SensorSnapshotRegion.Entry entry = new SensorSnapshotRegion.Entry();
+        assertFalse(region.read("ACCELEROMETER", entry));
+        assertTrue(region.write("ACCELEROMETER", 1, 10, new float[]{1, 2, 3}));
+        assertTrue(region.write("ACCELEROMETER", 1, 20, new float[]{4, 5, 6}));
+        assertTrue(region.read("ACCELEROMETER", entry));
+        assertEquals(1, entry.getType());
+        assertEquals(20, entry.getTimestamp());
+        assertEquals(3, entry.size());
+        assertEquals(6, entry.getValue(2), 0);
+        assertArrayEquals(new float[]{4, 5, 6}, toArray(entry), 0);
+    }
+
+    @Test
+    public void slotsAreSharedBetweenInstances() throws Exception {
+        region.write("LIGHT", 5, 10, new float[]{100});
+        SensorSnapshotRegion other = new SensorSnapshotRegion(file, 16);
+        try {
+            //existing file keeps its number of slots
+            assertEquals(4, other.getSlotCount());
+            other.write("GPS", SensorReading.TYPE_GPS, 20, new float[]{45, 16, 100});
+            SensorSnapshotRegion.Entry entry = new SensorSnapshotRegion.Entry();
+            assertTrue(other.read("LIGHT", entry));
+            assertArrayEquals(new float[]{100}, toArray(entry), 0);
+            assertTrue(region.read("GPS", entry));
+            assertEquals(SensorReading.TYPE_GPS, entry.getType());
+            assertArrayEquals(new float[]{45, 16, 100}, toArray(entry), 0);
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void fullRegionRejectsNewSensors() throws Exception {
+        for (int i = 0; i < region.getSlotCount(); ++i) {
+            assertTrue(region.write("SENSOR" + i, 1, i, new float[]{i}));
+        }
+        assertFalse(region.write("ONE MORE", 1, 0, new float[]{0}));
+        assertTrue(region.write("SENSOR0", 1, 5, new float[]{5}));
+        StringBuilder tooLong = new StringBuilder();
+        for (int i = 0; i <= SensorSnapshotRegion.MAX_KEY_LENGTH; ++i) {
+            tooLong.append('A');
+        }
+        assertFalse(region.write(tooLong.toString(), 1, 0, new float[]{0}));
+    }
+
+    @Test
+    public void readersNeverSeeTornWritesFromOtherProcesses() throws Exception {
+        List<Process> writers = new ArrayList<>();
+        for (String key : new String[]{"FIRST", "SECOND"}) {
+            writers.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(), "-cp",
+                    System.getProperty("java.class.path"), Writer.class.getName(), file.getPath(), key,
+                    String.valueOf(WRITES)).redirectErrorStream(true).start());
+        }
+        SensorSnapshotRegion.Entry entry = new SensorSnapshotRegion.Entry();
+        long reads = 0;
+        while (isAlive(writers)) {
+            for (String key : new String[]{"FIRST", "SECOND"}) {
+                if (region.read(key, entry)) {
+                    assertConsistent(entry);
+                    reads++;
+                }
+            }
+        }
+        for (Process writer : writers) {
+            assertEquals(0, writer.waitFor());
+        }
+        for (String key : new String[]{"FIRST", "SECOND"}) {
+            assertTrue(region.read(key, entry));
+            assertEquals(WRITES, entry.getTimestamp());
+            assertConsistent(entry);
+        }
+        assertTrue(reads > 0);
+    }
+
+    @Test
+    public void writersOfTheSameSensorInOneProcessDontTearSlot() throws Exception {
+        List<Thread> writers = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < 2; ++t) {
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Writer.write(region, "SHARED", WRITES);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        SensorSnapshotRegion.Entry entry = new SensorSnapshotRegion.Entry();
+        while (writers.get(0).isAlive() || writers.get(1).isAlive()) {
+            if (region.read("SHARED", entry)) {
+                assertConsistent(entry);
+            }
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertTrue(failures.isEmpty());
+        //slot whose sequence number is left odd can't be read anymore
+        assertTrue(region.read("SHARED", entry));
+        assertEquals(WRITES, entry.getTimestamp());
+        assertConsistent(entry);
+    }
+
+    /**
+     * Method for checking that all values of entry belong to the same write.
+     */
+    private static void assertConsistent(SensorSnapshotRegion.Entry entry) {
+        long n = entry.getTimestamp();
+        assertEquals(3, entry.size());
+        assertEquals(n, entry.getValue(0), 0);
+        assertEquals(-n, entry.getValue(1), 0);
+        assertEquals(n / 2, entry.getValue(2), 0);
+    }
+
+    private static boolean isAlive(List<Process> processes) {
+        for (Process process : processes) {
+            try {
+                process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float[] toArray(SensorSnapshotRegion.Entry entry) {
+        float[] values = new float[entry.size()];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = entry.getValue(i);
+        }
+        return values;
+    }
+
+    /**
+     * Writer process for concurrent test. Arguments are path of region, key of sensor and number of writes.
+     */
+    public static class Writer {
+
+        public static void main(String[] args) throws Exception {
+            SensorSnapshotRegion region = new SensorSnapshotRegion(new File(args[0]), 4);
+            write(region, args[1], Integer.parseInt(args[2]));
+            region.close();
+        }
+
+        /**
+         * Method for writing readings whose values are derived from their timestamps 1 to {@code writes}.
+         */
+        static void write(SensorSnapshotRegion region, String key, int writes) throws Exception {
+            float[] values = new float[3];
+            for (int n = 1; n <= writes; ++n) {
+                values[0] = n;
+                values[1] = -n;
+                values[2] = n / 2;
+                region.write(key, 1, n, values);
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package zemris.fer.hr.iothingy.gateway;
+
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * State of one device which is known to {@link Gateway}, keyed by its thing ID ({@code srcID} of its messages). Session
+ * outlives connections, so device which reconnects keeps its state and commands which wait for it, until gateway
+ * removes session of device which is disconnected, idle and has no commands. Commands for device are queued until
+ * device sends some line, because server can write only as reply to received line, and then they wait for device
+ * response whose previous message ID is ID of command.
+ */
+public class DeviceSession {
+
+    /** Thing ID of device. */
+    private final String srcID;
+    /** Maximal number of commands which wait to be written. */
+    private final int maxQueued;
+    /** Commands which wait to be written, in order in which they are given. */
+    private final Deque<Command> queued = new ArrayDeque<>();
+    /** Written commands which wait for response, by their message IDs, oldest first. */
+    private final Map<String, Command> outstanding = new LinkedHashMap<>();
+    /** Latest known values of device sensors. */
+    private Map<String, float[]> sensorValues = new LinkedHashMap<>();
+    /** Values of sensors which device can list as unchanged, forgotten when device disconnects. */
+    private final Map<String, float[]> deltaState = new HashMap<>();
+    /** Time when device sent last line. */
+    private long lastSeen;
+    /** Number of received messages. */
+    private int receivedMessages;
+    /** Number of connections of gateway on which device currently talks. */
+    private int connections;
+    /** Flag which tells if session is removed from gateway, commands can't be queued in it any more. */
+    private boolean removed;
+
+    /**
+     * Constructor.
+     *
+     * @param srcID
+     *         thing ID of device
+     * @param maxQueued
+     *         maximal number of commands which wait to be written
+     */
+    DeviceSession(String srcID, int maxQueued) {
+        this.srcID = srcID;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Method for queueing command.
+     *
+     * @param command
+     *         command
+     * @return false if session is removed, command has to be queued in new session of device
+     * @throws RejectedExecutionException
+     *         if there are already too many queued commands
+     */
+    synchronized boolean queue(Command command) {
+        if (removed) {
+            return false;
+        }
+        if (queued.size() >= maxQueued) {
+            throw new RejectedExecutionException("Too many commands for " + srcID);
+        }
+        queued.addLast(command);
+        return true;
+    }
+
+    /**
+     * Method for taking queued commands which need to be written. Cancelled commands are dropped.
+     *
+     * @param max
+     *         maximal number of commands
+     * @return commands in order in which they are queued
+     */
+    synchronized List<Command> poll(int max) {
+        List<Command> commands = new ArrayList<>(Math.min(max, queued.size()));
+        while (commands.size() < max && !queued.isEmpty()) {
+            Command command = queued.pollFirst();
+            if (!command.isDone()) {
+                commands.add(command);
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Method for remembering written command until its response arrives.
+     *
+     * @param messageID
+     *         message ID with which command is written
+     * @param command
+     *         command
+     */
+    synchronized void sent(String messageID, Command command) {
+        outstanding.put(messageID, command);
+    }
+
+    /**
+     * Method for handling received message. If it is response to some written command, that command is completed.
+     * Otherwise sensor values from message, if it has them, replace known values. Message in delta mode is merged with
+     * previous messages of the same connection, see {@link ReceivedServerMessage#getSensorData(Map)}.
+     *
+     * @param message
+     *         received message
+     * @param now
+     *         current time
+     * @return true if message is response to some command
+     */
+    boolean received(ReceivedServerMessage message, long now) {
+        Command command;
+        synchronized (this) {
+            lastSeen = now;
+            receivedMessages++;
+            command = outstanding.remove(message.getPreviousMessageID());
+        }
+        if (command != null) {
+            command.complete(message);
+            return true;
+        }
+        synchronized (this) {
+            try {
+                sensorValues = message.getSensorData(deltaState);
+            } catch (RuntimeException e) {
+                //message without sensor values
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method for failing commands which wait longer than their deadlines.
+     *
+     * @param now
+     *         current time
+     */
+    void expire(long now) {
+        List<Command> expired = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Command> it = queued.iterator(); it.hasNext(); ) {
+                Command command = it.next();
+                if (command.deadline <= now || command.isDone()) {
+                    it.remove();
+                    expired.add(command);
+                }
+            }
+            for (Iterator<Command> it = outstanding.values().iterator(); it.hasNext(); ) {
+                Command command = it.next();
+                if (command.deadline <= now || command.isDone()) {
+                    it.remove();
+                    expired.add(command);
+                }
+            }
+        }
+        for (Command command : expired) {
+            command.fail(new TimeoutException("No response from " + srcID));
+        }
+    }
+
+    /**
+     * Method for marking session as removed if device isn't connected, has no commands and didn't send anything since
+     * given time. Removed session stays removed.
+     *
+     * @param idleSince
+     *         time before which device had to send its last line
+     * @return true if session is removed
+     */
+    synchronized boolean remove(long idleSince) {
+        if (!removed && connections == 0 && queued.isEmpty() && outstanding.isEmpty() && lastSeen < idleSince) {
+            removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Method for failing all commands.
+     *
+     * @param e
+     *         failure
+     */
+    void failAll(Exception e) {
+        List<Command> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(queued);
+            failed.addAll(outstanding.values());
+            queued.clear();
+            outstanding.clear();
+        }
+        for (Command command : failed) {
+            command.fail(e);
+        }
+    }
+
+    /**
+     * Method for counting connection on which device talks. When last connection is closed, state for delta messages
+     * is forgotten, device which reconnects has to send full message first.
+     *
+     * @param delta
+     *         1 when device starts to talk on connection, -1 when that connection is closed
+     */
+    synchronized void connection(int delta) {
+        connections += delta;
+        if (connections == 0) {
+            deltaState.clear();
+        }
+    }
+
+    /**
+     * Getter for thing ID of device.
+     *
+     * @return thing ID
+     */
+    public String getSrcID() {
+        return srcID;
+    }
+
+    /**
+     * Getter for latest known values of device sensors, messages in delta mode are already merged into them.
+     *
+     * @return map with upper case sensor names and their values
+     */
+    public synchronized Map<String, float[]> getSensorValues() {
+        return new LinkedHashMap<>(sensorValues);
+    }
+
+    /**
+     * Getter for time when device sent last line.
+     *
+     * @return time in milliseconds, 0 if device hasn't sent anything
+     */
+    public synchronized long getLastSeen() {
+        return lastSeen;
+    }
+
+    /**
+     * Getter for number of received messages.
+     *
+     * @return number of messages
+     */
+    public synchronized int getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    /**
+     * Getter for number of commands which wait to be written or for response.
+     *
+     * @return number of commands
+     */
+    public synchronized int getPendingCommands() {
+        return queued.size() + outstanding.size();
+    }
+
+    /**
+     * Method for checking if device is connected.
+     *
+     * @return true if device talks on some open connection
+     */
+    public synchronized boolean isConnected() {
+        return connections > 0;
+    }
+
+    /**
+     * Command for device and its future, which is completed with device response.
+     */
+    static class Command extends FutureTask<ReceivedServerMessage> {
+        /** JSON data of command. */
+        final String jsonData;
+        /** Time after which command fails. */
+        final long deadline;
+
+        /**
+         * Constructor.
+         *
+         * @param jsonData
+         *         JSON data of command
+         * @param deadline
+         *         time after which command fails
+         */
+        Command(String jsonData, long deadline) {
+            super(new Callable<ReceivedServerMessage>() {
+                @Override
+                public ReceivedServerMessage call() {
+                    throw new UnsupportedOperationException("Command is completed by gateway");
+                }
+            });
+            this.jsonData = jsonData;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Method for completing command with device response.
+         *
+         * @param response
+         *         response
+         */
+        void complete(ReceivedServerMessage response) {
+            set(response);
+        }
+
+        /**
+         * Method for failing command.
+         *
+         * @param e
+         *         failure
+         */
+        void fail(Exception e) {
+            setException(e);
+        }
+    }
+}
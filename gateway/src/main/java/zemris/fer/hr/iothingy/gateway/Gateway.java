@@ -0,0 +1,762 @@
+package zemris.fer.hr.iothingy.gateway;
+
+import zemris.fer.hr.iothingy.utils.BinaryMessageCodec;
+import zemris.fer.hr.iothingy.utils.JsonStreamWriter;
+import zemris.fer.hr.iothingy.utils.Message;
+import zemris.fer.hr.iothingy.utils.MessageCrypto;
+import zemris.fer.hr.iothingy.utils.MessageIdGenerator;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Server which terminates connections of many devices from one thread. It speaks the protocol of the application:
+ * device writes message lines in format of {@link Message#getComSendMessage()} terminated with {@code \r\n}, and for
+ * every line gateway returns zero or more command lines in the same format and then line {@code idle}. Instead of line,
+ * device can write binary frame of {@link BinaryMessageCodec}, which is recognised by mode byte after encryption type;
+ * commands are then returned as binary frames too, followed by the same line {@code idle}. All connections are
+ * non-blocking and multiplexed by one {@link Selector}, bytes are moved through two direct buffers which are reused by
+ * all connections.
+ * <p>
+ * Every device has {@link DeviceSession} keyed by its thing ID. Commands for device, e.g. GET commands made by {@link
+ * #get(String, Collection)}, are queued in its session and written as replies to next line of device. Device responds
+ * with message whose previous message ID is ID of command, so response completes future of that command. Other
+ * messages update sensor values of session and are given to {@link Listener}. Listener and futures are called on
+ * selector thread, so they must be short. Session of device which is disconnected and has no commands is removed when
+ * device is idle for longer than idle timeout of connections.
+ */
+public class Gateway implements Closeable {
+
+    /** Default port. */
+    public static final int DEFAULT_PORT = 25000;
+    /** Default gateway ID, it is used as source ID of commands. */
+    public static final String DEFAULT_ID = "SERVER01";
+    /** Default time after which idle connection is closed, in milliseconds. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+    /** Default time after which command without response fails, in milliseconds. */
+    public static final long DEFAULT_COMMAND_TIMEOUT = 60 * 1000;
+    /** Line which tells device that gateway has nothing more to say for one received line. */
+    private static final String IDLE = "idle";
+    /** Maximal length of received line in bytes, connection which sends longer line is closed. */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    /** Maximal number of commands which are written as reply to one line. */
+    private static final int MAX_COMMANDS_PER_LINE = 16;
+    /** Maximal number of commands which wait to be written for one device. */
+    private static final int MAX_QUEUED_COMMANDS = 64;
+    /** Maximal number of bytes which wait to be written to one connection, connection of device which doesn't read
+     * replies is closed after it. */
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    /** Size of shared read and write buffers. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Maximal time of one select, in milliseconds. */
+    private static final long SELECT_TIMEOUT = 100;
+    /** Time between two checks of timeouts, in milliseconds. */
+    private static final long HOUSEKEEPING_INTERVAL = 1000;
+    /** Number of connections which can wait to be accepted. */
+    private static final int BACKLOG = 1024;
+    /** UTF-8 charset. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** Line {@code idle} with terminator. */
+    private static final byte[] IDLE_LINE = (IDLE + "\r\n").getBytes(UTF_8);
+
+    /** Gateway ID. */
+    private final String gatewayID;
+    /** Time after which idle connection is closed. */
+    private final long idleTimeout;
+    /** Time after which command without response fails. */
+    private final long commandTimeout;
+    /** Server channel. */
+    private final ServerSocketChannel server;
+    /** Selector. */
+    private final Selector selector;
+    /** Sessions by thing IDs of devices. */
+    private final ConcurrentHashMap<String, DeviceSession> sessions = new ConcurrentHashMap<>();
+    /** Open connections, used only on selector thread. */
+    private final Set<Connection> connections = new HashSet<>();
+    /** Buffer for reading, shared by all connections. */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** Buffer for writing, shared by all connections. */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** Selector thread. */
+    private final Thread thread;
+    /** Flag which tells if gateway is closed. */
+    private volatile boolean closed;
+    /** Receiver of messages which aren't responses to commands, can be null. */
+    private volatile Listener listener;
+    /** Number of open connections. */
+    private volatile int openConnections;
+    /** Number of received lines. */
+    private volatile long receivedLines;
+    /** Number of received lines which couldn't be parsed. */
+    private volatile long malformedLines;
+
+    /**
+     * Receiver of messages which devices send on their own, i.e. which aren't responses to commands.
+     */
+    public interface Listener {
+
+        /**
+         * Method which is called on selector thread for every received message which isn't response to command.
+         *
+         * @param session
+         *         session of device, its sensor values are already updated
+         * @param message
+         *         received message
+         */
+        void onMessage(DeviceSession session, ReceivedServerMessage message);
+    }
+
+    /**
+     * Constructor which starts gateway on given port.
+     *
+     * @param gatewayID
+     *         gateway ID, 8 characters
+     * @param port
+     *         port, 0 means some free port
+     * @param idleTimeout
+     *         time in milliseconds after which idle connection is closed and session of disconnected device is removed
+     * @param commandTimeout
+     *         time in milliseconds after which command without response fails
+     * @throws IOException
+     *         if gateway can't be started
+     */
+    public Gateway(String gatewayID, int port, long idleTimeout, long commandTimeout) throws IOException {
+        if (gatewayID.length() != 8) {
+            throw new IllegalArgumentException("Gateway ID must have 8 characters");
+        }
+        this.gatewayID = gatewayID;
+        this.idleTimeout = idleTimeout;
+        this.commandTimeout = commandTimeout;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(port), BACKLOG);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "gateway");
+        thread.start();
+    }
+
+    /**
+     * Method for starting gateway from command line. Arguments are port and gateway ID, both are optional.
+     *
+     * @param args
+     *         arguments
+     * @throws Exception
+     *         if gateway can't be started
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String gatewayID = args.length > 1 ? args[1] : DEFAULT_ID;
+        Gateway gateway = new Gateway(gatewayID, port, DEFAULT_IDLE_TIMEOUT, DEFAULT_COMMAND_TIMEOUT);
+        System.out.println("Gateway " + gatewayID + " listens on port " + gateway.getPort());
+        gateway.thread.join();
+    }
+
+    /**
+     * Method for asking device for values of given sensors. GET command is written when device sends next line.
+     *
+     * @param srcID
+     *         thing ID of device
+     * @param sensors
+     *         sensor names
+     * @return future which is completed with device response, or fails with {@link
+     * java.util.concurrent.TimeoutException} if there is no response in time or with {@link
+     * RejectedExecutionException} if device has too many commands
+     */
+    public Future<ReceivedServerMessage> get(String srcID, Collection<String> sensors) {
+        StringBuilder json = new StringBuilder(32 + 16 * sensors.size());
+        JsonStreamWriter writer = new JsonStreamWriter(json).beginObject().name("CMD").value("GET").name("SENSOR")
+                .beginArray();
+        for (String sensor : sensors) {
+            writer.value(sensor.toUpperCase());
+        }
+        writer.endArray().endObject();
+        return send(srcID, json.toString());
+    }
+
+    /**
+     * Method for sending command to device. Command is written when device sends next line.
+     *
+     * @param srcID
+     *         thing ID of device
+     * @param jsonData
+     *         JSON data of command
+     * @return future which is completed with device response, or fails with {@link
+     * java.util.concurrent.TimeoutException} if there is no response in time or with {@link
+     * RejectedExecutionException} if device has too many commands
+     */
+    public Future<ReceivedServerMessage> send(String srcID, String jsonData) {
+        DeviceSession.Command command = new DeviceSession.Command(jsonData,
+                System.currentTimeMillis() + commandTimeout);
+        if (closed) {
+            command.fail(new IOException("Gateway is closed"));
+            return command;
+        }
+        try {
+            DeviceSession session = session(srcID);
+            while (!session.queue(command)) {
+                //session was removed while device is idle, device gets new one
+                sessions.remove(srcID, session);
+                session = session(srcID);
+            }
+        } catch (RejectedExecutionException e) {
+            command.fail(e);
+        }
+        return command;
+    }
+
+    /**
+     * Getter for session of device.
+     *
+     * @param srcID
+     *         thing ID of device
+     * @return session or null if device isn't known
+     */
+    public DeviceSession getSession(String srcID) {
+        return sessions.get(srcID);
+    }
+
+    /**
+     * Setter for receiver of messages which aren't responses to commands.
+     *
+     * @param listener
+     *         listener, can be null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Getter for port on which gateway listens.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Getter for number of known devices.
+     *
+     * @return number of sessions
+     */
+    public int getSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Getter for number of open connections.
+     *
+     * @return number of connections
+     */
+    public int getConnections() {
+        return openConnections;
+    }
+
+    /**
+     * Getter for number of received lines.
+     *
+     * @return number of lines
+     */
+    public long getReceivedLines() {
+        return receivedLines;
+    }
+
+    /**
+     * Getter for number of received lines which couldn't be parsed.
+     *
+     * @return number of lines
+     */
+    public long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * Method for stopping gateway. All connections are closed and commands which wait fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(SELECT_TIMEOUT * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method for getting session of device, new session is made for unknown device.
+     *
+     * @param srcID
+     *         thing ID of device
+     * @return session
+     */
+    private DeviceSession session(String srcID) {
+        DeviceSession session = sessions.get(srcID);
+        if (session == null) {
+            DeviceSession created = new DeviceSession(srcID, MAX_QUEUED_COMMANDS);
+            session = sessions.putIfAbsent(srcID, created);
+            if (session == null) {
+                session = created;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Loop of selector thread.
+     */
+    private void loop() {
+        long nextHousekeeping = System.currentTimeMillis() + HOUSEKEEPING_INTERVAL;
+        try {
+            while (!closed) {
+                selector.select(SELECT_TIMEOUT);
+                long now = System.currentTimeMillis();
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.attachment() == null) {
+                        accept(now);
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read(now);
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+                if (now >= nextHousekeeping) {
+                    housekeeping(now);
+                    nextHousekeeping = now + HOUSEKEEPING_INTERVAL;
+                }
+            }
+        } catch (IOException e) {
+            //selector failed, gateway stops
+        } finally {
+            closed = true;
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            IOException failure = new IOException("Gateway is closed");
+            for (DeviceSession session : sessions.values()) {
+                session.failAll(failure);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * Method for accepting all waiting connections.
+     *
+     * @param now
+     *         current time
+     */
+    private void accept(long now) {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                //e.g. too many open files, try again later
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel, now);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+                openConnections = connections.size();
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    //ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for closing connections which are idle for too long, failing commands which wait for too long and removing
+     * sessions of disconnected devices which are idle for too long.
+     *
+     * @param now
+     *         current time
+     */
+    private void housekeeping(long now) {
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (now - connection.lastActive >= idleTimeout) {
+                connection.close();
+            }
+        }
+        for (Map.Entry<String, DeviceSession> entry : sessions.entrySet()) {
+            DeviceSession session = entry.getValue();
+            session.expire(now);
+            if (session.remove(now - idleTimeout)) {
+                sessions.remove(entry.getKey(), session);
+            }
+        }
+    }
+
+    /**
+     * Connection of some device. It is used only on selector thread.
+     */
+    private class Connection {
+        /** Channel. */
+        private final SocketChannel channel;
+        /** Local IP address, devices use it as destination IP for protection of messages. */
+        private final String localIP;
+        /** Local port, devices use it as destination port for protection of messages. */
+        private final int localPort;
+        /** Selection key. */
+        private SelectionKey key;
+        /** Bytes which wait to be written. */
+        private byte[] out = new byte[256];
+        /** Index of first byte which waits to be written. */
+        private int outStart;
+        /** Index after last byte which waits to be written. */
+        private int outEnd;
+        /** Bytes of line or binary frame which is being read. */
+        private byte[] line = new byte[256];
+        /** Number of bytes of line or binary frame which is being read. */
+        private int lineLength;
+        /** Buffer which wraps line bytes for opening of binary frames, null until first frame. */
+        private ByteBuffer lineBuffer;
+        /** Buffer which wraps bytes which wait to be written for encoding of binary frames, null until first frame. */
+        private ByteBuffer outBuffer;
+        /** Frame which is reused for all received binary frames. */
+        private final BinaryMessageCodec.Frame frame = new BinaryMessageCodec.Frame();
+        /** Time when device last sent something. */
+        private long lastActive;
+        /** Session of device which last talked on this connection. */
+        private DeviceSession session;
+
+        /**
+         * Constructor.
+         *
+         * @param channel
+         *         accepted channel
+         * @param now
+         *         current time
+         */
+        private Connection(SocketChannel channel, long now) {
+            this.channel = channel;
+            localIP = channel.socket().getLocalAddress().getHostAddress();
+            localPort = channel.socket().getLocalPort();
+            lastActive = now;
+        }
+
+        /**
+         * Method for reading available bytes and handling complete lines.
+         *
+         * @param now
+         *         current time
+         * @throws IOException
+         *         if bytes can't be read, device closed connection or line is too long
+         */
+        private void read(long now) throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                throw new EOFException("Connection closed by device");
+            }
+            lastActive = now;
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (lineLength >= 2 && line[1] == BinaryMessageCodec.MODE_BINARY) {
+                    readFrame(now);
+                    continue;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    lineLength = 0;
+                    onLine(new String(line, 0, length, UTF_8), now);
+                } else {
+                    if (lineLength == MAX_LINE_LENGTH) {
+                        throw new IOException("Line is longer than " + MAX_LINE_LENGTH + " bytes");
+                    }
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, 2 * line.length);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            if (outEnd - outStart > MAX_PENDING_OUTPUT) {
+                throw new IOException("Device doesn't read replies");
+            }
+            write();
+        }
+
+        /**
+         * Method for reading bytes of binary frame whose encryption type and mode are already read into line buffer.
+         * Frame is handled when it is complete.
+         *
+         * @param now
+         *         current time
+         * @throws IOException
+         *         if frame length is illegal or longer than maximal line length
+         */
+        private void readFrame(long now) throws IOException {
+            int length = BinaryMessageCodec.HEADER_LENGTH;
+            if (lineLength >= BinaryMessageCodec.HEADER_LENGTH) {
+                int bodyLength = (line[2] & 0xFF) << 24 | (line[3] & 0xFF) << 16 | (line[4] & 0xFF) << 8
+                        | line[5] & 0xFF;
+                if (bodyLength <= 0 || bodyLength > MAX_LINE_LENGTH - BinaryMessageCodec.HEADER_LENGTH) {
+                    throw new IOException("Illegal frame length " + bodyLength);
+                }
+                length += bodyLength;
+            }
+            if (length > line.length) {
+                line = Arrays.copyOf(line, Math.max(length, 2 * line.length));
+            }
+            int count = Math.min(readBuffer.remaining(), length - lineLength);
+            readBuffer.get(line, lineLength, count);
+            lineLength += count;
+            if (lineLength == length && length > BinaryMessageCodec.HEADER_LENGTH) {
+                lineLength = 0;
+                onFrame(length, now);
+            }
+        }
+
+        /**
+         * Method for handling received line. Reply is queued for writing.
+         *
+         * @param received
+         *         line without terminator
+         * @param now
+         *         current time
+         */
+        private void onLine(String received, long now) {
+            receivedLines++;
+            ReceivedServerMessage message;
+            try {
+                message = ReceivedServerMessage.parseReceivedMessage(received, "INTERNET",
+                        MessageCrypto.nameOf(received.charAt(0)), localIP, "" + localPort);
+            } catch (RuntimeException e) {
+                malformedLines++;
+                encode(IDLE_LINE);
+                return;
+            }
+            onMessage(message, false, now);
+        }
+
+        /**
+         * Method for handling received binary frame which is at start of line buffer. Frame is opened in place. Reply
+         * is queued for writing.
+         *
+         * @param length
+         *         length of frame
+         * @param now
+         *         current time
+         */
+        private void onFrame(int length, long now) {
+            receivedLines++;
+            ReceivedServerMessage message;
+            try {
+                if (lineBuffer == null || lineBuffer.array() != line) {
+                    lineBuffer = ByteBuffer.wrap(line);
+                }
+                lineBuffer.clear();
+                lineBuffer.limit(length);
+                MessageCrypto.open(lineBuffer, frame, localIP, localPort);
+                message = ReceivedServerMessage.parseReceivedFrame(frame, "INTERNET",
+                        MessageCrypto.nameOf((char) frame.getEncryptionType()), localIP, localPort);
+            } catch (RuntimeException e) {
+                malformedLines++;
+                encode(IDLE_LINE);
+                return;
+            }
+            onMessage(message, true, now);
+        }
+
+        /**
+         * Method for handling received message. Commands of device are written in the same format as message and
+         * after them line {@code idle}.
+         *
+         * @param message
+         *         received message
+         * @param binary
+         *         true if message is received as binary frame
+         * @param now
+         *         current time
+         */
+        private void onMessage(ReceivedServerMessage message, boolean binary, long now) {
+            DeviceSession current = session(message.getSrcID());
+            if (current != session) {
+                if (session != null) {
+                    session.connection(-1);
+                }
+                current.connection(1);
+                session = current;
+            }
+            if (!current.received(message, now)) {
+                Listener receiver = listener;
+                if (receiver != null) {
+                    try {
+                        receiver.onMessage(current, message);
+                    } catch (RuntimeException e) {
+                        //failure of listener mustn't stop gateway
+                    }
+                }
+            }
+            List<DeviceSession.Command> commands = current.poll(MAX_COMMANDS_PER_LINE);
+            if (!commands.isEmpty()) {
+                MessageIdGenerator ids = MessageIdGenerator.forDevice(gatewayID);
+                for (DeviceSession.Command command : commands) {
+                    Message line = new Message(ids.nextId(), gatewayID, message.getSrcID(), command.jsonData,
+                            message.getMessageID(), message.getSendMode(), message.getEncryption(), localIP,
+                            localPort);
+                    current.sent(line.getMessageID(), command);
+                    if (binary) {
+                        encodeFrame(line);
+                    } else {
+                        encode((line.getComSendMessage() + "\r\n").getBytes(UTF_8));
+                    }
+                }
+            }
+            encode(IDLE_LINE);
+        }
+
+        /**
+         * Method for adding bytes to bytes which wait to be written.
+         *
+         * @param bytes
+         *         bytes
+         */
+        private void encode(byte[] bytes) {
+            reserve(bytes.length);
+            System.arraycopy(bytes, 0, out, outEnd, bytes.length);
+            outEnd += bytes.length;
+        }
+
+        /**
+         * Method for encoding message as binary frame directly after bytes which wait to be written.
+         *
+         * @param message
+         *         message
+         */
+        private void encodeFrame(Message message) {
+            reserve(BinaryMessageCodec.frameLength(message)
+                    + MessageCrypto.overhead(MessageCrypto.typeOf(message.getEncryption())));
+            if (outBuffer == null || outBuffer.array() != out) {
+                outBuffer = ByteBuffer.wrap(out);
+            }
+            outBuffer.clear();
+            outBuffer.position(outEnd);
+            outEnd += message.encodeBinary(outBuffer);
+        }
+
+        /**
+         * Method for making space for given number of bytes after bytes which wait to be written.
+         *
+         * @param length
+         *         number of bytes
+         */
+        private void reserve(int length) {
+            if (outEnd + length > out.length) {
+                if (outStart > 0) {
+                    System.arraycopy(out, outStart, out, 0, outEnd - outStart);
+                    outEnd -= outStart;
+                    outStart = 0;
+                }
+                if (outEnd + length > out.length) {
+                    out = Arrays.copyOf(out, Math.max(2 * out.length, outEnd + length));
+                }
+            }
+        }
+
+        /**
+         * Method for writing as many bytes as channel accepts.
+         *
+         * @throws IOException
+         *         if bytes can't be written
+         */
+        private void write() throws IOException {
+            while (outStart < outEnd) {
+                int length = Math.min(writeBuffer.capacity(), outEnd - outStart);
+                writeBuffer.clear();
+                writeBuffer.put(out, outStart, length);
+                writeBuffer.flip();
+                int written = channel.write(writeBuffer);
+                outStart += written;
+                if (written < length) {
+                    //socket buffer is full, the rest is written when channel is writable again
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            outStart = 0;
+            outEnd = 0;
+            if (key.interestOps() != SelectionKey.OP_READ) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Method for closing connection. Session of device is kept.
+         */
+        private void close() {
+            if (!connections.remove(this)) {
+                return;
+            }
+            openConnections = connections.size();
+            if (session != null) {
+                session.connection(-1);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
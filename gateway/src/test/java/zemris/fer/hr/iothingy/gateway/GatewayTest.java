@@ -0,0 +1,469 @@
+package zemris.fer.hr.iothingy.gateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import zemris.fer.hr.iothingy.sensors.SensorValueSource;
+import zemris.fer.hr.iothingy.utils.BinaryMessageCodec;
+import zemris.fer.hr.iothingy.utils.Message;
+import zemris.fer.hr.iothingy.utils.MessageCrypto;
+import zemris.fer.hr.iothingy.utils.ReceivedServerMessage;
+import zemris.fer.hr.iothingy.utils.SensorJson;
+import zemris.fer.hr.iothingy.utils.SensorReading;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Gateway} with devices which talk through blocking sockets.
+ */
+public class GatewayTest {
+
+    /** Address of gateway. */
+    private static final String HOST = "127.0.0.1";
+
+    /** Gateway used by test. */
+    private Gateway gateway;
+
+    @Before
+    public void setUp() throws Exception {
+        gateway = new Gateway("SERVER01", 0, 60000, 1500);
+    }
+
+    @After
+    public void tearDown() {
+        gateway.close();
+    }
+
+    @Test
+    public void queuedGetIsCorrelatedWithResponse() throws Exception {
+        Future<ReceivedServerMessage> future = gateway.get("THING_01", Arrays.asList("light", "gps"));
+        assertFalse(future.isDone());
+        Device device = new Device("THING_01");
+        List<ReceivedServerMessage> commands = device.send(light(100));
+        assertEquals(1, commands.size());
+        ReceivedServerMessage command = commands.get(0);
+        assertTrue(command.isGetCommand());
+        assertEquals("SERVER01", command.getSrcID());
+        assertEquals("THING_01", command.getDestID());
+        assertFalse(future.isDone());
+
+        Message response = command.responseMessage(new FixedSource());
+        assertTrue(device.sendLine(response.getComSendMessage()).isEmpty());
+        ReceivedServerMessage received = future.get(5, TimeUnit.SECONDS);
+        assertEquals(response.getMessageID(), received.getMessageID());
+        assertEquals(command.getMessageID(), received.getPreviousMessageID());
+        assertArrayEquals(new float[]{120}, SensorJson.parseJSONData(received.getJsonData()).get("LIGHT"), 0);
+
+        DeviceSession session = gateway.getSession("THING_01");
+        assertEquals(2, session.getReceivedMessages());
+        assertEquals(0, session.getPendingCommands());
+        //response doesn't replace values which device reported on its own
+        assertArrayEquals(new float[]{100}, session.getSensorValues().get("LIGHT"), 0);
+        device.close();
+    }
+
+    @Test
+    public void binaryFramesAreAnsweredWithFrames() throws Exception {
+        MessageCrypto.setMasterSecret("gateway test".getBytes("UTF-8"));
+        try {
+            Future<ReceivedServerMessage> future = gateway.get("THING_11", Arrays.asList("LIGHT"));
+            Device device = new Device("THING_11");
+            List<ReceivedServerMessage> commands = device.sendFrame(new Message("00000001", "THING_11", "SERVER01",
+                    light(11), null, "INTERNET", "FULL", HOST, gateway.getPort()));
+            assertEquals(1, commands.size());
+            ReceivedServerMessage command = commands.get(0);
+            assertTrue(command.isGetCommand());
+            assertEquals("FULL", command.getEncryption());
+            assertEquals("00000001", command.getPreviousMessageID());
+
+            assertTrue(device.sendFrame(command.responseMessage(new FixedSource())).isEmpty());
+            ReceivedServerMessage received = future.get(5, TimeUnit.SECONDS);
+            assertEquals(command.getMessageID(), received.getPreviousMessageID());
+            assertArrayEquals(new float[]{120}, received.getSensorData().get("LIGHT"), 0);
+            assertArrayEquals(new float[]{11}, gateway.getSession("THING_11").getSensorValues().get("LIGHT"), 0);
+            assertEquals(0, gateway.getMalformedLines());
+            device.close();
+        } finally {
+            MessageCrypto.setMasterSecret(null);
+        }
+    }
+
+    @Test
+    public void sessionOutlivesConnection() throws Exception {
+        Device device = new Device("THING_02");
+        device.send(light(1));
+        assertTrue(gateway.getSession("THING_02").isConnected());
+        device.close();
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return !gateway.getSession("THING_02").isConnected();
+            }
+        });
+        Future<ReceivedServerMessage> future = gateway.get("THING_02", Arrays.asList("LIGHT"));
+
+        device = new Device("THING_02");
+        List<ReceivedServerMessage> commands = device.send(light(2));
+        assertEquals(1, commands.size());
+        device.sendLine(commands.get(0).responseMessage(new FixedSource()).getComSendMessage());
+        assertNotNull(future.get(5, TimeUnit.SECONDS));
+        DeviceSession session = gateway.getSession("THING_02");
+        assertEquals(1, gateway.getSessions());
+        assertEquals(3, session.getReceivedMessages());
+        assertTrue(session.isConnected());
+        device.close();
+    }
+
+    @Test
+    public void deltaStateIsForgottenWhenDeviceDisconnects() throws Exception {
+        String delta = "{\"UNCHANGED\":[\"LIGHT\"]}";
+        Device device = new Device("THING_07");
+        device.send(light(5));
+        device.send(delta);
+        DeviceSession session = gateway.getSession("THING_07");
+        assertArrayEquals(new float[]{5}, session.getSensorValues().get("LIGHT"), 0);
+        device.close();
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return !gateway.getSession("THING_07").isConnected();
+            }
+        });
+
+        //delta of other device or new connection doesn't use forgotten state
+        device = new Device("THING_08");
+        device.send(delta);
+        assertTrue(gateway.getSession("THING_08").getSensorValues().isEmpty());
+        device.close();
+        device = new Device("THING_07");
+        device.send("{\"GPS\":{\"VALUES\":[45.8,15.9,120.0]},\"UNCHANGED\":[\"LIGHT\"]}");
+        assertArrayEquals(new float[]{5}, session.getSensorValues().get("LIGHT"), 0);
+        assertNull(session.getSensorValues().get("GPS"));
+        device.send(light(6));
+        device.send(delta);
+        assertArrayEquals(new float[]{6}, session.getSensorValues().get("LIGHT"), 0);
+        device.close();
+    }
+
+    @Test
+    public void commandWithoutResponseTimesOut() throws Exception {
+        Future<ReceivedServerMessage> future = gateway.get("THING_03", Arrays.asList("LIGHT"));
+        Device device = new Device("THING_03");
+        assertEquals(1, device.send("{}").size());
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Command must time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, gateway.getSession("THING_03").getPendingCommands());
+        device.close();
+    }
+
+    @Test
+    public void tooManyCommandsAreRejected() throws Exception {
+        List<Future<ReceivedServerMessage>> futures = new ArrayList<>();
+        for (int i = 0; i < 65; i++) {
+            futures.add(gateway.send("THING_04", "{\"CMD\":\"PING\"}"));
+        }
+        for (int i = 0; i < 64; i++) {
+            assertFalse(futures.get(i).isDone());
+        }
+        try {
+            futures.get(64).get();
+            fail("Command must be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        //commands are written in batches, rest waits for next line
+        Device device = new Device("THING_04");
+        assertEquals(16, device.send("{}").size());
+        assertEquals(16, device.send("{}").size());
+        device.close();
+    }
+
+    @Test
+    public void malformedLineGetsIdle() throws Exception {
+        Device device = new Device("THING_05");
+        assertTrue(device.sendLine("garbage").isEmpty());
+        assertTrue(device.sendLine("").isEmpty());
+        assertEquals(0, gateway.getSessions());
+        assertEquals(2, gateway.getMalformedLines());
+        device.send("{}");
+        assertEquals(1, gateway.getSessions());
+        device.close();
+    }
+
+    @Test
+    public void tooLongLineClosesConnection() throws Exception {
+        Device device = new Device("THING_08");
+        device.send("{}");
+        byte[] line = new byte[64 * 1024 + 1];
+        Arrays.fill(line, (byte) 'x');
+        try {
+            device.out.write(line);
+            assertNull(device.in.readLine());
+        } catch (IOException e) {
+            //gateway reset connection
+        }
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return gateway.getConnections() == 0;
+            }
+        });
+        device.close();
+        device = new Device("THING_08");
+        assertTrue(device.send("{}").isEmpty());
+        device.close();
+    }
+
+    @Test
+    public void idleSessionIsRemoved() throws Exception {
+        gateway.close();
+        gateway = new Gateway("SERVER01", 0, 200, 1500);
+        Device device = new Device("THING_09");
+        device.send(light(9));
+        device.close();
+        Future<ReceivedServerMessage> future = gateway.get("THING_10", Arrays.asList("LIGHT"));
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return gateway.getSession("THING_09") == null;
+            }
+        });
+        //session with command is kept until command times out
+        assertNotNull(gateway.getSession("THING_10"));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Command must time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return gateway.getSessions() == 0;
+            }
+        });
+        //device which comes back gets new session
+        future = gateway.get("THING_09", Arrays.asList("LIGHT"));
+        device = new Device("THING_09");
+        assertEquals(1, device.send(light(10)).size());
+        assertFalse(future.isDone());
+        device.close();
+    }
+
+    @Test
+    public void closeFailsWaitingCommands() throws Exception {
+        Future<ReceivedServerMessage> future = gateway.get("THING_06", Arrays.asList("LIGHT"));
+        gateway.close();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Command must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(gateway.send("THING_06", "{}").isDone());
+    }
+
+    /**
+     * Method for creating JSON data with given light value.
+     *
+     * @param value
+     *         light value
+     * @return JSON data
+     */
+    private static String light(float value) {
+        return "{\"LIGHT\":{\"VALUES\":[" + value + "],\"NAMES\":[\"ILLUMINATION\"]}}";
+    }
+
+    /**
+     * Method for waiting until condition is met.
+     *
+     * @param condition
+     *         condition
+     * @throws InterruptedException
+     *         if thread is interrupted
+     */
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            assertTrue("Condition isn't met in time", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Condition for {@link #waitFor(Condition)}.
+     */
+    private interface Condition {
+
+        /**
+         * Method for checking condition.
+         *
+         * @return true if condition is met
+         */
+        boolean met();
+    }
+
+    /**
+     * Device which talks to gateway through blocking socket.
+     */
+    private class Device {
+        /** Thing ID. */
+        private final String thingID;
+        /** Socket. */
+        private final Socket socket;
+        /** Reader of gateway lines. */
+        private final BufferedReader in;
+        /** Stream for device lines. */
+        private final OutputStream out;
+        /** Number of sent messages, used for message IDs. */
+        private int sent;
+
+        /**
+         * Constructor which connects to gateway.
+         *
+         * @param thingID
+         *         thing ID
+         * @throws IOException
+         *         if device can't connect
+         */
+        private Device(String thingID) throws IOException {
+            this.thingID = thingID;
+            socket = new Socket(HOST, gateway.getPort());
+            socket.setSoTimeout(5000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * Method for sending message with given JSON data.
+         *
+         * @param jsonData
+         *         JSON data
+         * @return commands which gateway returns
+         * @throws IOException
+         *         if message can't be sent
+         */
+        private List<ReceivedServerMessage> send(String jsonData) throws IOException {
+            sent++;
+            Message message = new Message(String.format("%08d", sent), thingID, "SERVER01", jsonData, null,
+                    "INTERNET", "NONE", HOST, gateway.getPort());
+            return sendLine(message.getComSendMessage());
+        }
+
+        /**
+         * Method for sending line and reading lines until {@code idle}.
+         *
+         * @param line
+         *         line without terminator
+         * @return commands which gateway returns
+         * @throws IOException
+         *         if line can't be sent
+         */
+        private List<ReceivedServerMessage> sendLine(String line) throws IOException {
+            out.write((line + "\r\n").getBytes("UTF-8"));
+            out.flush();
+            List<ReceivedServerMessage> commands = new ArrayList<>();
+            for (String reply = in.readLine(); !"idle".equals(reply); reply = in.readLine()) {
+                assertNotNull("Gateway closed connection", reply);
+                commands.add(ReceivedServerMessage.parseReceivedMessage(reply, "INTERNET", "NONE", HOST,
+                        "" + gateway.getPort()));
+            }
+            return commands;
+        }
+
+        /**
+         * Method for sending message as binary frame and reading frames until line {@code idle}. Device which sends
+         * frames mustn't send lines, because lines are read through buffered reader.
+         *
+         * @param message
+         *         message
+         * @return commands which gateway returns
+         * @throws IOException
+         *         if frame can't be sent
+         */
+        private List<ReceivedServerMessage> sendFrame(Message message) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(64 * 1024);
+            message.encodeBinary(frame);
+            out.write(frame.array(), 0, frame.position());
+            out.flush();
+            DataInputStream data = new DataInputStream(socket.getInputStream());
+            List<ReceivedServerMessage> commands = new ArrayList<>();
+            byte[] header = new byte[BinaryMessageCodec.HEADER_LENGTH];
+            while (true) {
+                data.readFully(header, 0, 2);
+                if (header[1] != BinaryMessageCodec.MODE_BINARY) {
+                    StringBuilder line = new StringBuilder().append((char) header[0]).append((char) header[1]);
+                    for (int b = data.read(); b != '\n'; b = data.read()) {
+                        assertTrue("Gateway closed connection", b >= 0);
+                        line.append((char) b);
+                    }
+                    assertEquals("idle\r", line.toString());
+                    return commands;
+                }
+                data.readFully(header, 2, 4);
+                int length = BinaryMessageCodec.HEADER_LENGTH + ByteBuffer.wrap(header).getInt(2);
+                ByteBuffer in = ByteBuffer.allocate(length);
+                in.put(header);
+                data.readFully(in.array(), header.length, length - header.length);
+                in.clear();
+                BinaryMessageCodec.Frame received = new BinaryMessageCodec.Frame();
+                assertTrue(MessageCrypto.open(in, received, HOST, gateway.getPort()));
+                commands.add(ReceivedServerMessage.parseReceivedFrame(received, "INTERNET",
+                        MessageCrypto.nameOf((char) received.getEncryptionType()), HOST, gateway.getPort()));
+            }
+        }
+
+        /**
+         * Method for closing connection.
+         *
+         * @throws IOException
+         *         if socket can't be closed
+         */
+        private void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Source which always has same light and GPS values.
+     */
+    private static class FixedSource implements SensorValueSource {
+
+        @Override
+        public Map<String, SensorReading> getLatestReadings(Collection<String> keys) {
+            Map<String, SensorReading> readings = new HashMap<>();
+            readings.put("LIGHT", SensorReading.of(SensorReading.TYPE_LIGHT, 1000, new float[]{120}));
+            readings.put("GPS", SensorReading.of(SensorReading.TYPE_GPS, 1000, new float[]{45.8f, 15.9f, 120}));
+            readings.keySet().retainAll(keys);
+            return readings;
+        }
+
+        @Override
+        public SensorReading getAggregatedReading(String key, String aggregate) {
+            return null;
+        }
+    }
+}